@@ -5,10 +5,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import javax.persistence.Table;
 
@@ -23,7 +21,10 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 
 import edu.cmu.cs.lti.discoursedb.annotation.demo.model.BinaryLabeledContributionInterchange;
@@ -75,7 +76,6 @@ public class ContributionBinaryLabelExporter implements CommandLineRunner {
 		String outputFileName=args[1];
 		boolean csv = outputFileName.toLowerCase().endsWith("csv")?true:false;
 
-		List<BinaryLabeledContributionInterchange> output = new ArrayList<>();		
 		Optional<Discourse> existingDiscourse = discourseService.findOne(discourseName);		
 		
 		if(!existingDiscourse.isPresent()){
@@ -83,48 +83,84 @@ public class ContributionBinaryLabelExporter implements CommandLineRunner {
 			return;
 		}		
 
-		//retrieve all contributions for the given discourse
-		for(Contribution contrib: contribService.findAllByDiscourse(existingDiscourse.get())){
-			
-			//wrap all relevant information about the given contribution in an interchange object
-			BinaryLabeledContributionInterchange curAnnoExport = new BinaryLabeledContributionInterchange();			
-			curAnnoExport.setTable(contrib.getClass().getAnnotation(Table.class).name()); //table name automatically determined
-			curAnnoExport.setContribId(contrib.getId());
-			curAnnoExport.setText(contrib.getCurrentRevision().getText());
-			curAnnoExport.setContribType(contrib.getType());
+		//stream all contributions for the given discourse and write each interchange object as soon as it is created
+		try(Stream<Contribution> contribs = contribService.streamAllByDiscourse(existingDiscourse.get());
+				InterchangeWriter out = csv?new CsvInterchangeWriter(outputFileName):new JsonInterchangeWriter(outputFileName)){
+			for(Contribution contrib: (Iterable<Contribution>)contribs::iterator){
+				
+				//wrap all relevant information about the given contribution in an interchange object
+				BinaryLabeledContributionInterchange curAnnoExport = new BinaryLabeledContributionInterchange();			
+				curAnnoExport.setTable(contrib.getClass().getAnnotation(Table.class).name()); //table name automatically determined
+				curAnnoExport.setContribId(contrib.getId());
+				curAnnoExport.setText(contrib.getCurrentRevision().getText());
+				curAnnoExport.setContribType(contrib.getType());
 
-			for(DiscoursePartContribution dpc:contrib.getContributionPartOfDiscourseParts()){
-				curAnnoExport.addThreadId(dpc.getDiscoursePart().getId());
-			}
-			
-			for(AnnotationInstance anno:annoService.findAnnotations(contrib)){
-				if(anno.getType()!=null){
-					curAnnoExport.addLabel(anno.getType());					
+				for(DiscoursePartContribution dpc:contrib.getContributionPartOfDiscourseParts()){
+					curAnnoExport.addThreadId(dpc.getDiscoursePart().getId());
+				}
+				
+				for(AnnotationInstance anno:annoService.findAnnotations(contrib)){
+					if(anno.getType()!=null){
+						curAnnoExport.addLabel(anno.getType());					
+					}
 				}
+				//write interchange object to the output file
+				out.write(curAnnoExport);
 			}
-			//add interchange object to export list
-			output.add(curAnnoExport);
 		}
-
-		//write all interchange objects to output file
-		if(csv){toCSV(output,outputFileName);}else{toJSON(output,outputFileName);}
-
 	}
 
-	private void toJSON(Collection<?> data, String outputFileName) throws IOException{
-		ObjectMapper mapper = new ObjectMapper();
-		mapper.writeValue(new File(outputFileName),data);
+	/**
+	 * Writes interchange objects to an output file one at a time
+	 */
+	private interface InterchangeWriter extends AutoCloseable{
+		void write(BinaryLabeledContributionInterchange item) throws IOException;
+		@Override
+		void close() throws IOException;
+	}
+	
+	private static class JsonInterchangeWriter implements InterchangeWriter{
+		private final JsonGenerator gen;
+		
+		JsonInterchangeWriter(String outputFileName) throws IOException{
+			gen = new ObjectMapper().getFactory().createGenerator(new File(outputFileName), JsonEncoding.UTF8);
+			gen.writeStartArray();
+		}
+		
+		@Override
+		public void write(BinaryLabeledContributionInterchange item) throws IOException{
+			gen.writeObject(item);
+		}
+		
+		@Override
+		public void close() throws IOException{
+			try{
+				gen.writeEndArray();
+			}finally{
+				gen.close();
+			}
+		}
 	}
 	
-	private void toCSV(Collection<?> data, String outputFileName) throws IOException{
+	private static class CsvInterchangeWriter implements InterchangeWriter{
+		private final CsvMapper mapper = new CsvMapper();
+		private final ObjectWriter writer = mapper.writerWithSchemaFor(BinaryLabeledContributionInterchange.class);
+		private final BufferedWriter out;
 		
-		CsvMapper mapper = new CsvMapper();
-		String[] header = BinaryLabeledContributionInterchange.class.getAnnotation(JsonPropertyOrder.class).value();
-		try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFileName)))) {
+		CsvInterchangeWriter(String outputFileName) throws IOException{
+			String[] header = BinaryLabeledContributionInterchange.class.getAnnotation(JsonPropertyOrder.class).value();
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFileName)));
 			out.write(mapper.writeValueAsString(header));
-			for(Object a:data){
-				out.write(mapper.writerWithSchemaFor(a.getClass()).writeValueAsString(a));
-			}	    	
-	    }		
+		}
+		
+		@Override
+		public void write(BinaryLabeledContributionInterchange item) throws IOException{
+			out.write(writer.writeValueAsString(item));
+		}
+		
+		@Override
+		public void close() throws IOException{
+			out.close();
+		}
 	}
 }
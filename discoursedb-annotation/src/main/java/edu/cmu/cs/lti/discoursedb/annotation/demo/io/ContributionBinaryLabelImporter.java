@@ -14,7 +14,6 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -28,6 +27,8 @@ import edu.cmu.cs.lti.discoursedb.configuration.BaseConfiguration;
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.service.annotation.AnnotationService;
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.ImportUnitOfWork;
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.ImportUnitOfWorkService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
 import lombok.extern.log4j.Log4j;
 
@@ -49,6 +50,7 @@ public class ContributionBinaryLabelImporter implements CommandLineRunner {
 	
 	@Autowired private ContributionService contribService;
 	@Autowired private AnnotationService annoService;
+	@Autowired private ImportUnitOfWorkService importUnitOfWorkService;
 	
 	/**
 	 * Launches the SpringBoot application 
@@ -61,41 +63,46 @@ public class ContributionBinaryLabelImporter implements CommandLineRunner {
 	}
 	
 	@Override
-	@Transactional
 	public void run(String... args) throws Exception {
 		String inputFileName=args[0];
 		
 		boolean csv = inputFileName.toLowerCase().endsWith("csv")?true:false;		
 		List<BinaryLabeledContributionInterchange> input = csv?fromCsv(inputFileName):fromJson(inputFileName); 
 	
-		for(BinaryLabeledContributionInterchange item:input){
-			Optional<Contribution> existingContrib = contribService.findOne(item.getContribId());
-			if(!existingContrib.isPresent()){
-				log.error("Contribution with id "+item.getContribId()+" not found. Skipping.");
-				continue;
-			}else{
-				Contribution contrib = existingContrib.get();
-
-				//delete removed labels
-				List<AnnotationInstance> toDelete = new ArrayList<>();
-				if(contrib.getAnnotations()!=null){
-					for(AnnotationInstance anno: contrib.getAnnotations().getAnnotations()){
-						if(anno.getType()!=null&&!item.getLabels().contains(anno.getType())){
-							toDelete.add(anno);							
-						}
-					}					
-				}				
-				annoService.deleteAnnotations(toDelete);
+		//items are imported in chunks of several items per transaction
+		try(ImportUnitOfWork uow = importUnitOfWorkService.open()){
+			for(BinaryLabeledContributionInterchange item:input){
+				uow.execute(()->importItem(item));
+			}
+		}
+	}
+	
+	private void importItem(BinaryLabeledContributionInterchange item){
+		Optional<Contribution> existingContrib = contribService.findOne(item.getContribId());
+		if(!existingContrib.isPresent()){
+			log.error("Contribution with id "+item.getContribId()+" not found. Skipping.");
+			return;
+		}
+		Contribution contrib = existingContrib.get();
 
-				//add new labels
-				for(String label:item.getLabels()){
-					//add label as new annotation if it doesn't exist yet
-					if(!annoService.hasAnnotationType(contrib, label)){
-						annoService.addAnnotation(contrib, annoService.createTypedAnnotation(label));						
-					}
+		//delete removed labels
+		List<AnnotationInstance> toDelete = new ArrayList<>();
+		if(contrib.getAnnotations()!=null){
+			for(AnnotationInstance anno: contrib.getAnnotations().getAnnotations()){
+				if(anno.getType()!=null&&!item.getLabels().contains(anno.getType())){
+					toDelete.add(anno);							
 				}
+			}					
+		}				
+		annoService.deleteAnnotations(toDelete);
+
+		//add new labels
+		for(String label:item.getLabels()){
+			//add label as new annotation if it doesn't exist yet
+			if(!annoService.hasAnnotationType(contrib, label)){
+				annoService.addAnnotation(contrib, annoService.createTypedAnnotation(label));						
 			}
-		}		
+		}
 	}
 	
 	private List<BinaryLabeledContributionInterchange> fromCsv(String inputFileName) throws IOException{
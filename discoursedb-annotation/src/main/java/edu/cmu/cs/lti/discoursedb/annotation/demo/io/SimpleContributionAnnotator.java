@@ -2,6 +2,7 @@ package edu.cmu.cs.lti.discoursedb.annotation.demo.io;
 
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -67,38 +68,40 @@ public class SimpleContributionAnnotator implements CommandLineRunner {
 			return;
 		}		
 
-		for(Contribution curContrib: contribService.findAllByDiscourse(existingDiscourse.get())){
-			Content curContent = curContrib.getCurrentRevision();
+		try(Stream<Contribution> contribs = contribService.streamAllByDiscourse(existingDiscourse.get())){
+			for(Contribution curContrib: (Iterable<Contribution>)contribs::iterator){
+				Content curContent = curContrib.getCurrentRevision();
 			
-			/*
-			 * Get existing annotations
-			 */
-			Set<AnnotationInstance> existingContribAnnos = annoService.findAnnotations(curContrib);
-			logger.info(existingContribAnnos.size()+" annotations on contribution");
+				/*
+				 * Get existing annotations
+				 */
+				Set<AnnotationInstance> existingContribAnnos = annoService.findAnnotations(curContrib);
+				logger.info(existingContribAnnos.size()+" annotations on contribution");
 			
-			Set<AnnotationInstance> existingContentAnnos = annoService.findAnnotations(curContent);
-			logger.info(existingContentAnnos.size()+" annotations on content");
+				Set<AnnotationInstance> existingContentAnnos = annoService.findAnnotations(curContent);
+				logger.info(existingContentAnnos.size()+" annotations on content");
 			
-			/*
-			 * Create new annotations
-			 */
-			//for contribution
-			AnnotationInstance newContribAnno = annoService.createTypedAnnotation("SampleContributionAnnotation");
-			annoService.addFeature(newContribAnno, annoService.createTypedFeature("Feature Value1","Feature Type1")); //feature with value and type
-			AnnotationInstance secondContribAnno = annoService.createTypedAnnotation("AnotherContributionAnnotation");
+				/*
+				 * Create new annotations
+				 */
+				//for contribution
+				AnnotationInstance newContribAnno = annoService.createTypedAnnotation("SampleContributionAnnotation");
+				annoService.addFeature(newContribAnno, annoService.createTypedFeature("Feature Value1","Feature Type1")); //feature with value and type
+				AnnotationInstance secondContribAnno = annoService.createTypedAnnotation("AnotherContributionAnnotation");
 			
-			//for content
-			AnnotationInstance newContentAnno = annoService.createTypedAnnotation("SampleContentAnnotation");
-			annoService.addFeature(newContentAnno,annoService.createTypedFeature("Feature Type2")); // feature with type but no value
-			annoService.addFeature(newContentAnno,annoService.createFeature("Feature Value2")); //feature with value but no type			
+				//for content
+				AnnotationInstance newContentAnno = annoService.createTypedAnnotation("SampleContentAnnotation");
+				annoService.addFeature(newContentAnno,annoService.createTypedFeature("Feature Type2")); // feature with type but no value
+				annoService.addFeature(newContentAnno,annoService.createFeature("Feature Value2")); //feature with value but no type			
 			
-			/*
-			 * Annotate: save annotations and link to entities 
-			 */
-			annoService.addAnnotation(curContrib,newContribAnno);
-			annoService.addAnnotation(curContrib,secondContribAnno);
-			annoService.addAnnotation(curContent,newContentAnno);
+				/*
+				 * Annotate: save annotations and link to entities 
+				 */
+				annoService.addAnnotation(curContrib,newContribAnno);
+				annoService.addAnnotation(curContrib,secondContribAnno);
+				annoService.addAnnotation(curContent,newContentAnno);
 			
-		}		
+			}		
+		}
 	}
 }
@@ -0,0 +1,36 @@
+package edu.cmu.cs.lti.discoursedb.api.core.controller;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Rejects requests to the keyset search endpoints (e.g.
+ * /contributions/search/findByIdAfter) that ask for a page other than the
+ * first one.<br/>
+ *
+ * Keyset finders continue after the id passed with the request, so only the
+ * page size of the Pageable is meaningful. Spring Data would still skip
+ * page*size rows with an OFFSET, which silently leaves out results and brings
+ * back the cost that keyset pagination is meant to avoid.
+ */
+public class KeysetPageInterceptor extends HandlerInterceptorAdapter {
+
+	public static final String[] KEYSET_SEARCHES = { "/**/search/find*IdAfter" };
+
+	private static final String PAGE_PARAMETER = "page";
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+		String page = request.getParameter(PAGE_PARAMETER);
+		if (page != null && !page.trim().isEmpty() && !page.trim().equals("0")) {
+			response.sendError(HttpStatus.BAD_REQUEST.value(),
+					"Keyset searches do not support page numbers. Pass the id of the last result as the after parameter instead.");
+			return false;
+		}
+		return true;
+	}
+
+}
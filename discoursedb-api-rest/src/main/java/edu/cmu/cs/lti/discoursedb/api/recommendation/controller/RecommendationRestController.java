@@ -1,6 +1,7 @@
 package edu.cmu.cs.lti.discoursedb.api.recommendation.controller;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -23,11 +24,11 @@ import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseRelation;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartContributionRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseToDiscoursePartRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.user.UserRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscourseRelationTypes;
 
 @Controller
@@ -43,15 +44,15 @@ public class RecommendationRestController {
 	@Autowired
 	private DiscourseToDiscoursePartRepository discourseToDiscoursePartRepository;
 
-	@Autowired
-	DiscoursePartContributionRepository discoursePartContributionRepository;
-	
 	@Autowired
 	private ContributionRepository contributionRepository;
 
 	@Autowired
 	private UserRepository userRepository;
 
+	@Autowired
+	private ContributionService contributionService;
+
 	@RequestMapping(method = RequestMethod.GET)
 	@ResponseBody
 	Resources<RecommendationDiscourseResource> discourses() {
@@ -64,8 +65,7 @@ public class RecommendationRestController {
 	@RequestMapping(value = "/allcontributions", method = RequestMethod.GET)
 	@ResponseBody
 	Resources<RecommendationContributionResource> contributions() {
-		List<RecommendationContributionResource> contribResources = StreamSupport
-				.stream(contributionRepository.findAll().spliterator(), false)
+		List<RecommendationContributionResource> contribResources = contributionRepository.findAllWithRevisionAndAuthor().stream()
 				.map(RecommendationContributionResource::new).collect(Collectors.toList());
 		return new Resources<RecommendationContributionResource>(contribResources);
 	}
@@ -94,20 +94,17 @@ public class RecommendationRestController {
 	public Contribution getParentContribution(Long contribId){
 		//TODO check if optional is present
 		Contribution contrib= contributionRepository.findOne(contribId).get();
-		for(DiscourseRelation rel:contrib.getTargetOfDiscourseRelations()){
-			if(rel.getType().equals(DiscourseRelationTypes.COMMENT.name())){
-				return rel.getSource();
-			}
-			if(rel.getType().equals(DiscourseRelationTypes.REPLY.name())){
-				return rel.getSource();
-			}
-		}
-		return contrib;
+		return contributionService.findParent(contrib).orElse(contrib);
 	}
 	
 	public Contribution getThreadStarter(Long contribId){
 		//TODO check if optional is present
 		Contribution contrib= contributionRepository.findOne(contribId).get();
+		Optional<Contribution> threadStarter = contributionService.findThreadStarter(contrib);
+		if(threadStarter.isPresent()){
+			return threadStarter.get();
+		}
+		//threads that are only connected with DESCENDANT relations are not part of the reply closure
 		for(DiscourseRelation rel:contrib.getTargetOfDiscourseRelations()){
 			if(rel.getType().equals(DiscourseRelationTypes.DESCENDANT.name())){
 				return rel.getSource();
@@ -119,7 +116,7 @@ public class RecommendationRestController {
 	@RequestMapping(value = "/contribution/{id}", method = RequestMethod.GET)
 	@ResponseBody
 	public RecommendationContributionResource contrib(@PathVariable Long id) {
-		Contribution contrib = contributionRepository.findOne(id).get();
+		Contribution contrib = contributionRepository.findOneWithRevisionAndAuthorById(id).get();
 		return new RecommendationContributionResource(contrib);
 	}
 
@@ -142,9 +139,8 @@ public class RecommendationRestController {
 	@ResponseBody
 	public Resources<RecommendationContributionResource> contributionsForDiscoursePart(@PathVariable Long id) {
 		DiscoursePart discoursePart = discoursePartRepository.findOne(id).get();		
-		List<RecommendationContributionResource> discoursePartResources = discoursePartContributionRepository
-				.findByDiscoursePart(discoursePart).stream()
-				.map(e -> e.getContribution())
+		List<RecommendationContributionResource> discoursePartResources = contributionRepository
+				.findAllWithRevisionAndAuthorByDiscoursePart(discoursePart).stream()
 				.map(RecommendationContributionResource::new).collect(Collectors.toList());
 		return new Resources<RecommendationContributionResource>(discoursePartResources);
 	}
@@ -153,9 +149,9 @@ public class RecommendationRestController {
 	@ResponseBody
 	public Resources<RecommendationUserResource> usersForDiscoursePart(@PathVariable Long id) {
 		DiscoursePart discoursePart = discoursePartRepository.findOne(id).get();		
-		List<RecommendationUserResource> discoursePartResources = discoursePartContributionRepository
-				.findByDiscoursePart(discoursePart).stream()
-				.map(e -> e.getContribution().getCurrentRevision().getAuthor())
+		List<RecommendationUserResource> discoursePartResources = contributionRepository
+				.findAllWithRevisionAndAuthorByDiscoursePart(discoursePart).stream()
+				.map(e -> e.getCurrentRevision().getAuthor())
 				.map(RecommendationUserResource::new)
 				.collect(Collectors.toList());
 		return new Resources<RecommendationUserResource>(discoursePartResources);
@@ -166,7 +162,7 @@ public class RecommendationRestController {
 	public Resources<RecommendationDataSourceInstanceResource> sourcesForUser(@PathVariable Long id) {
 		User user= userRepository.findOne(id).get();		
 		List<RecommendationDataSourceInstanceResource> dataSourceResources = 
-				user.getDataSourceAggregate().getSources().stream()
+				user.listSources().stream()
 				.map(RecommendationDataSourceInstanceResource::new).collect(Collectors.toList());
 		return new Resources<RecommendationDataSourceInstanceResource>(dataSourceResources);
 	}
@@ -174,9 +170,9 @@ public class RecommendationRestController {
 	@RequestMapping(value = "/sourcesForContribution/{id}", method = RequestMethod.GET)
 	@ResponseBody
 	public Resources<RecommendationDataSourceInstanceResource> sourcesForContribution(@PathVariable Long id) {
-		Contribution contrib= contributionRepository.findOne(id).get();		
+		Contribution contrib= contributionRepository.findOneWithSourcesById(id).get();		
 		List<RecommendationDataSourceInstanceResource> dataSourceResources = 
-				contrib.getDataSourceAggregate().getSources().stream()
+				contrib.listSources().stream()
 				.map(RecommendationDataSourceInstanceResource::new).collect(Collectors.toList());
 		return new Resources<RecommendationDataSourceInstanceResource>(dataSourceResources);
 	}
@@ -8,7 +8,9 @@ import java.util.Date;
 import org.springframework.hateoas.ResourceSupport;
 
 import edu.cmu.cs.lti.discoursedb.api.recommendation.controller.RecommendationRestController;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import edu.cmu.cs.lti.discoursedb.core.type.ContributionTypes;
 public class RecommendationContributionResource extends ResourceSupport {
 	
@@ -21,10 +23,12 @@ public class RecommendationContributionResource extends ResourceSupport {
 	private int upvotes;
 	
 	public RecommendationContributionResource(Contribution contrib) {
-		this.setContent(contrib.getCurrentRevision().getText());		
-		this.setUsername(contrib.getCurrentRevision().getAuthor().getUsername());
-		this.setUsermail(contrib.getCurrentRevision().getAuthor().getEmail());
-		this.setUserrealname(contrib.getCurrentRevision().getAuthor().getRealname());
+		Content revision = contrib.getCurrentRevision();
+		User author = revision.getAuthor();
+		this.setContent(revision.getText());		
+		this.setUsername(author.getUsername());
+		this.setUsermail(author.getEmail());
+		this.setUserrealname(author.getRealname());
 		this.setContributionType(contrib.getType());
 		this.setCreationTime(contrib.getStartTime());
 		this.setUpvotes(contrib.getUpvotes());
@@ -35,7 +39,7 @@ public class RecommendationContributionResource extends ResourceSupport {
 		if(getContributionType().equals(ContributionTypes.POST.name())){			
 			this.add(linkTo(methodOn(RecommendationRestController.class).threadStarter(contrib.getId())).withRel("threadStarter"));
 		}		
-		this.add(linkTo(methodOn(RecommendationRestController.class).user(contrib.getCurrentRevision().getAuthor().getId())).withRel("author"));
+		this.add(linkTo(methodOn(RecommendationRestController.class).user(author.getId())).withRel("author"));
 	}
 
 	public String getContributionType() {
@@ -1,12 +1,26 @@
 package edu.cmu.cs.lti.discoursedb.configuration;
 
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.data.web.config.EnableSpringDataWebSupport;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.handler.MappedInterceptor;
+
+import edu.cmu.cs.lti.discoursedb.api.core.controller.KeysetPageInterceptor;
 
 @Configuration
 @EnableWebMvc
 @EnableSpringDataWebSupport
 @Import(BaseConfiguration.class)
-public class ApiConfig {}
+public class ApiConfig {
+
+	/**
+	 * Mapped interceptors are picked up by all handler mappings, including the one of Spring Data REST.
+	 */
+	@Bean
+	public MappedInterceptor keysetPageInterceptor() {
+		return new MappedInterceptor(KeysetPageInterceptor.KEYSET_SEARCHES, new KeysetPageInterceptor());
+	}
+
+}
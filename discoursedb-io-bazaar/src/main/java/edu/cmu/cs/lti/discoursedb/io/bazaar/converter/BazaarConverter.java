@@ -20,6 +20,7 @@ import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.ParallelImportExecutor;
 import edu.cmu.cs.lti.discoursedb.io.bazaar.model.Message;
 import edu.cmu.cs.lti.discoursedb.io.bazaar.model.Room;
 import lombok.extern.log4j.Log4j;
@@ -40,6 +41,7 @@ public class BazaarConverter implements CommandLineRunner {
 	private String dataSetName;
 	private String discourseName;
 	@Autowired private BazaarConverterService converterService;
+	@Autowired private ParallelImportExecutor parallelImportExecutor;
 
 	@Override
 	public void run(String... args) throws Exception {
@@ -99,6 +101,7 @@ public class BazaarConverter implements CommandLineRunner {
 		}
 
 		// Phase 1: read through input room file once and map all entities
+		List<Room> rooms = new ArrayList<>();
 		try (InputStream in = new FileInputStream(roomFileDir)) {
 			CsvMapper mapper = new CsvMapper();
 			CsvSchema schema = mapper.schemaFor(Room.class).withColumnSeparator(',');
@@ -107,23 +110,28 @@ public class BazaarConverter implements CommandLineRunner {
 				Room r = rIter.next();
 				if (!roomIdNameMap.containsKey(r.getId()))
 					roomIdNameMap.put(r.getId(), r.getName());
-				converterService.mapRoom(r, dataSetName, discourseName);
+				rooms.add(r);
 			}
 		} catch (IOException e) {
 			log.error("Error reading room file",e);
 		}
+		parallelImportExecutor.execute(rooms.stream(), Room::getName, r -> converterService.mapRoom(r, dataSetName, discourseName));
 
 		// Phase 2: read through input message file and map relationships between room and message
+		// messages are mapped in parallel. all messages of a room are mapped by the same worker.
 			CsvMapper mapper = new CsvMapper();
 			CsvSchema schema = mapper.schemaFor(Message.class).withColumnSeparator(',');
+			List<Message> parsedMessages = new ArrayList<>();
 			for(String message:messages){
-				Message m = mapper.readerFor(Message.class).with(schema).readValue(message);
+				parsedMessages.add(mapper.readerFor(Message.class).with(schema).readValue(message));
+			}
+			parallelImportExecutor.execute(parsedMessages.stream(), Message::getRoomid, m -> {
 				if (m.getType().equals("text") || m.getType().equals("image") || m.getType().equals("private")){
 					converterService.mapMessage(m, dataSetName, discourseName, roomIdNameMap);				
 				}else{
 					converterService.mapInteraction(m, dataSetName, discourseName, roomIdNameMap);					
 				}
-			}
+			});
 	}
 
 }
\ No newline at end of file
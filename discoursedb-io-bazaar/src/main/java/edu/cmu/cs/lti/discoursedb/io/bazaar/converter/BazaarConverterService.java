@@ -51,7 +51,8 @@ public class BazaarConverterService {
 	private final @NonNull ContributionService contributionService;
 	private final @NonNull DiscoursePartService discoursepartService;
 
-	private static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	//SimpleDateFormat is not thread-safe, so each thread gets its own instance
+	private static final ThreadLocal<SimpleDateFormat> sdf = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
 
 	/**
 	 * Maps a message to DiscourseDB 
@@ -88,7 +89,7 @@ public class BazaarConverterService {
 						
 					log.trace("Create Content entity");
 					Content curContent = contentService.createContent();
-					curContent.setText(m.getContent());
+					contentService.setText(curContent, m.getContent());
 					curContent.setAuthor(curUser);
 					dataSourceService.addSource(curContent, new DataSourceInstance(m.getId(), BazaarSourceMapping.ID_STR_TO_CONTENT, DataSourceTypes.BAZAAR, dataSetName));
 					
@@ -101,7 +102,7 @@ public class BazaarConverterService {
 					
 					//parse and set creation time for content and contribution
 					try{
-						Date date = sdf.parse(m.getCreated_time());									
+						Date date = sdf.get().parse(m.getCreated_time());									
 						curContent.setStartTime(date);
 						curContent.setEndTime(date);
 						curContribution.setStartTime(date);
@@ -137,14 +138,14 @@ public class BazaarConverterService {
 		
 		if(r.getCreated_time()!=null) {
 			try{
-				curDiscoursePart.setStartTime(sdf.parse(r.getCreated_time()));
+				curDiscoursePart.setStartTime(sdf.get().parse(r.getCreated_time()));
 			}catch(ParseException e){
 				log.error("Could not parse creation time "+r.getCreated_time(), e);
 			}
 		}
 		if(r.getModified_time()!=null) {
 			try{
-				curDiscoursePart.setEndTime(sdf.parse(r.getModified_time()));				
+				curDiscoursePart.setEndTime(sdf.get().parse(r.getModified_time()));				
 			}catch(ParseException e){
 				log.error("Could not parse modification time "+r.getModified_time(), e);				
 			}
@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.util.Iterator;
-import java.util.stream.StreamSupport;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,6 +18,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.ParallelImportExecutor;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
 import edu.cmu.cs.lti.discoursedb.io.edx.forum.model.Post;
 import edu.cmu.cs.lti.discoursedb.io.edx.forum.model.UserInfo;
@@ -50,6 +50,7 @@ public class EdxForumConverter implements CommandLineRunner {
 
 	@Autowired private DataSourceService dataSourceService;
 	@Autowired private EdxForumConverterService converterService;
+	@Autowired private ParallelImportExecutor parallelImportExecutor;
 
 	@Override
 	public void run(String... args) throws Exception {
@@ -92,10 +93,11 @@ public class EdxForumConverter implements CommandLineRunner {
 		//Phase 1: read through input file once and map all entities
 
 		logger.info("Phase 1: Mapping forum posts and related entities to DiscourseDB");
+		//posts are mapped in parallel. all posts of a thread are mapped by the same worker.
+		//the posts of a chunk share a bulk session, so their contents and contributions are written in batches.
 		try(InputStream in = new FileInputStream(forumDumpFile)) {
 			Iterator<Post> pit =new ObjectMapper().readValues(new JsonFactory().createParser(in), Post.class);	
-			Iterable<Post> iterable = () -> pit;
-			StreamSupport.stream(iterable.spliterator(), false).forEach(p->converterService.mapEntities(p, dataSetName));		
+			parallelImportExecutor.executeChunks(pit, EdxForumConverter::threadId, posts->converterService.mapEntities(posts, dataSetName));		
 		}	
 		
 		
@@ -103,8 +105,7 @@ public class EdxForumConverter implements CommandLineRunner {
 		logger.info("Phase 2: Mapping DiscourseRelations");
 		try(InputStream in = new FileInputStream(forumDumpFile)) {
 				Iterator<Post> pit =new ObjectMapper().readValues(new JsonFactory().createParser(in), Post.class);	
-				Iterable<Post> iterable = () -> pit;
-				StreamSupport.stream(iterable.spliterator(), false).forEach(p->converterService.mapRelations(p, dataSetName));		
+				parallelImportExecutor.execute(pit, EdxForumConverter::threadId, p->converterService.mapRelations(p, dataSetName));		
 		}	
 	
 		//Optional Phase 3: read user mapping file and add map user info
@@ -123,6 +124,14 @@ public class EdxForumConverter implements CommandLineRunner {
 		logger.info("All done.");
 	}
 
+	/**
+	 * @param p a post
+	 * @return the id of the thread the post belongs to
+	 */
+	private static String threadId(Post p){
+		return p.getCommentThreadId()!=null?p.getCommentThreadId():p.getId();
+	}
+
 
 
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package edu.cmu.cs.lti.discoursedb.io.edx.forum.converter;
 
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
@@ -12,7 +14,8 @@ import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
-import edu.cmu.cs.lti.discoursedb.core.service.macro.ContentService;
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.BulkImportService;
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.BulkImportSession;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscoursePartService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscourseService;
@@ -40,19 +43,35 @@ public class EdxForumConverterService{
 	private final @NonNull DiscourseService discourseService;
 	private final @NonNull UserService userService;
 	private final @NonNull DataSourceService dataSourceService;
-	private final @NonNull ContentService contentService;
 	private final @NonNull ContributionService contributionService;
 	private final @NonNull DiscoursePartService discoursePartService;
+	private final @NonNull BulkImportService bulkImportService;
+
+	/**
+	 * Maps a chunk of posts to DiscourseDB entities.
+	 * Contents, Contributions and their sources are queued in a single bulk session and written in batches when the chunk has been mapped.
+	 * 
+	 * @param posts the post objects to map to DiscourseDB
+	 * @param dataSetName the name of the dataset the posts were extracted from
+	 */
+	public void mapEntities(List<Post> posts, String dataSetName) {
+		Assert.notNull(posts,"Cannot map posts. Post data was null.");
+		Assert.hasText(dataSetName,"Cannot map post. DataSetName not specified.");
+
+		try(BulkImportSession bulkSession = bulkImportService.openSession()){
+			posts.forEach(p -> mapEntities(p, dataSetName, bulkSession));
+		}
+	}
 
 	/**
 	 * Maps a post to DiscourseDB entities.
 	 * 
 	 * @param p the post object to map to DiscourseDB
 	 * @param dataSetName the name of the dataset the post was extracted from
+	 * @param bulkSession the bulk session of the current chunk
 	 */
-	public void mapEntities(Post p, String dataSetName) {				
+	private void mapEntities(Post p, String dataSetName, BulkImportSession bulkSession) {				
 		Assert.notNull(p,"Cannot map relations for post. Post data was null.");
-		Assert.hasText(dataSetName,"Cannot map post. DataSetName not specified.");
 
 		if(contributionService.findOneByDataSource(p.getId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION,dataSetName).isPresent()){
 			log.warn("Post " + p.getId()+" already in database. Skipping Post");
@@ -75,30 +94,31 @@ public class EdxForumConverterService{
 
 		// ---------- Create Contribution and Content -----------
 		//Check if contribution exists already. This could only happen if we import the same dump multiple times.
+		//Content, Contribution and their sources are queued in the bulk session of the chunk and written in batches when the session is closed.
 		contributionService.findOneByDataSource(p.getId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION, dataSetName).orElseGet(()->
 			{
 				ContributionTypes mappedType = p.getType().equals(EDX_COMMENT_TYPE)?ContributionTypes.POST:ContributionTypes.THREAD_STARTER;
-	
+		
 				log.trace("Create Content entity");
-				Content curContent = contentService.createContent();
+				Content curContent = bulkSession.createContent();
 				curContent.setText(p.getBody());
 				curContent.setStartTime(p.getCreatedAt());
 				curContent.setAuthor(curUser);
 				
 				log.trace("Create Contribution entity");
-				Contribution curContribution = contributionService.createTypedContribution(mappedType);
+				Contribution curContribution = bulkSession.createTypedContribution(mappedType);
 				curContribution.setCurrentRevision(curContent);
 				curContribution.setFirstRevision(curContent);
 				curContribution.setStartTime(p.getCreatedAt());
 				curContribution.setUpvotes(p.getUpvoteCount());
-				dataSourceService.addSource(curContribution, new DataSourceInstance(p.getId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION,DataSourceTypes.EDX,dataSetName));
-	
+				bulkSession.addSource(curContribution, new DataSourceInstance(p.getId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION,DataSourceTypes.EDX,dataSetName));
+		
 				//Add contribution to DiscoursePart
-				discoursePartService.addContributionToDiscoursePart(curContribution, curDiscoursePart);
+				bulkSession.addContributionToDiscoursePart(curContribution, curDiscoursePart);
 				return curContribution; //only necessary because orElseGet requires a return
 			}
 		);
-				
+			
 		log.trace("Post mapping completed.");
 	}
 	
@@ -16,6 +16,7 @@ import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.ParallelImportExecutor;
 import edu.cmu.cs.lti.discoursedb.io.habworlds.model.HabWorldPost;
 
 
@@ -27,6 +28,9 @@ public class HabworldsConverter implements CommandLineRunner {
 	@Autowired 
 	HabworldsConverterService converterService;
 	
+	@Autowired 
+	ParallelImportExecutor parallelImportExecutor;
+	
 	@Override
 	public void run(String... args) throws ParseException {
 		
@@ -57,10 +61,14 @@ public class HabworldsConverter implements CommandLineRunner {
 			CsvMapper mapper = new CsvMapper();
 			CsvSchema schema = mapper.schemaWithHeader().withColumnSeparator(',');
 			MappingIterator<HabWorldPost> iter = mapper.readerFor(HabWorldPost.class).with(schema).readValues(in);
-			while(iter.hasNextValue()) {
-				HabWorldPost post = iter.next();
-				converterService.mapPost(post, discourseName, datasetName);
-			}
+			//posts are mapped in parallel. all posts that answer the same question are mapped by the same worker.
+			parallelImportExecutor.execute(iter, HabWorldPost::getQuestionID, post -> {
+				try {
+					converterService.mapPost(post, discourseName, datasetName);
+				} catch (ParseException e) {
+					throw new IllegalArgumentException("Could not parse server time of post " + post.getInteractionID(), e);
+				}
+			});
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
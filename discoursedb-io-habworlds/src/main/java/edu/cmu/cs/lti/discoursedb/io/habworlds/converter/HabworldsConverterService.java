@@ -54,7 +54,8 @@ public class HabworldsConverterService {
 	private final @NonNull DiscoursePartService discoursepartService;
 	private final @NonNull DiscourseService discourseService;
 
-	private static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	//SimpleDateFormat is not thread-safe, so each thread gets its own instance
+	private static final ThreadLocal<SimpleDateFormat> sdf = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
 
 	public void mapPost(HabWorldPost post, String discourseName, String datasetName) throws ParseException {
 
@@ -99,7 +100,7 @@ public class HabworldsConverterService {
 
 			// set start and end time
 
-			Date date = sdf.parse(post.getServerTime());
+			Date date = sdf.get().parse(post.getServerTime());
 			curContribution.setStartTime(date);
 			curContribution.setEndTime(date);
 
@@ -15,6 +15,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.ParallelImportExecutor;
 import edu.cmu.cs.lti.discoursedb.io.piazza.model.PiazzaContent;
 import lombok.extern.log4j.Log4j;
 
@@ -34,6 +35,7 @@ import lombok.extern.log4j.Log4j;
 public class PiazzaConverter implements CommandLineRunner {
 
 	@Autowired private PiazzaConverterService converterService;
+	@Autowired private ParallelImportExecutor parallelImportExecutor;
 
 	private String dataSetName;
 	private String discourseName;
@@ -57,7 +59,7 @@ public class PiazzaConverter implements CommandLineRunner {
 
 		log.info("Start importing dump file: "+inputFileName);
 		
-		//Parse dump and serially parse on Piazza content object to converter service 
+		//Parse dump and pass the Piazza content objects to the converter service in parallel 
 		try (InputStream in = new FileInputStream(inputFile)) {
 			@SuppressWarnings("unchecked")
 			List<PiazzaContent> contents = (List<PiazzaContent>) new ObjectMapper()
@@ -66,7 +68,7 @@ public class PiazzaConverter implements CommandLineRunner {
 					.enable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT)
 					.readValues(new JsonFactory().createParser(in), new TypeReference<List<PiazzaContent>>() {
 					}).next();
-			contents.stream().forEach(c -> converterService.convertPiazzaContent(discourseName, dataSetName, c));
+			parallelImportExecutor.execute(contents.stream(), PiazzaContent::getId, c -> converterService.convertPiazzaContent(discourseName, dataSetName, c));
 		}
 
 		log.info("Successfully imported the Piazza dump file.");
@@ -104,7 +104,7 @@ public class PiazzaConverterService {
 		Content prevContent = null;
 		for(int i=content.getHistory().size()-1;i>=0;i--) {
 			Content curContent = contentService.createContent();
-			curContent.setText(content.getHistory().get(i).getContent());
+			contentService.setText(curContent, content.getHistory().get(i).getContent());
 			curContent.setTitle(content.getHistory().get(i).getSubject());
 			curContent.setStartTime(content.getHistory().get(i).getCreated());
 			curContent.setEndTime(content.getHistory().get(i).getCreated());
@@ -119,8 +119,7 @@ public class PiazzaConverterService {
 			
 			//build relation between different revisions of contents
 			if(i!=content.getHistory().size()-1) {
-				curContent.setPreviousRevision(prevContent);
-				prevContent.setNextRevision(curContent);
+				contentService.linkRevisions(prevContent, curContent);
 			}
 			if(i==0)
 				curContribution.setCurrentRevision(curContent);
@@ -175,7 +174,7 @@ public class PiazzaConverterService {
 				Content prevAnswer = null;
 				for(int j=curChild.getHistory().size()-1;j>=0;j--) {
 					Content curContent = contentService.createContent();
-					curContent.setText(curChild.getHistory().get(j).getContent());					
+					contentService.setText(curContent, curChild.getHistory().get(j).getContent());					
 					curContent.setTitle(curChild.getHistory().get(j).getSubject());
 					curContent.setStartTime(curChild.getHistory().get(j).getCreated());
 					curContent.setEndTime(curChild.getHistory().get(j).getCreated());
@@ -190,8 +189,7 @@ public class PiazzaConverterService {
 					
 					//build relation between different revisions of contents
 					if(j!=curChild.getHistory().size()-1) {
-						curContent.setPreviousRevision(prevAnswer);
-						prevAnswer.setNextRevision(curContent);
+						contentService.linkRevisions(prevAnswer, curContent);
 					}
 					if(j==0)
 						childContribution.setCurrentRevision(curContent);
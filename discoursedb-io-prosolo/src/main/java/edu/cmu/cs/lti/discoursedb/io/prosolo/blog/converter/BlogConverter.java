@@ -20,6 +20,8 @@ import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.ImportUnitOfWork;
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.ImportUnitOfWorkService;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
 import edu.cmu.cs.lti.discoursedb.io.prosolo.blog.model.ProsoloBlogPost;
 
@@ -38,6 +40,7 @@ public class BlogConverter implements CommandLineRunner {
 	
 	@Autowired private DataSourceService dataSourceService;
 	@Autowired private BlogConverterService converterService;
+	@Autowired private ImportUnitOfWorkService importUnitOfWorkService;
 
 	@Override
 	public void run(String... args) throws Exception {
@@ -110,17 +113,18 @@ public class BlogConverter implements CommandLineRunner {
 		 */
 		
 		logger.info("Mapping blog posts and comments to DiscourseDB");
-		try(InputStream in = new FileInputStream(blogDumpFile)) {			
+		//posts are mapped in chunks of several posts per transaction
+		try(InputStream in = new FileInputStream(blogDumpFile); ImportUnitOfWork uow = importUnitOfWorkService.open()) {			
 			if(dumpWrappedInJsonArray){
 				//if the json dump is wrapped in a top-level array
 				@SuppressWarnings("unchecked")
 				List<ProsoloBlogPost> posts =(List<ProsoloBlogPost>)new ObjectMapper().readValues(new JsonFactory().createParser(in), new TypeReference<List<ProsoloBlogPost>>(){}).next();	
-				posts.stream().forEach(p->converterService.mapPost(p, discourseName, dataSetName, blogToedxMap));						
+				posts.stream().forEach(p->uow.execute(()->converterService.mapPost(p, discourseName, dataSetName, blogToedxMap)));						
 			}else{
 				//if the json dump is NOT wrapped in a top-level array
 				Iterator<ProsoloBlogPost> pit =new ObjectMapper().readValues(new JsonFactory().createParser(in), ProsoloBlogPost.class);	
 				Iterable<ProsoloBlogPost> iterable = () -> pit;
-				StreamSupport.stream(iterable.spliterator(), false).forEach(p->converterService.mapPost(p, discourseName, dataSetName, blogToedxMap));	
+				StreamSupport.stream(iterable.spliterator(), false).forEach(p->uow.execute(()->converterService.mapPost(p, discourseName, dataSetName, blogToedxMap)));	
 			}
 		}	
 		
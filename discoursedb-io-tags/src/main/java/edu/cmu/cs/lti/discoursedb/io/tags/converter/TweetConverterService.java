@@ -86,7 +86,7 @@ public class TweetConverterService {
 
 			logger.trace("Create Content entity");
 			Content curContent = contentService.createContent();
-			curContent.setText(t.getText());
+			contentService.setText(curContent, t.getText());
 			if(t.getCreated_at()!=null) {
 				java.util.Date date = sdf.parse(t.getCreated_at());
 				java.sql.Date sdate = new java.sql.Date(date.getTime());
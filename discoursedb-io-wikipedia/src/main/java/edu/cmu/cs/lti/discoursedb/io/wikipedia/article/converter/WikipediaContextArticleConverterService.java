@@ -128,9 +128,8 @@ public class WikipediaContextArticleConverterService{
 		//in case there was a previous revision, retrieve it and connect the Content entity
 		if(prevRevId!=null){
 			contentService.findOne(prevRevId).ifPresent(prev->{
-				prev.setNextRevision(curRev);
+				contentService.linkRevisions(prev, curRev);
 				prev.setEndTime(curRev.getStartTime());
-				curRev.setPreviousRevision(prev);
 				contentService.save(prev);				
 			});
 		}
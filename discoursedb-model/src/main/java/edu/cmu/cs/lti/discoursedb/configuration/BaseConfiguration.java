@@ -11,6 +11,7 @@ import org.springframework.boot.orm.jpa.EntityScan;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.PropertySources;
 import org.springframework.core.env.Environment;
@@ -23,6 +24,10 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 import com.mchange.v2.c3p0.ComboPooledDataSource;
 
+import edu.cmu.cs.lti.discoursedb.core.model.TypeCodes;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ContentService;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
+
 /**
  * DiscourseDB base configuration class.
  * Parameters that are most likely to be changed (i.e. for the databse connection) are read from the hibernate.properties file.
@@ -93,12 +98,78 @@ public class BaseConfiguration {
 		jpaProperties.put("hibernate.order_inserts", true);
 		jpaProperties.put("hibernate.order_updates", true);
 		jpaProperties.put("hibernate.id.new_generator_mappings", Boolean.parseBoolean(environment.getRequiredProperty("hibernate.id.new_generator_mappings").trim()));
+		//types are stored as codes of the type dictionary, which has to be available before the schema is updated
+		TypeCodes.initialize(dataSource);
+		TypeCodeMigration.migrate(dataSource);
+		//the unique constraints of the relation tables can only be added by the schema update once their duplicates are gone
+		RelationDedupMigration.migrate(dataSource);
+		ContextKeyMigration.migrate(dataSource);
+		if(environment.getRequiredProperty("discoursedb.id_generation").trim().equalsIgnoreCase("pooled")){
+			//override the AUTO ids of all entities with pooled table generators. these require the enhanced generator mappings.
+			PooledIdAllocation.prepare(dataSource);
+			factory.setMappingResources(PooledIdAllocation.MAPPING_RESOURCE);
+			jpaProperties.put("hibernate.id.new_generator_mappings", true);
+		}
+		if(SecondLevelCache.isEnabled(env)){
+			SecondLevelCache.prepare(env, jpaProperties);
+		}
 		factory.setJpaProperties(jpaProperties);
 
 		return factory;
 	}
 
 
+	/**
+	 * Moves the content payloads of existing databases to their own table.
+	 * Depends on the EntityManagerFactory, because the content_payload table is created by the schema update.
+	 */
+	@Bean
+	@DependsOn("entityManagerFactory")
+	ContentPayloadMigration contentPayloadMigration(DataSource dataSource) {
+		return new ContentPayloadMigration(dataSource, environment.getRequiredProperty("discoursedb.id_generation").trim().equalsIgnoreCase("pooled"),
+				environment.getProperty("discoursedb.migration.drop_content_columns", Boolean.class, false));
+	}
+
+	/**
+	 * Computes the lookup hashes of names and feature values in existing databases.
+	 * Depends on the EntityManagerFactory, because the hash columns are created by the schema update.
+	 */
+	@Bean
+	@DependsOn("entityManagerFactory")
+	KeyHashMigration keyHashMigration(DataSource dataSource) {
+		return new KeyHashMigration(dataSource);
+	}
+
+	/**
+	 * Creates the contribution closure and adds the reply relations of existing databases.
+	 * Depends on the EntityManagerFactory, because the closure references the contribution table created by the schema update.
+	 */
+	@Bean
+	@DependsOn("entityManagerFactory")
+	ThreadClosureMigration threadClosureMigration(DataSource dataSource) {
+		return new ThreadClosureMigration(dataSource);
+	}
+
+	/**
+	 * Indexes the revision histories of existing databases.
+	 * Depends on the EntityManagerFactory, because the revision index columns are created by the schema update.
+	 */
+	@Bean
+	@DependsOn("entityManagerFactory")
+	RevisionIndexMigration revisionIndexMigration(DataSource dataSource, ContentService contentService) {
+		return new RevisionIndexMigration(dataSource, contentService);
+	}
+
+	/**
+	 * Stores the discourse with the contributions of existing databases.
+	 * Depends on the EntityManagerFactory, because the discourse column is created by the schema update.
+	 */
+	@Bean
+	@DependsOn("entityManagerFactory")
+	ContributionDiscourseMigration contributionDiscourseMigration(DataSource dataSource, ContributionService contributionService) {
+		return new ContributionDiscourseMigration(dataSource, contributionService);
+	}
+
 	@Bean
 	PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
 		JpaTransactionManager transactionManager = new JpaTransactionManager();
@@ -0,0 +1,215 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Moves the text and data of Content entities from the content table to the
+ * content_payload table in databases that have been created before the payload
+ * was split off.<br/>
+ *
+ * The migration runs once the EntityManagerFactory has updated the schema. It
+ * is skipped if the content table no longer has a text column. Payloads are
+ * copied in chunks of content ids, each in its own transaction, and receive the
+ * id of the content they belong to. An interrupted migration therefore simply
+ * continues with the remaining contents on the next start.<br/>
+ *
+ * The text and data columns of the content table are only dropped if the
+ * discoursedb.migration.drop_content_columns property is set to true and a
+ * check has confirmed that every content with a text or data column has a
+ * payload with the same text and data. Otherwise, the columns are kept and
+ * ignored by the model.<br/>
+ *
+ * Payloads can be shared by contents with identical texts. The migration
+ * therefore also drops the unique key on the payload reference that has been
+ * created while every content had a payload of its own, and computes the text
+ * hash of payloads that have been stored before texts were hashed. The hashes
+ * are computed by the database and match TextHash.of as long as
+ * the text column uses a UTF-8 character set. Completed steps are recorded in
+ * the {@link MigrationLog} and skipped on later starts.
+ */
+public class ContentPayloadMigration implements InitializingBean {
+
+	private static final Logger logger = LogManager.getLogger(ContentPayloadMigration.class);
+
+	private static final int CHUNK_SIZE = 10000;
+
+	private static final String WITHOUT_HASH = "id_content_payload > ? AND id_content_payload <= ? AND text_hash IS NULL AND text IS NOT NULL";
+
+	private static final String WITH_PAYLOAD = "id_content > ? AND id_content <= ? AND fk_payload IS NULL AND (text IS NOT NULL OR data IS NOT NULL)";
+
+	private static final String MOVE_PAYLOADS = "content_payload_move";
+
+	private static final String DROP_UNIQUE_PAYLOAD_KEYS = "content_payload_drop_unique_keys";
+
+	private static final String HASH_TEXTS = "content_payload_hash_texts";
+
+	private final DataSource dataSource;
+	private final boolean pooledIds;
+	private final boolean dropColumns;
+
+	/**
+	 * @param dataSource the DiscourseDB data source
+	 * @param pooledIds true, if ids are allocated with the pooled generators of {@link PooledIdAllocation}
+	 * @param dropColumns true, if the text and data columns of the content table should be dropped once all payloads have been verified
+	 */
+	public ContentPayloadMigration(DataSource dataSource, boolean pooledIds, boolean dropColumns) {
+		Assert.notNull(dataSource, "DataSource cannot be null.");
+		this.dataSource = dataSource;
+		this.pooledIds = pooledIds;
+		this.dropColumns = dropColumns;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		try (Connection con = dataSource.getConnection()) {
+			if (hasColumn(con, "content", "text")) {
+				if (!MigrationLog.isCompleted(con, MOVE_PAYLOADS)) {
+					movePayloads(con);
+					MigrationLog.markCompleted(con, MOVE_PAYLOADS);
+				}
+				if (dropColumns) {
+					dropContentColumns(con);
+				}
+			}
+			if (!MigrationLog.isCompleted(con, DROP_UNIQUE_PAYLOAD_KEYS)) {
+				dropUniquePayloadKeys(con);
+				MigrationLog.markCompleted(con, DROP_UNIQUE_PAYLOAD_KEYS);
+			}
+			if (!MigrationLog.isCompleted(con, HASH_TEXTS)) {
+				hashTexts(con);
+				MigrationLog.markCompleted(con, HASH_TEXTS);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not migrate content payloads.", e);
+		}
+	}
+
+	private void movePayloads(Connection con) throws SQLException {
+		logger.info("Moving content payloads to the content_payload table.");
+		long copied = copyPayloads(con);
+		if (pooledIds) {
+			//the copied payloads use the ids of their contents, so the generator has to continue above them
+			PooledIdAllocation.seed(con, "content_payload", "id_content_payload");
+		}
+		logger.info("Moved " + copied + " content payloads.");
+	}
+
+	/**
+	 * Drops the text and data columns of the content table if every content
+	 * that still has a text or data column references a payload with the same
+	 * text and data.
+	 */
+	private void dropContentColumns(Connection con) throws SQLException {
+		long withoutPayload = count(con, "SELECT COUNT(*) FROM content WHERE fk_payload IS NULL AND (text IS NOT NULL OR data IS NOT NULL)");
+		long mismatched = count(con, "SELECT COUNT(*) FROM content c JOIN content_payload p ON p.id_content_payload = c.fk_payload "
+				+ "WHERE (c.text IS NOT NULL OR c.data IS NOT NULL) AND NOT (c.text <=> p.text AND c.data <=> p.data)");
+		if (withoutPayload > 0 || mismatched > 0) {
+			logger.warn("Keeping the text and data columns of the content table: " + withoutPayload + " contents have no payload and "
+					+ mismatched + " contents differ from their payload.");
+			return;
+		}
+		logger.info("Verified the payloads of all contents. Dropping the text and data columns of the content table.");
+		try (Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("ALTER TABLE content DROP COLUMN text, DROP COLUMN data");
+		}
+	}
+
+	private void dropUniquePayloadKeys(Connection con) throws SQLException {
+		List<String> uniqueKeys = new ArrayList<>();
+		try (PreparedStatement stmt = con.prepareStatement("SELECT DISTINCT index_name FROM information_schema.statistics "
+				+ "WHERE table_schema = DATABASE() AND table_name = 'content' AND column_name = 'fk_payload' AND non_unique = 0");
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				uniqueKeys.add(rs.getString(1));
+			}
+		}
+		//the foreign key keeps using the non-unique idx_content_payload index
+		try (Statement stmt = con.createStatement()) {
+			for (String key : uniqueKeys) {
+				logger.info("Dropping unique key " + key + " on content.fk_payload.");
+				stmt.executeUpdate("ALTER TABLE content DROP INDEX `" + key + "`");
+			}
+		}
+	}
+
+	private void hashTexts(Connection con) throws SQLException {
+		long maxId;
+		//the lookup of payloads without a hash uses the hash index
+		try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery("SELECT MAX(id_content_payload) FROM content_payload WHERE text_hash IS NULL AND text IS NOT NULL")) {
+			rs.next();
+			maxId = rs.getLong(1);
+		}
+		if (maxId == 0) {
+			return;
+		}
+		logger.info("Computing text hashes of content payloads.");
+		long hashed = 0;
+		try (PreparedStatement update = con.prepareStatement("UPDATE content_payload SET text_hash = UNHEX(MD5(text)) WHERE " + WITHOUT_HASH)) {
+			for (long from = 0; from < maxId; from += CHUNK_SIZE) {
+				update.setLong(1, from);
+				update.setLong(2, from + CHUNK_SIZE);
+				hashed += update.executeUpdate();
+			}
+		}
+		logger.info("Computed " + hashed + " text hashes.");
+	}
+
+	private long copyPayloads(Connection con) throws SQLException {
+		long maxId;
+		try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery("SELECT MAX(id_content) FROM content")) {
+			rs.next();
+			maxId = rs.getLong(1);
+		}
+
+		boolean autoCommit = con.getAutoCommit();
+		con.setAutoCommit(false);
+		long copied = 0;
+		try (PreparedStatement insert = con.prepareStatement("INSERT INTO content_payload "
+						+ "(id_content_payload, text, data, entity_version, entity_created, entity_modified) "
+						+ "SELECT id_content, text, data, 0, NOW(), NOW() FROM content WHERE " + WITH_PAYLOAD);
+				PreparedStatement update = con.prepareStatement("UPDATE content SET fk_payload = id_content WHERE " + WITH_PAYLOAD)) {
+			for (long from = 0; from < maxId; from += CHUNK_SIZE) {
+				insert.setLong(1, from);
+				insert.setLong(2, from + CHUNK_SIZE);
+				update.setLong(1, from);
+				update.setLong(2, from + CHUNK_SIZE);
+				copied += insert.executeUpdate();
+				update.executeUpdate();
+				con.commit();
+			}
+		} catch (SQLException e) {
+			con.rollback();
+			throw e;
+		} finally {
+			con.setAutoCommit(autoCommit);
+		}
+		return copied;
+	}
+
+	private static long count(Connection con, String sql) throws SQLException {
+		try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+
+	private static boolean hasColumn(Connection con, String table, String column) throws SQLException {
+		try (ResultSet rs = con.getMetaData().getColumns(con.getCatalog(), null, table, column)) {
+			return rs.next();
+		}
+	}
+
+}
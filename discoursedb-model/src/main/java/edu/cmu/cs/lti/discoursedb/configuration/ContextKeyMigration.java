@@ -0,0 +1,91 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Adds the context key to the contribution contexts of databases that have
+ * been created before the unique constraint of contribution_has_context
+ * covered the context key instead of the two context references.<br/>
+ *
+ * Only one of the two references is set for each context, so the old
+ * constraint never considered two contexts equal and did not prevent
+ * duplicates. The migration runs before the EntityManagerFactory is created,
+ * so that the schema update can add the new constraint. It derives the key
+ * from the context reference the same way ContributionContext.contextKey
+ * does and keeps the context with the lowest id of every group of
+ * duplicates. Contribution contexts are not annotatable, so no annotations
+ * have to be moved.
+ */
+public final class ContextKeyMigration {
+
+	private static final Logger logger = LogManager.getLogger(ContextKeyMigration.class);
+
+	private static final String TABLE = "contribution_has_context";
+	private static final String ID = "id_contribution_context";
+	private static final String KEY_COLUMN = "context_key";
+
+	private ContextKeyMigration() {
+	}
+
+	/**
+	 * Adds and fills the context key column if the table does not have it
+	 * yet. Only MySQL databases are migrated, because the duplicates are
+	 * removed with a multiple-table delete.
+	 *
+	 * @param dataSource
+	 *            the DiscourseDB data source
+	 */
+	public static void migrate(DataSource dataSource) {
+		try (Connection con = dataSource.getConnection()) {
+			if (!con.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql")) {
+				return;
+			}
+			if (!hasTable(con) || hasKeyColumn(con)) {
+				return;
+			}
+			//DDL statements commit implicitly on MySQL, so the column is added outside of the transaction
+			try (Statement stmt = con.createStatement()) {
+				stmt.executeUpdate("ALTER TABLE " + TABLE + " ADD COLUMN " + KEY_COLUMN + " VARCHAR(40)");
+			}
+			boolean autoCommit = con.getAutoCommit();
+			con.setAutoCommit(false);
+			try (Statement stmt = con.createStatement()) {
+				stmt.executeUpdate("UPDATE " + TABLE + " SET " + KEY_COLUMN + " = CASE WHEN fk_context_contribution IS NOT NULL "
+						+ "THEN CONCAT('contribution:', fk_context_contribution) ELSE CONCAT('content:', fk_context_content) END");
+				int duplicates = stmt.executeUpdate("DELETE d FROM " + TABLE + " d JOIN " + TABLE + " k ON k.fk_contribution = d.fk_contribution AND k."
+						+ KEY_COLUMN + " = d." + KEY_COLUMN + " AND k.begin_offset = d.begin_offset AND k.end_offset = d.end_offset AND k." + ID
+						+ " < d." + ID);
+				con.commit();
+				logger.info("Added context keys to " + TABLE + (duplicates > 0 ? " and removed " + duplicates + " duplicate contexts." : "."));
+			} catch (SQLException e) {
+				con.rollback();
+				throw e;
+			} finally {
+				con.setAutoCommit(autoCommit);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not add the context keys of the contribution contexts.", e);
+		}
+	}
+
+	private static boolean hasKeyColumn(Connection con) throws SQLException {
+		try (ResultSet rs = con.getMetaData().getColumns(con.getCatalog(), null, TABLE, KEY_COLUMN)) {
+			return rs.next();
+		}
+	}
+
+	private static boolean hasTable(Connection con) throws SQLException {
+		try (ResultSet rs = con.getMetaData().getTables(con.getCatalog(), null, TABLE, null)) {
+			return rs.next();
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
+
+/**
+ * Stores the discourse with the contributions of databases that have been
+ * created before contributions referenced their discourse directly.<br/>
+ *
+ * The migration runs once the EntityManagerFactory has added the discourse
+ * column and uses ContributionService.backfillDiscourse, which commits the
+ * contributions in batches and only processes contributions without a
+ * discourse. An interrupted migration therefore continues with the remaining
+ * contributions on the next start. New contributions are assigned a discourse
+ * when they are added to a DiscoursePart or their DiscoursePart is linked with
+ * a discourse, so the migration is recorded in the {@link MigrationLog} once
+ * all contributions have been processed and is skipped on later starts.
+ */
+public class ContributionDiscourseMigration implements InitializingBean {
+
+	private static final Logger logger = LogManager.getLogger(ContributionDiscourseMigration.class);
+
+	private static final String STEP = "contribution_discourse";
+
+	private final DataSource dataSource;
+	private final ContributionService contributionService;
+
+	/**
+	 * @param dataSource the DiscourseDB data source
+	 * @param contributionService the service that assigns the discourses
+	 */
+	public ContributionDiscourseMigration(DataSource dataSource, ContributionService contributionService) {
+		Assert.notNull(dataSource, "DataSource cannot be null.");
+		Assert.notNull(contributionService, "ContributionService cannot be null.");
+		this.dataSource = dataSource;
+		this.contributionService = contributionService;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		try (Connection con = dataSource.getConnection()) {
+			if (MigrationLog.isCompleted(con, STEP)) {
+				return;
+			}
+			long updated = contributionService.backfillDiscourse();
+			if (updated > 0) {
+				logger.info("Assigned a discourse to " + updated + " existing contributions.");
+			}
+			MigrationLog.markCompleted(con, STEP);
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not assign the discourses of the contributions.", e);
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Computes the hashes of the TEXT columns that are used as lookup keys in
+ * databases that have been created before these columns were hashed.<br/>
+ *
+ * TEXT columns cannot be indexed without a prefix length, so the names of
+ * Discourses and DiscourseParts and the values of Features are looked up by
+ * an indexed MD5 hash. The migration runs once the EntityManagerFactory has
+ * added the hash columns and fills them in chunks of ids. Rows that already
+ * have a hash are skipped, so an interrupted migration continues with the
+ * remaining rows on the next start. Once all rows of a table have been
+ * hashed, this is recorded in the {@link MigrationLog}, so the table is not
+ * scanned again on later starts. The hashes are computed by the database and
+ * match {@link edu.cmu.cs.lti.discoursedb.core.model.TextHash} as long as the
+ * hashed columns use a UTF-8 character set.
+ */
+public class KeyHashMigration implements InitializingBean {
+
+	private static final Logger logger = LogManager.getLogger(KeyHashMigration.class);
+
+	private static final int CHUNK_SIZE = 10000;
+
+	private static final String STEP_PREFIX = "key_hash_";
+
+	private static final String[][] KEYS = {
+		//table, primary key, hashed column, hash column
+		{"discourse", "id_discourse", "name", "name_hash"},
+		{"discourse_part", "id_discourse_part", "name", "name_hash"},
+		{"feature", "id_feature", "value", "value_hash"}
+	};
+
+	private final DataSource dataSource;
+
+	/**
+	 * @param dataSource the DiscourseDB data source
+	 */
+	public KeyHashMigration(DataSource dataSource) {
+		Assert.notNull(dataSource, "DataSource cannot be null.");
+		this.dataSource = dataSource;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		try (Connection con = dataSource.getConnection()) {
+			for (String[] key : KEYS) {
+				String step = STEP_PREFIX + key[0] + "_" + key[2];
+				if (!MigrationLog.isCompleted(con, step)) {
+					hashKeys(con, key[0], key[1], key[2], key[3]);
+					MigrationLog.markCompleted(con, step);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not compute key hashes.", e);
+		}
+	}
+
+	private void hashKeys(Connection con, String table, String id, String column, String hashColumn) throws SQLException {
+		String withoutHash = hashColumn + " IS NULL AND " + column + " IS NOT NULL";
+		long maxId;
+		try (Statement stmt = con.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT MAX(" + id + ") FROM " + table + " WHERE " + withoutHash)) {
+			rs.next();
+			maxId = rs.getLong(1);
+		}
+		if (maxId == 0) {
+			return;
+		}
+		logger.info("Computing hashes of " + table + "." + column + ".");
+		long hashed = 0;
+		try (PreparedStatement update = con.prepareStatement("UPDATE " + table + " SET " + hashColumn + " = UNHEX(MD5(" + column + ")) WHERE "
+				+ id + " > ? AND " + id + " <= ? AND " + withoutHash)) {
+			for (long from = 0; from < maxId; from += CHUNK_SIZE) {
+				update.setLong(1, from);
+				update.setLong(2, from + CHUNK_SIZE);
+				hashed += update.executeUpdate();
+			}
+		}
+		logger.info("Computed " + hashed + " hashes of " + table + "." + column + ".");
+	}
+
+}
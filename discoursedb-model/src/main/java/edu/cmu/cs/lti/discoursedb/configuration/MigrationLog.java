@@ -0,0 +1,61 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Records the migration steps that have been completed in the
+ * migration_log table, so that steps which have to scan whole tables are only
+ * executed once instead of on every start.<br/>
+ *
+ * A step is only marked as completed once it has processed all existing rows.
+ * Steps that are interrupted are therefore executed again on the next start
+ * and have to skip the rows they have already processed.
+ */
+public final class MigrationLog {
+
+	private static final String TABLE = "migration_log";
+
+	private MigrationLog() {
+	}
+
+	/**
+	 * @param con the connection to the DiscourseDB database
+	 * @param step the name of the migration step
+	 * @return true, if the step has been marked as completed
+	 */
+	public static boolean isCompleted(Connection con, String step) throws SQLException {
+		createTable(con);
+		try (PreparedStatement stmt = con.prepareStatement("SELECT 1 FROM " + TABLE + " WHERE step = ?")) {
+			stmt.setString(1, step);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	/**
+	 * @param con the connection to the DiscourseDB database
+	 * @param step the name of the migration step
+	 */
+	public static void markCompleted(Connection con, String step) throws SQLException {
+		createTable(con);
+		try (PreparedStatement stmt = con.prepareStatement("INSERT IGNORE INTO " + TABLE + " (step, completed) VALUES (?, NOW())")) {
+			stmt.setString(1, step);
+			stmt.executeUpdate();
+		}
+		if (!con.getAutoCommit()) {
+			con.commit();
+		}
+	}
+
+	private static void createTable(Connection con) throws SQLException {
+		try (Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE + " (step VARCHAR(255) NOT NULL, completed DATETIME NOT NULL, PRIMARY KEY (step))");
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Prepares the id_allocation table that is used by the pooled table-based id
+ * generators defined in <code>pooled-id-orm.xml</code>.<br/>
+ *
+ * Databases that have been populated with auto increment ids need to continue
+ * above the highest existing id of each table. Before the EntityManagerFactory
+ * is created, we therefore create the allocation table if necessary and add a
+ * segment for each entity table that already contains data. Segments that
+ * already exist are never touched. Segments for empty or missing tables are
+ * created lazily by Hibernate.
+ */
+public final class PooledIdAllocation {
+
+	private static final Logger logger = LogManager.getLogger(PooledIdAllocation.class);
+
+	/**
+	 * The mapping resource that overrides the id generation of all entities
+	 */
+	public static final String MAPPING_RESOURCE = "pooled-id-orm.xml";
+
+	/**
+	 * Number of ids reserved with each access to the allocation table. Has to
+	 * match the allocation-size in the mapping resource.
+	 */
+	public static final int ALLOCATION_SIZE = 100;
+
+	private static final String TABLE = "id_allocation";
+
+	private static final String[][] SEGMENTS = {
+		//segment/table name, primary key column
+		{"annotation_aggregate", "id_annotation"},
+		{"annotation_instance", "id_annotation_instance"},
+		{"feature", "id_feature"},
+		{"content", "id_content"},
+		{"content_payload", "id_content_payload"},
+		{"contribution", "id_contribution"},
+		{"contribution_has_audience", "id_contribution_audience"},
+		{"contribution_has_context", "id_contribution_context"},
+		{"discourse", "id_discourse"},
+		{"discourse_part", "id_discourse_part"},
+		{"contribution_partof_discourse_part", "id_discourse_part_contribution"},
+		{"discourse_part_relation", "id_discourse_part_relation"},
+		{"discourse_relation", "id_discourse_relation"},
+		{"discourse_has_discourse_part", "id_discourse_has_discourse_part"},
+		{"data_source_aggregate", "id_data_sources"},
+		{"data_source_instance", "id_data_source_instance"},
+		{"discoursedb", "id_discoursedb"},
+		{"system_user", "id_system_user"},
+		{"audience", "id_audience"},
+		{"audience_has_group", "id_audience_group"},
+		{"audience_has_user", "id_audience_user"},
+		{"contribution_interaction", "id_contribution_interaction"},
+		{"discourse_part_interaction", "id_content_interaction"},
+		{"group", "id_group"},
+		{"user_memberof_group", "id_group_user"},
+		{"user", "id_user"},
+		{"user_relation", "id_user_relation"}
+	};
+
+	private PooledIdAllocation() {
+	}
+
+	/**
+	 * Creates the allocation table if it does not exist yet and seeds missing
+	 * segments with the highest id that is currently used in the corresponding
+	 * entity table.
+	 *
+	 * @param dataSource
+	 *            the DiscourseDB data source
+	 */
+	public static void prepare(DataSource dataSource) {
+		try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE
+					+ " (entity_name VARCHAR(255) NOT NULL, next_id BIGINT, PRIMARY KEY (entity_name))");
+			for (String[] segment : SEGMENTS) {
+				seed(con, segment[0], segment[1]);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not prepare pooled id allocation.", e);
+		}
+	}
+
+	/**
+	 * Seeds the segment of the given table with the highest id that is currently used in the table,
+	 * unless the segment has already been created.
+	 */
+	static void seed(Connection con, String table, String idColumn) throws SQLException {
+		try (PreparedStatement exists = con.prepareStatement("SELECT 1 FROM " + TABLE + " WHERE entity_name = ?")) {
+			exists.setString(1, table);
+			try (ResultSet rs = exists.executeQuery()) {
+				if (rs.next()) {
+					return;
+				}
+			}
+		}
+
+		long maxId;
+		try (Statement stmt = con.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT MAX(" + idColumn + ") FROM `" + table + "`")) {
+			rs.next();
+			maxId = rs.getLong(1);
+		} catch (SQLException e) {
+			//the entity table does not exist yet. hibernate will create the segment on first use.
+			return;
+		}
+		if (maxId == 0) {
+			return;
+		}
+
+		//the pooled optimizer hands out the block (next_id-ALLOCATION_SIZE, next_id] for a stored value of next_id
+		try (PreparedStatement insert = con.prepareStatement("INSERT INTO " + TABLE + " (entity_name, next_id) VALUES (?, ?)")) {
+			insert.setString(1, table);
+			insert.setLong(2, maxId + ALLOCATION_SIZE);
+			insert.executeUpdate();
+		}
+		logger.info("Seeded id allocation for " + table + " above existing id " + maxId);
+	}
+
+}
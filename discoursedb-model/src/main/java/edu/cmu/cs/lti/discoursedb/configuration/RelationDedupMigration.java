@@ -0,0 +1,127 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Removes duplicate relations from databases that have been created before
+ * the relation tables had unique constraints over (fk_source, fk_target,
+ * type).<br/>
+ *
+ * The schema update cannot add a unique constraint to a table that contains
+ * duplicates and only logs the failure, which would leave the upserts of the
+ * UpsertService without the constraint they rely on. The migration therefore
+ * runs before the EntityManagerFactory is created and only for tables that
+ * do not have the constraint yet. Of every group of duplicates, the relation
+ * with the lowest id is kept. The annotations of the removed relations are
+ * moved to the annotation aggregate of the kept relation. Each table is
+ * cleaned up in a single transaction.
+ */
+public final class RelationDedupMigration {
+
+	private static final Logger logger = LogManager.getLogger(RelationDedupMigration.class);
+
+	private static final String DUPLICATES_TABLE = "relation_dedup";
+
+	private static final Set<String> KEY = new HashSet<>(Arrays.asList("fk_source", "fk_target", "type"));
+
+	private static final String[][] RELATIONS = {
+		//table, primary key, annotatable
+		{"discourse_relation", "id_discourse_relation", "true"},
+		{"discourse_part_relation", "id_discourse_part_relation", "false"},
+		{"user_relation", "id_user_relation", "true"}
+	};
+
+	private RelationDedupMigration() {
+	}
+
+	/**
+	 * Removes the duplicates of all relation tables without a unique key
+	 * constraint. Only MySQL databases are migrated, because the statements
+	 * use multiple-table updates and deletes.
+	 *
+	 * @param dataSource
+	 *            the DiscourseDB data source
+	 */
+	public static void migrate(DataSource dataSource) {
+		try (Connection con = dataSource.getConnection()) {
+			if (!con.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql")) {
+				return;
+			}
+			for (String[] relation : RELATIONS) {
+				if (hasTable(con, relation[0]) && !hasUniqueKey(con, relation[0])) {
+					removeDuplicates(con, relation[0], relation[1], Boolean.parseBoolean(relation[2]));
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not remove duplicate relations.", e);
+		}
+	}
+
+	private static void removeDuplicates(Connection con, String table, String id, boolean annotatable) throws SQLException {
+		//DDL statements commit implicitly on MySQL, so the scratch table is created and dropped outside of the transaction
+		try (Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + DUPLICATES_TABLE + " (id_duplicate BIGINT NOT NULL, id_kept BIGINT NOT NULL, PRIMARY KEY (id_duplicate))");
+		}
+		boolean autoCommit = con.getAutoCommit();
+		con.setAutoCommit(false);
+		try (Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("DELETE FROM " + DUPLICATES_TABLE);
+			int duplicates = stmt.executeUpdate("INSERT INTO " + DUPLICATES_TABLE + " (id_duplicate, id_kept) SELECT r." + id + ", k.id_kept FROM " + table
+					+ " r JOIN (SELECT fk_source, fk_target, type, MIN(" + id + ") AS id_kept FROM " + table
+					+ " GROUP BY fk_source, fk_target, type HAVING COUNT(*) > 1) k ON r.fk_source = k.fk_source AND r.fk_target = k.fk_target AND r.type = k.type"
+					+ " WHERE r." + id + " <> k.id_kept");
+			if (duplicates > 0) {
+				if (annotatable) {
+					stmt.executeUpdate("UPDATE " + table + " k JOIN " + DUPLICATES_TABLE + " x ON x.id_kept = k." + id + " JOIN " + table + " d ON d." + id
+							+ " = x.id_duplicate SET k.fk_annotation = d.fk_annotation WHERE k.fk_annotation IS NULL AND d.fk_annotation IS NOT NULL");
+					stmt.executeUpdate("UPDATE annotation_instance ai JOIN " + table + " d ON ai.fk_annotation = d.fk_annotation JOIN " + DUPLICATES_TABLE
+							+ " x ON x.id_duplicate = d." + id + " JOIN " + table + " k ON k." + id
+							+ " = x.id_kept SET ai.fk_annotation = k.fk_annotation WHERE k.fk_annotation <> d.fk_annotation");
+				}
+				stmt.executeUpdate("DELETE d FROM " + table + " d JOIN " + DUPLICATES_TABLE + " x ON x.id_duplicate = d." + id);
+				logger.info("Removed " + duplicates + " duplicate relations from " + table + ".");
+			}
+			con.commit();
+		} catch (SQLException e) {
+			con.rollback();
+			throw e;
+		} finally {
+			con.setAutoCommit(autoCommit);
+		}
+		try (Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("DROP TABLE " + DUPLICATES_TABLE);
+		}
+	}
+
+	private static boolean hasUniqueKey(Connection con, String table) throws SQLException {
+		Map<String, Set<String>> indexes = new HashMap<>();
+		try (ResultSet rs = con.getMetaData().getIndexInfo(con.getCatalog(), null, table, true, false)) {
+			while (rs.next()) {
+				if (rs.getString("INDEX_NAME") != null && rs.getString("COLUMN_NAME") != null) {
+					indexes.computeIfAbsent(rs.getString("INDEX_NAME"), k -> new HashSet<>()).add(rs.getString("COLUMN_NAME").toLowerCase());
+				}
+			}
+		}
+		return indexes.values().contains(KEY);
+	}
+
+	private static boolean hasTable(Connection con, String table) throws SQLException {
+		try (ResultSet rs = con.getMetaData().getTables(con.getCatalog(), null, table, null)) {
+			return rs.next();
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ContentService;
+
+/**
+ * Indexes the revision histories of databases that have been created before
+ * contents stored the id of their first revision and their position in the
+ * revision history.<br/>
+ *
+ * The migration runs once the EntityManagerFactory has added the revision
+ * index columns and uses ContentService.backfillRevisionIndex, which commits
+ * the histories in batches and only processes histories that have not been
+ * indexed yet. An interrupted migration therefore continues with the
+ * remaining histories on the next start. New revision histories are indexed
+ * when their revisions are linked, so the migration is recorded in the
+ * {@link MigrationLog} once all histories have been indexed and is skipped on
+ * later starts.
+ */
+public class RevisionIndexMigration implements InitializingBean {
+
+	private static final Logger logger = LogManager.getLogger(RevisionIndexMigration.class);
+
+	private static final String STEP = "content_revision_index";
+
+	private final DataSource dataSource;
+	private final ContentService contentService;
+
+	/**
+	 * @param dataSource the DiscourseDB data source
+	 * @param contentService the service that indexes the revision histories
+	 */
+	public RevisionIndexMigration(DataSource dataSource, ContentService contentService) {
+		Assert.notNull(dataSource, "DataSource cannot be null.");
+		Assert.notNull(contentService, "ContentService cannot be null.");
+		this.dataSource = dataSource;
+		this.contentService = contentService;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		try (Connection con = dataSource.getConnection()) {
+			if (MigrationLog.isCompleted(con, STEP)) {
+				return;
+			}
+			long indexed = contentService.backfillRevisionIndex();
+			if (indexed > 0) {
+				logger.info("Indexed " + indexed + " revisions of existing revision histories.");
+			}
+			MigrationLog.markCompleted(con, STEP);
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not index the revision histories.", e);
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.core.env.Environment;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+/**
+ * Configures the optional Hibernate second-level cache for the reference
+ * entities of DiscourseDB (Discourse, DiscoursePart, DataSourceInstance and
+ * User) and for the cached natural-key queries of their repositories.<br/>
+ *
+ * The cache is disabled by default and can be enabled by setting
+ * discoursedb.cache.l2.enabled to true in the custom.properties. Each region
+ * is an in-process EhCache with least-recently-used eviction. The maximum
+ * number of entries of a region can be configured with the
+ * discoursedb.cache.l2.&lt;region&gt;.size property, e.g.
+ * discoursedb.cache.l2.user.size. Statistics are collected while the cache is
+ * enabled and can be retrieved with the CacheRegionStatistics component.<br/>
+ *
+ * Note that native modifying queries, which do not declare the tables they
+ * change, invalidate all regions of the cache.
+ */
+public final class SecondLevelCache {
+
+	private static final Logger logger = LogManager.getLogger(SecondLevelCache.class);
+
+	public static final String DISCOURSE_REGION = "discoursedb.discourse";
+	public static final String DISCOURSE_PART_REGION = "discoursedb.discourse_part";
+	public static final String DATA_SOURCE_INSTANCE_REGION = "discoursedb.data_source_instance";
+	public static final String USER_REGION = "discoursedb.user";
+	public static final String NATURAL_KEY_QUERY_REGION = "discoursedb.natural_key_query";
+
+	private static final String[][] REGIONS = {
+		//region name, size property, default size
+		{DISCOURSE_REGION, "discoursedb.cache.l2.discourse.size", "1000"},
+		{DISCOURSE_PART_REGION, "discoursedb.cache.l2.discourse_part.size", "100000"},
+		{DATA_SOURCE_INSTANCE_REGION, "discoursedb.cache.l2.data_source_instance.size", "100000"},
+		{USER_REGION, "discoursedb.cache.l2.user.size", "100000"},
+		{NATURAL_KEY_QUERY_REGION, "discoursedb.cache.l2.natural_key_query.size", "10000"}
+	};
+
+	/**
+	 * The query cache checks cached results against the last modification of
+	 * the queried tables, which are kept in this region. It must never evict
+	 * entries.
+	 */
+	private static final String UPDATE_TIMESTAMPS_REGION = "org.hibernate.cache.spi.UpdateTimestampsCache";
+
+	private SecondLevelCache() {
+	}
+
+	/**
+	 * @param environment the environment with the DiscourseDB properties
+	 * @return true, if the second-level cache has been enabled
+	 */
+	public static boolean isEnabled(Environment environment) {
+		return Boolean.parseBoolean(environment.getProperty("discoursedb.cache.l2.enabled", "false").trim());
+	}
+
+	/**
+	 * Creates the cache regions and adds the Hibernate properties that enable
+	 * the second-level and query cache. Has to be called before the
+	 * EntityManagerFactory is created.
+	 *
+	 * @param environment the environment with the region sizes
+	 * @param jpaProperties the properties of the EntityManagerFactory
+	 */
+	public static void prepare(Environment environment, Properties jpaProperties) {
+		Configuration config = new Configuration().name("discoursedb");
+		config.defaultCache(new CacheConfiguration().maxElementsInMemory(10000));
+		for (String[] region : REGIONS) {
+			int size = Integer.parseInt(environment.getProperty(region[1], region[2]).trim());
+			config.cache(new CacheConfiguration(region[0], size));
+			logger.info("Second-level cache region " + region[0] + " holds up to " + size + " entries.");
+		}
+		config.cache(new CacheConfiguration(UPDATE_TIMESTAMPS_REGION, 0).eternal(true));
+		//the singleton region factory picks up the cache manager created here
+		CacheManager.create(config);
+
+		jpaProperties.put("hibernate.cache.use_second_level_cache", true);
+		jpaProperties.put("hibernate.cache.use_query_cache", true);
+		jpaProperties.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory");
+		jpaProperties.put("hibernate.generate_statistics", true);
+		jpaProperties.put("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE");
+	}
+
+}
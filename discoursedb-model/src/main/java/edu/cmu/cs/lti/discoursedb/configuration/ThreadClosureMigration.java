@@ -0,0 +1,134 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.model.TypeCodes;
+import edu.cmu.cs.lti.discoursedb.core.type.DiscourseRelationTypes;
+
+/**
+ * Creates the contribution_closure table, which stores every (ancestor,
+ * descendant, depth) triple of the reply trees that are formed by REPLY and
+ * COMMENT DiscourseRelations, and fills it for existing databases.<br/>
+ *
+ * New relations are added to the closure by
+ * ContributionService.createDiscourseRelation. When the table is created, the
+ * relations that already exist are added level by level: first the
+ * contributions themselves and their direct replies, then the replies of the
+ * deepest level added so far, until a level does not add any rows. All steps
+ * are committed in chunks of ancestor ids and ignore rows that already exist.
+ * The table name is kept in the contribution_closure_migration table until the
+ * closure is complete, so that an interrupted migration is continued on the
+ * next start.
+ */
+public class ThreadClosureMigration implements InitializingBean {
+
+	private static final Logger logger = LogManager.getLogger(ThreadClosureMigration.class);
+
+	public static final String TABLE = "contribution_closure";
+
+	private static final String PROGRESS_TABLE = "contribution_closure_migration";
+
+	private static final int CHUNK_SIZE = 10000;
+
+	private final DataSource dataSource;
+
+	/**
+	 * @param dataSource the DiscourseDB data source
+	 */
+	public ThreadClosureMigration(DataSource dataSource) {
+		Assert.notNull(dataSource, "DataSource cannot be null.");
+		this.dataSource = dataSource;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		try (Connection con = dataSource.getConnection()) {
+			if (!hasTable(con, TABLE)) {
+				try (Statement stmt = con.createStatement()) {
+					stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + PROGRESS_TABLE + " (table_name VARCHAR(255) NOT NULL, PRIMARY KEY (table_name))");
+					stmt.executeUpdate("INSERT INTO " + PROGRESS_TABLE + " (table_name) VALUES ('" + TABLE + "')");
+					stmt.executeUpdate("CREATE TABLE " + TABLE + " (fk_ancestor BIGINT NOT NULL, fk_descendant BIGINT NOT NULL, depth INT NOT NULL, "
+							+ "PRIMARY KEY (fk_ancestor, fk_descendant), "
+							+ "CONSTRAINT fk_contribution_closure_ancestor FOREIGN KEY (fk_ancestor) REFERENCES contribution (id_contribution) ON DELETE CASCADE, "
+							+ "CONSTRAINT fk_contribution_closure_descendant FOREIGN KEY (fk_descendant) REFERENCES contribution (id_contribution) ON DELETE CASCADE)");
+					stmt.executeUpdate("CREATE INDEX idx_contribution_closure_descendant ON " + TABLE + " (fk_descendant, depth)");
+				}
+			}
+			if (hasTable(con, PROGRESS_TABLE)) {
+				fillClosure(con);
+				try (Statement stmt = con.createStatement()) {
+					stmt.executeUpdate("DROP TABLE " + PROGRESS_TABLE);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not create the contribution closure.", e);
+		}
+	}
+
+	private void fillClosure(Connection con) throws SQLException {
+		logger.info("Adding the existing reply relations to the contribution closure.");
+		String threadRelation = "type IN (" + TypeCodes.codeOf(DiscourseRelationTypes.REPLY.name()) + ", "
+				+ TypeCodes.codeOf(DiscourseRelationTypes.COMMENT.name()) + ")";
+		String insert = "INSERT IGNORE INTO " + TABLE + " (fk_ancestor, fk_descendant, depth) ";
+
+		long maxRelation;
+		try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery("SELECT MAX(id_discourse_relation) FROM discourse_relation")) {
+			rs.next();
+			maxRelation = rs.getLong(1);
+		}
+		String relationChunk = " FROM discourse_relation WHERE " + threadRelation + " AND id_discourse_relation > ? AND id_discourse_relation <= ?";
+		long rows = 0;
+		try (PreparedStatement sources = con.prepareStatement(insert + "SELECT fk_source, fk_source, 0" + relationChunk);
+				PreparedStatement targets = con.prepareStatement(insert + "SELECT fk_target, fk_target, 0" + relationChunk);
+				PreparedStatement replies = con.prepareStatement(insert + "SELECT fk_source, fk_target, 1" + relationChunk)) {
+			for (long from = 0; from < maxRelation; from += CHUNK_SIZE) {
+				for (PreparedStatement stmt : new PreparedStatement[] { sources, targets, replies }) {
+					stmt.setLong(1, from);
+					stmt.setLong(2, from + CHUNK_SIZE);
+					rows += stmt.executeUpdate();
+				}
+			}
+		}
+		logger.info("Added " + rows + " contributions and direct replies to the contribution closure.");
+
+		long maxAncestor;
+		try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery("SELECT MAX(fk_ancestor) FROM " + TABLE)) {
+			rs.next();
+			maxAncestor = rs.getLong(1);
+		}
+		try (PreparedStatement level = con.prepareStatement(insert + "SELECT a.fk_ancestor, r.fk_descendant, a.depth + 1 FROM " + TABLE + " a JOIN "
+				+ TABLE + " r ON r.fk_ancestor = a.fk_descendant AND r.depth = 1 WHERE a.depth = ? AND a.fk_ancestor > ? AND a.fk_ancestor <= ?")) {
+			for (int depth = 1;; depth++) {
+				long added = 0;
+				for (long from = 0; from < maxAncestor; from += CHUNK_SIZE) {
+					level.setInt(1, depth);
+					level.setLong(2, from);
+					level.setLong(3, from + CHUNK_SIZE);
+					added += level.executeUpdate();
+				}
+				if (added == 0) {
+					break;
+				}
+				logger.info("Added " + added + " indirect replies of depth " + (depth + 1) + " to the contribution closure.");
+			}
+		}
+	}
+
+	private static boolean hasTable(Connection con, String table) throws SQLException {
+		try (ResultSet rs = con.getMetaData().getTables(con.getCatalog(), null, table, null)) {
+			return rs.next();
+		}
+	}
+
+}
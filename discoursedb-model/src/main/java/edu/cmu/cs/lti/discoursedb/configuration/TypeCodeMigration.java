@@ -0,0 +1,157 @@
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.cmu.cs.lti.discoursedb.core.model.TypeCodes;
+
+/**
+ * Converts the type columns of databases that have been created before types
+ * were stored as codes of the {@link TypeCodes} dictionary.<br/>
+ *
+ * Before the EntityManagerFactory is created, the names of all character type
+ * columns are added to the dictionary, the names are replaced by their codes
+ * and the columns are changed to SMALLINT. Changing the column in place keeps
+ * the unique constraints and indexes that contain it. The replacement of a
+ * table runs in a single transaction that also marks the table in the
+ * type_code_migration table, so that a migration that is interrupted before
+ * the column has been changed does not replace the codes again on the next
+ * start. The storage used by the converted tables is logged before and after
+ * the migration.
+ */
+public final class TypeCodeMigration {
+
+	private static final Logger logger = LogManager.getLogger(TypeCodeMigration.class);
+
+	private static final String PROGRESS_TABLE = "type_code_migration";
+
+	private static final String COLUMN = "type";
+
+	private TypeCodeMigration() {
+	}
+
+	/**
+	 * Converts all character type columns to type codes. Requires an
+	 * initialized {@link TypeCodes} dictionary.
+	 *
+	 * @param dataSource
+	 *            the DiscourseDB data source
+	 */
+	public static void migrate(DataSource dataSource) {
+		try (Connection con = dataSource.getConnection()) {
+			List<String> tables = findCharacterTypeColumns(con);
+			if (tables.isEmpty()) {
+				return;
+			}
+			try (Statement stmt = con.createStatement()) {
+				stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + PROGRESS_TABLE + " (table_name VARCHAR(255) NOT NULL, PRIMARY KEY (table_name))");
+			}
+			String quote = con.getMetaData().getIdentifierQuoteString().trim();
+			for (String table : tables) {
+				long sizeBefore = size(con, table);
+				convert(con, table, quote + table + quote);
+				long sizeAfter = size(con, table);
+				if (sizeBefore >= 0 && sizeAfter >= 0) {
+					logger.info("Converted the types of " + table + ". Data and indexes use " + sizeAfter + " instead of " + sizeBefore + " bytes.");
+				} else {
+					logger.info("Converted the types of " + table + ".");
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not convert the types to type codes.", e);
+		}
+	}
+
+	private static List<String> findCharacterTypeColumns(Connection con) throws SQLException {
+		List<String> tables = new ArrayList<>();
+		try (ResultSet rs = con.getMetaData().getColumns(con.getCatalog(), null, "%", COLUMN)) {
+			while (rs.next()) {
+				int dataType = rs.getInt("DATA_TYPE");
+				if (dataType == Types.VARCHAR || dataType == Types.CHAR || dataType == Types.LONGVARCHAR
+						|| dataType == Types.NVARCHAR || dataType == Types.NCHAR) {
+					tables.add(rs.getString("TABLE_NAME"));
+				}
+			}
+		}
+		return tables;
+	}
+
+	private static void convert(Connection con, String table, String quotedTable) throws SQLException {
+		if (!isMarked(con, table)) {
+			List<String> names = new ArrayList<>();
+			try (Statement stmt = con.createStatement();
+					ResultSet rs = stmt.executeQuery("SELECT DISTINCT " + COLUMN + " FROM " + quotedTable + " WHERE " + COLUMN + " IS NOT NULL")) {
+				while (rs.next()) {
+					names.add(rs.getString(1));
+				}
+			}
+			//adds the names to the dictionary with a separate connection
+			names.forEach(TypeCodes::codeOf);
+
+			boolean autoCommit = con.getAutoCommit();
+			con.setAutoCommit(false);
+			try (Statement stmt = con.createStatement();
+					PreparedStatement mark = con.prepareStatement("INSERT INTO " + PROGRESS_TABLE + " (table_name) VALUES (?)")) {
+				stmt.executeUpdate("UPDATE " + quotedTable + " SET " + COLUMN + " = (SELECT tc.code FROM " + TypeCodes.TABLE + " tc WHERE tc.name = "
+						+ quotedTable + "." + COLUMN + ") WHERE " + COLUMN + " IS NOT NULL");
+				mark.setString(1, table);
+				mark.executeUpdate();
+				con.commit();
+			} catch (SQLException e) {
+				con.rollback();
+				throw e;
+			} finally {
+				con.setAutoCommit(autoCommit);
+			}
+		}
+
+		try (Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("ALTER TABLE " + quotedTable + " MODIFY COLUMN " + COLUMN + " SMALLINT");
+		}
+		try (PreparedStatement unmark = con.prepareStatement("DELETE FROM " + PROGRESS_TABLE + " WHERE table_name = ?")) {
+			unmark.setString(1, table);
+			unmark.executeUpdate();
+		}
+	}
+
+	private static boolean isMarked(Connection con, String table) throws SQLException {
+		try (PreparedStatement stmt = con.prepareStatement("SELECT 1 FROM " + PROGRESS_TABLE + " WHERE table_name = ?")) {
+			stmt.setString(1, table);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes used by the data and indexes of the given table or -1 if the database does not provide it
+	 */
+	private static long size(Connection con, String table) {
+		try {
+			if (!con.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql")) {
+				return -1;
+			}
+			try (PreparedStatement stmt = con.prepareStatement("SELECT data_length + index_length FROM information_schema.tables "
+					+ "WHERE table_schema = DATABASE() AND table_name = ?")) {
+				stmt.setString(1, table);
+				try (ResultSet rs = stmt.executeQuery()) {
+					return rs.next() ? rs.getLong(1) : -1;
+				}
+			}
+		} catch (SQLException e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package edu.cmu.cs.lti.discoursedb.core.model;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the hashes that are stored next to TEXT columns which are used as
+ * lookup keys, e.g. the names of Discourses and DiscourseParts, the values of
+ * Features and the texts of content payloads.<br/>
+ *
+ * TEXT columns cannot be indexed without a prefix length, so these columns
+ * are looked up by the indexed hash and compared afterwards to resolve hash
+ * collisions. The migrations compute the same hash with UNHEX(MD5(column)) in
+ * the database, as long as the hashed columns use a UTF-8 character set.
+ */
+public final class TextHash {
+
+	private TextHash() {
+	}
+
+	/**
+	 * @param text a text
+	 * @return the MD5 hash of the UTF-8 encoded text
+	 */
+	public static byte[] of(String text) {
+		try {
+			return MessageDigest.getInstance("MD5").digest(text.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not supported by this JVM.", e);
+		}
+	}
+
+}
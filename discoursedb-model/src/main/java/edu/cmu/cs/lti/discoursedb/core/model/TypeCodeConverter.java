@@ -0,0 +1,29 @@
+package edu.cmu.cs.lti.discoursedb.core.model;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Stores the type names of typed entities as codes of the {@link TypeCodes}
+ * dictionary. Queries with a type parameter are converted as well, so the
+ * entities and repositories keep using the type names.<br/>
+ *
+ * The codes are passed to Hibernate as Integers, since Hibernate 4.3 cannot
+ * bind Short values that are produced by an AttributeConverter. The column
+ * is still a SMALLINT.
+ */
+@Converter
+public class TypeCodeConverter implements AttributeConverter<String, Integer> {
+
+	@Override
+	public Integer convertToDatabaseColumn(String name) {
+		Short code = TypeCodes.codeOf(name);
+		return code == null ? null : code.intValue();
+	}
+
+	@Override
+	public String convertToEntityAttribute(Integer code) {
+		return code == null ? null : TypeCodes.nameOf(code.shortValue());
+	}
+
+}
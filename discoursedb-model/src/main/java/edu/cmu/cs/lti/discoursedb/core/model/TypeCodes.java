@@ -0,0 +1,170 @@
+package edu.cmu.cs.lti.discoursedb.core.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.util.Assert;
+
+/**
+ * Dictionary of the type names of all typed entities.<br/>
+ *
+ * The type of a TypedBE is stored as a SMALLINT code instead of the name of
+ * the type, which keeps the type columns and the indexes that contain them
+ * small. The names are kept in the type_code table and are cached in memory
+ * once they have been used. Unknown names, e.g. new annotation or feature
+ * types, are added to the dictionary with the next free code on first use.
+ * This also happens when an entity is queried with a type that does not exist
+ * yet. A SMALLINT column holds at most 32767 distinct type names.<br/>
+ *
+ * The dictionary is static, because the JPA AttributeConverter that uses it
+ * is instantiated by Hibernate and cannot be injected with Spring beans. It has
+ * to be initialized with the DiscourseDB data source before the
+ * EntityManagerFactory is created.
+ */
+public final class TypeCodes {
+
+	private static final Logger logger = LogManager.getLogger(TypeCodes.class);
+
+	public static final String TABLE = "type_code";
+
+	private static final int MAX_ATTEMPTS = 10;
+
+	private static final Map<String, Short> codes = new ConcurrentHashMap<>();
+	private static final Map<Short, String> names = new ConcurrentHashMap<>();
+
+	private static volatile DataSource dataSource;
+
+	private TypeCodes() {
+	}
+
+	/**
+	 * Creates the dictionary table if it does not exist yet and loads the
+	 * existing codes.
+	 *
+	 * @param dataSource
+	 *            the DiscourseDB data source
+	 */
+	public static void initialize(DataSource dataSource) {
+		Assert.notNull(dataSource, "DataSource cannot be null.");
+		codes.clear();
+		names.clear();
+		try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE
+					+ " (code SMALLINT NOT NULL, name VARCHAR(255) NOT NULL, PRIMARY KEY (code), CONSTRAINT uk_type_code_name UNIQUE (name))");
+			try (ResultSet rs = stmt.executeQuery("SELECT code, name FROM " + TABLE)) {
+				while (rs.next()) {
+					cache(rs.getShort(1), rs.getString(2));
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not initialize the type codes.", e);
+		}
+		TypeCodes.dataSource = dataSource;
+		logger.info("Loaded " + codes.size() + " type codes.");
+	}
+
+	/**
+	 * Retrieves the code of the given type name and adds the name to the
+	 * dictionary if it does not have a code yet.
+	 *
+	 * @param name
+	 *            the type name
+	 * @return the code of the type name or null, if the name is null
+	 */
+	public static Short codeOf(String name) {
+		if (name == null) {
+			return null;
+		}
+		Short code = codes.get(name);
+		return code != null ? code : register(name);
+	}
+
+	/**
+	 * @param code
+	 *            a type code
+	 * @return the type name with the given code or null, if the code is null
+	 */
+	public static String nameOf(Short code) {
+		if (code == null) {
+			return null;
+		}
+		String name = names.get(code);
+		if (name != null) {
+			return name;
+		}
+		try (Connection con = connection(); PreparedStatement stmt = con.prepareStatement("SELECT name FROM " + TABLE + " WHERE code = ?")) {
+			stmt.setShort(1, code);
+			try (ResultSet rs = stmt.executeQuery()) {
+				Assert.isTrue(rs.next(), "Unknown type code " + code);
+				name = rs.getString(1);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not retrieve the name of type code " + code, e);
+		}
+		cache(code, name);
+		return name;
+	}
+
+	/**
+	 * Adds the given name to the dictionary. The dictionary is written with its
+	 * own connection, so that a new code is visible to other writers right
+	 * away and survives a rollback of the transaction that used it. Concurrent
+	 * writers that add the same name or claim the same code violate one of the
+	 * constraints of the dictionary table and try again.
+	 */
+	private static synchronized Short register(String name) {
+		Short code = codes.get(name);
+		if (code != null) {
+			return code;
+		}
+		try (Connection con = connection()) {
+			con.setAutoCommit(true);
+			for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+				code = select(con, name);
+				if (code != null) {
+					cache(code, name);
+					return code;
+				}
+				try (PreparedStatement insert = con.prepareStatement("INSERT INTO " + TABLE
+						+ " (code, name) SELECT COALESCE(MAX(code), 0) + 1, ? FROM " + TABLE)) {
+					insert.setString(1, name);
+					insert.executeUpdate();
+				} catch (SQLException e) {
+					logger.debug("Could not add type " + name + ", retrying.", e);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not add type " + name + " to the type codes.", e);
+		}
+		throw new IllegalStateException("Could not add type " + name + " to the type codes.");
+	}
+
+	private static Short select(Connection con, String name) throws SQLException {
+		try (PreparedStatement stmt = con.prepareStatement("SELECT code FROM " + TABLE + " WHERE name = ?")) {
+			stmt.setString(1, name);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next() ? rs.getShort(1) : null;
+			}
+		}
+	}
+
+	private static void cache(Short code, String name) {
+		codes.put(name, code);
+		names.put(code, name);
+	}
+
+	private static Connection connection() throws SQLException {
+		Assert.state(dataSource != null, "The type codes have not been initialized.");
+		return dataSource.getConnection();
+	}
+
+}
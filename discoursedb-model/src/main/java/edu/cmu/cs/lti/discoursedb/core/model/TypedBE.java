@@ -1,6 +1,7 @@
 package edu.cmu.cs.lti.discoursedb.core.model;
 
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.MappedSuperclass;
 
 import org.springframework.data.rest.core.annotation.Description;
@@ -14,6 +15,8 @@ import lombok.ToString;
 /**
  * Adds basic common fields for type entities (Version, CreationDate, Type identifier) 
  * 
+ * The type is stored as a code of the {@link TypeCodes} dictionary.
+ * 
  * @author Oliver Ferschke
  *
  */
@@ -24,7 +27,8 @@ import lombok.ToString;
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public abstract class TypedBE extends BaseEntity{
 	
-	@Column(name = "type")
+	@Column(name = "type", columnDefinition = "SMALLINT")
+	@Convert(converter = TypeCodeConverter.class)
 	@Description("The type value that this type-entity represents.")
 	private String type;
 
@@ -5,6 +5,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -14,6 +15,7 @@ import org.springframework.hateoas.Identifiable;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
 import edu.cmu.cs.lti.discoursedb.core.model.TypedBE;
 import lombok.AccessLevel;
 import lombok.Data;
@@ -25,7 +27,7 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper=true, exclude={"annotation"})
 @ToString(callSuper=true, exclude={"annotation"})
 @Entity
-@Table(name="feature")
+@Table(name="feature", indexes = @Index(name = "idx_feature_type_value", columnList = "type, value_hash"))
 @Description("Represents a feature (instance) which holds the payload of an annotation instance.")
 public class Feature extends TypedBE implements Identifiable<Long>{
 
@@ -40,10 +42,20 @@ public class Feature extends TypedBE implements Identifiable<Long>{
 	@Column(columnDefinition="TEXT")
 	private String value;
 	
+	@Column(name="value_hash", columnDefinition="BINARY(16)")
+	@Setter(AccessLevel.PRIVATE)
+	@Description("The MD5 hash of the UTF-8 encoded feature value. TEXT columns cannot be indexed without a prefix length, so features are looked up by this hash.")
+	private byte[] valueHash;
+	
 	@JsonIgnore
 	@ManyToOne
 	@JoinColumn(name = "fk_annotation_instance")
 	@Description("The annotation instance assocaited with this feature.")
 	private AnnotationInstance annotation;
+
+	public void setValue(String value){
+		this.value=value;
+		this.valueHash=value==null?null:TextHash.of(value);
+	}
 	
 }
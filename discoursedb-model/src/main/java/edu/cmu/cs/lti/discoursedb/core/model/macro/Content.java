@@ -2,24 +2,34 @@ package edu.cmu.cs.lti.discoursedb.core.model.macro;
 
 import java.sql.Blob;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import org.springframework.data.rest.core.annotation.Description;
 import org.springframework.hateoas.Identifiable;
+import org.springframework.util.Assert;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import edu.cmu.cs.lti.discoursedb.core.model.TimedAnnotatableSourcedBE;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySource;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySourced;
 import edu.cmu.cs.lti.discoursedb.core.model.user.ContributionInteraction;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import lombok.AccessLevel;
@@ -30,14 +40,20 @@ import lombok.ToString;
 
 /**
  * Content entities represent the content of Contribution and Context entities.
- * The main payload of a Content entity resides in its text and data field. The
+ * The main payload of a Content entity resides in its text and data field. Both
+ * are stored in a separate {@link ContentPayload} entity that is only loaded on
+ * access, so that the content table itself only holds metadata. Contents
+ * with identical texts may share a payload. The
  * content of Contributions usually textual, thus the text field will hold the
  * content of a Contribution. The data field is able to hold arbitrary blobs of
  * data. This is most likely necessary when used to represent the content of
  * Context entities but will rarely be the case for content of Contribution
  * entities. Content entities formally represent nodes in a linked list by
  * pointing to a previous and a next content revision. This way, revision
- * histories of Contribution and Context entities can be represented. A Content
+ * histories of Contribution and Context entities can be represented. In
+ * addition, each revision of a history stores the id of the first revision
+ * (the root) and its position in the history, so that a complete history can
+ * be retrieved with a single indexed query. A Content
  * entity is related to a User indicating that this user is the author of the
  * content instance. Other relationships between Users and Content or
  * Contributions can be represented with ContributionUserInteraction entities.
@@ -46,12 +62,16 @@ import lombok.ToString;
  *
  */
 @Data
-@EqualsAndHashCode(callSuper=true, exclude={"contributionInteractions","previousRevision","nextRevision"})
-@ToString(callSuper=true, exclude={"contributionInteractions","previousRevision","nextRevision"})
+@EqualsAndHashCode(callSuper=true, exclude={"contributionInteractions","previousRevision","nextRevision","payload"})
+@ToString(callSuper=true, exclude={"contributionInteractions","previousRevision","nextRevision","payload"})
 @Entity
-@Table(name="content")
+@Table(name="content", uniqueConstraints = @UniqueConstraint(name = "uk_content_source", columnNames = { "dataset", "source_descriptor", "source_id" }), indexes = {
+		@Index(name = "idx_content_revision", columnList = "revision_root_id, revision_ordinal"),
+		@Index(name = "idx_content_payload", columnList = "fk_payload"),
+		@Index(name = "idx_content_author", columnList = "fk_user_id"),
+		@Index(name = "idx_content_source_id", columnList = "source_id") })
 @Description("The content of a Contribution or Context")
-public class Content extends TimedAnnotatableSourcedBE implements Identifiable<Long>{
+public class Content extends TimedAnnotatableSourcedBE implements Identifiable<Long>, PrimarySourced{
 
 	@Id
 	@Column(name="id_content", nullable=false)
@@ -60,6 +80,10 @@ public class Content extends TimedAnnotatableSourcedBE implements Identifiable<L
 	@Description("The primary key of a content")
 	private Long id;
 	
+	@Embedded
+	@Description("The first source of this content, which is stored with the content instead of a DataSourceAggregate.")
+	private PrimarySource primarySource;
+	
 	@OneToOne(cascade=CascadeType.ALL, fetch=FetchType.LAZY) 
 	@JoinColumn(name = "fk_previous_revision")
 	@Description("The content that represents the previous revision of this contribution or context.")
@@ -70,17 +94,24 @@ public class Content extends TimedAnnotatableSourcedBE implements Identifiable<L
 	@Description("The content that represents the next revision of this contribution or context.")
 	private Content nextRevision;
 
+	@Column(name = "revision_root_id")
+	@Description("The id of the first revision in the revision history of this content. Null if this content has no other revisions.")
+	private Long revisionRootId;
+
+	@Column(name = "revision_ordinal")
+	@Description("The position of this content in its revision history, starting with 0 for the first revision. Null if this content has no other revisions.")
+	private Integer revisionOrdinal;
+
 	@Column(columnDefinition="TEXT")
 	@Description("The title of the content.")
 	private String title;
 
-	@Column(columnDefinition="LONGTEXT")
-	@Description("The text body of this context, if it is a textual content.")
-	private String text;
-	
-	@Column(columnDefinition="LONGBLOB")
-	@Description("The data of this content, if it is a non-textual content.")
-	private Blob data;
+	@JsonIgnore
+	@ManyToOne(cascade={CascadeType.PERSIST, CascadeType.MERGE}, fetch=FetchType.LAZY) 
+	@JoinColumn(name = "fk_payload")
+	@Setter(AccessLevel.PRIVATE) 
+	@Description("The text and data of this content. Only loaded when the text or data is accessed. May be shared with other contents with the same text.")
+	private ContentPayload payload;
 	
 	@OneToOne(cascade=CascadeType.ALL) 
 	@JoinColumn(name = "fk_user_id")
@@ -91,5 +122,75 @@ public class Content extends TimedAnnotatableSourcedBE implements Identifiable<L
 	@Description("A set of interactions between users and this content entity.")
 	@Setter(AccessLevel.PRIVATE) 
 	private Set<ContributionInteraction> contributionInteractions = new HashSet<ContributionInteraction>();
+
+	/**
+	 * Older revisions may store their text as a delta against their next revision, if delta encoding is enabled.
+	 * Their text has to be retrieved with ContentService.getText or ContentService.fetchText, which reconstruct
+	 * it from the following revisions. The current revision of a contribution always stores its full text.
+	 * 
+	 * @return the text body of this content, if it is a textual content and its text is not delta-encoded
+	 */
+	public String getText(){
+		return payload==null?null:payload.getText();
+	}
+
+	/**
+	 * @return the text of this content encoded as a delta against the text of its next revision or null if the text is stored in full
+	 */
+	@JsonIgnore
+	public byte[] getTextDelta(){
+		return payload==null?null:payload.getDelta();
+	}
+
+	public void setText(String text){
+		if(payload!=null&&!payload.isDeltaEncoded()&&Objects.equals(text, payload.getText())){
+			return;
+		}
+		writablePayload().setText(text);
+	}
+
+	/**
+	 * @return the data of this content, if it is a non-textual content
+	 */
+	public Blob getData(){
+		return payload==null?null:payload.getData();
+	}
+
+	public void setData(Blob data){
+		writablePayload().setData(data);
+	}
+
+	/**
+	 * Replaces the text of this content with a delta against the text of its next revision.
+	 * Use ContentService.linkRevisions to delta-encode revisions.
+	 * 
+	 * @param delta the delta produced by RevisionDelta.encode
+	 */
+	@JsonIgnore
+	public void setTextDelta(byte[] delta){
+		writablePayload().setDelta(delta);
+	}
+
+	/**
+	 * Makes this content reference the given persisted payload, which may be shared with other contents.
+	 * Use ContentService.setText to share the payloads of identical texts.
+	 * 
+	 * @param payload a persisted payload
+	 */
+	public void sharePayload(ContentPayload payload){
+		Assert.notNull(payload, "Payload cannot be null.");
+		Assert.notNull(payload.getId(), "Only persisted payloads can be shared.");
+		this.payload=payload;
+	}
+
+	private ContentPayload writablePayload(){
+		if(payload==null){
+			payload=new ContentPayload();
+		}else if(payload.getId()!=null){
+			//a persisted payload may be shared with other contents, so it is replaced with a modified copy
+			payload=payload.copy();
+		}
+		return payload;
+	}
 		
 }
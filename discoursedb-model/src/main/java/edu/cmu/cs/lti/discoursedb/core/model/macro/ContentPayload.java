@@ -0,0 +1,120 @@
+package edu.cmu.cs.lti.discoursedb.core.model.macro;
+
+import java.sql.Blob;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.BatchSize;
+import org.springframework.data.rest.core.annotation.Description;
+import org.springframework.hateoas.Identifiable;
+
+import edu.cmu.cs.lti.discoursedb.core.model.BaseEntity;
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+
+/**
+ * A ContentPayload holds the text and data of a Content entity.<br/>
+ *
+ * The payload is kept in a separate table so that queries on the metadata of
+ * Content entities (revision chains, authors, timestamps) do not have to read
+ * potentially very large texts and blobs. Payloads are loaded lazily when the
+ * text or data of a Content entity is accessed. Uninitialized payloads are
+ * loaded in batches, so iterating over a list of contents does not issue one
+ * query per content. Use ContentService.fetchText to retrieve the texts of
+ * many contents without loading the Content entities.<br/>
+ *
+ * If delta encoding is enabled, older revisions of a text do not store their
+ * text but a delta against the text of their next revision (see
+ * ContentService.linkRevisions). The text of such a payload is null. The
+ * text of the Content is reconstructed by ContentService.getText or
+ * ContentService.fetchText.<br/>
+ *
+ * Every payload stores a 128-bit hash of its text. Contents with identical
+ * texts can share a single payload (see ContentService.setText), and contents
+ * with a given text can be found with an index lookup on the hash. Since a
+ * persisted payload may be shared, Content entities never modify it in place
+ * but replace it with a modified copy.
+ */
+@Data
+@EqualsAndHashCode(callSuper=true)
+@Entity
+@Table(name="content_payload", indexes = @Index(name = "idx_content_payload_hash", columnList = "text_hash"))
+@BatchSize(size=100)
+@Description("The text and data of a Content entity")
+public class ContentPayload extends BaseEntity implements Identifiable<Long>{
+
+	@Id
+	@Column(name="id_content_payload", nullable=false)
+    @GeneratedValue(strategy = GenerationType.AUTO)
+	@Setter(AccessLevel.PRIVATE)
+	@Description("The primary key of a content payload")
+	private Long id;
+
+	@Column(columnDefinition="LONGTEXT")
+	@Description("The text body of this context, if it is a textual content.")
+	private String text;
+
+	@Column(name="text_hash", columnDefinition="BINARY(16)")
+	@Setter(AccessLevel.PRIVATE)
+	@Description("The MD5 hash of the UTF-8 encoded text of this content. Retained if the text is delta-encoded.")
+	private byte[] textHash;
+
+	@Column(columnDefinition="LONGBLOB")
+	@Description("The text of this content encoded as a delta against the text of its next revision. Null if the text is stored in full.")
+	private byte[] delta;
+
+	@Column(columnDefinition="LONGBLOB")
+	@Description("The data of this content, if it is a non-textual content.")
+	private Blob data;
+
+	/**
+	 * Replaces the text of this payload. A delta-encoded text is discarded.
+	 * 
+	 * @param text the new text
+	 */
+	public void setText(String text){
+		this.text=text;
+		this.textHash=text==null?null:TextHash.of(text);
+		this.delta=null;
+	}
+
+	/**
+	 * Replaces the text of this payload with a delta against the text of the next revision.
+	 * The hash of the text is retained.
+	 * 
+	 * @param delta the delta produced by RevisionDelta.encode
+	 */
+	public void setDelta(byte[] delta){
+		this.delta=delta;
+		this.text=null;
+	}
+
+	/**
+	 * @return true, if the text of this payload is stored as a delta against the text of the next revision
+	 */
+	public boolean isDeltaEncoded(){
+		return delta!=null;
+	}
+
+	/**
+	 * @return a new, unsaved payload with the same text, data and delta as this payload
+	 */
+	public ContentPayload copy(){
+		ContentPayload copy = new ContentPayload();
+		copy.text=text;
+		copy.textHash=textHash;
+		copy.delta=delta;
+		copy.data=data;
+		return copy;
+	}
+
+}
@@ -5,20 +5,29 @@ import java.util.Set;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedSubgraph;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import org.springframework.data.rest.core.annotation.Description;
 import org.springframework.hateoas.Identifiable;
 
 import edu.cmu.cs.lti.discoursedb.core.model.TypedTimedAnnotatableSourcedBE;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySource;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySourced;
 import edu.cmu.cs.lti.discoursedb.core.model.user.ContributionInteraction;
 import lombok.AccessLevel;
 import lombok.Data;
@@ -41,16 +50,46 @@ import lombok.ToString;
  * associated with a ContributionType indicating what the Contribution instance
  * represents, e.g. a {@link edu.cmu.cs.lti.discoursedb.core.type.ContributionTypes#POST}.
  * 
+ * The named entity graph "contributionWithRevisionAndAuthor" defines the
+ * fetch plan for the common read paths, so that lists of contributions can be
+ * loaded with a single query instead of one query per association and
+ * contribution. The eagerly fetched aggregates are part of the graph, so they
+ * are joined instead of being loaded with secondary selects. The sources of a
+ * contribution are fetched with a join fetch query of the
+ * ContributionRepository instead, since Hibernate cannot resolve subgraphs of
+ * attributes that are declared by a mapped superclass.
+ * 
+ * The discourse of a contribution is denormalized into the contribution table,
+ * so that the contributions of a discourse can be found without joining the
+ * DiscoursePartContribution and DiscourseToDiscoursePart relations. It is set
+ * when the contribution is added to its first DiscoursePart. Contributions are
+ * assumed to belong to a single discourse. If a contribution is part of
+ * DiscourseParts of different discourses, only the discourse of the first
+ * DiscoursePart is stored.
+ * 
  * @author Oliver Ferschke
  *
  */
 @Data
-@EqualsAndHashCode(callSuper=true, exclude={"contributionPartOfDiscourseParts","contributionAudiences","contributionContexts","sourceOfDiscourseRelations","targetOfDiscourseRelations","contributionInteractions"})
-@ToString(callSuper=true, exclude={"contributionPartOfDiscourseParts","contributionAudiences","contributionContexts","sourceOfDiscourseRelations","targetOfDiscourseRelations","contributionInteractions"})
+@EqualsAndHashCode(callSuper=true, exclude={"discourse","contributionPartOfDiscourseParts","contributionAudiences","contributionContexts","sourceOfDiscourseRelations","targetOfDiscourseRelations","contributionInteractions"})
+@ToString(callSuper=true, exclude={"discourse","contributionPartOfDiscourseParts","contributionAudiences","contributionContexts","sourceOfDiscourseRelations","targetOfDiscourseRelations","contributionInteractions"})
 @Entity
-@Table(name="contribution")
+@Table(name="contribution", uniqueConstraints = @UniqueConstraint(name = "uk_contribution_source", columnNames = { "dataset", "source_descriptor", "source_id" }), indexes = {
+		@Index(name = "idx_contribution_discourse", columnList = "fk_discourse"),
+		@Index(name = "idx_contribution_start", columnList = "start_time, id_contribution"),
+		@Index(name = "idx_contribution_source_id", columnList = "source_id") })
+@NamedEntityGraph(name = "contributionWithRevisionAndAuthor", 
+		attributeNodes = {
+				@NamedAttributeNode(value = "currentRevision", subgraph = "revisionWithAuthor"),
+				@NamedAttributeNode("dataSourceAggregate"),
+				@NamedAttributeNode("annotations") }, 
+		subgraphs = @NamedSubgraph(name = "revisionWithAuthor", 
+			attributeNodes = {
+				@NamedAttributeNode("author"),
+				@NamedAttributeNode("dataSourceAggregate"),
+				@NamedAttributeNode("annotations") }))
 @Description("A contribution.")
-public class Contribution extends TypedTimedAnnotatableSourcedBE implements Identifiable<Long>{
+public class Contribution extends TypedTimedAnnotatableSourcedBE implements Identifiable<Long>, PrimarySourced{
 
 	@Id
 	@Column(name="id_contribution", nullable=false)
@@ -59,6 +98,10 @@ public class Contribution extends TypedTimedAnnotatableSourcedBE implements Iden
 	@Description("The primary key.")
 	private Long id;
 	
+	@Embedded
+	@Description("The first source of this contribution, which is stored with the contribution instead of a DataSourceAggregate.")
+	private PrimarySource primarySource;
+	
 	@OneToOne(cascade = {CascadeType.PERSIST, CascadeType.REFRESH}, fetch=FetchType.LAZY) 
 	@JoinColumn(name = "fk_first_revision")
 	@Description("The content entity that represents the first revision of this contribution entity.")
@@ -69,6 +112,11 @@ public class Contribution extends TypedTimedAnnotatableSourcedBE implements Iden
 	@Description("The content entity that represents the most current revision of this contribution entity.")
 	private Content currentRevision;
 	
+	@ManyToOne(fetch=FetchType.LAZY) 
+	@JoinColumn(name = "fk_discourse")
+	@Description("The discourse this contribution belongs to. Derived from the DiscourseParts the contribution has been added to.")
+	private Discourse discourse;
+	
 	@Column(name="upvotes")
 	@Description("The number of upvotes for this contribution.")
 	private int upvotes;
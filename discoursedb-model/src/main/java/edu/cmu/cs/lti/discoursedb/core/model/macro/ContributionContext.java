@@ -13,6 +13,7 @@ import javax.persistence.UniqueConstraint;
 
 import org.springframework.data.rest.core.annotation.Description;
 import org.springframework.hateoas.Identifiable;
+import org.springframework.util.Assert;
 
 import edu.cmu.cs.lti.discoursedb.core.model.TypedTimedBE;
 import lombok.AccessLevel;
@@ -25,7 +26,10 @@ import lombok.Setter;
  * If the context is a content, the begin and end offset can specify a span within the content that constitutes the context.
  * If no span is provided, the whole content is considered to be the context.
  * Alternatively, a contribution ctx can constitute the context of another contribution c.
- * In that case, all content entities associated with ctx are considered to be the context of c.
+ * In that case, all content entities associated with ctx are considered to be the context of c.<br/>
+ * 
+ * Since only one of the two context references is set, the unique constraint covers the context key instead of the references.
+ * Unique constraints never consider null values equal and would not prevent duplicate contexts otherwise.
  * 
  * @author Oliver Ferschke
  *
@@ -33,8 +37,8 @@ import lombok.Setter;
 @Data
 @EqualsAndHashCode(callSuper=true)
 @Entity
-@Table(name = "contribution_has_context", uniqueConstraints = @UniqueConstraint(columnNames = { "fk_contribution",
-		"fk_context_contribution", "fk_context_content", "begin_offset", "end_offset" }) )
+@Table(name = "contribution_has_context", uniqueConstraints = @UniqueConstraint(name = "uk_contribution_context", columnNames = { "fk_contribution",
+		"context_key", "begin_offset", "end_offset" }) )
 public class ContributionContext extends TypedTimedBE implements Identifiable<Long>{
 	
 	@Id
@@ -59,6 +63,11 @@ public class ContributionContext extends TypedTimedBE implements Identifiable<Lo
 	@JoinColumn(name = "fk_context_content")
     private Content contextContent;    
 
+	@Column(name="context_key", length=40)
+	@Setter(AccessLevel.PRIVATE) 
+	@Description("Identifies the context contribution or content of this relation. Written by ContributionService.addContextToContribution.")
+	private String contextKey;
+
 	@Column(name="begin_offset")
 	@Description("Begin offset that indicates the start index of the span of text of a content entity to which the annotation instance applies. Can be ingored in the case of an entity annotation.")
 	private int beginOffset;
@@ -66,5 +75,23 @@ public class ContributionContext extends TypedTimedBE implements Identifiable<Lo
 	@Column(name="end_offset")
 	@Description("End offset that indicates the end index of the span of text of a content entity to which the annotation instance applies. Can be ingored in the case of an entity annotation.")
 	private int endOffset;
-		
+
+	/**
+	 * @param context a saved contribution
+	 * @return the context key of a relation with the given context contribution
+	 */
+	public static String contextKey(Contribution context){
+		Assert.notNull(context.getId(), "Context contribution has to be saved before it can be used as context.");
+		return "contribution:"+context.getId();
+	}
+
+	/**
+	 * @param context a saved content
+	 * @return the context key of a relation with the given context content
+	 */
+	public static String contextKey(Content context){
+		Assert.notNull(context.getId(), "Context content has to be saved before it can be used as context.");
+		return "content:"+context.getId();
+	}
+
 }
@@ -3,20 +3,25 @@ package edu.cmu.cs.lti.discoursedb.core.model.macro;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.hateoas.Identifiable;
 import org.springframework.util.Assert;
 
 import edu.cmu.cs.lti.discoursedb.core.model.BaseEntity;
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import lombok.AccessLevel;
 import lombok.Data;
@@ -47,12 +52,14 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper=true, exclude={"discourseToDiscourseParts","users"})
 @ToString(callSuper=true, exclude={"discourseToDiscourseParts","users"})
 @Entity
-@Table(name = "discourse")
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE, region="discoursedb.discourse")
+@Table(name = "discourse", indexes = @Index(name = "idx_discourse_name_hash", columnList = "name_hash"))
 public class Discourse extends BaseEntity implements Identifiable<Long> {
 
 	public Discourse(String name){
 		Assert.hasText(name);
-		this.name=name;
+		setName(name);
 	}
 
 	@Id
@@ -64,6 +71,13 @@ public class Discourse extends BaseEntity implements Identifiable<Long> {
 	@Column(updatable=false, unique=true, columnDefinition="TEXT")
 	private String name;
 
+	/**
+	 * TEXT columns cannot be indexed without a prefix length, so discourses are looked up by the hash of their name
+	 */
+	@Column(name="name_hash", updatable=false, columnDefinition="BINARY(16)")
+	@Setter(AccessLevel.PRIVATE)
+	private byte[] nameHash;
+
 	@OneToMany(mappedBy = "discourse")
 	@Setter(AccessLevel.PRIVATE) 
 	private Set<DiscourseToDiscoursePart> discourseToDiscourseParts = new HashSet<DiscourseToDiscoursePart>();
@@ -71,5 +85,10 @@ public class Discourse extends BaseEntity implements Identifiable<Long> {
 	@ManyToMany(fetch = FetchType.LAZY, mappedBy = "discourses")
 	@Setter(AccessLevel.PRIVATE) 
 	private Set<User> users;
+
+	public void setName(String name){
+		this.name=name;
+		this.nameHash=name==null?null:TextHash.of(name);
+	}
 	
 }
@@ -3,17 +3,26 @@ package edu.cmu.cs.lti.discoursedb.core.model.macro;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.hateoas.Identifiable;
 
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
 import edu.cmu.cs.lti.discoursedb.core.model.TypedTimedAnnotatableSourcedBE;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySource;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySourced;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -41,8 +50,12 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper=true, exclude={"discourseToDiscourseParts","discoursePartContributions","sourceOfDiscoursePartRelations","targetOfDiscoursePartRelations"})
 @ToString(callSuper=true, exclude={"discourseToDiscourseParts","discoursePartContributions","sourceOfDiscoursePartRelations","targetOfDiscoursePartRelations"})
 @Entity
-@Table(name="discourse_part")
-public class DiscoursePart extends TypedTimedAnnotatableSourcedBE implements Identifiable<Long> {
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE, region="discoursedb.discourse_part")
+@Table(name="discourse_part", uniqueConstraints = @UniqueConstraint(name = "uk_discourse_part_source", columnNames = { "dataset", "source_descriptor", "source_id" }), indexes = {
+		@Index(name = "idx_discourse_part_name_type", columnList = "name_hash, type"),
+		@Index(name = "idx_discourse_part_source_id", columnList = "source_id") })
+public class DiscoursePart extends TypedTimedAnnotatableSourcedBE implements Identifiable<Long>, PrimarySourced {
 
 	@Id
 	@Column(name="id_discourse_part", nullable=false)
@@ -50,9 +63,19 @@ public class DiscoursePart extends TypedTimedAnnotatableSourcedBE implements Ide
 	@Setter(AccessLevel.PRIVATE) 
 	private Long id;
 	
+	@Embedded
+	private PrimarySource primarySource;
+	
 	@Column(columnDefinition="TEXT")
 	private String name;
 	
+	/**
+	 * TEXT columns cannot be indexed without a prefix length, so DiscourseParts are looked up by the hash of their name
+	 */
+	@Column(name="name_hash", columnDefinition="BINARY(16)")
+	@Setter(AccessLevel.PRIVATE)
+	private byte[] nameHash;
+	
     @OneToMany(mappedBy = "discoursePart")
 	@Setter(AccessLevel.PRIVATE) 
 	private Set<DiscourseToDiscoursePart> discourseToDiscourseParts = new HashSet<DiscourseToDiscoursePart>();
@@ -68,5 +91,10 @@ public class DiscoursePart extends TypedTimedAnnotatableSourcedBE implements Ide
     @OneToMany(mappedBy="target")
 	@Setter(AccessLevel.PRIVATE) 
 	private Set<DiscoursePartRelation> targetOfDiscoursePartRelations = new HashSet<DiscoursePartRelation>();
+
+	public void setName(String name){
+		this.name=name;
+		this.nameHash=name==null?null:TextHash.of(name);
+	}
 	
 }
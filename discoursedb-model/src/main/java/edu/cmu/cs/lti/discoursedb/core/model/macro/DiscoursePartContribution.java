@@ -6,6 +6,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -22,7 +23,8 @@ import lombok.Setter;
 @Data
 @EqualsAndHashCode(callSuper=true)
 @Entity
-@Table(name="contribution_partof_discourse_part", uniqueConstraints = @UniqueConstraint(columnNames = { "fk_contribution", "fk_discourse_part" }))
+@Table(name="contribution_partof_discourse_part", uniqueConstraints = @UniqueConstraint(columnNames = { "fk_contribution", "fk_discourse_part" }), 
+	indexes = @Index(name = "idx_dpc_part_start", columnList = "fk_discourse_part, start_time"))
 public class DiscoursePartContribution extends TypedTimedBE implements Identifiable<Long> {
 
 	@Id
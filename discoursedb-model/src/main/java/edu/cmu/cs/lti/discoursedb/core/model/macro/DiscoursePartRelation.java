@@ -6,9 +6,11 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import org.springframework.hateoas.Identifiable;
 
@@ -21,7 +23,8 @@ import lombok.Setter;
 @Data
 @EqualsAndHashCode(callSuper=true)
 @Entity
-@Table(name="discourse_part_relation")
+@Table(name="discourse_part_relation", uniqueConstraints = @UniqueConstraint(columnNames = { "fk_source", "fk_target", "type" }),
+	indexes = @Index(name = "idx_discourse_part_relation_target", columnList = "fk_target, type"))
 public class DiscoursePartRelation extends TypedTimedBE implements Identifiable<Long> {
 
 	@Id
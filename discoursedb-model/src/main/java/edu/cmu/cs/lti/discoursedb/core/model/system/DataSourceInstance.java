@@ -1,5 +1,6 @@
 package edu.cmu.cs.lti.discoursedb.core.model.system;
 
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -14,6 +15,8 @@ import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.hateoas.Identifiable;
 
 import edu.cmu.cs.lti.discoursedb.core.model.BaseEntity;
@@ -28,11 +31,14 @@ import lombok.Setter;
 @EqualsAndHashCode(callSuper=true)
 @NoArgsConstructor
 @Entity
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE, region="discoursedb.data_source_instance")
 @Table(name = "data_source_instance", uniqueConstraints = @UniqueConstraint(columnNames = { "entity_source_id",
 		"entity_source_descriptor", "dataset_name" }) , indexes = {
 				@Index(name = "sourceId_descriptor_Index", columnList = "entity_source_id,entity_source_descriptor"),
 				@Index(name = "sourceDescriptorIndex", columnList = "entity_source_descriptor"),
-				@Index(name = "sourceIdIndex", columnList = "entity_source_id") })
+				@Index(name = "sourceIdIndex", columnList = "entity_source_id"),
+				@Index(name = "sourceDatasetIndex", columnList = "dataset_name") })
 public class DataSourceInstance extends BaseEntity implements Identifiable<Long> {
 
 	@Id
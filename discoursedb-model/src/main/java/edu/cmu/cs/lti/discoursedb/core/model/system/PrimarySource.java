@@ -0,0 +1,82 @@
+package edu.cmu.cs.lti.discoursedb.core.model.system;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+import edu.cmu.cs.lti.discoursedb.core.type.DataSourceTypes;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The first source of an entity, which is stored in the table of the entity
+ * itself instead of a DataSourceInstance of a DataSourceAggregate.<br/>
+ *
+ * Most entities have exactly one source. Storing it inline saves the inserts
+ * of the aggregate and the instance and allows to look up the entity by its
+ * source without any joins. Additional sources of the same entity are stored
+ * in a DataSourceAggregate as before. Besides the unique key on the dataset,
+ * descriptor and source id, the entities index the source id on its own, so
+ * that lookups by source id alone do not have to scan the table. Inline
+ * storage can be disabled with the discoursedb.sources.inline property.
+ */
+@Data
+@NoArgsConstructor
+@Embeddable
+public class PrimarySource implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Column(name = "source_id")
+	private String entitySourceId;
+
+	@Column(name = "source_descriptor")
+	private String entitySourceDescriptor;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "source_type")
+	private DataSourceTypes sourceType;
+
+	@Column(name = "dataset")
+	private String datasetName;
+
+	/**
+	 * Creates a primary source with the fields of the given DataSourceInstance.
+	 *
+	 * @param source
+	 *            the source to store inline
+	 */
+	public PrimarySource(DataSourceInstance source) {
+		setEntitySourceId(source.getEntitySourceId());
+		setEntitySourceDescriptor(source.getEntitySourceDescriptor());
+		setSourceType(source.getSourceType());
+		setDatasetName(source.getDatasetName());
+	}
+
+	/**
+	 * @return true, if the given source has the same source id, descriptor and dataset as this source
+	 */
+	public boolean matches(DataSourceInstance source) {
+		return source != null && matches(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
+	}
+
+	/**
+	 * @return true, if this source has the given source id, descriptor and dataset
+	 */
+	public boolean matches(String entitySourceId, String entitySourceDescriptor, String datasetName) {
+		return entitySourceId != null && entitySourceId.equals(this.entitySourceId)
+				&& entitySourceDescriptor != null && entitySourceDescriptor.equals(this.entitySourceDescriptor)
+				&& datasetName != null && datasetName.equals(this.datasetName);
+	}
+
+	/**
+	 * @return a new transient DataSourceInstance with the fields of this source
+	 */
+	public DataSourceInstance toDataSourceInstance() {
+		return new DataSourceInstance(entitySourceId, entitySourceDescriptor, sourceType, datasetName);
+	}
+
+}
@@ -0,0 +1,36 @@
+package edu.cmu.cs.lti.discoursedb.core.model.system;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implemented by entities that store their first source inline in a
+ * {@link PrimarySource} and only fall back to a DataSourceAggregate for
+ * additional sources.
+ */
+public interface PrimarySourced {
+
+	public PrimarySource getPrimarySource();
+
+	public void setPrimarySource(PrimarySource primarySource);
+
+	public DataSourceAggregate getDataSourceAggregate();
+
+	/**
+	 * Lists all sources of the entity. The primary source is returned as a
+	 * transient DataSourceInstance that is not stored in the database.
+	 *
+	 * @return the primary source followed by the sources of the DataSourceAggregate
+	 */
+	public default List<DataSourceInstance> listSources() {
+		List<DataSourceInstance> sources = new ArrayList<>();
+		if (getPrimarySource() != null) {
+			sources.add(getPrimarySource().toDataSourceInstance());
+		}
+		if (getDataSourceAggregate() != null) {
+			sources.addAll(getDataSourceAggregate().getSources());
+		}
+		return sources;
+	}
+
+}
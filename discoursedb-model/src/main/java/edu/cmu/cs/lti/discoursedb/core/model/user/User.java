@@ -3,8 +3,10 @@ package edu.cmu.cs.lti.discoursedb.core.model.user;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
@@ -16,11 +18,17 @@ import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.hateoas.Identifiable;
 
 import edu.cmu.cs.lti.discoursedb.core.model.TimedAnnotatableSourcedBE;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySource;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySourced;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -40,17 +48,23 @@ import lombok.ToString;
  */
 @Data
 @NoArgsConstructor
-@EqualsAndHashCode(callSuper=true, exclude={"contentInteractions","userAudiences","userGroups","sourceOfUserRelations","targetOfUserRelations"})
-@ToString(callSuper=true, exclude={"contentInteractions","userAudiences","userGroups","sourceOfUserRelations","targetOfUserRelations"})
+@EqualsAndHashCode(callSuper=true, exclude={"discourses","contentInteractions","userAudiences","userGroups","sourceOfUserRelations","targetOfUserRelations"})
+@ToString(callSuper=true, exclude={"discourses","contentInteractions","userAudiences","userGroups","sourceOfUserRelations","targetOfUserRelations"})
 @Entity
-@Table(name = "user", indexes = { @Index(name = "userNameIndex", columnList = "username") })
-public class User extends TimedAnnotatableSourcedBE implements Identifiable<Long> {
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE, region="discoursedb.user")
+@Table(name = "user", uniqueConstraints = @UniqueConstraint(name = "uk_user_source", columnNames = { "dataset", "source_descriptor", "source_id" }), indexes = { @Index(name = "userNameIndex", columnList = "username"),
+		@Index(name = "idx_user_source_id", columnList = "source_id") })
+public class User extends TimedAnnotatableSourcedBE implements Identifiable<Long>, PrimarySourced {
 
 	@Id
 	@Column(name = "id_user", nullable = false)
 	@GeneratedValue(strategy = GenerationType.AUTO)
 	@Setter(AccessLevel.PRIVATE) 
 	private Long id;
+	
+	@Embedded
+	private PrimarySource primarySource;
 
 	private String realname;
 
@@ -66,7 +80,14 @@ public class User extends TimedAnnotatableSourcedBE implements Identifiable<Long
 
 	private String location;
 
-	@ManyToMany(fetch = FetchType.EAGER, cascade = {CascadeType.PERSIST,CascadeType.REMOVE})
+	/**
+	 * The discourses are only loaded when they are accessed. The discourses of
+	 * up to 50 users of the same persistence context are then loaded together.
+	 * Use UserService.isMember and UserService.findUserIdsInDiscourse to check
+	 * memberships without loading the discourses.
+	 */
+	@ManyToMany(fetch = FetchType.LAZY, cascade = {CascadeType.PERSIST,CascadeType.REMOVE})
+	@BatchSize(size = 50)
 	@JoinTable(name = "user_memberof_discourse", joinColumns = {
 		@JoinColumn(name = "id_user", nullable = false, updatable = false) }, inverseJoinColumns = {
 					@JoinColumn(name = "id_discourse", nullable = false, updatable = false) })
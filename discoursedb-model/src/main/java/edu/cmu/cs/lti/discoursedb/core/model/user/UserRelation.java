@@ -9,6 +9,7 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import org.springframework.data.rest.core.annotation.RestResource;
 import org.springframework.hateoas.Identifiable;
@@ -22,7 +23,7 @@ import lombok.Setter;
 @Data
 @EqualsAndHashCode(callSuper=true)
 @Entity
-@Table(name="user_relation")
+@Table(name="user_relation", uniqueConstraints = @UniqueConstraint(columnNames = { "fk_source", "fk_target", "type" }))
 public class UserRelation extends TypedTimedAnnotatableBE implements Identifiable<Long> {
 
 	@Id
@@ -2,12 +2,23 @@ package edu.cmu.cs.lti.discoursedb.core.repository.annotation;
 
 import java.util.List;
 
+import org.springframework.data.rest.core.annotation.RestResource;
+
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.Feature;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface FeatureRepository extends BaseRepository<Feature,Long>{
 
-	List<Feature> findAllByTypeAndValue(String type, String value);
+	/**
+	 * The features are looked up by the indexed hash of their value.
+	 * 
+	 * @param type the feature type
+	 * @param valueHash the hash of the value produced by TextHash.of
+	 * @param value the feature value
+	 * @return the features with the given type and value
+	 */
+	@RestResource(exported = false)
+	List<Feature> findAllByTypeAndValueHashAndValue(String type, byte[] valueHash, String value);
     
     
 }
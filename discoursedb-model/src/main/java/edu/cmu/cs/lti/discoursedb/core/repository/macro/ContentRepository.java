@@ -1,16 +1,118 @@
 package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.ContentPayload;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface ContentRepository extends BaseRepository<Content,Long>{
 	public List<Content> findByIdIn(List<Long> contentIdList);
-	
+
+	/**
+	 * Retrieves the texts of the given contents without loading the Content entities.
+	 * 
+	 * @param ids the ids of the contents
+	 * @return a list of (content id, text) pairs. Contents without a text are not included.
+	 */
+	@RestResource(exported = false)
+	@Query("select c.id, p.text from Content c join c.payload p where c.id in :ids and p.text is not null")
+	public List<Object[]> findTextByIdIn(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Retrieves the contents with the given text and the delta-encoded contents with the hash of the given text.
+	 * The hash is used for the index lookup and the text rules out hash collisions. Delta-encoded texts cannot be
+	 * compared by the database and have to be checked by the caller.
+	 *
+	 * @param textHash the hash produced by TextHash.of
+	 * @param text the text with the given hash
+	 * @return the contents with the given text and the delta-encoded contents with the given text hash
+	 */
+	@RestResource(exported = false)
+	@Query("select c from Content c join c.payload p where p.textHash = :hash and (p.text = :text or p.delta is not null)")
+	public List<Content> findByTextHashAndText(@Param("hash") byte[] textHash, @Param("text") String text);
+
+	/**
+	 * Retrieves the payloads with the given text hash that can be shared with contents with the same text.
+	 * Payloads with data or a delta-encoded text cannot be shared.
+	 *
+	 * @param textHash the hash produced by TextHash.of
+	 * @return the sharable payloads with the given text hash
+	 */
+	@RestResource(exported = false)
+	@Query("select p from ContentPayload p where p.textHash = :hash and p.delta is null and p.data is null")
+	public List<ContentPayload> findSharablePayloads(@Param("hash") byte[] textHash);
+
+	@RestResource(exported = false)
+	@Query("select count(c) from Content c where c.payload = :payload")
+	public long countByPayload(@Param("payload") ContentPayload payload);
+
+	/**
+	 * Deletes payloads that are no longer referenced by any content.
+	 *
+	 * @return the number of deleted payloads
+	 */
+	@Modifying
+	@Query(value="delete p from content_payload p left join content c on c.fk_payload = p.id_content_payload where c.id_content is null",nativeQuery=true)
+	public int deleteOrphanedPayloads();
+
+	/**
+	 * Retrieves the given contents if their text is stored as a delta.
+	 *
+	 * @param ids the ids of the contents
+	 * @return the delta-encoded contents among the given contents
+	 */
+	@RestResource(exported = false)
+	@Query("select c from Content c join c.payload p where c.id in :ids and p.delta is not null")
+	public List<Content> findDeltaEncodedByIdIn(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Retrieves the revisions that are needed to reconstruct the delta-encoded text of a revision.
+	 * The chain starts with the first revision after the given ordinal that stores its text in full
+	 * and ends with the revision at the given ordinal.
+	 *
+	 * @param rootId the id of the first revision of the revision history
+	 * @param ordinal the position of the delta-encoded revision in the revision history
+	 * @return a list of (content id, text, delta) triples ordered from the most recent to the requested revision
+	 */
+	@RestResource(exported = false)
+	@Query("select c.id, p.text, p.delta from Content c join c.payload p where c.revisionRootId = :root and c.revisionOrdinal >= :ordinal "
+			+ "and c.revisionOrdinal <= (select min(k.revisionOrdinal) from Content k join k.payload kp where k.revisionRootId = :root and k.revisionOrdinal > :ordinal and kp.delta is null) "
+			+ "order by c.revisionOrdinal desc")
+	public List<Object[]> findDeltaChain(@Param("root") Long rootId, @Param("ordinal") Integer ordinal);
+
+	/**
+	 * Retrieves the revision history that starts with the first revision of the given contribution.
+	 * The first revision of a contribution without an indexed revision history is not included.
+	 * 
+	 * @param contribution the contribution
+	 * @return the revisions ordered from the first to the most recent revision or an empty list if the contribution does not have an indexed revision history
+	 */
+	@RestResource(exported = false)
+	@Query("select c from Contribution x join x.firstRevision f, Content c where x = :contribution and c.revisionRootId = f.id order by c.revisionOrdinal asc")
+	public List<Content> findRevisionHistory(@Param("contribution") Contribution contribution);
+
+	/**
+	 * Marks the given content as the first revision of a revision history, unless it already is part of an indexed history or has a previous revision.
+	 */
+	@Modifying
+	@Query(value="update content c set c.revision_root_id = c.id_content, c.revision_ordinal = 0 where c.id_content = ?1 and c.revision_root_id is null and c.fk_previous_revision is null",nativeQuery=true)
+	public void setRevisionRoot(Long id);
+
+	/**
+	 * Adds the content with the given id to the indexed revision history of the given previous revision.
+	 */
+	@Modifying
+	@Query(value="update content c join content p on p.id_content = ?1 set c.revision_root_id = p.revision_root_id, c.revision_ordinal = p.revision_ordinal + 1 where c.id_content = ?2",nativeQuery=true)
+	public void setRevisionIndexFromPrevious(Long previousRevId, Long id);
+
 	@Modifying
 	@Query(value="update content c set c.fk_next_revision = ?2 where c.id_content = ?1",nativeQuery=true)
 	public void setNextRevisionId(Long id, Long nextRevId);
@@ -18,5 +120,27 @@ public interface ContentRepository extends BaseRepository<Content,Long>{
 	@Modifying
 	@Query(value="update content c set c.fk_previous_revision = ?2 where c.id_content = ?1",nativeQuery=true)
 	public void setPreviousRevisionId(Long id, Long previousRevId);
+
+	/**
+	 * Retrieves the first revisions of revision histories that have not been indexed yet and have an id greater than the given id, ordered by id.
+	 */
+	@RestResource(exported = false)
+	@Query(value="select c.id_content from content c where c.id_content > ?1 and c.fk_previous_revision is null and c.fk_next_revision is not null and c.revision_root_id is null order by c.id_content limit ?2",nativeQuery=true)
+	public List<Number> findUnindexedRevisionRootIds(Long after, int limit);
+
+	@Modifying
+	@Query(value="update content c set c.revision_root_id = c.id_content, c.revision_ordinal = 0 where c.id_content in (:ids)",nativeQuery=true)
+	public void setRevisionRoots(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Adds the next revisions of the given contents to the indexed revision histories of these contents.
+	 */
+	@Modifying
+	@Query(value="update content c join content p on c.fk_previous_revision = p.id_content set c.revision_root_id = p.revision_root_id, c.revision_ordinal = p.revision_ordinal + 1 where p.id_content in (:ids)",nativeQuery=true)
+	public void setRevisionIndexOfNextRevisions(@Param("ids") Collection<Long> ids);
+
+	@RestResource(exported = false)
+	@Query(value="select c.id_content from content c where c.fk_previous_revision in (:ids)",nativeQuery=true)
+	public List<Number> findNextRevisionIds(@Param("ids") Collection<Long> ids);
     
 }
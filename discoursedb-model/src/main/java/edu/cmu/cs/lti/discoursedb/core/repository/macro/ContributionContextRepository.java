@@ -3,6 +3,9 @@ package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.ContributionContext;
@@ -10,9 +13,13 @@ import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface ContributionContextRepository extends BaseRepository<ContributionContext,Long>{
 	
-	Optional<ContributionContext> findOneByContributionAndContextContent(Contribution contribution, Content contextContent);
-	Optional<ContributionContext> findOneByContributionAndContextContribution(Contribution contribution, Contribution contextContribution);
-	List<ContributionContext> findByContextContribution(Contribution contextContribution);
-	List<ContributionContext> findByContextContent(Content contextContent);
+	@Query("select x from ContributionContext x where x.contribution = :contribution and x.contextContent = :contextContent")
+	Optional<ContributionContext> findOneByContributionAndContextContent(@Param("contribution") Contribution contribution, @Param("contextContent") Content contextContent);
+	@Query("select x from ContributionContext x where x.contribution = :contribution and x.contextContribution = :contextContribution")
+	Optional<ContributionContext> findOneByContributionAndContextContribution(@Param("contribution") Contribution contribution, @Param("contextContribution") Contribution contextContribution);
+	@Query("select x from ContributionContext x where x.contextContribution = :contextContribution")
+	List<ContributionContext> findByContextContribution(@Param("contextContribution") Contribution contextContribution);
+	@Query("select x from ContributionContext x where x.contextContent = :contextContent")
+	List<ContributionContext> findByContextContent(@Param("contextContent") Content contextContent);
     
 }
@@ -1,11 +1,190 @@
 package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RestResource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface ContributionRepository extends BaseRepository<Contribution,Long>{
 	List<Contribution> findAllByType(String type);
+
+	/**
+	 * Looks up the contribution with the given primary source with the unique index on the inline source columns.
+	 * Contributions whose sources are only stored in a DataSourceAggregate are not found.
+	 */
+	@RestResource(exported = false)
+	@Query("select c from Contribution c where c.primarySource.datasetName = :dataset and c.primarySource.entitySourceDescriptor = :descriptor and c.primarySource.entitySourceId = :sourceId")
+	Optional<Contribution> findOneByPrimarySource(@Param("sourceId") String entitySourceId, @Param("descriptor") String entitySourceDescriptor, @Param("dataset") String datasetName);
+	
+	/**
+	 * Pages are loaded with the "contributionWithRevisionAndAuthor" fetch plan,
+	 * so that the Spring Data REST collection resources do not issue additional queries per contribution.
+	 */
+	@Override
+	@EntityGraph("contributionWithRevisionAndAuthor")
+	Page<Contribution> findAll(Pageable pageable);
+
+	@RestResource(exported = false)
+	@EntityGraph("contributionWithRevisionAndAuthor")
+	@Query("select c from Contribution c")
+	List<Contribution> findAllWithRevisionAndAuthor();
+
+	/**
+	 * Fetches the same associations as the "contributionWithRevisionAndAuthor" fetch plan with join fetches, since Hibernate
+	 * does not bind the collection parameter of a criteria query that is combined with a fetch plan.
+	 */
+	@RestResource(exported = false)
+	@Query("select distinct c from Contribution c left join fetch c.currentRevision r left join fetch r.author "
+			+ "left join fetch r.dataSourceAggregate left join fetch r.annotations left join fetch c.dataSourceAggregate left join fetch c.annotations "
+			+ "where c.id in :ids")
+	List<Contribution> findAllWithRevisionAndAuthorByIdIn(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Fetches the same associations as the "contributionWithRevisionAndAuthor" fetch plan with join fetches, since Hibernate
+	 * applies fetch plans to subqueries as well and the contributions have to be found through the DiscoursePart relation.
+	 */
+	@RestResource(exported = false)
+	@Query("select c from DiscoursePartContribution dpc join dpc.contribution c left join fetch c.currentRevision r left join fetch r.author "
+			+ "left join fetch r.dataSourceAggregate left join fetch r.annotations left join fetch c.dataSourceAggregate left join fetch c.annotations "
+			+ "where dpc.discoursePart = :discoursePart")
+	List<Contribution> findAllWithRevisionAndAuthorByDiscoursePart(@Param("discoursePart") DiscoursePart discoursePart);
+
+	@RestResource(exported = false)
+	@EntityGraph("contributionWithRevisionAndAuthor")
+	Optional<Contribution> findOneWithRevisionAndAuthorById(Long id);
+
+	/**
+	 * Loads the contribution with its DataSourceAggregate, the sources of the aggregate and its annotations in a single query.
+	 */
+	@RestResource(exported = false)
+	@Query("select distinct c from Contribution c left join fetch c.dataSourceAggregate a left join fetch a.sources left join fetch c.annotations where c.id = :id")
+	Optional<Contribution> findOneWithSourcesById(@Param("id") Long id);
+
+	/**
+	 * Retrieves the contributions whose current revision has the given text.
+	 * The hash is used for the index lookup and the text rules out hash collisions.
+	 * 
+	 * @param textHash the hash produced by TextHash.of
+	 * @param text the text with the given hash
+	 * @return the contributions with the given text
+	 */
+	@RestResource(exported = false)
+	@Query("select x from Contribution x join x.currentRevision c join c.payload p where p.textHash = :hash and p.text = :text")
+	List<Contribution> findAllByCurrentTextHashAndText(@Param("hash") byte[] textHash, @Param("text") String text);
 	
+	/**
+	 * Keyset pagination over all contributions ordered by id.
+	 * Only the page size of the Pageable is used. The next slice is retrieved by passing the id of the last contribution of the current slice.
+	 * 
+	 * @param after the id of the last contribution of the previous slice (0 for the first slice)
+	 * @param pageable the page size. The page number has to be 0, since a page number would be applied as an OFFSET. The REST API rejects other page numbers.
+	 * @return a slice of contributions with an id greater than the given id
+	 */
+	@Query("select c from Contribution c where c.id > :after order by c.id asc")
+	Slice<Contribution> findByIdAfter(@Param("after") Long after, Pageable pageable);
+
+	/**
+	 * Keyset pagination over all contributions ordered by start time and id.
+	 * Only the page size of the Pageable is used. The next slice is retrieved by passing the start time and id of the last contribution of the current slice.
+	 * Contributions without a start time are not included.
+	 * 
+	 * @param startTime the start time of the last contribution of the previous slice
+	 * @param after the id of the last contribution of the previous slice
+	 * @param pageable the page size. The page number has to be 0, since a page number would be applied as an OFFSET. The REST API rejects other page numbers.
+	 * @return a slice of contributions that come after the given (startTime, id) pair
+	 */
+	@Query("select c from Contribution c where c.startTime >= :startTime and (c.startTime > :startTime or c.id > :after) order by c.startTime asc, c.id asc")
+	Slice<Contribution> findByStartTimeAndIdAfter(@Param("startTime") @DateTimeFormat(iso = ISO.DATE_TIME) Date startTime, @Param("after") Long after, Pageable pageable);
+
+	/**
+	 * Keyset pagination over all contributions of a discourse ordered by id.
+	 * Only the page size of the Pageable is used. The next slice is retrieved by passing the id of the last contribution of the current slice.
+	 * 
+	 * @param discourseId the id of the discourse
+	 * @param after the id of the last contribution of the previous slice (0 for the first slice)
+	 * @param pageable the page size. The page number has to be 0, since a page number would be applied as an OFFSET. The REST API rejects other page numbers.
+	 * @return a slice of contributions of the given discourse with an id greater than the given id
+	 */
+	@Query("select c from Contribution c where c.discourse.id = :discourseId and c.id > :after order by c.id asc")
+	Slice<Contribution> findByDiscourseAndIdAfter(@Param("discourseId") Long discourseId, @Param("after") Long after, Pageable pageable);
+
+	/**
+	 * Retrieves contributions without a discourse that are part of a DiscoursePart which is linked with a discourse
+	 * and have an id greater than the given id, ordered by id.
+	 */
+	@RestResource(exported = false)
+	@Query(value="select distinct dpc.fk_contribution from contribution_partof_discourse_part dpc "
+			+ "join discourse_has_discourse_part dtd on dtd.fk_discourse_part = dpc.fk_discourse_part "
+			+ "join contribution c on c.id_contribution = dpc.fk_contribution where c.fk_discourse is null and dpc.fk_contribution > ?1 "
+			+ "order by dpc.fk_contribution limit ?2",nativeQuery=true)
+	List<Number> findContributionIdsWithoutDiscourse(Long after, int limit);
+
+	/**
+	 * Sets the discourse of the contributions of the given DiscoursePart that do not have a discourse yet.
+	 */
+	@Modifying
+	@Query(value="update contribution c join contribution_partof_discourse_part dpc on dpc.fk_contribution = c.id_contribution "
+			+ "set c.fk_discourse = ?1 where dpc.fk_discourse_part = ?2 and c.fk_discourse is null",nativeQuery=true)
+	int setDiscourseOfDiscoursePartContributions(Long discourseId, Long discoursePartId);
+
+	/**
+	 * Sets the discourse of the given contributions to the discourse with the lowest id among the discourses of their DiscourseParts.
+	 */
+	@Modifying
+	@Query(value="update contribution c set c.fk_discourse = (select min(dtd.fk_discourse) from contribution_partof_discourse_part dpc "
+			+ "join discourse_has_discourse_part dtd on dtd.fk_discourse_part = dpc.fk_discourse_part where dpc.fk_contribution = c.id_contribution) "
+			+ "where c.id_contribution in (:ids) and c.fk_discourse is null",nativeQuery=true)
+	int setDiscourseFromDiscourseParts(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Adds the given contribution to the contribution closure as its own ancestor with depth 0.
+	 */
+	@RestResource(exported = false)
+	@Modifying
+	@Query(value="insert ignore into contribution_closure (fk_ancestor, fk_descendant, depth) values (:id, :id, 0)",nativeQuery=true)
+	int addToClosure(@Param("id") Long contributionId);
+
+	/**
+	 * Adds all pairs of an ancestor of the given parent and a descendant of the given child to the contribution closure.
+	 * Both contributions have to be part of the closure already.
+	 */
+	@RestResource(exported = false)
+	@Modifying
+	@Query(value="insert ignore into contribution_closure (fk_ancestor, fk_descendant, depth) "
+			+ "select a.fk_ancestor, d.fk_descendant, a.depth + d.depth + 1 from contribution_closure a "
+			+ "join contribution_closure d on d.fk_ancestor = :child where a.fk_descendant = :parent",nativeQuery=true)
+	int addReplyToClosure(@Param("parent") Long parentId, @Param("child") Long childId);
+
+	/**
+	 * Retrieves the ids of all descendants of the given contribution (including the contribution itself) with their depth
+	 * and the id of their direct parent, ordered by depth.
+	 */
+	@RestResource(exported = false)
+	@Query(value="select c.fk_descendant, c.depth, p.fk_ancestor from contribution_closure c "
+			+ "left join contribution_closure p on p.fk_descendant = c.fk_descendant and p.depth = 1 "
+			+ "where c.fk_ancestor = :root order by c.depth, c.fk_descendant",nativeQuery=true)
+	List<Object[]> findThreadTreeIds(@Param("root") Long rootId);
+
+	/**
+	 * Retrieves the ids of the ancestors of the given contribution in the contribution closure, starting with the most distant one.
+	 */
+	@RestResource(exported = false)
+	@Query(value="select fk_ancestor from contribution_closure where fk_descendant = :id and depth > 0 order by depth desc",nativeQuery=true)
+	List<Number> findAncestorIds(@Param("id") Long contributionId);
+
 }
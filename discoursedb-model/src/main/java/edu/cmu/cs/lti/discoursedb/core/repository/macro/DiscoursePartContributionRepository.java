@@ -3,6 +3,9 @@ package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartContribution;
@@ -10,7 +13,9 @@ import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface DiscoursePartContributionRepository extends BaseRepository<DiscoursePartContribution,Long>{
 	
-	Optional<DiscoursePartContribution> findOneByContributionAndDiscoursePart(Contribution contribution, DiscoursePart discoursePart);
-	List<DiscoursePartContribution> findByDiscoursePart(DiscoursePart discoursePart);
+	@Query("select x from DiscoursePartContribution x where x.contribution = :contribution and x.discoursePart = :discoursePart")
+	Optional<DiscoursePartContribution> findOneByContributionAndDiscoursePart(@Param("contribution") Contribution contribution, @Param("discoursePart") DiscoursePart discoursePart);
+	@Query("select x from DiscoursePartContribution x where x.discoursePart = :discoursePart")
+	List<DiscoursePartContribution> findByDiscoursePart(@Param("discoursePart") DiscoursePart discoursePart);
     
 }
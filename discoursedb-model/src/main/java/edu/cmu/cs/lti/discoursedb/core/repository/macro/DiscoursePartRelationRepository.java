@@ -3,12 +3,17 @@ package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartRelation;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface DiscoursePartRelationRepository extends BaseRepository<DiscoursePartRelation, Long> {
-	Optional<DiscoursePartRelation> findOneBySourceAndTargetAndType(DiscoursePart source, DiscoursePart Target, String type);
-	List<DiscoursePartRelation> findAllBySourceAndType(DiscoursePart source, String type);
+	@Query("select x from DiscoursePartRelation x where x.source = :source and x.target = :target and x.type = :type")
+	Optional<DiscoursePartRelation> findOneBySourceAndTargetAndType(@Param("source") DiscoursePart source, @Param("target") DiscoursePart Target, @Param("type") String type);
+	@Query("select x from DiscoursePartRelation x where x.source = :source and x.type = :type")
+	List<DiscoursePartRelation> findAllBySourceAndType(@Param("source") DiscoursePart source, @Param("type") String type);
 
 }
@@ -3,13 +3,69 @@ package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 import java.util.List;
 import java.util.Optional;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RestResource;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface DiscoursePartRepository extends BaseRepository<DiscoursePart,Long>{
     
-	Optional<DiscoursePart> findOneByName(String name);
+	/**
+	 * The DiscoursePart is looked up by the indexed hash of its name. 
+	 * The result is kept in the query cache, if the second-level cache is enabled.
+	 */
+	@RestResource(exported = false)
+	@QueryHints({ @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+			@QueryHint(name = "org.hibernate.cacheRegion", value = "discoursedb.natural_key_query") })
+	Optional<DiscoursePart> findOneByNameHashAndName(byte[] nameHash, String name);
 	
-	List<DiscoursePart> findAllByName(String name);
+	/**
+	 * The DiscourseParts are looked up by the indexed hash of their name. 
+	 * The result is kept in the query cache, if the second-level cache is enabled.
+	 */
+	@RestResource(exported = false)
+	@QueryHints({ @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+			@QueryHint(name = "org.hibernate.cacheRegion", value = "discoursedb.natural_key_query") })
+	List<DiscoursePart> findAllByNameHashAndName(byte[] nameHash, String name);
 	List<DiscoursePart> findAllByType(String type);
+
+	/**
+	 * Looks up the DiscoursePart with the given primary source with the unique index on the inline source columns.
+	 * DiscourseParts whose sources are only stored in a DataSourceAggregate are not found.
+	 */
+	@RestResource(exported = false)
+	@Query("select dp from DiscoursePart dp where dp.primarySource.datasetName = :dataset and dp.primarySource.entitySourceDescriptor = :descriptor and dp.primarySource.entitySourceId = :sourceId")
+	Optional<DiscoursePart> findOneByPrimarySource(@Param("sourceId") String entitySourceId, @Param("descriptor") String entitySourceDescriptor, @Param("dataset") String datasetName);
+
+	/**
+	 * Keyset pagination over all DiscourseParts ordered by id.
+	 * Only the page size of the Pageable is used. The next slice is retrieved by passing the id of the last DiscoursePart of the current slice.
+	 * 
+	 * @param after the id of the last DiscoursePart of the previous slice (0 for the first slice)
+	 * @param pageable the page size. The page number has to be 0, since a page number would be applied as an OFFSET. The REST API rejects other page numbers.
+	 * @return a slice of DiscourseParts with an id greater than the given id
+	 */
+	@Query("select dp from DiscoursePart dp where dp.id > :after order by dp.id asc")
+	Slice<DiscoursePart> findByIdAfter(@Param("after") Long after, Pageable pageable);
+
+	/**
+	 * Keyset pagination over all DiscourseParts of a discourse ordered by id.
+	 * Only the page size of the Pageable is used. The next slice is retrieved by passing the id of the last DiscoursePart of the current slice.
+	 * 
+	 * @param discourseId the id of the discourse
+	 * @param after the id of the last DiscoursePart of the previous slice (0 for the first slice)
+	 * @param pageable the page size. The page number has to be 0, since a page number would be applied as an OFFSET. The REST API rejects other page numbers.
+	 * @return a slice of DiscourseParts of the given discourse with an id greater than the given id
+	 */
+	@Query("select dp from DiscoursePart dp where dp.id > :after and dp.id in ("
+			+ "select dtd.discoursePart.id from DiscourseToDiscoursePart dtd where dtd.discourse.id = :discourseId) "
+			+ "order by dp.id asc")
+	Slice<DiscoursePart> findByDiscourseAndIdAfter(@Param("discourseId") Long discourseId, @Param("after") Long after, Pageable pageable);
 }
@@ -2,12 +2,16 @@ package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 
 import java.util.Optional;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseRelation;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface DiscourseRelationRepository extends BaseRepository<DiscourseRelation,Long>{
 
-	Optional<DiscourseRelation> findOneBySourceAndTargetAndType(Contribution source, Contribution Target, String type);	
+	@Query("select x from DiscourseRelation x where x.source = :source and x.target = :target and x.type = :type")
+	Optional<DiscourseRelation> findOneBySourceAndTargetAndType(@Param("source") Contribution source, @Param("target") Contribution Target, @Param("type") String type);	
    
 }
@@ -2,12 +2,28 @@ package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 
 import java.util.Optional;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.rest.core.annotation.RestResource;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface DiscourseRepository extends BaseRepository<Discourse,Long> {
 	
-	Optional<Discourse> findOneByName(String name);
+	/**
+	 * The discourse is looked up by the indexed hash of its name. 
+	 * The result is kept in the query cache, if the second-level cache is enabled.
+	 * 
+	 * @param nameHash the hash of the name produced by TextHash.of
+	 * @param name the name of the discourse
+	 * @return an optional discourse with the given name
+	 */
+	@RestResource(exported = false)
+	@QueryHints({ @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+			@QueryHint(name = "org.hibernate.cacheRegion", value = "discoursedb.natural_key_query") })
+	Optional<Discourse> findOneByNameHashAndName(byte[] nameHash, String name);
 
 	
     
@@ -3,6 +3,10 @@ package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RestResource;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseToDiscoursePart;
@@ -10,8 +14,18 @@ import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface DiscourseToDiscoursePartRepository extends BaseRepository<DiscourseToDiscoursePart,Long>{
     
-	Optional<DiscourseToDiscoursePart> findOneByDiscourseAndDiscoursePart(Discourse discourse, DiscoursePart discoursePart);
-	List<DiscourseToDiscoursePart> findByDiscourse(Discourse discourse);
+	@Query("select x from DiscourseToDiscoursePart x where x.discourse = :discourse and x.discoursePart = :discoursePart")
+	Optional<DiscourseToDiscoursePart> findOneByDiscourseAndDiscoursePart(@Param("discourse") Discourse discourse, @Param("discoursePart") DiscoursePart discoursePart);
+	@Query("select x from DiscourseToDiscoursePart x where x.discourse = :discourse")
+	List<DiscourseToDiscoursePart> findByDiscourse(@Param("discourse") Discourse discourse);
+
+	/**
+	 * @param discoursePart the DiscoursePart
+	 * @return the lowest id of the discourses the given DiscoursePart is linked with or null if it is not linked with any discourse
+	 */
+	@RestResource(exported = false)
+	@Query("select min(dtd.discourse.id) from DiscourseToDiscoursePart dtd where dtd.discoursePart = :discoursePart")
+	Long findDiscourseIdByDiscoursePart(@Param("discoursePart") DiscoursePart discoursePart);
 	
 
 }
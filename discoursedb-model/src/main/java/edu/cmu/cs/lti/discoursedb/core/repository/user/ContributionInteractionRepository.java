@@ -2,12 +2,16 @@ package edu.cmu.cs.lti.discoursedb.core.repository.user;
 
 import java.util.Optional;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.user.ContributionInteraction;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface ContributionInteractionRepository extends BaseRepository<ContributionInteraction,Long>{
-	Optional<ContributionInteraction> findOneByUserAndContributionAndType(User user, Contribution contribution, String type);	
+	@Query("select x from ContributionInteraction x where x.user = :user and x.contribution = :contribution and x.type = :type")
+	Optional<ContributionInteraction> findOneByUserAndContributionAndType(@Param("user") User user, @Param("contribution") Contribution contribution, @Param("type") String type);	
     
 }
@@ -2,12 +2,16 @@ package edu.cmu.cs.lti.discoursedb.core.repository.user;
 
 import java.util.Optional;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.user.DiscoursePartInteraction;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface DiscoursePartInteractionRepository extends BaseRepository<DiscoursePartInteraction,Long>{
-	Optional<DiscoursePartInteraction> findOneByUserAndDiscoursePartAndType(User user, DiscoursePart dp, String type);	
+	@Query("select x from DiscoursePartInteraction x where x.user = :user and x.discoursePart = :discoursePart and x.type = :type")
+	Optional<DiscoursePartInteraction> findOneByUserAndDiscoursePartAndType(@Param("user") User user, @Param("discoursePart") DiscoursePart dp, @Param("type") String type);	
     
 }
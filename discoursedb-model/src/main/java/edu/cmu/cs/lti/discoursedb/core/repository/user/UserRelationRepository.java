@@ -2,11 +2,15 @@ package edu.cmu.cs.lti.discoursedb.core.repository.user;
 
 import java.util.Optional;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import edu.cmu.cs.lti.discoursedb.core.model.user.UserRelation;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface UserRelationRepository extends BaseRepository<UserRelation,Long>{
-	Optional<UserRelation> findOneBySourceAndTargetAndType(User source, User target, String type);	
+	@Query("select x from UserRelation x where x.source = :source and x.target = :target and x.type = :type")
+	Optional<UserRelation> findOneBySourceAndTargetAndType(@Param("source") User source, @Param("target") User target, @Param("type") String type);	
 
 }
@@ -5,6 +5,8 @@ import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RestResource;
 
@@ -22,4 +24,41 @@ public interface UserRepository extends BaseRepository<User,Long>{
 	
     public Page<User> findAllByUsername(@Param("username")String username, Pageable pageable);    
 
+	/**
+	 * Keyset pagination over all users ordered by id.
+	 * Only the page size of the Pageable is used. The next slice is retrieved by passing the id of the last user of the current slice.
+	 * 
+	 * @param after the id of the last user of the previous slice (0 for the first slice)
+	 * @param pageable the page size. The page number has to be 0, since a page number would be applied as an OFFSET. The REST API rejects other page numbers.
+	 * @return a slice of users with an id greater than the given id
+	 */
+	@Query("select u from User u where u.id > :after order by u.id asc")
+	public Slice<User> findByIdAfter(@Param("after") Long after, Pageable pageable);
+
+	/**
+	 * Keyset pagination over all members of a discourse ordered by id.
+	 * Only the page size of the Pageable is used. The next slice is retrieved by passing the id of the last user of the current slice.
+	 * 
+	 * @param discourseId the id of the discourse
+	 * @param after the id of the last user of the previous slice (0 for the first slice)
+	 * @param pageable the page size. The page number has to be 0, since a page number would be applied as an OFFSET. The REST API rejects other page numbers.
+	 * @return a slice of users of the given discourse with an id greater than the given id
+	 */
+	@Query("select u from User u join u.discourses d where d.id = :discourseId and u.id > :after order by u.id asc")
+	public Slice<User> findByDiscourseAndIdAfter(@Param("discourseId") Long discourseId, @Param("after") Long after, Pageable pageable);
+
+	/**
+	 * Looks up a single membership with the primary key of the user_memberof_discourse table.
+	 */
+	@RestResource(exported = false)
+	@Query(value="select id_user from user_memberof_discourse where id_user = :userId and id_discourse = :discourseId",nativeQuery=true)
+	public List<Number> findMembership(@Param("userId") Long userId, @Param("discourseId") Long discourseId);
+
+	/**
+	 * Retrieves the ids of all members of a discourse from the user_memberof_discourse table without loading the users.
+	 */
+	@RestResource(exported = false)
+	@Query(value="select id_user from user_memberof_discourse where id_discourse = :discourseId order by id_user",nativeQuery=true)
+	public List<Number> findUserIdsByDiscourseId(@Param("discourseId") Long discourseId);
+
 }
@@ -11,13 +11,14 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
 import edu.cmu.cs.lti.discoursedb.core.model.TimedAnnotatableBE;
 import edu.cmu.cs.lti.discoursedb.core.model.TypedTimedAnnotatableBE;
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationAggregate;
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.Feature;
-import edu.cmu.cs.lti.discoursedb.core.repository.annotation.AnnotationInstanceRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.annotation.AnnotationAggregateRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.annotation.AnnotationInstanceRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.annotation.FeatureRepository;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -267,7 +268,7 @@ public class AnnotationService {
 	public List<AnnotationInstance> findAnnotationsByFeatureTypeAndValue(String type, String value) {
 	        Assert.hasText(type,"Type cannot be empty. Provide an annotation type or create untyped AnnotationInstance.");
 	
-	        List<Feature> features = featureRepo.findAllByTypeAndValue(type, value);
+	        List<Feature> features = featureRepo.findAllByTypeAndValueHashAndValue(type, value == null ? null : TextHash.of(value), value);
 	        List<AnnotationInstance> annotations = new ArrayList<AnnotationInstance>();
 	        for(Feature f : features) {
 	                annotations.add(f.getAnnotation());
@@ -0,0 +1,50 @@
+package edu.cmu.cs.lti.discoursedb.core.service.bulk;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscoursePartService;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceCache;
+import edu.cmu.cs.lti.discoursedb.core.service.system.ImportedSourceFilter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Provides BulkImportSessions to converters that want to write their core entities in JDBC batches
+ * instead of saving each entity through the corresponding service.
+ */
+@Service
+@Transactional(propagation = Propagation.MANDATORY, readOnly = false)
+@RequiredArgsConstructor(onConstructor = @__(@Autowired) )
+public class BulkImportService {
+
+	private final @NonNull @PersistenceContext EntityManager entityManager;
+	private final @NonNull DataSourceCache dataSourceCache;
+	private final @NonNull ImportedSourceFilter importedSourceFilter;
+	private final @NonNull DiscoursePartService discoursePartService;
+
+	/**
+	 * If enabled, the first source of a queued entity that supports primary sources is stored inline
+	 */
+	@Value("${discoursedb.sources.inline:true}")
+	private boolean inlineSources;
+
+	/**
+	 * Opens a new BulkImportSession that is bound to the currently active transaction.
+	 * The session has to be closed (and thereby flushed) before the transaction is committed.
+	 * Since the queued entities are written in batches when the session is flushed, a session
+	 * should be shared by all records of a chunk rather than opened for each record.
+	 *
+	 * @return a new BulkImportSession that writes to the persistence context of the current transaction
+	 */
+	public BulkImportSession openSession() {
+		return new BulkImportSession(entityManager, dataSourceCache, importedSourceFilter, discoursePartService::findDiscourse, inlineSources);
+	}
+
+}
@@ -0,0 +1,339 @@
+package edu.cmu.cs.lti.discoursedb.core.service.bulk;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.model.BaseEntity;
+import edu.cmu.cs.lti.discoursedb.core.model.TimedAnnotatableSourcedBE;
+import edu.cmu.cs.lti.discoursedb.core.model.TypedTimedAnnotatableSourcedBE;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.ContentPayload;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartContribution;
+import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceAggregate;
+import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySource;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySourced;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceCache;
+import edu.cmu.cs.lti.discoursedb.core.service.system.ImportedSourceFilter;
+import edu.cmu.cs.lti.discoursedb.core.type.ContributionTypes;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * A BulkImportSession queues new Content, Contribution, DataSourceAggregate,
+ * DataSourceInstance and DiscoursePartContribution entities and writes them to
+ * the database in JDBC batches when the session is flushed or closed.<br/>
+ *
+ * The queuing methods mirror the corresponding methods in ContentService,
+ * ContributionService, DataSourceService and DiscoursePartService. The returned
+ * entities are regular entity objects that can be modified by the converter
+ * until the session is flushed. This way, converters can opt into bulk writes
+ * without changing their mapping logic.<br/>
+ *
+ * The queued entities are persisted with the EntityManager of the surrounding
+ * transaction when the session is flushed, and the persistence context is
+ * flushed right after. Hibernate then orders the inserts by table and writes
+ * them in JDBC batches. A session should therefore cover many source records,
+ * e.g. a chunk of an import, and has to be closed before the transaction is
+ * committed. Primary keys can be obtained with the regular getId() methods of
+ * the queued entities after the flush. Note that queuing does not check
+ * whether a source already exists. Converters are expected to perform their
+ * duplicate checks before queuing new entities. Texts are the exception:
+ * queued contents with a text that has already been stored share the
+ * existing payload.<br/>
+ *
+ * Insert batching only takes effect if the primary keys of the queued entities
+ * are not generated by the database (IDENTITY). Set discoursedb.id_generation
+ * to "pooled" in the custom.properties to enable batching.
+ */
+@Log4j
+public class BulkImportSession implements AutoCloseable {
+
+	private final EntityManager entityManager;
+	private final DataSourceCache dataSourceCache;
+	private final ImportedSourceFilter importedSourceFilter;
+	private final Function<DiscoursePart, Optional<Discourse>> discourseOfPart;
+	private final boolean inlineSources;
+
+	private final List<DataSourceAggregate> dataSourceAggregates = new ArrayList<>();
+	private final List<Content> contents = new ArrayList<>();
+	private final List<Contribution> contributions = new ArrayList<>();
+	private final List<DataSourceInstance> dataSourceInstances = new ArrayList<>();
+	private final List<DiscoursePartContribution> discoursePartContributions = new ArrayList<>();
+	private final List<Contribution> writtenContributionsWithNewDiscourse = new ArrayList<>();
+
+	private long insertedRows = 0;
+
+	BulkImportSession(EntityManager entityManager, DataSourceCache dataSourceCache, ImportedSourceFilter importedSourceFilter,
+			Function<DiscoursePart, Optional<Discourse>> discourseOfPart, boolean inlineSources) {
+		Assert.notNull(entityManager, "EntityManager cannot be null.");
+		Assert.notNull(dataSourceCache, "DataSourceCache cannot be null.");
+		Assert.notNull(importedSourceFilter, "ImportedSourceFilter cannot be null.");
+		Assert.notNull(discourseOfPart, "Discourse lookup cannot be null.");
+		this.entityManager = entityManager;
+		this.dataSourceCache = dataSourceCache;
+		this.importedSourceFilter = importedSourceFilter;
+		this.discourseOfPart = discourseOfPart;
+		this.inlineSources = inlineSources;
+	}
+
+	/**
+	 * Queues a new empty Content entity.
+	 *
+	 * @return a new empty Content entity that will be written to the database with the next flush
+	 */
+	public Content createContent() {
+		Content content = new Content();
+		contents.add(content);
+		return content;
+	}
+
+	/**
+	 * Queues a new empty Contribution entity of the given type.
+	 *
+	 * @param type
+	 *            the contribution type
+	 * @return a new empty Contribution that will be written to the database with the next flush
+	 */
+	public Contribution createTypedContribution(ContributionTypes type) {
+		Assert.notNull(type, "Contribution type cannot be null.");
+
+		Contribution contrib = new Contribution();
+		contrib.setType(type.name());
+		contributions.add(contrib);
+		return contrib;
+	}
+
+	/**
+	 * Queues a new source for the provided entity. The first source of a queued
+	 * entity that supports primary sources is stored with the entity itself,
+	 * unless inline sources have been disabled with discoursedb.sources.inline.
+	 * Otherwise, a new aggregate is queued as well if the entity does not have
+	 * a DataSourceAggregate yet.
+	 *
+	 * @param entity
+	 *            the entity to add a new source to
+	 * @param source
+	 *            the source to add to the entity
+	 */
+	public <T extends TypedTimedAnnotatableSourcedBE> void addSource(T entity, DataSourceInstance source) {
+		Assert.notNull(entity, "Entity cannot be null.");
+		Assert.notNull(source, "Source cannot be null.");
+
+		importedSourceFilter.put(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
+		if (!addPrimarySource(entity, entity.getDataSourceAggregate(), source)) {
+			source.setSourceAggregate(queueAggregate(entity::getDataSourceAggregate, entity::setDataSourceAggregate));
+			dataSourceInstances.add(source);
+		}
+	}
+
+	/**
+	 * Queues a new source for the provided entity. The first source of a queued
+	 * entity that supports primary sources is stored with the entity itself,
+	 * unless inline sources have been disabled with discoursedb.sources.inline.
+	 * Otherwise, a new aggregate is queued as well if the entity does not have
+	 * a DataSourceAggregate yet.
+	 *
+	 * @param entity
+	 *            the entity to add a new source to
+	 * @param source
+	 *            the source to add to the entity
+	 */
+	public <T extends TimedAnnotatableSourcedBE> void addSource(T entity, DataSourceInstance source) {
+		Assert.notNull(entity, "Entity cannot be null.");
+		Assert.notNull(source, "Source cannot be null.");
+
+		importedSourceFilter.put(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
+		if (!addPrimarySource(entity, entity.getDataSourceAggregate(), source)) {
+			source.setSourceAggregate(queueAggregate(entity::getDataSourceAggregate, entity::setDataSourceAggregate));
+			dataSourceInstances.add(source);
+		}
+	}
+
+	/**
+	 * Queues a new relation between the given contribution and DiscoursePart.
+	 * The start date of the relation is initialized with the start date the
+	 * contribution has at the time the session is flushed. If the contribution
+	 * does not have a discourse yet, it is assigned the discourse of the
+	 * DiscoursePart.
+	 *
+	 * @param contrib
+	 *            the contribution that is part of the given DiscoursePart
+	 * @param dPart
+	 *            the DiscoursePart that contains the given contribution
+	 * @return the new DiscoursePartContribution that will be written to the database with the next flush
+	 */
+	public DiscoursePartContribution addContributionToDiscoursePart(Contribution contrib, DiscoursePart dPart) {
+		Assert.notNull(contrib, "Contribution cannot be null.");
+		Assert.notNull(dPart, "DiscoursePart cannot be null.");
+
+		if (contrib.getDiscourse() == null) {
+			discourseOfPart.apply(dPart).ifPresent(discourse -> {
+				contrib.setDiscourse(discourse);
+				//contributions written before the persistence context has been cleared are no longer tracked
+				if (contrib.getId() != null && !entityManager.contains(contrib)) {
+					writtenContributionsWithNewDiscourse.add(contrib);
+				}
+			});
+		}
+		DiscoursePartContribution dpContrib = new DiscoursePartContribution();
+		dpContrib.setContribution(contrib);
+		dpContrib.setDiscoursePart(dPart);
+		discoursePartContributions.add(dpContrib);
+		return dpContrib;
+	}
+
+	/**
+	 * Writes all queued entities to the database together with the pending
+	 * changes of the persistence context, so queued entities may safely
+	 * reference entities that have been created with the regular services
+	 * (e.g. Users or DiscourseParts).
+	 *
+	 * @return the number of rows written for the queued entities
+	 */
+	public int flush() {
+		int rows = 0;
+		rows += persistAll(dataSourceAggregates);
+		rows += persistPayloads();
+		rows += persistAll(contents);
+		rows += persistAll(contributions);
+		List<DataSourceInstance> newSources = new ArrayList<>(dataSourceInstances);
+		rows += persistAll(dataSourceInstances);
+		discoursePartContributions.stream().filter(dpc -> dpc.getStartTime() == null)
+				.forEach(dpc -> dpc.setStartTime(dpc.getContribution().getStartTime()));
+		rows += persistAll(discoursePartContributions);
+		rows += updateDiscourses();
+		entityManager.flush();
+		newSources.forEach(source -> dataSourceCache.put(source.getEntitySourceId(), source.getEntitySourceDescriptor(),
+				source.getDatasetName(), source.getId()));
+
+		insertedRows += rows;
+		log.trace("Bulk session flushed " + rows + " rows.");
+		return rows;
+	}
+
+	/**
+	 * @return the number of entities that are queued but have not been written to the database yet
+	 */
+	public int getPendingCount() {
+		return dataSourceAggregates.size() + contents.size() + contributions.size() + dataSourceInstances.size()
+				+ discoursePartContributions.size();
+	}
+
+	/**
+	 * @return the total number of rows written by this session
+	 */
+	public long getInsertedRows() {
+		return insertedRows;
+	}
+
+	/**
+	 * Flushes all queued entities. They are committed with the surrounding transaction.
+	 */
+	@Override
+	public void close() {
+		flush();
+	}
+
+	private int updateDiscourses() {
+		int rows = 0;
+		for (Contribution contrib : writtenContributionsWithNewDiscourse) {
+			rows += entityManager.createQuery("update Contribution c set c.discourse = :discourse where c.id = :id and c.discourse is null")
+					.setParameter("discourse", contrib.getDiscourse()).setParameter("id", contrib.getId()).executeUpdate();
+		}
+		writtenContributionsWithNewDiscourse.clear();
+		return rows;
+	}
+
+	/**
+	 * Stores the source inline, if inline sources are enabled and the entity has not been written yet, supports primary sources and does not have a source yet.
+	 */
+	private boolean addPrimarySource(Object entity, DataSourceAggregate aggregate, DataSourceInstance source) {
+		if (!inlineSources || !(entity instanceof PrimarySourced) || ((BaseEntity) entity).getEntityVersion() != null) {
+			return false;
+		}
+		PrimarySourced sourcedEntity = (PrimarySourced) entity;
+		if (sourcedEntity.getPrimarySource() != null || aggregate != null) {
+			return false;
+		}
+		sourcedEntity.setPrimarySource(new PrimarySource(source));
+		return true;
+	}
+
+	private DataSourceAggregate queueAggregate(Supplier<DataSourceAggregate> getter, Consumer<DataSourceAggregate> setter) {
+		DataSourceAggregate aggregate = getter.get();
+		if (aggregate == null) {
+			aggregate = new DataSourceAggregate();
+			dataSourceAggregates.add(aggregate);
+			setter.accept(aggregate);
+		}
+		return aggregate;
+	}
+
+	/**
+	 * Persists the new payloads of the queued contents. Contents with a text that
+	 * is identical to the text of a sharable payload in the database or of
+	 * another queued content share that payload instead of inserting a new one.
+	 *
+	 * @return the number of persisted payloads
+	 */
+	private int persistPayloads() {
+		Set<ByteBuffer> hashes = contents.stream().map(Content::getPayload).filter(BulkImportSession::isSharable)
+				.map(payload -> ByteBuffer.wrap(payload.getTextHash())).collect(Collectors.toSet());
+		Map<ByteBuffer, List<ContentPayload>> candidates = new HashMap<>();
+		if (!hashes.isEmpty()) {
+			entityManager.createQuery("select p from ContentPayload p where p.textHash in :hashes and p.delta is null and p.data is null", ContentPayload.class)
+					.setParameter("hashes", hashes.stream().map(ByteBuffer::array).collect(Collectors.toList())).getResultList()
+					.forEach(existing -> candidates.computeIfAbsent(ByteBuffer.wrap(existing.getTextHash()), hash -> new ArrayList<>()).add(existing));
+		}
+
+		int inserted = 0;
+		for (Content content : contents) {
+			ContentPayload payload = content.getPayload();
+			//payloads with an id have already been shared with a persisted payload by the ContentService
+			if (payload == null || payload.getId() != null) {
+				continue;
+			}
+			if (isSharable(payload)) {
+				List<ContentPayload> sameHash = candidates.computeIfAbsent(ByteBuffer.wrap(payload.getTextHash()), hash -> new ArrayList<>());
+				Optional<ContentPayload> sameText = sameHash.stream().filter(candidate -> payload.getText().equals(candidate.getText())).findFirst();
+				if (sameText.isPresent()) {
+					content.sharePayload(sameText.get());
+					continue;
+				}
+				sameHash.add(payload);
+			}
+			//the payload is persisted right away, since only payloads with an id can be shared
+			entityManager.persist(payload);
+			inserted++;
+		}
+		return inserted;
+	}
+
+	private static boolean isSharable(ContentPayload payload) {
+		return payload != null && payload.getId() == null && payload.getTextHash() != null && !payload.isDeltaEncoded() && payload.getData() == null;
+	}
+
+	private int persistAll(List<? extends BaseEntity> entities) {
+		entities.forEach(entityManager::persist);
+		int inserted = entities.size();
+		entities.clear();
+		return inserted;
+	}
+
+}
@@ -0,0 +1,155 @@
+package edu.cmu.cs.lti.discoursedb.core.service.bulk;
+
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.util.Assert;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * An ImportUnitOfWork groups the processing of source records into chunks.
+ * All records of a chunk are processed in a single transaction. At the end of
+ * each chunk, the persistence context is flushed and cleared and the
+ * transaction is committed, so the memory consumption of an import does not
+ * depend on the size of the dataset and the commit cost is only paid once per
+ * chunk.<br/>
+ *
+ * The converter services that are called for each record join the transaction
+ * of the current chunk. Entities must not be kept by the converter across
+ * records, since they are detached when a chunk is committed. Shared entities
+ * such as the Discourse or DiscoursePart of a dataset should be obtained with
+ * the get-or-create methods of their services for each record instead. These
+ * resolve registered natural keys to references in the persistence context of
+ * the current chunk without querying the database.<br/>
+ *
+ * If a record fails, the current chunk is rolled back and the exception is
+ * rethrown.
+ *
+ * <pre>
+ * try (ImportUnitOfWork uow = importUnitOfWorkService.open()) {
+ * 	records.forEach(r -&gt; uow.execute(() -&gt; converterService.map(r)));
+ * }
+ * </pre>
+ */
+@Log4j
+public class ImportUnitOfWork implements AutoCloseable {
+
+	private final PlatformTransactionManager transactionManager;
+	private final EntityManager entityManager;
+	private final int chunkSize;
+
+	private TransactionStatus transaction;
+	private int recordsInChunk = 0;
+	private long chunks = 0;
+	private long records = 0;
+
+	ImportUnitOfWork(PlatformTransactionManager transactionManager, EntityManager entityManager, int chunkSize) {
+		Assert.notNull(transactionManager, "TransactionManager cannot be null.");
+		Assert.notNull(entityManager, "EntityManager cannot be null.");
+		this.transactionManager = transactionManager;
+		this.entityManager = entityManager;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Processes a single source record in the transaction of the current
+	 * chunk. Commits the chunk if it is complete afterwards.
+	 *
+	 * @param work
+	 *            the mapping of a single source record
+	 */
+	public void execute(Runnable work) {
+		execute(() -> {
+			work.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Processes a single source record in the transaction of the current
+	 * chunk. Commits the chunk if it is complete afterwards.
+	 *
+	 * @param work
+	 *            the mapping of a single source record
+	 * @return the result of the mapping
+	 */
+	public <T> T execute(Supplier<T> work) {
+		Assert.notNull(work, "Work cannot be null.");
+
+		if (transaction == null) {
+			transaction = transactionManager.getTransaction(new DefaultTransactionDefinition());
+		}
+		T result;
+		try {
+			result = work.get();
+		} catch (RuntimeException | Error e) {
+			rollback();
+			throw e;
+		}
+		records++;
+		if (++recordsInChunk >= chunkSize) {
+			commit();
+		}
+		return result;
+	}
+
+	/**
+	 * Flushes and clears the persistence context and commits the current chunk.
+	 */
+	public void commit() {
+		if (transaction == null) {
+			return;
+		}
+		try {
+			entityManager.flush();
+			entityManager.clear();
+		} catch (RuntimeException e) {
+			rollback();
+			throw e;
+		}
+		TransactionStatus committed = transaction;
+		transaction = null;
+		transactionManager.commit(committed);
+		chunks++;
+		log.debug("Committed chunk " + chunks + " with " + recordsInChunk + " records (" + records + " records total).");
+		recordsInChunk = 0;
+	}
+
+	private void rollback() {
+		if (transaction == null) {
+			return;
+		}
+		TransactionStatus rolledBack = transaction;
+		transaction = null;
+		recordsInChunk = 0;
+		transactionManager.rollback(rolledBack);
+	}
+
+	/**
+	 * @return the number of records that have been processed successfully, including the records of the current chunk
+	 */
+	public long getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * @return the number of chunks that have been committed
+	 */
+	public long getChunkCount() {
+		return chunks;
+	}
+
+	/**
+	 * Commits the last, possibly incomplete chunk.
+	 */
+	@Override
+	public void close() {
+		commit();
+	}
+
+}
@@ -0,0 +1,55 @@
+package edu.cmu.cs.lti.discoursedb.core.service.bulk;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.Assert;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Provides ImportUnitOfWorks to converter runners that want to process their
+ * source records in chunks of several records per transaction.<br/>
+ *
+ * This service is deliberately not transactional, since each unit of work
+ * manages its own transactions. The default chunk size can be configured with
+ * the discoursedb.import.chunk_size property.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired) )
+public class ImportUnitOfWorkService {
+
+	private final @NonNull PlatformTransactionManager transactionManager;
+	private final @NonNull @PersistenceContext EntityManager entityManager;
+
+	@Value("${discoursedb.import.chunk_size:500}")
+	private int defaultChunkSize;
+
+	/**
+	 * Opens a new ImportUnitOfWork with the default chunk size.
+	 *
+	 * @return a new ImportUnitOfWork that has to be closed after the last record has been processed
+	 */
+	public ImportUnitOfWork open() {
+		return open(defaultChunkSize);
+	}
+
+	/**
+	 * Opens a new ImportUnitOfWork that commits a transaction after every
+	 * chunkSize records.
+	 *
+	 * @param chunkSize
+	 *            the number of records that are processed in a single transaction
+	 * @return a new ImportUnitOfWork that has to be closed after the last record has been processed
+	 */
+	public ImportUnitOfWork open(int chunkSize) {
+		Assert.isTrue(chunkSize > 0, "Chunk size must be a positive number.");
+		return new ImportUnitOfWork(transactionManager, entityManager, chunkSize);
+	}
+
+}
@@ -0,0 +1,143 @@
+package edu.cmu.cs.lti.discoursedb.core.service.bulk;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.hateoas.Identifiable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Serializes the get-or-create operations of parallel import workers on the
+ * natural keys of shared entities (e.g. the name of a Discourse or the
+ * username of a User within a Discourse).<br/>
+ *
+ * A lock on a natural key is only held while the entity is looked up and, if
+ * it does not exist yet, created. For import workers, this happens in a
+ * transaction of its own that is committed before the lock is released, so
+ * other workers that resolve the same key afterwards find the committed
+ * entity instead of creating a duplicate. Since a worker never holds a lock
+ * while it processes the rest of its chunk or waits for another key, workers
+ * only wait for each other while a shared entity is created and cannot block
+ * each other crosswise. A new shared entity stays in the database even if the
+ * chunk that created it is rolled back and is reused when the chunk is
+ * retried. Workers that cannot acquire a lock within the configured timeout
+ * (discoursedb.import.lock_timeout in milliseconds) fail with a
+ * {@link CannotAcquireLockException}.<br/>
+ *
+ * Locks are only taken by threads that have been registered as import workers
+ * with {@link #enterWorker()}. For all other threads,
+ * {@link #getOrCreate(Class, Supplier, Object...)} simply runs the lookup in
+ * the current transaction, so the services can call it unconditionally.
+ */
+@Component
+public class NaturalKeyLocks {
+
+	private static final ThreadLocal<Set<List<Object>>> heldKeys = new ThreadLocal<>();
+
+	private final Map<List<Object>, Thread> owners = new HashMap<>();
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Value("${discoursedb.import.lock_timeout:30000}")
+	private long timeout;
+
+	/**
+	 * Registers the current thread as an import worker.
+	 */
+	public void enterWorker() {
+		heldKeys.set(new HashSet<>());
+	}
+
+	/**
+	 * Releases all locks of the current thread and removes its worker registration.
+	 */
+	public void exitWorker() {
+		Set<List<Object>> keys = heldKeys.get();
+		if (keys != null) {
+			release(keys);
+			heldKeys.remove();
+		}
+	}
+
+	/**
+	 * Looks up or creates the entity with the natural key that consists of the
+	 * given parts. For import workers, the key is locked and the lookup runs
+	 * and commits in a new transaction, so the lookup has to obtain all
+	 * entities it writes or references from the EntityManager itself. The
+	 * result is then returned as a reference in the transaction of the worker.
+	 *
+	 * @param entityClass
+	 *            the class of the entity
+	 * @param getOrCreate
+	 *            looks up the entity and creates it if it does not exist
+	 * @param keyParts
+	 *            the parts of the natural key, starting with a name for the key type
+	 * @return the existing or newly created entity
+	 */
+	public <T extends Identifiable<Long>> T getOrCreate(Class<T> entityClass, Supplier<T> getOrCreate, Object... keyParts) {
+		Set<List<Object>> keys = heldKeys.get();
+		List<Object> key = Arrays.asList(keyParts);
+		if (keys == null || keys.contains(key)) {
+			return getOrCreate.get();
+		}
+
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+		acquire(key);
+		keys.add(key);
+		Long id;
+		try {
+			id = transactionTemplate.execute(status -> getOrCreate.get().getId());
+		} finally {
+			keys.remove(key);
+			release(Arrays.asList(key));
+		}
+		Assert.state(id != null, "The natural key " + key + " could not be resolved.");
+		return entityManager.getReference(entityClass, id);
+	}
+
+	private synchronized void acquire(List<Object> key) {
+		Thread current = Thread.currentThread();
+		long deadline = System.currentTimeMillis() + timeout;
+		Thread owner;
+		while ((owner = owners.get(key)) != null && owner != current) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new CannotAcquireLockException("Timeout while waiting for natural key " + key);
+			}
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CannotAcquireLockException("Interrupted while waiting for natural key " + key, e);
+			}
+		}
+		owners.put(key, current);
+	}
+
+	private synchronized void release(Iterable<List<Object>> keys) {
+		keys.forEach(owners::remove);
+		notifyAll();
+	}
+
+}
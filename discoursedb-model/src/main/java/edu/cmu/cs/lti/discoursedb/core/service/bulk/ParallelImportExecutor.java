@@ -0,0 +1,276 @@
+package edu.cmu.cs.lti.discoursedb.core.service.bulk;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Maps source records to DiscourseDB on a pool of worker threads.<br/>
+ *
+ * Records are partitioned by a key that is supplied by the converter (e.g. the
+ * id of the thread, room or forum a record belongs to). All records of a
+ * partition are processed by the same worker in the order in which they are
+ * provided, so records that depend on each other should share a partition
+ * key. Each worker processes its records in chunks with one transaction per
+ * chunk. Chunks that fail because of a deadlock or a lock timeout are rolled
+ * back and retried.<br/>
+ *
+ * Shared entities that are identified by a natural key (Discourses,
+ * DiscourseParts and Users) are created exactly once. The get-or-create
+ * methods of the corresponding services lock the natural key with
+ * {@link NaturalKeyLocks} and create missing entities in a short transaction
+ * of their own, so the lock is released before the worker continues with its
+ * chunk. Workers run with READ_COMMITTED isolation, so they see the entities
+ * committed by other workers.<br/>
+ *
+ * The number of workers, the chunk size and the maximum number of retries can
+ * be configured with the discoursedb.import.threads (0 uses one worker per
+ * processor), discoursedb.import.chunk_size and discoursedb.import.max_retries
+ * properties.
+ */
+@Log4j
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired) )
+public class ParallelImportExecutor {
+
+	private static final Object END_OF_INPUT = new Object();
+	private static final int MYSQL_DEADLOCK = 1213;
+	private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+
+	private final @NonNull PlatformTransactionManager transactionManager;
+	private final @NonNull @PersistenceContext EntityManager entityManager;
+	private final @NonNull NaturalKeyLocks naturalKeyLocks;
+
+	@Value("${discoursedb.import.threads:0}")
+	private int threads;
+
+	@Value("${discoursedb.import.chunk_size:500}")
+	private int chunkSize;
+
+	@Value("${discoursedb.import.max_retries:5}")
+	private int maxRetries;
+
+	/**
+	 * Maps all records of the given stream with the given mapping function.
+	 * Returns after all records have been mapped.
+	 *
+	 * @param records
+	 *            the source records to map
+	 * @param partitionKey
+	 *            provides the partition key of a record
+	 * @param mapping
+	 *            maps a single record to DiscourseDB, usually by calling a converter service
+	 * @return the number of mapped records
+	 */
+	public <T> long execute(Stream<T> records, Function<? super T, ?> partitionKey, Consumer<? super T> mapping) {
+		Assert.notNull(records, "Records cannot be null.");
+		return execute(records.iterator(), partitionKey, mapping);
+	}
+
+	/**
+	 * Maps all records of the given iterator with the given mapping function.
+	 * Returns after all records have been mapped.
+	 *
+	 * @param records
+	 *            the source records to map
+	 * @param partitionKey
+	 *            provides the partition key of a record
+	 * @param mapping
+	 *            maps a single record to DiscourseDB, usually by calling a converter service
+	 * @return the number of mapped records
+	 */
+	public <T> long execute(Iterator<T> records, Function<? super T, ?> partitionKey, Consumer<? super T> mapping) {
+		Assert.notNull(mapping, "Mapping cannot be null.");
+		return executeChunks(records, partitionKey, chunk -> chunk.forEach(mapping));
+	}
+
+	/**
+	 * Maps all records of the given iterator chunk by chunk. The mapping is
+	 * called once per chunk in the transaction of the chunk, so converters can
+	 * share per-chunk state such as a BulkImportSession between the records of
+	 * a chunk. A chunk is mapped again if it is retried. Returns after all
+	 * records have been mapped.
+	 *
+	 * @param records
+	 *            the source records to map
+	 * @param partitionKey
+	 *            provides the partition key of a record
+	 * @param chunkMapping
+	 *            maps the records of a chunk to DiscourseDB, usually by calling a converter service
+	 * @return the number of mapped records
+	 */
+	public <T> long executeChunks(Iterator<T> records, Function<? super T, ?> partitionKey, Consumer<? super List<T>> chunkMapping) {
+		Assert.notNull(records, "Records cannot be null.");
+		Assert.notNull(partitionKey, "Partition key function cannot be null.");
+		Assert.notNull(chunkMapping, "Mapping cannot be null.");
+
+		int workerCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicLong mapped = new AtomicLong();
+
+		List<BlockingQueue<Object>> queues = new ArrayList<>();
+		List<Future<?>> workers = new ArrayList<>();
+		ExecutorService pool = Executors.newFixedThreadPool(workerCount);
+		try {
+			for (int i = 0; i < workerCount; i++) {
+				BlockingQueue<Object> queue = new ArrayBlockingQueue<>(chunkSize * 2);
+				queues.add(queue);
+				workers.add(pool.submit(() -> {
+					work(queue, chunkMapping, failure, mapped);
+					return null;
+				}));
+			}
+
+			while (records.hasNext() && failure.get() == null) {
+				T record = records.next();
+				Object key = partitionKey.apply(record);
+				int partition = key == null ? 0 : Math.floorMod(key.hashCode(), workerCount);
+				enqueue(queues.get(partition), record, failure);
+			}
+			for (BlockingQueue<Object> queue : queues) {
+				enqueue(queue, END_OF_INPUT, failure);
+			}
+
+			for (Future<?> worker : workers) {
+				try {
+					worker.get();
+				} catch (ExecutionException e) {
+					failure.compareAndSet(null, e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		if (failure.get() != null) {
+			throw new RuntimeException("Parallel import failed after " + mapped.get() + " records.", failure.get());
+		}
+		log.info("Mapped " + mapped.get() + " records with " + workerCount + " workers.");
+		return mapped.get();
+	}
+
+	private void enqueue(BlockingQueue<Object> queue, Object record, AtomicReference<Throwable> failure)
+			throws InterruptedException {
+		//a failed worker stops consuming its queue, so we must not block forever
+		while (failure.get() == null && !queue.offer(record, 1, TimeUnit.SECONDS)) {
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> void work(BlockingQueue<Object> queue, Consumer<? super List<T>> chunkMapping, AtomicReference<Throwable> failure,
+			AtomicLong mapped) throws InterruptedException {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+
+		naturalKeyLocks.enterWorker();
+		try {
+			List<T> chunk = new ArrayList<>();
+			while (failure.get() == null) {
+				Object next = queue.poll(1, TimeUnit.SECONDS);
+				if (next == null) {
+					continue;
+				}
+				if (next != END_OF_INPUT) {
+					chunk.add((T) next);
+				}
+				if (chunk.size() >= chunkSize || (next == END_OF_INPUT && !chunk.isEmpty())) {
+					processChunk(transactionTemplate, chunk, chunkMapping);
+					mapped.addAndGet(chunk.size());
+					chunk.clear();
+				}
+				if (next == END_OF_INPUT) {
+					return;
+				}
+			}
+		} catch (RuntimeException | Error e) {
+			failure.compareAndSet(null, e);
+			throw e;
+		} finally {
+			naturalKeyLocks.exitWorker();
+		}
+	}
+
+	private <T> void processChunk(TransactionTemplate transactionTemplate, List<T> chunk, Consumer<? super List<T>> chunkMapping) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				transactionTemplate.execute(status -> {
+					chunkMapping.accept(Collections.unmodifiableList(chunk));
+					entityManager.flush();
+					entityManager.clear();
+					return null;
+				});
+				return;
+			} catch (RuntimeException e) {
+				if (attempt > maxRetries || !isRetryable(e)) {
+					throw e;
+				}
+				log.warn("Chunk failed due to lock contention (attempt " + attempt + "). Retrying...");
+				backoff(attempt);
+			}
+		}
+	}
+
+	/**
+	 * @return true, if the given exception was caused by a deadlock or a lock timeout
+	 */
+	private static boolean isRetryable(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof PessimisticLockingFailureException
+					|| cause instanceof org.hibernate.exception.LockAcquisitionException
+					|| cause instanceof javax.persistence.PessimisticLockException
+					|| cause instanceof javax.persistence.LockTimeoutException) {
+				return true;
+			}
+			if (cause instanceof SQLException) {
+				SQLException sqlException = (SQLException) cause;
+				if ("40001".equals(sqlException.getSQLState()) || sqlException.getErrorCode() == MYSQL_DEADLOCK
+						|| sqlException.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void backoff(int attempt) {
+		try {
+			Thread.sleep((long) (Math.random() * 100 * attempt));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,7 @@
+/**
+ * Contains service-layer classes that support high-volume imports by bypassing the per-entity save operations of the repositories defined in {@link edu.cmu.cs.lti.discoursedb.core.repository},
+ * by grouping source records into chunked transactions and by mapping partitioned source records in parallel.
+ *
+ * @see <a href="http://docs.jboss.org/hibernate/orm/4.3/manual/en-US/html/ch15.html">Hibernate Batch processing</a>
+ */
+package edu.cmu.cs.lti.discoursedb.core.service.bulk;
\ No newline at end of file
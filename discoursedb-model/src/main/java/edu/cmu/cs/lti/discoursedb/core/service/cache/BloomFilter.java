@@ -0,0 +1,183 @@
+package edu.cmu.cs.lti.discoursedb.core.service.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.springframework.util.Assert;
+
+/**
+ * A Bloom filter over strings. A negative answer of
+ * {@link #mightContain(CharSequence)} is always correct, a positive answer is
+ * wrong with a probability that approaches the configured false positive rate
+ * once the filter holds its expected number of entries. Adding more entries
+ * than expected raises the false positive rate but never produces false
+ * negatives. All operations are synchronized, so a single instance can be
+ * shared by multiple import threads.
+ */
+public class BloomFilter {
+
+	private static final double LN2 = Math.log(2);
+
+	private final long capacity;
+	private final int numHashes;
+	private final long numBits;
+	private final long[] words;
+	private long count = 0;
+
+	/**
+	 * Creates an empty filter.
+	 *
+	 * @param capacity the expected number of entries
+	 * @param falsePositiveRate the false positive rate at the expected number of entries
+	 */
+	public BloomFilter(long capacity, double falsePositiveRate) {
+		Assert.isTrue(capacity > 0, "Capacity has to be positive.");
+		Assert.isTrue(falsePositiveRate > 0 && falsePositiveRate < 1, "False positive rate has to be between 0 and 1.");
+		long bits = Math.max(64, (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (LN2 * LN2)));
+		Assert.isTrue(bits / 64 < Integer.MAX_VALUE, "Capacity is too large.");
+		this.capacity = capacity;
+		this.numHashes = Math.max(1, (int) Math.round((double) bits / capacity * LN2));
+		this.words = new long[(int) ((bits + 63) / 64)];
+		this.numBits = words.length * 64L;
+	}
+
+	private BloomFilter(long capacity, int numHashes, long count, long[] words) {
+		this.capacity = capacity;
+		this.numHashes = numHashes;
+		this.count = count;
+		this.words = words;
+		this.numBits = words.length * 64L;
+	}
+
+	/**
+	 * @param key the key to add
+	 * @return true, if the filter has changed, i.e. the key has definitely not been added before
+	 */
+	public synchronized boolean put(CharSequence key) {
+		long hash1 = hash(key);
+		long hash2 = mix(hash1);
+		boolean changed = false;
+		for (int i = 0; i < numHashes; i++) {
+			long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+			long mask = 1L << bit;
+			int word = (int) (bit >>> 6);
+			if ((words[word] & mask) == 0) {
+				words[word] |= mask;
+				changed = true;
+			}
+		}
+		if (changed) {
+			count++;
+		}
+		return changed;
+	}
+
+	/**
+	 * @param key the key to look up
+	 * @return false, if the key has definitely not been added. true, if it might have been added.
+	 */
+	public synchronized boolean mightContain(CharSequence key) {
+		long hash1 = hash(key);
+		long hash2 = mix(hash1);
+		for (int i = 0; i < numHashes; i++) {
+			long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+			if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the expected number of entries
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the approximate number of distinct entries that have been added
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return true, if the filter holds its expected number of entries
+	 */
+	public synchronized boolean isFull() {
+		return count >= capacity;
+	}
+
+	/**
+	 * @return the size of the bit array in bytes
+	 */
+	public long getSizeInBytes() {
+		return words.length * 8L;
+	}
+
+	/**
+	 * Writes the filter in a format that can be read with {@link #readFrom(DataInput)}.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if the filter could not be written
+	 */
+	public synchronized void writeTo(DataOutput out) throws IOException {
+		out.writeLong(capacity);
+		out.writeInt(numHashes);
+		out.writeLong(count);
+		out.writeInt(words.length);
+		for (long word : words) {
+			out.writeLong(word);
+		}
+	}
+
+	/**
+	 * Reads a filter that has been written with {@link #writeTo(DataOutput)}.
+	 *
+	 * @param in the input to read from
+	 * @return the filter
+	 * @throws IOException if the filter could not be read
+	 */
+	public static BloomFilter readFrom(DataInput in) throws IOException {
+		long capacity = in.readLong();
+		int numHashes = in.readInt();
+		long count = in.readLong();
+		long[] words = new long[in.readInt()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = in.readLong();
+		}
+		return new BloomFilter(capacity, numHashes, count, words);
+	}
+
+	@Override
+	public String toString() {
+		return "BloomFilter(count=" + getCount() + ", capacity=" + capacity + ", hashes=" + numHashes + ", bytes=" + getSizeInBytes() + ")";
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the characters of the given key
+	 */
+	private static long hash(CharSequence key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			hash ^= c & 0xff;
+			hash *= 0x100000001b3L;
+			hash ^= c >>> 8;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Derives the second hash for double hashing with the finalizer of SplitMix64
+	 */
+	private static long mix(long hash) {
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return (hash ^ (hash >>> 31)) | 1;
+	}
+
+}
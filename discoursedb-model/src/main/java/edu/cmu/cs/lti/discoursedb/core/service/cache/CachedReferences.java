@@ -0,0 +1,58 @@
+package edu.cmu.cs.lti.discoursedb.core.service.cache;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+/**
+ * Resolves the primary keys found in the id caches of the services.<br/>
+ *
+ * If the caller of a service runs its own transaction, e.g. an import chunk,
+ * a cache hit is returned as an entity reference that is only loaded when one
+ * of its properties is accessed. Hits that are merely used as foreign keys
+ * therefore do not query the database at all. This relies on the caches only
+ * containing committed entities and being invalidated when an entity is
+ * saved or deleted through its service. If the service call runs in a
+ * transaction of its own, the reference would be detached before it could be
+ * loaded, so the entity is loaded right away instead.
+ */
+public final class CachedReferences {
+
+	private CachedReferences() {
+	}
+
+	/**
+	 * @param entityManager
+	 *            the EntityManager of the current transaction
+	 * @param entityClass
+	 *            the class of the cached entity
+	 * @param id
+	 *            the cached id or null if the lookup was not cached
+	 * @param finder
+	 *            loads the entity with the given id if a reference cannot be used
+	 * @return an Optional containing the cached entity or an empty Optional if
+	 *         the lookup was not cached or the loaded entity does not exist anymore
+	 */
+	public static <T> Optional<T> resolve(EntityManager entityManager, Class<T> entityClass, Long id, Function<Long, Optional<T>> finder) {
+		if (id == null) {
+			return Optional.empty();
+		}
+		if (isCallerTransaction()) {
+			return Optional.of(entityManager.getReference(entityClass, id));
+		}
+		return finder.apply(id);
+	}
+
+	private static boolean isCallerTransaction() {
+		try {
+			return !TransactionAspectSupport.currentTransactionStatus().isNewTransaction();
+		} catch (NoTransactionException e) {
+			return false;
+		}
+	}
+
+}
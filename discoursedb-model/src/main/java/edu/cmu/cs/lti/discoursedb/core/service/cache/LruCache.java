@@ -0,0 +1,300 @@
+package edu.cmu.cs.lti.discoursedb.core.service.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+/**
+ * A size-bounded map with least-recently-used eviction that keeps track of
+ * hits, misses and evictions. All operations are synchronized, so a single
+ * instance can be shared by multiple import threads.<br/>
+ *
+ * Caches that have to invalidate all entries of a value or of a group of keys
+ * (e.g. all keys of a discourse) can keep reverse indexes, so that
+ * {@link #removeValue(Object)} and {@link #removeGroup(Object)} only touch the
+ * affected entries instead of scanning the whole cache.<br/>
+ *
+ * Entries that refer to rows written by the current transaction can be added
+ * with {@link #putAfterCommit(Object, Object)}. They are only visible to the
+ * current transaction until it has been committed and are dropped if it is
+ * rolled back.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LruCache<K, V> {
+
+	private final int maxSize;
+	private final LinkedHashMap<K, V> map;
+	private final Map<V, Set<K>> keysByValue;
+	private final Function<? super K, ? extends Collection<?>> groupsOf;
+	private final Map<Object, Set<K>> keysByGroup;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a new cache that holds at most maxSize entries and does not keep reverse indexes.
+	 *
+	 * @param maxSize the maximum number of entries. A size of 0 disables the cache.
+	 */
+	public LruCache(int maxSize) {
+		this(maxSize, false, null);
+	}
+
+	/**
+	 * Creates a new cache that holds at most maxSize entries.
+	 *
+	 * @param maxSize the maximum number of entries. A size of 0 disables the cache.
+	 * @param indexValues true, if the keys of each value should be indexed for {@link #removeValue(Object)}
+	 * @param groupsOf provides the groups of a key for {@link #removeGroup(Object)} or null if keys are not grouped
+	 */
+	public LruCache(int maxSize, boolean indexValues, Function<? super K, ? extends Collection<?>> groupsOf) {
+		Assert.isTrue(maxSize >= 0, "Cache size cannot be negative.");
+		this.maxSize = maxSize;
+		this.keysByValue = indexValues ? new HashMap<>() : null;
+		this.groupsOf = groupsOf;
+		this.keysByGroup = groupsOf != null ? new HashMap<>() : null;
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if (size() > LruCache.this.maxSize) {
+					evictions++;
+					unindex(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param key the key to look up
+	 * @return the cached value or null if the key is not in the cache
+	 */
+	public synchronized V get(K key) {
+		Map<K, V> pending = getPending();
+		V value = pending != null ? pending.get(key) : null;
+		if (value == null) {
+			value = map.get(key);
+		}
+		if (value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return value;
+	}
+
+	public synchronized void put(K key, V value) {
+		Assert.notNull(value, "Cannot cache null values.");
+		if (maxSize > 0) {
+			V previous = map.put(key, value);
+			if (previous != null) {
+				unindex(key, previous);
+			}
+			index(key, value);
+		}
+	}
+
+	/**
+	 * Adds an entry once the current transaction has been committed. Until
+	 * then, the entry is only visible to the current transaction. Without an
+	 * active transaction, the entry is added immediately.
+	 *
+	 * @param key the key of the entry
+	 * @param value the value of the entry
+	 */
+	public synchronized void putAfterCommit(K key, V value) {
+		Assert.notNull(value, "Cannot cache null values.");
+		if (maxSize == 0) {
+			return;
+		}
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			put(key, value);
+			return;
+		}
+		Map<K, V> pending = getPending();
+		if (pending == null) {
+			Map<K, V> newPending = new HashMap<>();
+			TransactionSynchronizationManager.bindResource(this, newPending);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					synchronized (LruCache.this) {
+						newPending.forEach(LruCache.this::put);
+					}
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(LruCache.this);
+				}
+			});
+			pending = newPending;
+		}
+		pending.put(key, value);
+	}
+
+	public synchronized void remove(K key) {
+		Map<K, V> pending = getPending();
+		if (pending != null) {
+			pending.remove(key);
+		}
+		V value = map.remove(key);
+		if (value != null) {
+			unindex(key, value);
+		}
+	}
+
+	/**
+	 * Removes all entries that map to the given value. Requires a cache that indexes its values.
+	 *
+	 * @param value the value to remove
+	 */
+	public synchronized void removeValue(V value) {
+		Assert.state(keysByValue != null, "The values of this cache are not indexed.");
+		Map<K, V> pending = getPending();
+		if (pending != null) {
+			pending.values().removeIf(value::equals);
+		}
+		Set<K> keys = keysByValue.remove(value);
+		if (keys == null) {
+			return;
+		}
+		for (K key : keys) {
+			map.remove(key);
+			unindexGroups(key, null);
+		}
+	}
+
+	/**
+	 * Removes all entries with a key of the given group. Requires a cache that groups its keys.
+	 *
+	 * @param group the group to remove
+	 */
+	public synchronized void removeGroup(Object group) {
+		Assert.state(keysByGroup != null, "The keys of this cache are not grouped.");
+		Map<K, V> pending = getPending();
+		if (pending != null) {
+			pending.keySet().removeIf(key -> groupsOf.apply(key).contains(group));
+		}
+		Set<K> keys = keysByGroup.remove(group);
+		if (keys == null) {
+			return;
+		}
+		for (K key : keys) {
+			V value = map.remove(key);
+			if (value != null && keysByValue != null) {
+				removeFromIndex(keysByValue, value, key);
+			}
+			unindexGroups(key, group);
+		}
+	}
+
+	public synchronized void clear() {
+		Map<K, V> pending = getPending();
+		if (pending != null) {
+			pending.clear();
+		}
+		map.clear();
+		if (keysByValue != null) {
+			keysByValue.clear();
+		}
+		if (keysByGroup != null) {
+			keysByGroup.clear();
+		}
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the ratio of hits to lookups or 0 if the cache has not been used yet
+	 */
+	public synchronized double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "size=" + map.size() + "/" + maxSize + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<K, V> getPending() {
+		return (Map<K, V>) TransactionSynchronizationManager.getResource(this);
+	}
+
+	private void index(K key, V value) {
+		if (keysByValue != null) {
+			keysByValue.computeIfAbsent(value, v -> new HashSet<>()).add(key);
+		}
+		if (keysByGroup != null) {
+			for (Object group : groupsOf.apply(key)) {
+				keysByGroup.computeIfAbsent(group, g -> new HashSet<>()).add(key);
+			}
+		}
+	}
+
+	private void unindex(K key, V value) {
+		if (keysByValue != null) {
+			removeFromIndex(keysByValue, value, key);
+		}
+		unindexGroups(key, null);
+	}
+
+	/**
+	 * Removes the key from the index of all its groups except the given group, which is being removed as a whole.
+	 */
+	private void unindexGroups(K key, Object removedGroup) {
+		if (keysByGroup == null) {
+			return;
+		}
+		for (Object group : groupsOf.apply(key)) {
+			if (!group.equals(removedGroup)) {
+				removeFromIndex(keysByGroup, group, key);
+			}
+		}
+	}
+
+	private static <I, K> void removeFromIndex(Map<I, Set<K>> index, I indexKey, K key) {
+		Set<K> keys = index.get(indexKey);
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				index.remove(indexKey);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,5 @@
+/**
+ * Contains in-memory caches that are shared by the DiscourseDB services in {@link edu.cmu.cs.lti.discoursedb.core.service}
+ * in order to avoid repeated lookups of the same entities during imports.
+ */
+package edu.cmu.cs.lti.discoursedb.core.service.cache;
\ No newline at end of file
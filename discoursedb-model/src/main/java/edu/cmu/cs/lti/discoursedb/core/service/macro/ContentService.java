@@ -1,25 +1,64 @@
 package edu.cmu.cs.lti.discoursedb.core.service.macro;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.ContentPayload;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContentRepository;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
 
+@Log4j
 @Service
 @Transactional(propagation= Propagation.REQUIRED, readOnly=false)
 @RequiredArgsConstructor(onConstructor = @__(@Autowired) )
 public class ContentService {
 
+	/**
+	 * Maximum number of ids in the IN clause of a single fetchText query
+	 */
+	private static final int FETCH_TEXT_BATCH_SIZE = 1000;
+
+	/**
+	 * Number of revision histories that are indexed in a single transaction by the backfill
+	 */
+	private static final int BACKFILL_BATCH_SIZE = 1000;
+
 	private final @NonNull ContentRepository contentRepo;
+	private final @NonNull PlatformTransactionManager transactionManager;
+	private final @NonNull RevisionTextCache revisionTextCache;
+
+	/**
+	 * If enabled, linked revisions store their text as a delta against the text of their next revision
+	 */
+	@Value("${discoursedb.content.delta_encoding:false}")
+	private boolean deltaEncoding;
+
+	/**
+	 * Every keyframe_interval-th revision of a history keeps its full text, which bounds the number of deltas needed to reconstruct a text
+	 */
+	@Value("${discoursedb.content.keyframe_interval:10}")
+	private int keyframeInterval;
 	
 	public Content createContent(){
 		return contentRepo.save(new Content());
@@ -32,6 +71,120 @@ public class ContentService {
 		return contentRepo.findByIdIn(ids);
 	}
 	
+	/**
+	 * Retrieves the texts of the given contents without loading the Content entities or any other part of their payload.
+	 * This should be preferred over accessing the text of many Content entities one by one.
+	 * Delta-encoded texts are reconstructed transparently.
+	 * 
+	 * @param ids the ids of the contents
+	 * @return a map from content id to text. Contents that do not exist or do not have a text are not included.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Map<Long,String> fetchText(Collection<Long> ids){
+		Assert.notNull(ids, "Collection of content ids cannot be null.");
+		
+		Map<Long,String> texts = new HashMap<>(ids.size()*2);
+		List<Long> idList = new ArrayList<>(ids);
+		for(int from=0; from<idList.size(); from+=FETCH_TEXT_BATCH_SIZE){
+			List<Long> batch = idList.subList(from, Math.min(from+FETCH_TEXT_BATCH_SIZE, idList.size()));
+			for(Object[] row:contentRepo.findTextByIdIn(batch)){
+				texts.put((Long)row[0], (String)row[1]);
+			}
+			List<Long> withoutText = batch.stream().filter(id -> !texts.containsKey(id)).collect(Collectors.toList());
+			if(!withoutText.isEmpty()){
+				for(Content content:contentRepo.findDeltaEncodedByIdIn(withoutText)){
+					texts.put(content.getId(), reconstructText(content));
+				}
+			}
+		}
+		return texts;
+	}
+
+	/**
+	 * Retrieves the text of the given content, including the texts of revisions that are stored as a delta against
+	 * their next revision. Reconstructed texts are kept in the {@link RevisionTextCache}.
+	 * 
+	 * @param content the content to retrieve the text for
+	 * @return the text of the content or null if it does not have a text
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public String getText(Content content){
+		Assert.notNull(content, "Content cannot be null.");
+		ContentPayload payload = content.getPayload();
+		if(payload==null||!payload.isDeltaEncoded()){
+			return content.getText();
+		}
+		return reconstructText(content);
+	}
+
+	private String reconstructText(Content content){
+		String cached = revisionTextCache.get(content.getId());
+		if(cached!=null){
+			return cached;
+		}
+		List<Object[]> chain = contentRepo.findDeltaChain(content.getRevisionRootId(), content.getRevisionOrdinal());
+		if(chain.isEmpty()||chain.get(0)[1]==null){
+			throw new IllegalStateException("Revision history of content "+content.getId()+" does not contain a full text to reconstruct the text from.");
+		}
+		String text = (String) chain.get(0)[1];
+		for(Object[] link:chain.subList(1, chain.size())){
+			text = RevisionDelta.apply(text, (byte[])link[2]);
+			//intermediate revisions are cached as well, since histories are usually read in full
+			revisionTextCache.put((Long)link[0], text);
+		}
+		return text;
+	}
+	
+	/**
+	 * Sets the text of the given content. If a content with the same text has been saved before, the given content
+	 * shares the payload of that content, so that identical texts are stored only once. Otherwise, the content
+	 * receives a new payload with the given text.<br/>
+	 * Duplicate texts are found with an index lookup on the hash of the text. Contents that also have data do not
+	 * share their payload.
+	 * 
+	 * @param content the content to set the text for
+	 * @param text the new text of the content
+	 */
+	public void setText(Content content, String text){
+		Assert.notNull(content, "Content cannot be null.");
+		if(text!=null&&content.getData()==null){
+			for(ContentPayload payload:contentRepo.findSharablePayloads(TextHash.of(text))){
+				//the hash only narrows down the candidates, the texts have to be identical
+				if(text.equals(payload.getText())){
+					content.sharePayload(payload);
+					return;
+				}
+			}
+		}
+		content.setText(text);
+	}
+
+	/**
+	 * Retrieves all contents with exactly the given text, including older revisions with a delta-encoded text.
+	 * The contents are looked up by the hash of the text, which is indexed, and compared with the text.
+	 * 
+	 * @param text the text to look for
+	 * @return the contents with the given text
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public List<Content> findAllByText(String text){
+		Assert.notNull(text, "Text cannot be null.");
+		//delta-encoded texts only share the hash and have to be reconstructed to rule out collisions
+		return contentRepo.findByTextHashAndText(TextHash.of(text), text).stream()
+				.filter(content -> !content.getPayload().isDeltaEncoded() || text.equals(getText(content)))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Deletes all payloads that are no longer referenced by a content. Payloads are shared between contents with identical
+	 * texts, so they are not removed together with a content and are replaced rather than modified when a text changes.
+	 * 
+	 * @return the number of deleted payloads
+	 */
+	public int deleteOrphanedPayloads(){
+		return contentRepo.deleteOrphanedPayloads();
+	}
+
 	public Content save(Content content){
 		Assert.notNull(content, "Content cannot be null.");
 		return contentRepo.save(content);
@@ -51,6 +204,8 @@ public class ContentService {
 		Assert.isTrue(nextRevId>0, "Next revision id has to be a positive number.");
 		Assert.isTrue(id!=nextRevId, "Next revision cannot equal the current revision.");		
 		contentRepo.setNextRevisionId(id, nextRevId);
+		contentRepo.setRevisionRoot(id);
+		contentRepo.setRevisionIndexFromPrevious(id, nextRevId);
 	}
 	
 	public void setPreviousRevision(Long id, Long previousRevId){
@@ -60,6 +215,125 @@ public class ContentService {
 		Assert.isTrue(previousRevId>0, "Previous revision id has to be a positive number.");
 		Assert.isTrue(id!=previousRevId, "Previous revision cannot equal the current revision.");		
 		contentRepo.setPreviousRevisionId(id, previousRevId);
+		contentRepo.setRevisionRoot(previousRevId);
+		contentRepo.setRevisionIndexFromPrevious(previousRevId, id);
+	}
+
+	/**
+	 * Links the given contents as consecutive revisions and adds the next revision to the revision history of the previous revision.
+	 * If the previous revision does not have a previous revision itself, it becomes the first revision (the root) of the history.
+	 * The changes are written to the database with the next flush. Detached contents have to be saved explicitly.<br/>
+	 * If delta encoding is enabled (discoursedb.content.delta_encoding), the text of the previous revision is replaced by a delta
+	 * against the text of the next revision, unless the previous revision is a keyframe (every discoursedb.content.keyframe_interval-th
+	 * revision) or the delta would not be smaller than the text. The text of the next revision therefore has to be set before the revisions
+	 * are linked and must not be changed afterwards. Delta-encoded texts can be retrieved with {@link #getText(Content)} and {@link #fetchText(Collection)}.
+	 * 
+	 * @param previous the previous revision. Has to be saved already, since its id identifies the revision history.
+	 * @param next the revision that follows the previous revision
+	 */
+	public void linkRevisions(Content previous, Content next){
+		Assert.notNull(previous, "Previous revision cannot be null.");
+		Assert.notNull(next, "Next revision cannot be null.");
+		Assert.notNull(previous.getId(), "Previous revision has to be saved before a next revision can be linked.");
+		Assert.isTrue(previous!=next, "Next revision cannot equal the previous revision.");
+
+		previous.setNextRevision(next);
+		next.setPreviousRevision(previous);
+		if(previous.getRevisionRootId()==null&&previous.getPreviousRevision()==null){
+			previous.setRevisionRootId(previous.getId());
+			previous.setRevisionOrdinal(0);
+		}
+		next.setRevisionRootId(previous.getRevisionRootId());
+		next.setRevisionOrdinal(previous.getRevisionOrdinal()==null?null:previous.getRevisionOrdinal()+1);
+		if(deltaEncoding){
+			encodeAsDelta(previous, next);
+		}
+	}
+
+	private void encodeAsDelta(Content previous, Content next){
+		Assert.isTrue(keyframeInterval>0, "Keyframe interval has to be a positive number.");
+		Integer ordinal = previous.getRevisionOrdinal();
+		ContentPayload payload = previous.getPayload();
+		//revisions of unindexed histories cannot be reconstructed, since their chain of deltas cannot be retrieved
+		//revisions that already share the payload of their next revision do not need any additional storage
+		if(ordinal==null||ordinal%keyframeInterval==0||payload==null||payload.isDeltaEncoded()||payload==next.getPayload()){
+			return;
+		}
+		String text = payload.getText();
+		String nextText = next.getText();
+		if(text==null||nextText==null){
+			return;
+		}
+		byte[] delta = RevisionDelta.encode(nextText, text);
+		if(delta.length>=text.getBytes(StandardCharsets.UTF_8).length){
+			return;
+		}
+		if(payload.getId()==null||contentRepo.countByPayload(payload)<=1){
+			payload.setDelta(delta);
+		}else{
+			//the payload is shared with other contents, which still need the full text
+			previous.setTextDelta(delta);
+		}
+	}
+
+	/**
+	 * Retrieves the complete revision history of the given contribution with a single query.
+	 * Revision histories that have been created before the revision index was introduced have to be indexed with
+	 * {@link #backfillRevisionIndex()} first. Otherwise, only the first revision is returned.
+	 * 
+	 * @param contribution the contribution to retrieve the revision history for
+	 * @return the revisions of the contribution ordered from the first to the most recent revision
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public List<Content> findRevisionHistory(Contribution contribution){
+		Assert.notNull(contribution, "Contribution cannot be null.");
+		if(contribution.getFirstRevision()==null){
+			return Collections.emptyList();
+		}
+		//a single query for both cases would have to combine two conditions with OR, which cannot use the revision index
+		List<Content> history = contentRepo.findRevisionHistory(contribution);
+		return history.isEmpty() ? Collections.singletonList(contribution.getFirstRevision()) : history;
+	}
+
+	/**
+	 * Indexes all revision histories that do not have a root revision id and revision ordinals yet.
+	 * The histories are indexed in batches of {@value #BACKFILL_BATCH_SIZE} histories per transaction,
+	 * following the previous revision links one revision at a time for all histories of a batch.
+	 * The backfill can be interrupted and resumed at any time. It is run on startup by the RevisionIndexMigration.
+	 * 
+	 * @return the number of contents that have been indexed
+	 */
+	@Transactional(propagation= Propagation.NOT_SUPPORTED)
+	public long backfillRevisionIndex(){
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		long indexed = 0;
+		long after = 0;
+		List<Long> rootIds;
+		//the roots are retrieved in id order, so each batch continues after the previous one instead of scanning the indexed histories again
+		while(!(rootIds = toIds(contentRepo.findUnindexedRevisionRootIds(after, BACKFILL_BATCH_SIZE))).isEmpty()){
+			List<Long> batch = rootIds;
+			indexed += transaction.execute(status -> indexRevisionHistories(batch));
+			after = batch.get(batch.size() - 1);
+			log.info("Indexed "+indexed+" revisions.");
+		}
+		return indexed;
+	}
+	
+	private long indexRevisionHistories(List<Long> rootIds){
+		contentRepo.setRevisionRoots(rootIds);
+		long indexed = rootIds.size();
+		//each revision has at most one next revision, so the frontier never grows beyond the number of histories in the batch
+		List<Long> frontier = rootIds;
+		while(!frontier.isEmpty()){
+			contentRepo.setRevisionIndexOfNextRevisions(frontier);
+			frontier = toIds(contentRepo.findNextRevisionIds(frontier));
+			indexed += frontier.size();
+		}
+		return indexed;
+	}
+
+	private static List<Long> toIds(List<Number> ids){
+		return ids.stream().map(Number::longValue).collect(Collectors.toList());
 	}
 
 
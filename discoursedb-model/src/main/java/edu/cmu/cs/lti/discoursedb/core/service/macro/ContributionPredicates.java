@@ -1,12 +1,16 @@
 package edu.cmu.cs.lti.discoursedb.core.service.macro;
 
+import com.mysema.query.jpa.JPASubQuery;
 import com.mysema.query.types.expr.BooleanExpression;
 
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.QContribution;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.QDiscoursePartContribution;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
+import edu.cmu.cs.lti.discoursedb.core.model.system.QPrimarySource;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourcePredicates;
 import edu.cmu.cs.lti.discoursedb.core.type.ContributionTypes;
 
 public final class ContributionPredicates {
@@ -14,26 +18,79 @@ public final class ContributionPredicates {
 	private ContributionPredicates() {
 	}
 
-	public static BooleanExpression contributionHasSourceId(String sourceId) {
+	/**
+	 * Matches the source id of the primary source of the contribution.
+	 * Contributions that store the source id in their DataSourceAggregate have to be looked up with
+	 * {@link #contributionHasAggregatedSourceId(String)} in a separate query, since a condition that
+	 * matches either of them cannot use an index.
+	 * 
+	 * @param sourceId the source id to look for
+	 * @return true, if the primary source of the contribution has the given source id
+	 */
+	public static BooleanExpression contributionHasPrimarySourceId(String sourceId) {
 		if (sourceId == null || sourceId.isEmpty()) {
 			return QContribution.contribution.isNull();
 		} else {
-			return QContribution.contribution.dataSourceAggregate.sources.any().entitySourceId.eq(sourceId);
+			return QContribution.contribution.primarySource.entitySourceId.eq(sourceId);
 		}
 	}
-	public static BooleanExpression contributionHasDataSource(DataSourceInstance dataSource) {
+
+	/**
+	 * @param sourceId the source id to look for
+	 * @return true, if the DataSourceAggregate of the contribution contains a source with the given source id
+	 */
+	public static BooleanExpression contributionHasAggregatedSourceId(String sourceId) {
+		if (sourceId == null || sourceId.isEmpty()) {
+			return QContribution.contribution.isNull();
+		} else {
+			return DataSourcePredicates.aggregateHasSource(QContribution.contribution.dataSourceAggregate, DataSourcePredicates.hasSourceId(sourceId));
+		}
+	}
+
+	/**
+	 * Matches the primary source of the contribution.
+	 * 
+	 * @param dataSource the source to look for
+	 * @return true, if the primary source of the contribution is the given source
+	 */
+	public static BooleanExpression contributionHasPrimarySource(DataSourceInstance dataSource) {
 		if (dataSource == null) {
 			return QContribution.contribution.isNull();
 		} else {
-			return QContribution.contribution.dataSourceAggregate.sources.contains(dataSource);
+			QPrimarySource primarySource = QContribution.contribution.primarySource;
+			return primarySource.datasetName.eq(dataSource.getDatasetName())
+					.and(primarySource.entitySourceDescriptor.eq(dataSource.getEntitySourceDescriptor()))
+					.and(primarySource.entitySourceId.eq(dataSource.getEntitySourceId()));
+		}
+	}
+
+	/**
+	 * Matches the DataSourceAggregate of a stored source, so the contribution is found by the index on its aggregate.
+	 * 
+	 * @param dataSource the stored source to look for
+	 * @return true, if the DataSourceAggregate of the contribution contains the given source
+	 */
+	public static BooleanExpression contributionHasAggregatedSource(DataSourceInstance dataSource) {
+		if (dataSource == null || dataSource.getSourceAggregate() == null) {
+			return QContribution.contribution.isNull();
+		} else {
+			return QContribution.contribution.dataSourceAggregate.eq(dataSource.getSourceAggregate());
 		}
 	}
 	
+	/**
+	 * Uses the discourse that is stored with the contribution, so that no joins are necessary.
+	 * Contributions that have been created before the discourse was stored with the contributions
+	 * are only found after ContributionService.backfillDiscourse has been run.
+	 * 
+	 * @param discourse the discourse to look for
+	 * @return true, if the contribution belongs to the given discourse
+	 */
 	public static BooleanExpression contributionHasDiscourse(Discourse discourse) {
 		if (discourse == null) {
 			return QContribution.contribution.isNull();
 		} else {
-			return QContribution.contribution.contributionPartOfDiscourseParts.any().discoursePart.discourseToDiscourseParts.any().discourse.eq(discourse);
+			return QContribution.contribution.discourse.eq(discourse);
 		}
 	}
 	
@@ -45,11 +102,20 @@ public final class ContributionPredicates {
 		}
 	}
 
+	/**
+	 * Looks up the contributions of the DiscoursePart in an uncorrelated subquery, so that the
+	 * contributions are retrieved by their primary key instead of checking every contribution.
+	 * 
+	 * @param discoursePart the DiscoursePart to look for
+	 * @return true, if the contribution is part of the given DiscoursePart
+	 */
 	public static BooleanExpression contributionHasDiscoursePart(DiscoursePart discoursePart) {
 		if (discoursePart == null) {
 			return QContribution.contribution.isNull();
 		} else {
-			return QContribution.contribution.contributionPartOfDiscourseParts.any().discoursePart.eq(discoursePart);
+			QDiscoursePartContribution partContribution = QDiscoursePartContribution.discoursePartContribution;
+			return QContribution.contribution.in(new JPASubQuery().from(partContribution)
+					.where(partContribution.discoursePart.eq(discoursePart)).list(partContribution.contribution));
 		}
 	}
 	
@@ -1,44 +1,90 @@
 package edu.cmu.cs.lti.discoursedb.core.service.macro;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 
+import com.mysema.query.jpa.hibernate.HibernateQuery;
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.Predicate;
+
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.ContributionContext;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseRelation;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.QContribution;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionContextRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseRelationRepository;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
+import edu.cmu.cs.lti.discoursedb.core.service.system.ImportedSourceFilter;
+import edu.cmu.cs.lti.discoursedb.core.service.system.Keyset;
+import edu.cmu.cs.lti.discoursedb.core.service.system.Upsert;
+import edu.cmu.cs.lti.discoursedb.core.service.system.UpsertService;
 import edu.cmu.cs.lti.discoursedb.core.type.ContextTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.ContributionTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscourseRelationTypes;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
 
+@Log4j
 @Service
 @Transactional(propagation= Propagation.REQUIRED, readOnly=false)
 @RequiredArgsConstructor(onConstructor = @__(@Autowired) )
 public class ContributionService {
 
+	/**
+	 * Number of contributions that are loaded into the persistence context at once by the stream methods
+	 */
+	private static final int STREAM_BATCH_SIZE = 1000;
+
+	/**
+	 * Number of contributions that are assigned their discourse in a single transaction by the backfill
+	 */
+	private static final int BACKFILL_BATCH_SIZE = 1000;
+
 	private final @NonNull ContributionRepository contributionRepo;
-	private final @NonNull ContributionContextRepository contributionContextRepo;
 	private final @NonNull DataSourceService dataSourceService;	
-	private final @NonNull DiscourseRelationRepository discourseRelationRepo;
+	private final @NonNull ImportedSourceFilter importedSourceFilter;
 	private final @NonNull @PersistenceContext EntityManager entityManager; 
+	private final @NonNull UpsertService upsertService;
+	private final @NonNull PlatformTransactionManager transactionManager;
 	
 	/**
 	 * Retrieves existing or creates a new ContributionType entity with the
@@ -86,8 +132,17 @@ public class ContributionService {
 		Assert.hasText(entitySourceDescriptor, "Entity source descriptor cannot be empty");
 		Assert.hasText(dataSetName, "Dataset name cannot be empty.");
 
+		//records that have definitely not been imported yet do not have to be looked up
+		if(!importedSourceFilter.mightContain(entitySourceId, entitySourceDescriptor, dataSetName)){
+			return Optional.empty();
+		}
+		//most contributions store their only source inline
+		Optional<Contribution> contrib = contributionRepo.findOneByPrimarySource(entitySourceId, entitySourceDescriptor, dataSetName);
+		if(contrib.isPresent()){
+			return contrib;
+		}
 		return dataSourceService.findDataSource(entitySourceId, entitySourceDescriptor, dataSetName)
-				.map(s -> Optional.ofNullable(contributionRepo.findOne(ContributionPredicates.contributionHasDataSource(s))))
+				.map(s -> Optional.ofNullable(contributionRepo.findOne(ContributionPredicates.contributionHasAggregatedSource(s))))
 				.orElse(Optional.empty());
 	}
 	
@@ -103,6 +158,19 @@ public class ContributionService {
 		return contributionRepo.findAllByType(type.name());
 	}
 
+	/**
+	 * Returns a list of all contributions whose current revision has exactly the given text.
+	 * The contributions are looked up by the hash of the text, which is indexed, and compared with the text.
+	 * 
+	 * @param text the text to look for
+	 * @return a list of Contributions with the given text that potentially might be empty
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public List<Contribution> findAllByText(String text){
+		Assert.notNull(text, "Text cannot be null.");		
+		return contributionRepo.findAllByCurrentTextHashAndText(TextHash.of(text), text);
+	}
+
 	/**
 	 * Returns a list of all contributions for a given discourse
 	 * 
@@ -167,6 +235,193 @@ public class ContributionService {
 	}
 	
 	
+	/**
+	 * Keyset pagination over all contributions that match the given predicate ordered by id.
+	 * The predicate can be any of the predicates in {@link ContributionPredicates}.
+	 * In contrast to offset pagination, the cost of retrieving a slice does not grow with the number of slices that have already been retrieved.
+	 * 
+	 * @param predicate an optional predicate that restricts the contributions or null to page through all contributions
+	 * @param after the id of the last contribution of the previous slice or null to retrieve the first slice
+	 * @param size the maximum number of contributions in the slice
+	 * @return a slice of contributions with an id greater than the given id
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Slice<Contribution> findAllAfter(Predicate predicate, Long after, int size){
+		QContribution contribution = QContribution.contribution;
+		return Keyset.afterId(new JPAQuery(entityManager).from(contribution), contribution, contribution.id, predicate, after, size);
+	}
+
+	/**
+	 * Keyset pagination over all contributions that match the given predicate ordered by start time and id.
+	 * The predicate can be any of the predicates in {@link ContributionPredicates}.
+	 * Contributions without a start time are not included.
+	 * 
+	 * @param predicate an optional predicate that restricts the contributions or null to page through all contributions
+	 * @param afterStartTime the start time of the last contribution of the previous slice or null to retrieve the first slice
+	 * @param afterId the id of the last contribution of the previous slice or null to retrieve the first slice
+	 * @param size the maximum number of contributions in the slice
+	 * @return a slice of contributions that come after the given (startTime, id) pair
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Slice<Contribution> findAllAfter(Predicate predicate, Date afterStartTime, Long afterId, int size){
+		QContribution contribution = QContribution.contribution;
+		return Keyset.afterStartTimeAndId(new JPAQuery(entityManager).from(contribution), contribution, contribution.startTime,
+				contribution.id, predicate, afterStartTime, afterId, size);
+	}
+
+	/**
+	 * Streams all contributions for a given discourse.<br/>
+	 * See {@link #streamAll()} for details on how the stream is produced and how it must be consumed.
+	 * 
+	 * @param discourse the discourse the contributions need to be associated with
+	 * @return a stream of Contributions of the given discourse ordered by id. The stream has to be closed after use.
+	 */
+	@Transactional(propagation= Propagation.MANDATORY)
+	public Stream<Contribution> streamAllByDiscourse(Discourse discourse){
+		Assert.notNull(discourse, "Discourse cannot be null.");
+		return stream(ContributionPredicates.contributionHasDiscourse(discourse));
+	}
+
+	/**
+	 * Streams all contributions for a given DiscoursePart.<br/>
+	 * See {@link #streamAll()} for details on how the stream is produced and how it must be consumed.
+	 * 
+	 * @param discoursePart the discoursePart the contributions need to be associated with
+	 * @return a stream of Contributions of the given discoursePart ordered by id. The stream has to be closed after use.
+	 */
+	@Transactional(propagation= Propagation.MANDATORY)
+	public Stream<Contribution> streamAllByDiscoursePart(DiscoursePart discoursePart){
+		Assert.notNull(discoursePart, "DiscoursePart cannot be null.");
+		return stream(ContributionPredicates.contributionHasDiscoursePart(discoursePart));
+	}
+
+	/**
+	 * Streams all contributions of a given type independent from a Discourse.<br/>
+	 * See {@link #streamAll()} for details on how the stream is produced and how it must be consumed.
+	 * 
+	 * @param type the contribution type to look for
+	 * @return a stream of Contributions of the given type ordered by id. The stream has to be closed after use.
+	 */
+	@Transactional(propagation= Propagation.MANDATORY)
+	public Stream<Contribution> streamAllByType(ContributionTypes type){
+		Assert.notNull(type, "Type cannot be null.");
+		return stream(ContributionPredicates.contributionHasType(type));
+	}
+
+	/**
+	 * Streams all contributions of a given type that are associated with the given discourse.<br/>
+	 * See {@link #streamAll()} for details on how the stream is produced and how it must be consumed.
+	 * 
+	 * @param discourse the discourse the contributions need to be associated with
+	 * @param type the contribution type to look for
+	 * @return a stream of Contributions of the given type and discourse ordered by id. The stream has to be closed after use.
+	 */
+	@Transactional(propagation= Propagation.MANDATORY)
+	public Stream<Contribution> streamAllByType(Discourse discourse, ContributionTypes type){
+		Assert.notNull(discourse, "Discourse cannot be null");
+		Assert.notNull(type, "Type cannot be null");
+		return stream(ContributionPredicates.contributionHasDiscourse(discourse).and(ContributionPredicates.contributionHasType(type)));
+	}
+
+	/**
+	 * Streams all contributions in the database no matter what type they or what discourse they are part of.<br/>
+	 * 
+	 * In contrast to the findAll methods, the stream methods do not materialize the result.
+	 * The ids of the matching contributions are read with a forward-only database cursor on a separate connection.
+	 * With MySQL, the cursor uses a streaming result set (fetch size Integer.MIN_VALUE), so the ids are not buffered by the driver either.
+	 * With other databases, the driver fetches the ids {@value #STREAM_BATCH_SIZE} rows at a time.
+	 * The contributions themselves are loaded in batches of {@value #STREAM_BATCH_SIZE} in the current transaction,
+	 * so they can be navigated (lazy loading) and modified like any other entity.
+	 * The current revision and its author are fetched together with the contributions.<br/>
+	 * 
+	 * Before the next batch is loaded, the persistence context is flushed and cleared.
+	 * Consumers must therefore not hold on to entities from earlier batches, as they are detached at that point.
+	 * This also applies to entities the caller has loaded before the stream was opened.<br/>
+	 * 
+	 * The stream methods must be called within an active transaction which has to remain open until the stream has been consumed.
+	 * The stream holds a database connection and has to be closed after use, e.g. with a try-with-resources statement.
+	 * 
+	 * @return a stream of all contributions in the database ordered by id. The stream has to be closed after use.
+	 */
+	@Transactional(propagation= Propagation.MANDATORY)
+	public Stream<Contribution> streamAll(){
+		return stream(null);
+	}
+
+	private Stream<Contribution> stream(Predicate predicate){
+		QContribution contribution = QContribution.contribution;
+		
+		//the id cursor is opened on its own connection, so we can still issue queries in the current transaction while the result set is being streamed
+		SessionImplementor session = (SessionImplementor) entityManager.unwrap(Session.class);
+		//only MySQL Connector/J streams with a fetch size of Integer.MIN_VALUE, other drivers reject negative fetch sizes
+		int fetchSize = session.getFactory().getDialect() instanceof MySQLDialect ? Integer.MIN_VALUE : STREAM_BATCH_SIZE;
+		StatelessSession cursorSession = session.getFactory().openStatelessSession();
+		ScrollableResults ids;
+		try{
+			HibernateQuery query = new HibernateQuery(cursorSession).from(contribution);
+			if(predicate!=null){
+				query.where(predicate);
+			}
+			ids = query.orderBy(contribution.id.asc())
+					.setFetchSize(fetchSize)
+					.setReadOnly(true)
+					.scroll(ScrollMode.FORWARD_ONLY, contribution.id);
+		}catch(RuntimeException e){
+			cursorSession.close();
+			throw e;
+		}
+
+		Iterator<Contribution> it = new Iterator<Contribution>() {
+			private Iterator<Contribution> batch = Collections.emptyIterator();
+			private boolean loadedBatch = false;
+
+			@Override
+			public boolean hasNext() {
+				if(!batch.hasNext()){
+					batch = nextBatch();
+				}
+				return batch.hasNext();
+			}
+
+			@Override
+			public Contribution next() {
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				return batch.next();
+			}
+
+			private Iterator<Contribution> nextBatch(){
+				List<Long> batchIds = new ArrayList<>(STREAM_BATCH_SIZE);
+				while(batchIds.size()<STREAM_BATCH_SIZE && ids.next()){
+					batchIds.add(ids.getLong(0));
+				}
+				if(batchIds.isEmpty()){
+					return Collections.emptyIterator();
+				}
+				//detach the previous batch so that the persistence context does not grow with the stream
+				if(loadedBatch){
+					entityManager.flush();
+					entityManager.clear();
+				}
+				loadedBatch = true;
+				
+				Map<Long,Contribution> contribs = new HashMap<>(batchIds.size()*2);
+				contributionRepo.findAllWithRevisionAndAuthorByIdIn(batchIds).forEach(c -> contribs.put(c.getId(), c));
+				return batchIds.stream().map(contribs::get).filter(Objects::nonNull).iterator();
+			}
+		};
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(() -> {
+					try{
+						ids.close();
+					}finally{
+						cursorSession.close();
+					}
+				});
+	}
+
 	/**
 	 * Creates a new DiscourseRelation of the given type between the two provided contributions.
 	 * Depending on the type, the relation might be directed or not. This information should be given in the type definition.
@@ -174,7 +429,7 @@ public class ContributionService {
 	 * 
 	 * If a DiscourseRelation of the given type already exists between the two contributions (taking into account the direction of the relation),
 	 * then the existing relation is returned. 
-	 * DiscourseDB does not enforce the uniqueness of these relations by default, but enforcing it in this service method will cater to most of the use cases we will see.
+	 * The uniqueness of these relations is enforced by a unique constraint, so the relation is retrieved or created with a single upsert statement.
 	 * 
 	 * @param sourceContribution the source or parent contribution of the relation
 	 * @param targetContribution the target or child contribution of the relation
@@ -186,18 +441,113 @@ public class ContributionService {
 		Assert.notNull(targetContribution, "Target contribution cannot be null.");
 		Assert.notNull(type, "Relation type cannot be null.");
 								
-		//check if a relation of the given type already exists between the two contributions
-		//if so, return it. if not, create new relation, configure it and return it.
-		return discourseRelationRepo
-				.findOneBySourceAndTargetAndType(sourceContribution, targetContribution, type.name())
-				.orElseGet(() -> {
-					DiscourseRelation newRelation = new DiscourseRelation();
-					newRelation.setSource(sourceContribution);
-					newRelation.setTarget(targetContribution);
-					newRelation.setType(type.name());
-					return discourseRelationRepo.save(newRelation);
-					}
-				);
+		//retrieve the relation of the given type between the two contributions or create it if it doesn't exist
+		DiscourseRelation relation = upsertService.upsert(new Upsert<>(DiscourseRelation.class)
+				.key("fk_source", sourceContribution)
+				.key("fk_target", targetContribution)
+				.key("type", type.name()));
+		if(type==DiscourseRelationTypes.REPLY||type==DiscourseRelationTypes.COMMENT){
+			addToThread(sourceContribution, targetContribution);
+		}
+		return relation;
+	}
+
+	/**
+	 * Adds a reply edge to the contribution closure, which relates every contribution with all of its direct and indirect replies.
+	 * The closure is kept complete regardless of the order in which the edges of a thread are created.
+	 */
+	private void addToThread(Contribution parent, Contribution child){
+		contributionRepo.addToClosure(parent.getId());
+		contributionRepo.addToClosure(child.getId());
+		contributionRepo.addReplyToClosure(parent.getId(), child.getId());
+	}
+
+	/**
+	 * Retrieves the reply tree that starts with the given contribution with a single query on the contribution closure.
+	 * The tree consists of all contributions that are connected with the root by a chain of REPLY or COMMENT relations.
+	 * 
+	 * @param root the root of the tree
+	 * @return the contributions of the tree in depth-first order, replies to the same contribution ordered by their start time.
+	 *         A contribution without replies is returned as the only node of its tree.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public List<ThreadNode> findThreadTree(Contribution root){
+		Assert.notNull(root, "Root contribution cannot be null.");
+		Assert.notNull(root.getId(), "Root contribution has to be saved before its thread can be retrieved.");
+
+		Map<Long,Integer> depths = new HashMap<>();
+		Map<Long,List<Long>> candidates = new HashMap<>();
+		for(Object[] row:contributionRepo.findThreadTreeIds(root.getId())){
+			Long id = ((Number)row[0]).longValue();
+			depths.put(id, ((Number)row[1]).intValue());
+			if(!id.equals(root.getId())&&row[2]!=null){
+				candidates.computeIfAbsent(id, c -> new ArrayList<>()).add(((Number)row[2]).longValue());
+			}
+		}
+		if(depths.isEmpty()){
+			return Collections.singletonList(new ThreadNode(root, null, 0));
+		}
+		//a contribution may reply to several contributions, some of which may belong to other trees.
+		//it is shown below a parent of this tree, preferably one on the level above it.
+		Map<Long,Long> parents = new HashMap<>();
+		candidates.forEach((id, parentIds) -> {
+			Integer level = depths.get(id)-1;
+			Long parentId = parentIds.stream().filter(p -> level.equals(depths.get(p))).findFirst()
+					.orElse(parentIds.stream().filter(depths::containsKey).findFirst().orElse(null));
+			if(parentId!=null){
+				parents.put(id, parentId);
+			}
+		});
+
+		Map<Long,Contribution> contribs = new HashMap<>(depths.size()*2);
+		contributionRepo.findAllWithRevisionAndAuthorByIdIn(depths.keySet()).forEach(c -> contribs.put(c.getId(), c));
+		Map<Long,List<Contribution>> children = new HashMap<>();
+		parents.forEach((id, parentId) -> {
+			if(parentId!=null&&contribs.containsKey(id)){
+				children.computeIfAbsent(parentId, p -> new ArrayList<>()).add(contribs.get(id));
+			}
+		});
+		Comparator<Contribution> byStartTime = Comparator.comparing(Contribution::getStartTime, Comparator.nullsLast(Comparator.naturalOrder()));
+		children.values().forEach(replies -> replies.sort(byStartTime.thenComparing(Contribution::getId)));
+
+		List<ThreadNode> tree = new ArrayList<>(contribs.size());
+		Deque<Contribution> stack = new ArrayDeque<>();
+		stack.push(contribs.getOrDefault(root.getId(), root));
+		while(!stack.isEmpty()){
+			Contribution contrib = stack.pop();
+			tree.add(new ThreadNode(contrib, parents.get(contrib.getId()), depths.getOrDefault(contrib.getId(), 0)));
+			List<Contribution> replies = children.getOrDefault(contrib.getId(), Collections.emptyList());
+			for(int i=replies.size()-1;i>=0;i--){
+				stack.push(replies.get(i));
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Retrieves the contribution the given contribution replies to or comments on.
+	 * 
+	 * @param contrib the reply
+	 * @return an optional containing the direct parent of the given contribution or empty if it does not reply to another contribution
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Optional<Contribution> findParent(Contribution contrib){
+		Assert.notNull(contrib, "Contribution cannot be null.");
+		List<Number> ancestors = contributionRepo.findAncestorIds(contrib.getId());
+		return ancestors.isEmpty() ? Optional.empty() : contributionRepo.findOne(ancestors.get(ancestors.size()-1).longValue());
+	}
+
+	/**
+	 * Retrieves the root of the reply tree of the given contribution.
+	 * 
+	 * @param contrib a contribution of the tree
+	 * @return an optional containing the most distant ancestor of the given contribution or empty if it does not reply to another contribution
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Optional<Contribution> findThreadStarter(Contribution contrib){
+		Assert.notNull(contrib, "Contribution cannot be null.");
+		List<Number> ancestors = contributionRepo.findAncestorIds(contrib.getId());
+		return ancestors.isEmpty() ? Optional.empty() : contributionRepo.findOne(ancestors.get(0).longValue());
 	}
 	
 	
@@ -226,13 +576,12 @@ public class ContributionService {
 		Assert.notNull(context, "Context cannot be null.");
 		Assert.notNull(contrib, "Contribution to add to Context cannot be null.");
 		
-		return contributionContextRepo.findOneByContributionAndContextContribution(contrib, context).orElseGet(()->{
-			ContributionContext newContributionContext = new ContributionContext();
-			newContributionContext.setContribution(contrib);
-			newContributionContext.setContextContribution(context);
-			contributionContextRepo.save(newContributionContext);
-			return newContributionContext;
-		});
+		return upsertService.upsert(new Upsert<>(ContributionContext.class)
+				.key("fk_contribution", contrib)
+				.key("context_key", ContributionContext.contextKey(context))
+				.key("begin_offset", 0)
+				.key("end_offset", 0)
+				.value("fk_context_contribution", context));
 	}
 
 	/**
@@ -246,13 +595,12 @@ public class ContributionService {
 		Assert.notNull(context, "Context cannot be null.");
 		Assert.notNull(contrib, "Contribution to add to Context cannot be null.");
 		
-		return contributionContextRepo.findOneByContributionAndContextContent(contrib, context).orElseGet(()->{
-			ContributionContext newContributionContext = new ContributionContext();
-			newContributionContext.setContribution(contrib);
-			newContributionContext.setContextContent(context);
-			contributionContextRepo.save(newContributionContext);
-			return newContributionContext;
-		});
+		return upsertService.upsert(new Upsert<>(ContributionContext.class)
+				.key("fk_contribution", contrib)
+				.key("context_key", ContributionContext.contextKey(context))
+				.key("begin_offset", 0)
+				.key("end_offset", 0)
+				.value("fk_context_content", context));
 	}
 	
 	/**
@@ -266,4 +614,29 @@ public class ContributionService {
 		Assert.notNull(id, "ID cannot be null.");
 		return contributionRepo.findOne(id);
 	}
+
+	/**
+	 * Stores the discourse with all contributions that do not have a discourse yet but are part of a DiscoursePart that is linked with a discourse.
+	 * Contributions that have been created before the discourse was stored with the contributions have to be backfilled once,
+	 * otherwise they are not found by the discourse queries.
+	 * The contributions are updated in batches of {@value #BACKFILL_BATCH_SIZE} contributions per transaction.
+	 * The backfill can be interrupted and resumed at any time. It is run on startup by the ContributionDiscourseMigration.
+	 * 
+	 * @return the number of contributions that have been assigned a discourse
+	 */
+	@Transactional(propagation= Propagation.NOT_SUPPORTED)
+	public long backfillDiscourse(){
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		long updated = 0;
+		long after = 0;
+		List<Long> ids;
+		while(!(ids = contributionRepo.findContributionIdsWithoutDiscourse(after, BACKFILL_BATCH_SIZE).stream()
+				.map(Number::longValue).collect(Collectors.toList())).isEmpty()){
+			List<Long> batch = ids;
+			updated += transaction.execute(status -> contributionRepo.setDiscourseFromDiscourseParts(batch));
+			after = batch.get(batch.size() - 1);
+			log.info("Assigned a discourse to "+updated+" contributions.");
+		}
+		return updated;
+	}
 }
@@ -0,0 +1,41 @@
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import lombok.Data;
+
+/**
+ * A DiscoursePart returned by the hierarchy queries of the
+ * DiscoursePartService together with the DiscoursePartRelation it has been
+ * reached with. Only ids and types are loaded, the DiscoursePart itself can be
+ * retrieved with its id if necessary.
+ */
+@Data
+public class DiscoursePartNode {
+
+	/**
+	 * the id of the DiscoursePart
+	 */
+	private final Long id;
+
+	/**
+	 * the type of the DiscoursePart
+	 */
+	private final String type;
+
+	/**
+	 * the id of the DiscoursePart that precedes this part on the path from the
+	 * start of the query, i.e. its parent in a subtree and its child in a list
+	 * of ancestors
+	 */
+	private final Long previousId;
+
+	/**
+	 * the type of the DiscoursePartRelation between this part and the previous part
+	 */
+	private final String relationType;
+
+	/**
+	 * the number of relations between this part and the start of the query
+	 */
+	private final int depth;
+
+}
@@ -1,10 +1,14 @@
 package edu.cmu.cs.lti.discoursedb.core.service.macro;
 
+import com.mysema.query.jpa.JPASubQuery;
 import com.mysema.query.types.expr.BooleanExpression;
 
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.QDiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.QDiscourseToDiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
+import edu.cmu.cs.lti.discoursedb.core.model.system.QPrimarySource;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartTypes;
 
 public final class DiscoursePartPredicates {
@@ -12,11 +16,20 @@ public final class DiscoursePartPredicates {
 	private DiscoursePartPredicates() {
 	}
 
+	/**
+	 * Looks up the DiscourseParts of the discourse in an uncorrelated subquery, so that the
+	 * DiscourseParts are retrieved by their primary key instead of checking every DiscoursePart.
+	 * 
+	 * @param discourse the discourse to look for
+	 * @return true, if the DiscoursePart is linked with the given discourse
+	 */
 	public static BooleanExpression discoursePartHasDiscourse(Discourse discourse) {
 		if (discourse == null) {
 			return QDiscoursePart.discoursePart.isNull();
 		} else {
-			return QDiscoursePart.discoursePart.discourseToDiscourseParts.any().discourse.eq(discourse);
+			QDiscourseToDiscoursePart discourseToDiscoursePart = QDiscourseToDiscoursePart.discourseToDiscoursePart;
+			return QDiscoursePart.discoursePart.in(new JPASubQuery().from(discourseToDiscoursePart)
+					.where(discourseToDiscoursePart.discourse.eq(discourse)).list(discourseToDiscoursePart.discoursePart));
 		}
 	}
 
@@ -24,7 +37,8 @@ public final class DiscoursePartPredicates {
 		if (name == null || name.isEmpty()) {
 			return QDiscoursePart.discoursePart.isNull();
 		} else {
-			return QDiscoursePart.discoursePart.name.eq(name);
+			//the hash is indexed, the name itself only resolves hash collisions
+			return QDiscoursePart.discoursePart.nameHash.eq(TextHash.of(name)).and(QDiscoursePart.discoursePart.name.eq(name));
 		}
 	}
 
@@ -36,11 +50,37 @@ public final class DiscoursePartPredicates {
 		}
 	}
 	
-	public static BooleanExpression discoursePartHasDataSource(DataSourceInstance dataSource) {
+	/**
+	 * Matches the primary source of the DiscoursePart.
+	 * DiscourseParts that store the source in their DataSourceAggregate have to be looked up with
+	 * {@link #discoursePartHasAggregatedSource(DataSourceInstance)} in a separate query, since a
+	 * condition that matches either of them cannot use an index.
+	 * 
+	 * @param dataSource the source to look for
+	 * @return true, if the primary source of the DiscoursePart is the given source
+	 */
+	public static BooleanExpression discoursePartHasPrimarySource(DataSourceInstance dataSource) {
 		if (dataSource == null) {
 			return QDiscoursePart.discoursePart.isNull();
 		} else {
-			return QDiscoursePart.discoursePart.dataSourceAggregate.sources.contains(dataSource);
+			QPrimarySource primarySource = QDiscoursePart.discoursePart.primarySource;
+			return primarySource.datasetName.eq(dataSource.getDatasetName())
+					.and(primarySource.entitySourceDescriptor.eq(dataSource.getEntitySourceDescriptor()))
+					.and(primarySource.entitySourceId.eq(dataSource.getEntitySourceId()));
+		}
+	}
+
+	/**
+	 * Matches the DataSourceAggregate of a stored source, so the DiscoursePart is found by the index on its aggregate.
+	 * 
+	 * @param dataSource the stored source to look for
+	 * @return true, if the DataSourceAggregate of the DiscoursePart contains the given source
+	 */
+	public static BooleanExpression discoursePartHasAggregatedSource(DataSourceInstance dataSource) {
+		if (dataSource == null || dataSource.getSourceAggregate() == null) {
+			return QDiscoursePart.discoursePart.isNull();
+		} else {
+			return QDiscoursePart.discoursePart.dataSourceAggregate.eq(dataSource.getSourceAggregate());
 		}
 	}
 
@@ -1,17 +1,41 @@
 package edu.cmu.cs.lti.discoursedb.core.service.macro;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.Predicate;
+
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
+import edu.cmu.cs.lti.discoursedb.core.model.TypeCodes;
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationAggregate;
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
@@ -20,12 +44,19 @@ import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartContribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartRelation;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseToDiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.QDiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartContributionRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRelationRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseToDiscoursePartRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.NaturalKeyLocks;
+import edu.cmu.cs.lti.discoursedb.core.service.cache.CachedReferences;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
+import edu.cmu.cs.lti.discoursedb.core.service.system.ImportedSourceFilter;
+import edu.cmu.cs.lti.discoursedb.core.service.system.Keyset;
+import edu.cmu.cs.lti.discoursedb.core.service.system.Upsert;
+import edu.cmu.cs.lti.discoursedb.core.service.system.UpsertService;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartRelationTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartTypes;
 import lombok.NonNull;
@@ -36,11 +67,33 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor(onConstructor = @__(@Autowired) )
 public class DiscoursePartService {
 
+	/**
+	 * Maximum depth of the hierarchy queries without an explicit depth limit, which also stops the queries at cycles of relations
+	 */
+	private static final int MAX_HIERARCHY_DEPTH = 100;
+
+	/**
+	 * Number of DiscourseParts whose relations are retrieved with a single query if the hierarchy is retrieved level by level
+	 */
+	private static final int HIERARCHY_BATCH_SIZE = 1000;
+
+	private static final Pattern MARIADB_VERSION = Pattern.compile("(\\d+)\\.(\\d+)\\.\\d+-mariadb");
+
 	private final @NonNull DiscoursePartRepository discoursePartRepo;
+	private final @NonNull ContributionRepository contributionRepo;
 	private final @NonNull DataSourceService dataSourceService;
+	private final @NonNull ImportedSourceFilter importedSourceFilter;
 	private final @NonNull DiscoursePartRelationRepository discoursePartRelationRepo;
-	private final @NonNull DiscoursePartContributionRepository discoursePartContributionRepo;
 	private final @NonNull DiscourseToDiscoursePartRepository discourseToDiscoursePartRepo;
+	private final @NonNull DiscourseRegistry discourseRegistry;
+	private final @NonNull UpsertService upsertService;
+	private final @NonNull NaturalKeyLocks naturalKeyLocks;
+	private final @NonNull @PersistenceContext EntityManager entityManager;
+
+	/**
+	 * Whether the database supports recursive common table expressions, determined with the first hierarchy query
+	 */
+	private volatile Boolean recursiveQueries;
 
 	/**
 	 * Retrieves existing or creates a new DiscoursePartType entity with the
@@ -86,30 +139,77 @@ public class DiscoursePartService {
 		Assert.hasText(discoursePartName, "DiscoursePart name cannot be empty");
 		Assert.notNull(type, "Type cannot be null.");		
 
-		//check if this exact discoursePart already exists, reuse it if it does and create it if it doesn't
-		Optional<DiscoursePart> existingDiscoursePart = Optional.ofNullable(discoursePartRepo.findOne(
-						DiscoursePartPredicates.discoursePartHasName(discoursePartName).and(
-						DiscoursePartPredicates.discoursePartHasType(type).and(
-						DiscoursePartPredicates.discoursePartHasDiscourse(discourse)))));
-
-		DiscoursePart dPart=existingDiscoursePart.orElseGet(()->{
-			DiscoursePart newDP=new DiscoursePart();
-			newDP.setType(type.name());
-			newDP.setName(discoursePartName);
-			return discoursePartRepo.save(newDP);
+		Long discourseId = discourse.getId();
+		if (discourseId != null) {
+			Long cachedId = discourseRegistry.getDiscoursePartId(discourseId, discoursePartName, type);
+			//a loaded part is checked, since the name or type might have been changed without the service
+			Optional<DiscoursePart> cachedPart = CachedReferences.resolve(entityManager, DiscoursePart.class, cachedId,
+					id -> discoursePartRepo.findOne(id).filter(dp -> discoursePartName.equals(dp.getName()) && type.name().equals(dp.getType())));
+			//unlinked parts are linked below, so that the link is created under the natural key lock
+			if (cachedPart.isPresent() && discourseRegistry.isLinked(discourseId, cachedId)) {
+				return cachedPart.get();
+			} else if (!cachedPart.isPresent() && cachedId != null) {
+				discourseRegistry.evictDiscoursePart(cachedId);
 			}
-		);			
-		
+		}
+
+		return naturalKeyLocks.getOrCreate(DiscoursePart.class, () -> {
+			//the lookup of import workers runs in a transaction of its own
+			Discourse curDiscourse = discourseId != null ? entityManager.getReference(Discourse.class, discourseId) : discourse;
+
+			//check if this exact discoursePart already exists, reuse it if it does and create it if it doesn't
+			Optional<DiscoursePart> existingDiscoursePart = Optional.ofNullable(discoursePartRepo.findOne(
+							DiscoursePartPredicates.discoursePartHasName(discoursePartName).and(
+							DiscoursePartPredicates.discoursePartHasType(type).and(
+							DiscoursePartPredicates.discoursePartHasDiscourse(curDiscourse)))));
+
+			DiscoursePart dPart=existingDiscoursePart.orElseGet(()->{
+				DiscoursePart newDP=new DiscoursePart();
+				newDP.setType(type.name());
+				newDP.setName(discoursePartName);
+				return discoursePartRepo.save(newDP);
+				}
+			);
+
+			linkDiscoursePart(curDiscourse, dPart, existingDiscoursePart.isPresent());
+			if (discourseId != null) {
+				discourseRegistry.putDiscoursePart(discourseId, discoursePartName, type, dPart.getId());
+			}
+			return dPart;
+		}, "discoursePart", discourseId != null ? discourseId : discourse.getName(), discoursePartName, type);
+	}		
+
+	/**
+	 * Connects the given DiscoursePart with the given Discourse unless the
+	 * DiscourseToDiscoursePart link already exists. Links that are known to the
+	 * DiscourseRegistry are not looked up again.
+	 * 
+	 * @param discourse
+	 *            the discourse the DiscoursePart should be connected with
+	 * @param dPart
+	 *            the DiscoursePart to connect
+	 * @param existingPart
+	 *            true, if the DiscoursePart might already contain contributions, which are assigned the discourse if they do not have one yet
+	 */
+	private void linkDiscoursePart(Discourse discourse, DiscoursePart dPart, boolean existingPart) {
+		if (discourse.getId() != null && discourseRegistry.isLinked(discourse.getId(), dPart.getId())) {
+			return;
+		}
 		Optional<DiscourseToDiscoursePart> existingDiscourseToDiscoursePart = discourseToDiscoursePartRepo.findOneByDiscourseAndDiscoursePart(discourse, dPart);	
 		if(!existingDiscourseToDiscoursePart.isPresent()){
 			DiscourseToDiscoursePart discourseToDiscoursePart = new DiscourseToDiscoursePart();			
 			discourseToDiscoursePart.setDiscourse(discourse);
 			discourseToDiscoursePart.setDiscoursePart(dPart);
 			discourseToDiscoursePartRepo.save(discourseToDiscoursePart);			
+			if (existingPart && discourse.getId() != null) {
+				//contributions are found by their discourse, so the contributions that are already part of the DiscoursePart need it as well
+				contributionRepo.setDiscourseOfDiscoursePartContributions(discourse.getId(), dPart.getId());
+			}
 		}
-		
-		return dPart;
-	}		
+		if (discourse.getId() != null) {
+			discourseRegistry.putLink(discourse.getId(), dPart.getId());
+		}
+	}
 
 	
 	
@@ -175,6 +275,8 @@ public class DiscoursePartService {
 	 * 
 	 * In case this is not true, the DiscoursePartContribution relation has to be created manually or updated accordingly. 
 	 * 
+	 * If the contribution does not have a discourse yet, it is assigned the discourse of the DiscoursePart.
+	 * 
 	 * @param contrib the contribution that is part of the given DiscoursePart.
 	 * @param dPArt the DiscoursePart that contains the given contribution.
 	 */
@@ -182,24 +284,47 @@ public class DiscoursePartService {
 		Assert.notNull(contrib);
 		Assert.notNull(dPArt);
 		
-		return discoursePartContributionRepo.findOneByContributionAndDiscoursePart(contrib, dPArt).orElseGet(()->{
-			DiscoursePartContribution newDPContrib = new DiscoursePartContribution();
-			newDPContrib.setContribution(contrib);
-			newDPContrib.setDiscoursePart(dPArt);
-			newDPContrib.setStartTime(contrib.getStartTime());	
-			discoursePartContributionRepo.save(newDPContrib);
-			return newDPContrib;
-		});		
+		if(contrib.getDiscourse()==null){
+			findDiscourse(dPArt).ifPresent(contrib::setDiscourse);
+		}
+		return upsertService.upsert(new Upsert<>(DiscoursePartContribution.class)
+				.key("fk_contribution", contrib)
+				.key("fk_discourse_part", dPArt)
+				.value("start_time", contrib.getStartTime()));
 	}
 	
 	
+	/**
+	 * Retrieves the discourse the given DiscoursePart belongs to. If the DiscoursePart is linked with several discourses,
+	 * the discourse that has been registered first with the DiscourseRegistry or the one with the lowest id is returned.
+	 * 
+	 * @param dPart the DiscoursePart
+	 * @return an optional reference to the discourse of the DiscoursePart that is empty if the DiscoursePart is not linked with a discourse
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Optional<Discourse> findDiscourse(DiscoursePart dPart){
+		Assert.notNull(dPart, "DiscoursePart cannot be null.");
+		if(dPart.getId()==null){
+			return Optional.empty();
+		}
+		Long discourseId = discourseRegistry.getDiscourseIdOfPart(dPart.getId());
+		if(discourseId==null){
+			discourseId = discourseToDiscoursePartRepo.findDiscourseIdByDiscoursePart(dPart);
+			if(discourseId==null){
+				return Optional.empty();
+			}
+			discourseRegistry.putLink(discourseId, dPart.getId());
+		}
+		return Optional.of(entityManager.getReference(Discourse.class, discourseId));
+	}
+	
 	/**
 	 * Creates a new DiscoursePartRelation of the given type between the two provided DiscourseParts.
 	 * Depending on the type, the relation might be directed or not. This information should be given in the type definition.
 	 * 
 	 * If a DiscoursePartRelation of the given type already exists between the two DiscourseParts (taking into account the direction of the relation),
 	 * then the existing relation is returned. 
-	 * DiscourseDB does not enforce the uniqueness of these relations by default, but enforcing it in this service method will cater to most of the use cases we will see.
+	 * The uniqueness of these relations is enforced by a unique constraint, so the relation is retrieved or created with a single upsert statement.
 	 * 
 	 * @param sourceDiscoursePart the source or parent DiscoursePart of the relation
 	 * @param targetDiscoursePart the target or child DiscoursePart of the relation
@@ -211,14 +336,11 @@ public class DiscoursePartService {
 		Assert.notNull(targetDiscoursePart);
 		Assert.notNull(type, "Type cannot be null.");		
 				
-		//check if a relation of the given type already exists between the two DiscourseParts
-		return discoursePartRelationRepo.findOneBySourceAndTargetAndType(sourceDiscoursePart, targetDiscoursePart, type.name()).orElseGet(()->{
-			DiscoursePartRelation newRelation = new DiscoursePartRelation();
-			newRelation.setSource(sourceDiscoursePart);
-			newRelation.setTarget(targetDiscoursePart);
-			newRelation.setType(type.name());
-			return discoursePartRelationRepo.save(newRelation);						
-		});
+		//retrieve the relation of the given type between the two DiscourseParts or create it if it doesn't exist
+		return upsertService.upsert(new Upsert<>(DiscoursePartRelation.class)
+				.key("fk_source", sourceDiscoursePart)
+				.key("fk_target", targetDiscoursePart)
+				.key("type", type.name()));
 		
 	}
 	
@@ -229,24 +351,170 @@ public class DiscoursePartService {
 	 * 
 	 * @param sourceDiscoursePart the source or parent DiscoursePart of the relation
 	 * @param type the DiscoursePartRelationTypes 
-	 * @return a DiscoursePartRelation between the two provided DiscourseParts with the given type that has already been saved to the database 
+	 * @return the direct children of the given DiscoursePart, ordered by their id
 	 */
 	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
 	public List<DiscoursePart> findChildDiscourseParts(DiscoursePart sourceDiscoursePart, DiscoursePartRelationTypes type) {
-		Assert.notNull(sourceDiscoursePart);
+		Assert.notNull(sourceDiscoursePart, "Source DiscoursePart cannot be null.");
 		Assert.notNull(type, "Type cannot be null.");		
 		
-		List<DiscoursePart> returnList = new ArrayList<>();
-		
-		//check if a relation of the given type already exists between the two DiscourseParts
-		List<DiscoursePartRelation> existingRelations = discoursePartRelationRepo.findAllBySourceAndType(sourceDiscoursePart, type.name());
-		for(DiscoursePartRelation relation:existingRelations){
-			returnList.add(relation.getTarget());
+		List<Long> childIds = findSubtree(sourceDiscoursePart, type, 1).stream().map(DiscoursePartNode::getId).collect(Collectors.toList());
+		if(childIds.isEmpty()){
+			return new ArrayList<>();
 		}
-		
-		return returnList;
+		Map<Long,DiscoursePart> children = new HashMap<>(childIds.size()*2);
+		discoursePartRepo.findAll(childIds).forEach(dp -> children.put(dp.getId(), dp));
+		return childIds.stream().map(children::get).filter(Objects::nonNull).collect(Collectors.toList());
+	}
+
+	/**
+	 * Retrieves all DiscourseParts that can be reached from the given DiscoursePart by following DiscoursePartRelations from source to target,
+	 * e.g. all threads and sub-forums of a forum.<br/>
+	 * 
+	 * The hierarchy is retrieved with a single recursive query if the database supports common table expressions and level by level otherwise.
+	 * 
+	 * @param root the DiscoursePart to start with
+	 * @param type the type of the relations to follow or null to follow relations of any type
+	 * @param maxDepth the maximum number of relations between the root and a returned DiscoursePart or null for the default limit of {@value #MAX_HIERARCHY_DEPTH}
+	 * @return the ids and types of the descendants of the given DiscoursePart ordered by their depth. The root itself is not included.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public List<DiscoursePartNode> findSubtree(DiscoursePart root, DiscoursePartRelationTypes type, Integer maxDepth) {
+		Assert.notNull(root, "Root DiscoursePart cannot be null.");
+		return findHierarchy(root, type, maxDepth, true);
+	}
+
+	/**
+	 * Retrieves all DiscourseParts from which the given DiscoursePart can be reached by following DiscoursePartRelations from source to target,
+	 * e.g. the forum and the parent forums of a thread.<br/>
+	 * 
+	 * The hierarchy is retrieved with a single recursive query if the database supports common table expressions and level by level otherwise.
+	 * 
+	 * @param part the DiscoursePart to start with
+	 * @param type the type of the relations to follow or null to follow relations of any type
+	 * @param maxDepth the maximum number of relations between a returned DiscoursePart and the given part or null for the default limit of {@value #MAX_HIERARCHY_DEPTH}
+	 * @return the ids and types of the ancestors of the given DiscoursePart ordered by their depth. The part itself is not included.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public List<DiscoursePartNode> findAncestors(DiscoursePart part, DiscoursePartRelationTypes type, Integer maxDepth) {
+		Assert.notNull(part, "DiscoursePart cannot be null.");
+		return findHierarchy(part, type, maxDepth, false);
+	}
+
+	private List<DiscoursePartNode> findHierarchy(DiscoursePart start, DiscoursePartRelationTypes type, Integer maxDepth, boolean descendants) {
+		Assert.notNull(start.getId(), "DiscoursePart has to be saved before its hierarchy can be retrieved.");
+		Assert.isTrue(maxDepth == null || maxDepth > 0, "Depth limit has to be positive.");
+
+		int depthLimit = maxDepth == null ? MAX_HIERARCHY_DEPTH : maxDepth;
+		Short relationType = type == null ? null : TypeCodes.codeOf(type.name());
+		//the queries run on the JDBC connection and would not see pending relations otherwise
+		entityManager.flush();
+		return entityManager.unwrap(Session.class).doReturningWork(con -> supportsRecursiveQueries(con)
+				? findHierarchyRecursively(con, start.getId(), relationType, depthLimit, descendants)
+				: findHierarchyByLevel(con, start.getId(), relationType, depthLimit, descendants));
+	}
+
+	private List<DiscoursePartNode> findHierarchyRecursively(Connection con, Long startId, Short relationType, int depthLimit, boolean descendants) throws SQLException {
+		String from = descendants ? "fk_source" : "fk_target";
+		String to = descendants ? "fk_target" : "fk_source";
+		String typeFilter = relationType == null ? "" : " AND r.type = ?";
+		//UNION drops the relations that have already been followed at the same depth, so parts that can be reached
+		//on many paths only add one row per relation and depth instead of one row per path
+		String sql = "WITH RECURSIVE hierarchy (id, previous_id, relation_type, depth) AS ("
+				+ "SELECT r." + to + ", r." + from + ", r.type, 1 FROM discourse_part_relation r WHERE r." + from + " = ?" + typeFilter
+				+ " UNION SELECT r." + to + ", r." + from + ", r.type, h.depth + 1 FROM hierarchy h "
+				+ "JOIN discourse_part_relation r ON r." + from + " = h.id" + typeFilter + " WHERE h.depth < ?) "
+				+ "SELECT h.id, dp.type, h.previous_id, h.relation_type, h.depth FROM hierarchy h "
+				+ "JOIN discourse_part dp ON dp.id_discourse_part = h.id ORDER BY h.depth, h.id";
+
+		Map<Long, DiscoursePartNode> nodes = new LinkedHashMap<>();
+		try (PreparedStatement stmt = con.prepareStatement(sql)) {
+			int index = 1;
+			stmt.setLong(index++, startId);
+			if (relationType != null) {
+				stmt.setShort(index++, relationType);
+				stmt.setShort(index++, relationType);
+			}
+			stmt.setInt(index, depthLimit);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					long id = rs.getLong(1);
+					//parts that can be reached on several paths (or cycles) are returned once with their shortest distance
+					if (id != startId && !nodes.containsKey(id)) {
+						nodes.put(id, new DiscoursePartNode(id, typeName(rs, 2), rs.getLong(3), typeName(rs, 4), rs.getInt(5)));
+					}
+				}
+			}
+		}
+		return new ArrayList<>(nodes.values());
+	}
+
+	private List<DiscoursePartNode> findHierarchyByLevel(Connection con, Long startId, Short relationType, int depthLimit, boolean descendants) throws SQLException {
+		String from = descendants ? "fk_source" : "fk_target";
+		String to = descendants ? "fk_target" : "fk_source";
+		String typeFilter = relationType == null ? "" : " AND r.type = ?";
+
+		Map<Long, DiscoursePartNode> nodes = new LinkedHashMap<>();
+		List<Long> level = Collections.singletonList(startId);
+		for (int depth = 1; depth <= depthLimit && !level.isEmpty(); depth++) {
+			List<DiscoursePartNode> nextLevel = new ArrayList<>();
+			for (int i = 0; i < level.size(); i += HIERARCHY_BATCH_SIZE) {
+				List<Long> batch = level.subList(i, Math.min(i + HIERARCHY_BATCH_SIZE, level.size()));
+				String sql = "SELECT r." + to + ", dp.type, r." + from + ", r.type FROM discourse_part_relation r "
+						+ "JOIN discourse_part dp ON dp.id_discourse_part = r." + to + " WHERE r." + from + " IN ("
+						+ String.join(", ", Collections.nCopies(batch.size(), "?")) + ")" + typeFilter;
+				try (PreparedStatement stmt = con.prepareStatement(sql)) {
+					int index = 1;
+					for (Long id : batch) {
+						stmt.setLong(index++, id);
+					}
+					if (relationType != null) {
+						stmt.setShort(index, relationType);
+					}
+					try (ResultSet rs = stmt.executeQuery()) {
+						while (rs.next()) {
+							long id = rs.getLong(1);
+							if (id != startId && !nodes.containsKey(id)) {
+								DiscoursePartNode node = new DiscoursePartNode(id, typeName(rs, 2), rs.getLong(3), typeName(rs, 4), depth);
+								nodes.put(id, node);
+								nextLevel.add(node);
+							}
+						}
+					}
+				}
+			}
+			nextLevel.sort(Comparator.comparing(DiscoursePartNode::getId));
+			level = nextLevel.stream().map(DiscoursePartNode::getId).collect(Collectors.toList());
+		}
+		List<DiscoursePartNode> result = new ArrayList<>(nodes.values());
+		result.sort(Comparator.comparingInt(DiscoursePartNode::getDepth).thenComparing(DiscoursePartNode::getId));
+		return result;
+	}
+
+	private static String typeName(ResultSet rs, int column) throws SQLException {
+		short code = rs.getShort(column);
+		return rs.wasNull() ? null : TypeCodes.nameOf(code);
+	}
+
+	/**
+	 * Recursive common table expressions are supported by MySQL 8, MariaDB 10.2 and PostgreSQL.
+	 */
+	private boolean supportsRecursiveQueries(Connection con) throws SQLException {
+		if (recursiveQueries == null) {
+			DatabaseMetaData meta = con.getMetaData();
+			String product = meta.getDatabaseProductName().toLowerCase();
+			Matcher mariaDb = MARIADB_VERSION.matcher(meta.getDatabaseProductVersion().toLowerCase());
+			if (mariaDb.find()) {
+				int major = Integer.parseInt(mariaDb.group(1));
+				recursiveQueries = major > 10 || (major == 10 && Integer.parseInt(mariaDb.group(2)) >= 2);
+			} else if (product.contains("mysql")) {
+				recursiveQueries = meta.getDatabaseMajorVersion() >= 8;
+			} else {
+				recursiveQueries = product.contains("postgresql");
+			}
+		}
+		return recursiveQueries;
 	}
-	
 	
 	/**
 	 * Saves the provided entity to the db using the save method of the corresponding repository
@@ -257,6 +525,10 @@ public class DiscoursePartService {
 	public DiscoursePart save(DiscoursePart part){
 		Assert.notNull(part, "DiscoursePart cannot be null.");
 
+		//the name or type might have been changed
+		if (part.getId() != null) {
+			discourseRegistry.evictDiscoursePartKey(part.getId());
+		}
 		return discoursePartRepo.save(part);
 	}
 	
@@ -301,7 +573,23 @@ public class DiscoursePartService {
 	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
 	public List<DiscoursePart> findAllByName(String discoursePartName) {
 		Assert.hasText(discoursePartName, "DiscoursePart name cannot be empty.");		
-		return discoursePartRepo.findAllByName(discoursePartName);
+		return discoursePartRepo.findAllByNameHashAndName(TextHash.of(discoursePartName), discoursePartName);
+	}
+
+	/**
+	 * Keyset pagination over all DiscourseParts that match the given predicate ordered by id.
+	 * The predicate can be any of the predicates in {@link DiscoursePartPredicates}.
+	 * In contrast to offset pagination, the cost of retrieving a slice does not grow with the number of slices that have already been retrieved.
+	 * 
+	 * @param predicate an optional predicate that restricts the DiscourseParts or null to page through all DiscourseParts
+	 * @param after the id of the last DiscoursePart of the previous slice or null to retrieve the first slice
+	 * @param size the maximum number of DiscourseParts in the slice
+	 * @return a slice of DiscourseParts with an id greater than the given id
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Slice<DiscoursePart> findAllAfter(Predicate predicate, Long after, int size){
+		QDiscoursePart discoursePart = QDiscoursePart.discoursePart;
+		return Keyset.afterId(new JPAQuery(entityManager).from(discoursePart), discoursePart, discoursePart.id, predicate, after, size);
 	}
 	
     /**
@@ -318,10 +606,19 @@ public class DiscoursePartService {
 		Assert.hasText(entitySourceDescriptor, "Entity source descriptor cannot be empty.");
 		Assert.hasText(dataSetName, "Dataset name cannot be empty.");
 
+		//records that have definitely not been imported yet do not have to be looked up
+		if(!importedSourceFilter.mightContain(entitySourceId, entitySourceDescriptor, dataSetName)){
+			return Optional.empty();
+		}
+		//most discourse parts store their only source inline
+		Optional<DiscoursePart> dPart = discoursePartRepo.findOneByPrimarySource(entitySourceId, entitySourceDescriptor, dataSetName);
+		if(dPart.isPresent()){
+			return dPart;
+		}
 		Optional<DataSourceInstance> dataSource = dataSourceService.findDataSource(entitySourceId, entitySourceDescriptor, dataSetName);
 		if(dataSource.isPresent()){
 			return Optional.ofNullable(discoursePartRepo.findOne(
-					DiscoursePartPredicates.discoursePartHasDataSource(dataSource.get())));			
+					DiscoursePartPredicates.discoursePartHasAggregatedSource(dataSource.get())));			
 		}else{
 			return Optional.empty();
 		}
@@ -0,0 +1,223 @@
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import edu.cmu.cs.lti.discoursedb.core.service.cache.LruCache;
+import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartTypes;
+import lombok.Data;
+
+/**
+ * Process-wide registry of the natural keys of Discourses and DiscourseParts.
+ * It maps discourse names and (discourseId, discoursePartName, type) triples to
+ * the primary keys of the corresponding entities and remembers which
+ * DiscourseToDiscoursePart links are known to exist. This way, the
+ * get-or-create methods of the DiscourseService and DiscoursePartService only
+ * have to query the database the first time a natural key is used. The links
+ * also determine the discourse that is stored with the contributions of a
+ * DiscoursePart.<br/>
+ *
+ * Entities registered by a transaction are only visible to other transactions
+ * once it has been committed. Registered ids are only hints. If a loaded
+ * entity no longer exists, the services evict the entry and fall back to the
+ * database. The maximum
+ * number of entries per key type can be configured with the
+ * discoursedb.cache.discourse.size property (0 disables the registry).
+ */
+@Component
+public class DiscourseRegistry {
+
+	private final LruCache<String, Long> discourses;
+	private final LruCache<PartKey, Long> discourseParts;
+	private final LruCache<LinkKey, Boolean> links;
+	private final LruCache<Long, Long> partDiscourses;
+
+	@Autowired
+	public DiscourseRegistry(@Value("${discoursedb.cache.discourse.size:10000}") int maxSize) {
+		this.discourses = new LruCache<>(maxSize, true, null);
+		this.discourseParts = new LruCache<>(maxSize, true, key -> Collections.singletonList(key.getDiscourseId()));
+		this.links = new LruCache<>(maxSize, false,
+				key -> Arrays.asList(new DiscourseGroup(key.getDiscourseId()), new PartGroup(key.getDiscoursePartId())));
+		this.partDiscourses = new LruCache<>(maxSize, true, null);
+	}
+
+	public Long getDiscourseId(String discourseName) {
+		return discourses.get(discourseName);
+	}
+
+	public void putDiscourse(String discourseName, Long discourseId) {
+		discourses.putAfterCommit(discourseName, discourseId);
+	}
+
+	public void evictDiscourse(Long discourseId) {
+		discourses.removeValue(discourseId);
+		discourseParts.removeGroup(discourseId);
+		links.removeGroup(new DiscourseGroup(discourseId));
+		partDiscourses.removeValue(discourseId);
+	}
+
+	/**
+	 * Removes the name of the given discourse, e.g. because it might have been changed.
+	 *
+	 * @param discourseId the primary key of the discourse
+	 */
+	public void evictDiscourseName(Long discourseId) {
+		discourses.removeValue(discourseId);
+	}
+
+	public Long getDiscoursePartId(Long discourseId, String discoursePartName, DiscoursePartTypes type) {
+		return discourseParts.get(new PartKey(discourseId, discoursePartName, type));
+	}
+
+	public void putDiscoursePart(Long discourseId, String discoursePartName, DiscoursePartTypes type, Long discoursePartId) {
+		discourseParts.putAfterCommit(new PartKey(discourseId, discoursePartName, type), discoursePartId);
+	}
+
+	public void evictDiscoursePart(Long discoursePartId) {
+		discourseParts.removeValue(discoursePartId);
+		links.removeGroup(new PartGroup(discoursePartId));
+		partDiscourses.remove(discoursePartId);
+	}
+
+	/**
+	 * Removes the natural key of the given DiscoursePart, e.g. because its name or type might have been changed.
+	 *
+	 * @param discoursePartId the primary key of the DiscoursePart
+	 */
+	public void evictDiscoursePartKey(Long discoursePartId) {
+		discourseParts.removeValue(discoursePartId);
+	}
+
+	/**
+	 * @param discourseId the primary key of the discourse
+	 * @param discoursePartId the primary key of the DiscoursePart
+	 * @return true, if a DiscourseToDiscoursePart link between the two entities is known to exist
+	 */
+	public boolean isLinked(Long discourseId, Long discoursePartId) {
+		LinkKey key = new LinkKey(discourseId, discoursePartId);
+		PendingLinks pendingLinks = getPendingLinks();
+		return (pendingLinks != null && pendingLinks.links.contains(key)) || links.get(key) != null;
+	}
+
+	/**
+	 * @param discoursePartId the primary key of the DiscoursePart
+	 * @return the primary key of the first discourse the DiscoursePart is
+	 *         known to be linked with or null if no link is known
+	 */
+	public Long getDiscourseIdOfPart(Long discoursePartId) {
+		PendingLinks pendingLinks = getPendingLinks();
+		Long discourseId = pendingLinks != null ? pendingLinks.partDiscourses.get(discoursePartId) : null;
+		return discourseId != null ? discourseId : partDiscourses.get(discoursePartId);
+	}
+
+	/**
+	 * Remembers that a DiscourseToDiscoursePart link exists. Link hints are
+	 * not verified when they are used, so links that are registered within a
+	 * transaction are only visible to that transaction until it has been
+	 * committed.
+	 *
+	 * @param discourseId the primary key of the discourse
+	 * @param discoursePartId the primary key of the DiscoursePart
+	 */
+	public void putLink(Long discourseId, Long discoursePartId) {
+		LinkKey key = new LinkKey(discourseId, discoursePartId);
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			links.put(key, Boolean.TRUE);
+			putPartDiscourse(discoursePartId, discourseId);
+			return;
+		}
+		PendingLinks pendingLinks = getPendingLinks();
+		if (pendingLinks == null) {
+			PendingLinks newPendingLinks = new PendingLinks();
+			TransactionSynchronizationManager.bindResource(this, newPendingLinks);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					newPendingLinks.links.forEach(link -> links.put(link, Boolean.TRUE));
+					newPendingLinks.partDiscourses.forEach((partId, id) -> putPartDiscourse(partId, id));
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(DiscourseRegistry.this);
+				}
+			});
+			pendingLinks = newPendingLinks;
+		}
+		pendingLinks.links.add(key);
+		pendingLinks.partDiscourses.putIfAbsent(discoursePartId, discourseId);
+	}
+
+	/**
+	 * Keeps the first discourse that has been registered for a DiscoursePart.
+	 */
+	private void putPartDiscourse(Long discoursePartId, Long discourseId) {
+		if (partDiscourses.get(discoursePartId) == null) {
+			partDiscourses.put(discoursePartId, discourseId);
+		}
+	}
+
+	private PendingLinks getPendingLinks() {
+		return (PendingLinks) TransactionSynchronizationManager.getResource(this);
+	}
+
+	public void clear() {
+		discourses.clear();
+		discourseParts.clear();
+		links.clear();
+		partDiscourses.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "DiscourseRegistry(discourses: " + discourses + "; discourseParts: " + discourseParts + "; links: " + links + "; partDiscourses: " + partDiscourses + ")";
+	}
+
+	@Data
+	private static class PartKey {
+		private final Long discourseId;
+		private final String discoursePartName;
+		private final DiscoursePartTypes type;
+	}
+
+	@Data
+	private static class LinkKey {
+		private final Long discourseId;
+		private final Long discoursePartId;
+	}
+
+	/**
+	 * The links of a discourse
+	 */
+	@Data
+	private static class DiscourseGroup {
+		private final Long discourseId;
+	}
+
+	/**
+	 * The links of a DiscoursePart
+	 */
+	@Data
+	private static class PartGroup {
+		private final Long discoursePartId;
+	}
+
+	/**
+	 * The links registered by the current transaction
+	 */
+	private static class PendingLinks {
+		private final Set<LinkKey> links = new HashSet<>();
+		private final Map<Long, Long> partDiscourses = new HashMap<>();
+	}
+
+}
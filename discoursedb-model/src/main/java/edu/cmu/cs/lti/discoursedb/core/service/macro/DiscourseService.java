@@ -2,16 +2,22 @@ package edu.cmu.cs.lti.discoursedb.core.service.macro;
 
 import java.util.Optional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
+import edu.cmu.cs.lti.discoursedb.core.model.TextHash;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.QDiscourse;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.NaturalKeyLocks;
+import edu.cmu.cs.lti.discoursedb.core.service.cache.CachedReferences;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
@@ -21,6 +27,9 @@ import lombok.RequiredArgsConstructor;
 public class DiscourseService {
 
 	private final @NonNull DiscourseRepository discourseRepository;
+	private final @NonNull DiscourseRegistry discourseRegistry;
+	private final @NonNull NaturalKeyLocks naturalKeyLocks;
+	private final @NonNull @PersistenceContext EntityManager entityManager;
 
 	/**
 	 * Returns a Discourse object with the given name if it exists or creates a
@@ -34,8 +43,22 @@ public class DiscourseService {
 	 */
 	public Discourse createOrGetDiscourse(String name) {
 		Assert.hasText(name, "Discourse name cannot be empty");
-		return discourseRepository.findOneByName(name).orElseGet(()->{
-			return discourseRepository.save(new Discourse(name));});
+
+		Long cachedId = discourseRegistry.getDiscourseId(name);
+		Optional<Discourse> cachedDiscourse = CachedReferences.resolve(entityManager, Discourse.class, cachedId,
+				id -> discourseRepository.findOne(id).filter(d -> name.equals(d.getName())));
+		if (cachedDiscourse.isPresent()) {
+			return cachedDiscourse.get();
+		} else if (cachedId != null) {
+			discourseRegistry.evictDiscourse(cachedId);
+		}
+
+		return naturalKeyLocks.getOrCreate(Discourse.class, () -> {
+			Discourse discourse = discourseRepository.findOneByNameHashAndName(TextHash.of(name), name).orElseGet(()->{
+				return discourseRepository.save(new Discourse(name));});
+			discourseRegistry.putDiscourse(name, discourse.getId());
+			return discourse;
+		}, "discourse", name);
 	}
 	
 	/**
@@ -46,7 +69,7 @@ public class DiscourseService {
 	 */
 	public Optional<Discourse> findOne(String name) {
 		Assert.hasText(name, "Discourse name cannot be empty");
-		return discourseRepository.findOneByName(name);
+		return discourseRepository.findOneByNameHashAndName(TextHash.of(name), name);
 	}
 
 	/**
@@ -84,6 +107,10 @@ public class DiscourseService {
 	public Discourse save(Discourse discourse) {
 		Assert.notNull(discourse, "Discourse cannot be null.");
 
+		//the name might have been changed
+		if (discourse.getId() != null) {
+			discourseRegistry.evictDiscourseName(discourse.getId());
+		}
 		return discourseRepository.save(discourse);
 	}
 	
@@ -0,0 +1,201 @@
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * Encodes a text as a binary delta against another text and reconstructs the
+ * text from the delta.<br/>
+ *
+ * The delta is a sequence of copy and insert instructions on the UTF-8 bytes of
+ * both texts. Copy instructions reference a range of the base text, insert
+ * instructions carry the bytes that do not occur in the base text. Matching
+ * ranges are found by indexing the base text in blocks of {@value #BLOCK_SIZE}
+ * bytes and scanning the encoded text with a rolling hash. Successive revisions
+ * of a text usually differ in a few places only, so their deltas are a small
+ * fraction of the size of the full text.
+ */
+public final class RevisionDelta {
+
+	private static final byte FORMAT_VERSION = 1;
+	private static final byte COPY = 0;
+	private static final byte INSERT = 1;
+
+	private static final int BLOCK_SIZE = 16;
+	private static final int HASH_BASE = 257;
+	private static final int HASH_POWER = pow(HASH_BASE, BLOCK_SIZE - 1);
+
+	private RevisionDelta() {
+	}
+
+	/**
+	 * Encodes the given text as a delta against the given base text.
+	 *
+	 * @param base the text the delta refers to
+	 * @param text the text to encode
+	 * @return the delta that turns the base text into the encoded text
+	 */
+	public static byte[] encode(String base, String text) {
+		Assert.notNull(base, "Base text cannot be null.");
+		Assert.notNull(text, "Text cannot be null.");
+		byte[] source = base.getBytes(StandardCharsets.UTF_8);
+		byte[] target = text.getBytes(StandardCharsets.UTF_8);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		out.write(FORMAT_VERSION);
+		writeVarInt(out, target.length);
+
+		Map<Integer, Integer> blocks = indexBlocks(source);
+		int pos = 0;
+		int insertFrom = 0;
+		int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+		while (pos + BLOCK_SIZE <= target.length) {
+			Integer offset = blocks.get(hash);
+			if (offset != null && regionMatches(source, offset, target, pos, BLOCK_SIZE)) {
+				int copyFrom = offset;
+				int copyTo = pos;
+				//extend the match backwards into the pending insert and forwards as far as possible
+				while (copyTo > insertFrom && copyFrom > 0 && source[copyFrom - 1] == target[copyTo - 1]) {
+					copyFrom--;
+					copyTo--;
+				}
+				int length = pos - copyTo + BLOCK_SIZE;
+				while (copyTo + length < target.length && copyFrom + length < source.length
+						&& source[copyFrom + length] == target[copyTo + length]) {
+					length++;
+				}
+				writeInsert(out, target, insertFrom, copyTo);
+				out.write(COPY);
+				writeVarInt(out, copyFrom);
+				writeVarInt(out, length);
+				pos = copyTo + length;
+				insertFrom = pos;
+				if (pos + BLOCK_SIZE <= target.length) {
+					hash = hash(target, pos);
+				}
+			} else {
+				if (pos + BLOCK_SIZE < target.length) {
+					hash = (hash - (target[pos] & 0xff) * HASH_POWER) * HASH_BASE + (target[pos + BLOCK_SIZE] & 0xff);
+				}
+				pos++;
+			}
+		}
+		writeInsert(out, target, insertFrom, target.length);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reconstructs a text from its delta against the given base text.
+	 *
+	 * @param base the text the delta refers to
+	 * @param delta a delta produced by {@link #encode(String, String)} with the same base text
+	 * @return the encoded text
+	 * @throws IllegalArgumentException if the delta is malformed or does not match the base text
+	 */
+	public static String apply(String base, byte[] delta) {
+		Assert.notNull(base, "Base text cannot be null.");
+		Assert.notNull(delta, "Delta cannot be null.");
+		byte[] source = base.getBytes(StandardCharsets.UTF_8);
+		int[] pos = { 0 };
+		if (delta.length == 0 || delta[pos[0]++] != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unsupported delta format.");
+		}
+		byte[] target = new byte[readVarInt(delta, pos)];
+		int written = 0;
+		while (pos[0] < delta.length) {
+			byte op = delta[pos[0]++];
+			if (op == COPY) {
+				int offset = readVarInt(delta, pos);
+				int length = readVarInt(delta, pos);
+				check(offset + length <= source.length && written + length <= target.length, "Delta does not match the base text.");
+				System.arraycopy(source, offset, target, written, length);
+				written += length;
+			} else if (op == INSERT) {
+				int length = readVarInt(delta, pos);
+				check(pos[0] + length <= delta.length && written + length <= target.length, "Delta is truncated.");
+				System.arraycopy(delta, pos[0], target, written, length);
+				pos[0] += length;
+				written += length;
+			} else {
+				throw new IllegalArgumentException("Unknown delta instruction " + op + ".");
+			}
+		}
+		check(written == target.length, "Delta is truncated.");
+		return new String(target, StandardCharsets.UTF_8);
+	}
+
+	private static Map<Integer, Integer> indexBlocks(byte[] source) {
+		Map<Integer, Integer> blocks = new HashMap<>(source.length / BLOCK_SIZE * 2 + 1);
+		for (int offset = 0; offset + BLOCK_SIZE <= source.length; offset += BLOCK_SIZE) {
+			//keep the first occurrence of a block, so that repeated blocks are copied from the same range
+			blocks.putIfAbsent(hash(source, offset), offset);
+		}
+		return blocks;
+	}
+
+	private static int hash(byte[] bytes, int offset) {
+		int hash = 0;
+		for (int i = offset; i < offset + BLOCK_SIZE; i++) {
+			hash = hash * HASH_BASE + (bytes[i] & 0xff);
+		}
+		return hash;
+	}
+
+	private static int pow(int base, int exponent) {
+		int result = 1;
+		for (int i = 0; i < exponent; i++) {
+			result *= base;
+		}
+		return result;
+	}
+
+	private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			if (a[aOffset + i] != b[bOffset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+		if (to > from) {
+			out.write(INSERT);
+			writeVarInt(out, to - from);
+			out.write(target, from, to - from);
+		}
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarInt(byte[] bytes, int[] pos) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			check(pos[0] < bytes.length, "Delta is truncated.");
+			byte b = bytes[pos[0]++];
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				check(value >= 0, "Delta is malformed.");
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Delta is malformed.");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalArgumentException(message);
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.cmu.cs.lti.discoursedb.core.service.cache.LruCache;
+
+/**
+ * Keeps the texts of delta-encoded revisions that have recently been
+ * reconstructed by the ContentService, so that repeated reads of the same
+ * revision history do not have to apply the same chain of deltas again.<br/>
+ *
+ * Only reconstructed texts are cached. Texts that are stored in full are read
+ * from their payload directly. The maximum number of entries can be
+ * configured with the discoursedb.cache.revision_text.size property (0
+ * disables the cache).
+ */
+@Component
+public class RevisionTextCache {
+
+	private final LruCache<Long, String> cache;
+
+	@Autowired
+	public RevisionTextCache(@Value("${discoursedb.cache.revision_text.size:1000}") int maxSize) {
+		this.cache = new LruCache<>(maxSize);
+	}
+
+	/**
+	 * @param contentId the primary key of a delta-encoded content
+	 * @return the reconstructed text or null if it is not in the cache
+	 */
+	public String get(Long contentId) {
+		return cache.get(contentId);
+	}
+
+	public void put(Long contentId, String text) {
+		cache.put(contentId, text);
+	}
+
+	public void evict(Long contentId) {
+		cache.remove(contentId);
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public long getHits() {
+		return cache.getHits();
+	}
+
+	public long getMisses() {
+		return cache.getMisses();
+	}
+
+	public long getEvictions() {
+		return cache.getEvictions();
+	}
+
+	@Override
+	public String toString() {
+		return "RevisionTextCache(" + cache + ")";
+	}
+
+}
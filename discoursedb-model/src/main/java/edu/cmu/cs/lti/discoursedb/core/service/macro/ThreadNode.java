@@ -0,0 +1,29 @@
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import lombok.Data;
+
+/**
+ * A contribution of a reply tree returned by
+ * {@link ContributionService#findThreadTree(Contribution)} together with its
+ * position in the tree.
+ */
+@Data
+public class ThreadNode {
+
+	/**
+	 * the contribution
+	 */
+	private final Contribution contribution;
+
+	/**
+	 * the id of the contribution this contribution replies to or null for the root of the tree
+	 */
+	private final Long parentId;
+
+	/**
+	 * the distance from the root of the tree
+	 */
+	private final int depth;
+
+}
@@ -0,0 +1,97 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+/**
+ * Reports the hits, misses and sizes of the regions of the Hibernate
+ * second-level cache. Statistics are only collected if the second-level cache
+ * has been enabled with the discoursedb.cache.l2.enabled property.
+ */
+@Component
+public class CacheRegionStatistics {
+
+	private final Statistics statistics;
+
+	@Autowired
+	public CacheRegionStatistics(EntityManagerFactory entityManagerFactory) {
+		Assert.notNull(entityManagerFactory, "EntityManagerFactory cannot be null.");
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	/**
+	 * @return true, if statistics are collected, i.e. if the second-level cache is enabled
+	 */
+	public boolean isEnabled() {
+		return statistics.isStatisticsEnabled();
+	}
+
+	/**
+	 * @return the names of all regions of the second-level cache, including the query cache regions
+	 */
+	public List<String> getRegionNames() {
+		return Arrays.asList(statistics.getSecondLevelCacheRegionNames());
+	}
+
+	public long getHits(String region) {
+		return region(region).getHitCount();
+	}
+
+	public long getMisses(String region) {
+		return region(region).getMissCount();
+	}
+
+	public long getPuts(String region) {
+		return region(region).getPutCount();
+	}
+
+	/**
+	 * @param region the name of a region
+	 * @return the number of entries in the region
+	 */
+	public long getSize(String region) {
+		return region(region).getElementCountInMemory();
+	}
+
+	/**
+	 * @param region the name of a region
+	 * @return the ratio of hits to lookups or 0 if the region has not been used yet
+	 */
+	public double getHitRate(String region) {
+		long lookups = getHits(region) + getMisses(region);
+		return lookups == 0 ? 0 : (double) getHits(region) / lookups;
+	}
+
+	/**
+	 * Resets the statistics of all regions.
+	 */
+	public void clear() {
+		statistics.clear();
+	}
+
+	private org.hibernate.stat.SecondLevelCacheStatistics region(String region) {
+		Assert.hasText(region, "Region name cannot be empty.");
+		org.hibernate.stat.SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(region);
+		Assert.notNull(regionStatistics, "Unknown second-level cache region " + region + ".");
+		return regionStatistics;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("CacheRegionStatistics(");
+		for (String region : getRegionNames()) {
+			sb.append(region).append(": size=").append(getSize(region)).append(", hits=").append(getHits(region))
+					.append(", misses=").append(getMisses(region)).append("; ");
+		}
+		return sb.append(")").toString();
+	}
+
+}
@@ -0,0 +1,89 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.Collections;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.cmu.cs.lti.discoursedb.core.service.cache.LruCache;
+import lombok.Data;
+
+/**
+ * Maps (entitySourceId, entitySourceDescriptor, datasetName) triples to the
+ * primary key of the corresponding DataSourceInstance so that repeated
+ * lookups of the same source do not have to query the data_source_instance
+ * table.<br/>
+ *
+ * The cache is populated whenever a DataSourceInstance is written or found in
+ * the database. Instances written by a transaction are only cached for other
+ * transactions once it has been committed, so the ids of rolled back
+ * instances are never shared. Cached ids are only hints. If a loaded instance
+ * no longer exists, the DataSourceService evicts the entry and falls back to
+ * the database. The maximum number of entries can be configured with the
+ * discoursedb.cache.datasource.size property (0 disables the cache).
+ */
+@Component
+public class DataSourceCache {
+
+	private final LruCache<SourceKey, Long> cache;
+
+	@Autowired
+	public DataSourceCache(@Value("${discoursedb.cache.datasource.size:100000}") int maxSize) {
+		this.cache = new LruCache<>(maxSize, false, key -> Collections.singletonList(key.getDatasetName()));
+	}
+
+	public Long get(String entitySourceId, String entitySourceDescriptor, String datasetName) {
+		return cache.get(new SourceKey(entitySourceId, entitySourceDescriptor, datasetName));
+	}
+
+	public void put(String entitySourceId, String entitySourceDescriptor, String datasetName, Long dataSourceInstanceId) {
+		cache.putAfterCommit(new SourceKey(entitySourceId, entitySourceDescriptor, datasetName), dataSourceInstanceId);
+	}
+
+	public void evict(String entitySourceId, String entitySourceDescriptor, String datasetName) {
+		cache.remove(new SourceKey(entitySourceId, entitySourceDescriptor, datasetName));
+	}
+
+	/**
+	 * Removes all cached sources of the given dataset.
+	 *
+	 * @param datasetName the name of the dataset to evict
+	 */
+	public void evictDataset(String datasetName) {
+		cache.removeGroup(datasetName);
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public long getHits() {
+		return cache.getHits();
+	}
+
+	public long getMisses() {
+		return cache.getMisses();
+	}
+
+	public long getEvictions() {
+		return cache.getEvictions();
+	}
+
+	@Override
+	public String toString() {
+		return "DataSourceCache(" + cache + ")";
+	}
+
+	@Data
+	private static class SourceKey {
+		private final String entitySourceId;
+		private final String entitySourceDescriptor;
+		private final String datasetName;
+	}
+
+}
@@ -1,8 +1,11 @@
 package edu.cmu.cs.lti.discoursedb.core.service.system;
 
+import com.mysema.query.jpa.JPASubQuery;
+import com.mysema.query.types.Predicate;
 import com.mysema.query.types.expr.BooleanExpression;
 
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceAggregate;
+import edu.cmu.cs.lti.discoursedb.core.model.system.QDataSourceAggregate;
 import edu.cmu.cs.lti.discoursedb.core.model.system.QDataSourceInstance;
 import edu.cmu.cs.lti.discoursedb.core.type.DataSourceTypes;
 
@@ -43,4 +46,19 @@ public final class DataSourcePredicates {
 		}
 		return QDataSourceInstance.dataSourceInstance.entitySourceDescriptor.eq(entitySourceDescriptor);
 	}
+
+	/**
+	 * Checks whether the given aggregate of an entity contains a source that satisfies the given predicate.
+	 * The aggregates of the matching sources are looked up in an uncorrelated subquery that can use the
+	 * indexes of the data_source_instance table, and the entities are then found by the index on their
+	 * aggregate. The subquery does not join the aggregate of the entity.
+	 * 
+	 * @param aggregate the aggregate path of the entity
+	 * @param sourcePredicate a predicate on QDataSourceInstance.dataSourceInstance
+	 * @return true, if the aggregate contains a matching source
+	 */
+	public static BooleanExpression aggregateHasSource(QDataSourceAggregate aggregate, Predicate sourcePredicate) {
+		QDataSourceInstance source = QDataSourceInstance.dataSourceInstance;
+		return aggregate.in(new JPASubQuery().from(source).where(sourcePredicate).list(source.sourceAggregate));
+	}
 }
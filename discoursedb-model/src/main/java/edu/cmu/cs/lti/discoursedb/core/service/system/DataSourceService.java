@@ -1,25 +1,49 @@
 package edu.cmu.cs.lti.discoursedb.core.service.system;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.metamodel.EntityType;
+
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
+import edu.cmu.cs.lti.discoursedb.core.model.BaseEntity;
 import edu.cmu.cs.lti.discoursedb.core.model.SourcedBE;
 import edu.cmu.cs.lti.discoursedb.core.model.TimedAnnotatableSourcedBE;
 import edu.cmu.cs.lti.discoursedb.core.model.TypedSourcedBE;
 import edu.cmu.cs.lti.discoursedb.core.model.TypedTimedAnnotatableSourcedBE;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceAggregate;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySource;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySourced;
 import edu.cmu.cs.lti.discoursedb.core.repository.system.DataSourceInstanceRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.system.DataSourceAggregateRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.cache.CachedReferences;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j;
 
+/**
+ * Manages the sources of DiscourseDB entities.<br/>
+ * 
+ * Entities that implement PrimarySourced (Contributions, Contents, Users and
+ * DiscourseParts) store their first source inline in their own table. Only
+ * additional sources and the sources of all other entities are stored as
+ * DataSourceInstances in a DataSourceAggregate. Sources have to be unique
+ * across both forms of storage. Inline storage can be disabled with the
+ * discoursedb.sources.inline property, in which case all new sources are
+ * stored in DataSourceAggregates. Sources that have been stored inline before
+ * are still found.
+ */
 @Log4j
 @Service
 @Transactional(propagation = Propagation.REQUIRED, readOnly = false)
@@ -28,6 +52,15 @@ public class DataSourceService {
 
 	private final @NonNull DataSourceAggregateRepository dataSourceAggregateRepo;
 	private final @NonNull DataSourceInstanceRepository dataSourceInstanceRepo;
+	private final @NonNull DataSourceCache dataSourceCache;
+	private final @NonNull ImportedSourceFilter importedSourceFilter;
+	private final @NonNull @PersistenceContext EntityManager entityManager;
+
+	/**
+	 * If enabled, the first source of a PrimarySourced entity is stored inline instead of in a DataSourceAggregate
+	 */
+	@Value("${discoursedb.sources.inline:true}")
+	private boolean inlineSources;
 
 	/**
 	 * Retrieves an existing DataSourceInstance
@@ -46,11 +79,39 @@ public class DataSourceService {
 		Assert.hasText(entitySourceDescriptor);
 		Assert.hasText(dataSetName);
 
-		return Optional.ofNullable(dataSourceInstanceRepo.findOne(
+		//cached ids are only hints. fall back to the database if a loaded instance does not exist (anymore) 
+		Long cachedId = dataSourceCache.get(entitySourceId, entitySourceDescriptor, dataSetName);
+		Optional<DataSourceInstance> cachedInstance = CachedReferences.resolve(entityManager, DataSourceInstance.class, cachedId, dataSourceInstanceRepo::findOne);
+		if(cachedInstance.isPresent()){
+			return cachedInstance;
+		}else if(cachedId!=null){
+			dataSourceCache.evict(entitySourceId, entitySourceDescriptor, dataSetName);
+		}
+		//sources that have definitely not been imported yet do not have to be looked up
+		if(!importedSourceFilter.mightContain(entitySourceId, entitySourceDescriptor, dataSetName)){
+			return Optional.empty();
+		}
+		
+		Optional<DataSourceInstance> instance = Optional.ofNullable(dataSourceInstanceRepo.findOne(
 				DataSourcePredicates.hasSourceId(entitySourceId).and(
 				DataSourcePredicates.hasDataSetName(dataSetName)).and(
 				DataSourcePredicates.hasEntitySourceDescriptor(entitySourceDescriptor))));
+		instance.ifPresent(this::cache);
+		return instance;
 	}	
+	
+	/**
+	 * Adds the given DataSourceInstance to the source cache. 
+	 * Instances that have not been assigned an id yet are ignored.
+	 * 
+	 * @param source the source to cache
+	 */
+	public void cache(DataSourceInstance source){
+		Assert.notNull(source);
+		if(source.getId()!=null&&source.getEntitySourceId()!=null&&source.getEntitySourceDescriptor()!=null&&source.getDatasetName()!=null){
+			dataSourceCache.put(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName(), source.getId());			
+		}
+	}
 
 	/**
 	 * Checks whether a dataset with the given dataSetName exists in the DiscourseDB instance
@@ -62,7 +123,9 @@ public class DataSourceService {
 	public boolean dataSourceExists(String dataSetName){		
 		Assert.hasText(dataSetName);
 
-		return dataSourceInstanceRepo.count(DataSourcePredicates.hasDataSetName(dataSetName))>0;
+		return dataSourceInstanceRepo.count(DataSourcePredicates.hasDataSetName(dataSetName))>0
+				|| primarySourcedEntities().anyMatch(type -> !entityManager.createQuery("select e.id from " + type.getName() + " e where e.primarySource.datasetName = :dataset")
+						.setParameter("dataset", dataSetName).setMaxResults(1).getResultList().isEmpty());
 	}
 
 	/**
@@ -77,10 +140,14 @@ public class DataSourceService {
 		Assert.hasText(sourceIdDescriptor);
 		Assert.hasText(dataSetName);
 
+		if(!importedSourceFilter.mightContain(sourceId, sourceIdDescriptor, dataSetName)){
+			return false;
+		}
 		return dataSourceInstanceRepo.count(
 				DataSourcePredicates.hasDataSetName(dataSetName).and(
 				DataSourcePredicates.hasEntitySourceDescriptor(sourceIdDescriptor).and(
-				DataSourcePredicates.hasSourceId(sourceId)))) > 0;
+				DataSourcePredicates.hasSourceId(sourceId)))) > 0
+				|| primarySourcedEntities().anyMatch(type -> findPrimarySourceOwner(type, sourceId, sourceIdDescriptor, dataSetName).isPresent());
 	}
 
 	
@@ -105,7 +172,10 @@ public class DataSourceService {
 		if(instance.isPresent()){
 			return instance.get();
 		}else{
-			return dataSourceInstanceRepo.save(source);
+			importedSourceFilter.put(sourceId, sourceDescriptor, dataSetName);
+			DataSourceInstance newInstance = dataSourceInstanceRepo.save(source);
+			cache(newInstance);
+			return newInstance;
 		}
 	}	
 
@@ -121,7 +191,7 @@ public class DataSourceService {
 		Assert.notNull(entity);
 		Assert.hasText(entitySourceDescriptor);
 		
-		return entity.getDataSourceAggregate().getSources().stream().filter(e -> e.getEntitySourceDescriptor().equals(entitySourceDescriptor)).findAny();
+		return sources(entity, entity.getDataSourceAggregate()).filter(e -> e.getEntitySourceDescriptor().equals(entitySourceDescriptor)).findAny();
 	}
 
 	/**
@@ -136,7 +206,7 @@ public class DataSourceService {
 		Assert.notNull(entity);
 		Assert.hasText(entitySourceDescriptor);
 
-		return entity.getDataSourceAggregate().getSources().stream().filter(e -> e.getEntitySourceDescriptor().equals(entitySourceDescriptor)).findAny();
+		return sources(entity, entity.getDataSourceAggregate()).filter(e -> e.getEntitySourceDescriptor().equals(entitySourceDescriptor)).findAny();
 	}
 	
 	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
@@ -144,8 +214,7 @@ public class DataSourceService {
 		Assert.notNull(entity);
 		Assert.hasText(sourceId);
 
-		return entity.getDataSourceAggregate().getSources().stream()
-				.anyMatch(e -> e.getEntitySourceId().equals(sourceId));
+		return sources(entity, entity.getDataSourceAggregate()).anyMatch(e -> e.getEntitySourceId().equals(sourceId));
 	}
 
 	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
@@ -153,8 +222,7 @@ public class DataSourceService {
 		Assert.notNull(entity);
 		Assert.hasText(sourceId);
 
-		return entity.getDataSourceAggregate().getSources().stream()
-				.anyMatch(e -> e.getEntitySourceId().equals(sourceId));
+		return sources(entity, entity.getDataSourceAggregate()).anyMatch(e -> e.getEntitySourceId().equals(sourceId));
 	}
 	
 	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
@@ -162,8 +230,7 @@ public class DataSourceService {
 		Assert.notNull(entity);
 		Assert.hasText(sourceId);
 
-		return entity.getDataSourceAggregate().getSources().stream()
-				.anyMatch(e -> e.getEntitySourceId().equals(sourceId));
+		return sources(entity, entity.getDataSourceAggregate()).anyMatch(e -> e.getEntitySourceId().equals(sourceId));
 	}
 
 	/**
@@ -184,6 +251,9 @@ public class DataSourceService {
 		Assert.notNull(entity);
 		Assert.notNull(source);
 
+		if(addPrimarySource(entity, entity.getDataSourceAggregate(), source)){
+			return;
+		}
 		//the source aggregate is a proxy for the entity
 		DataSourceAggregate sourceAggregate = entity.getDataSourceAggregate();
 		if (sourceAggregate == null) {
@@ -195,7 +265,9 @@ public class DataSourceService {
 		Optional<DataSourceInstance> existingDataSourceInstance = findDataSource(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
 		if(!existingDataSourceInstance.isPresent()){
 			source.setSourceAggregate(sourceAggregate);
+			importedSourceFilter.put(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
 			source = dataSourceInstanceRepo.save(source);
+			cache(source);
 		}else if(!existingDataSourceInstance.get().getSourceAggregate().equals(entity.getDataSourceAggregate())){
 			//we tried to create an existing DataSourceInstance but add it to another entity
 			//this is not allowed, a source may only produce a single entity
@@ -220,6 +292,9 @@ public class DataSourceService {
 		Assert.notNull(entity);
 		Assert.notNull(source);
 
+		if(addPrimarySource(entity, entity.getDataSourceAggregate(), source)){
+			return;
+		}
 		//the source aggregate is a proxy for the entity
 		DataSourceAggregate sourceAggregate = entity.getDataSourceAggregate();
 		if (sourceAggregate == null) {
@@ -231,7 +306,9 @@ public class DataSourceService {
 		Optional<DataSourceInstance> existingDataSourceInstance = findDataSource(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
 		if(!existingDataSourceInstance.isPresent()){
 			source.setSourceAggregate(sourceAggregate);
+			importedSourceFilter.put(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
 			source = dataSourceInstanceRepo.save(source);
+			cache(source);
 		}else if(!existingDataSourceInstance.get().getSourceAggregate().equals(entity.getDataSourceAggregate())){
 			//we tried to create an existing DataSourceInstance but add it to another entity
 			//this is not allowed, a source may only produce a single entity
@@ -256,6 +333,9 @@ public class DataSourceService {
 		Assert.notNull(entity);
 		Assert.notNull(source);
 
+		if(addPrimarySource(entity, entity.getDataSourceAggregate(), source)){
+			return;
+		}
 		//the source aggregate is a proxy for the entity
 		DataSourceAggregate sourceAggregate = entity.getDataSourceAggregate();
 		if (sourceAggregate == null) {
@@ -267,7 +347,9 @@ public class DataSourceService {
 		Optional<DataSourceInstance> existingDataSourceInstance = findDataSource(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
 		if(!existingDataSourceInstance.isPresent()){
 			source.setSourceAggregate(sourceAggregate);
+			importedSourceFilter.put(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
 			source = dataSourceInstanceRepo.save(source);
+			cache(source);
 		}else if(!existingDataSourceInstance.get().getSourceAggregate().equals(entity.getDataSourceAggregate())){
 			//we tried to create an existing DataSourceInstance but add it to another entity
 			//this is not allowed, a source may only produce a single entity
@@ -275,4 +357,68 @@ public class DataSourceService {
 		}
 	}
 
+	/**
+	 * Stores the given source inline, if the entity supports primary sources and does not have a source yet.
+	 * Sources that are already stored inline by another entity are rejected.
+	 * 
+	 * @param entity the entity to add a new source to
+	 * @param sourceAggregate the current source aggregate of the entity
+	 * @param source the source to add to the entity
+	 * @return true, if the source has been handled and does not have to be added to the aggregate of the entity
+	 */
+	private boolean addPrimarySource(BaseEntity entity, DataSourceAggregate sourceAggregate, DataSourceInstance source) {
+		if (!(entity instanceof PrimarySourced)) {
+			return false;
+		}
+		PrimarySourced sourcedEntity = (PrimarySourced) entity;
+		PrimarySource primarySource = sourcedEntity.getPrimarySource();
+		if (primarySource != null && primarySource.matches(source)) {
+			return true;
+		}
+		Optional<Long> owner = importedSourceFilter.mightContain(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName())
+				? findPrimarySourceOwner(entityManager.getMetamodel().entity(Hibernate.getClass(entity)),
+						source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName())
+				: Optional.empty();
+		if (owner.isPresent()) {
+			//a source may only produce a single entity
+			log.error("Source already assigned to an existing entity: ("+source.getEntitySourceId()+", "+source.getEntitySourceDescriptor()+", "+source.getDatasetName()+") but must be unique.");
+			return true;
+		}
+		if (inlineSources && primarySource == null && sourceAggregate == null
+				&& !findDataSource(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName()).isPresent()) {
+			sourcedEntity.setPrimarySource(new PrimarySource(source));
+			importedSourceFilter.put(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the id of the entity of the given type that stores the given source inline
+	 */
+	private Optional<Long> findPrimarySourceOwner(EntityType<?> type, String entitySourceId, String entitySourceDescriptor, String dataSetName) {
+		if (entitySourceId == null || entitySourceDescriptor == null || dataSetName == null) {
+			return Optional.empty();
+		}
+		List<Long> ids = entityManager.createQuery("select e.id from " + type.getName() + " e where e.primarySource.datasetName = :dataset "
+						+ "and e.primarySource.entitySourceDescriptor = :descriptor and e.primarySource.entitySourceId = :sourceId", Long.class)
+				.setParameter("dataset", dataSetName).setParameter("descriptor", entitySourceDescriptor).setParameter("sourceId", entitySourceId)
+				.getResultList();
+		return ids.stream().findFirst();
+	}
+
+	private Stream<EntityType<?>> primarySourcedEntities() {
+		return entityManager.getMetamodel().getEntities().stream().filter(type -> PrimarySourced.class.isAssignableFrom(type.getJavaType()));
+	}
+
+	/**
+	 * @return the primary source of the given entity followed by the sources of its aggregate
+	 */
+	private static Stream<DataSourceInstance> sources(Object entity, DataSourceAggregate aggregate) {
+		if (entity instanceof PrimarySourced) {
+			return ((PrimarySourced) entity).listSources().stream();
+		}
+		return aggregate != null ? aggregate.getSources().stream() : Stream.empty();
+	}
+
 }
@@ -0,0 +1,412 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.service.cache.BloomFilter;
+import lombok.Data;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Keeps a Bloom filter of the (entitySourceId, entitySourceDescriptor) pairs
+ * that have been imported for each dataset, so that the duplicate checks of
+ * the converters do not need a database round trip for records that have not
+ * been imported yet.<br/>
+ *
+ * The filter of a dataset is built the first time one of its sources is looked
+ * up or added. It is read from the source_filter table if the dataset has not
+ * changed since it was stored, otherwise it is built from the
+ * data_source_instance table and the inline sources of Contributions,
+ * Contents, Users and DiscourseParts in a single streaming pass and stored
+ * again. A stored filter is identified by a high-water mark of the dataset,
+ * the number of its sources and the highest id of each of these tables that
+ * holds a source of the dataset. Ids are never reused, so rows that are
+ * deleted and replaced by the same number of new rows still change the mark.
+ * Filters that have been extended are stored on shutdown if the dataset has
+ * grown by exactly the number of sources that have been added by this
+ * instance. Otherwise, the filter misses sources written by another process or
+ * contains sources of rolled back transactions, and it is not stored. The
+ * filter that has been stored before remains valid as long as the dataset
+ * does not change.
+ * Only positive answers, which may be false positives, have to be confirmed by
+ * the database.<br/>
+ *
+ * All sources written by this instance are added to the filter. Imports of the
+ * same dataset by another process while this instance is running are not
+ * visible to the filter. The filter can be disabled with the
+ * discoursedb.filter.sources.enabled property. The false positive rate can be
+ * configured with discoursedb.filter.sources.false_positive_rate.
+ */
+@Log4j
+@Component
+public class ImportedSourceFilter {
+
+	static final String TABLE = "source_filter";
+
+	private static final String[][] SOURCE_TABLES = {
+		//table, primary key, dataset, source id, source descriptor
+		{"data_source_instance", "id_data_source_instance", "dataset_name", "entity_source_id", "entity_source_descriptor"},
+		{"contribution", "id_contribution", "dataset", "source_id", "source_descriptor"},
+		{"content", "id_content", "dataset", "source_id", "source_descriptor"},
+		{"user", "id_user", "dataset", "source_id", "source_descriptor"},
+		{"discourse_part", "id_discourse_part", "dataset", "source_id", "source_descriptor"}
+	};
+
+	private static final long MIN_CAPACITY = 1 << 16;
+
+	private final DataSource dataSource;
+	private final boolean enabled;
+	private final double falsePositiveRate;
+	private final Map<String, DatasetFilter> filters = new ConcurrentHashMap<>();
+	private volatile boolean tableCreated = false;
+
+	@Autowired
+	public ImportedSourceFilter(DataSource dataSource, @Value("${discoursedb.filter.sources.enabled:true}") boolean enabled,
+			@Value("${discoursedb.filter.sources.false_positive_rate:0.01}") double falsePositiveRate) {
+		Assert.isTrue(falsePositiveRate > 0 && falsePositiveRate < 1, "False positive rate has to be between 0 and 1.");
+		this.dataSource = dataSource;
+		this.enabled = enabled;
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
+	/**
+	 * @return false, if the given source has definitely not been imported. true, if it might have been imported or the filter is disabled.
+	 */
+	public boolean mightContain(String entitySourceId, String entitySourceDescriptor, String datasetName) {
+		if (!enabled || entitySourceId == null || entitySourceDescriptor == null || datasetName == null) {
+			return true;
+		}
+		return filter(datasetName).mightContain(key(entitySourceId, entitySourceDescriptor));
+	}
+
+	/**
+	 * Adds a source that is about to be written to the filter of its dataset.
+	 * Sources of transactions that are rolled back remain in the filter and
+	 * are treated like false positives.
+	 */
+	public void put(String entitySourceId, String entitySourceDescriptor, String datasetName) {
+		if (!enabled || entitySourceId == null || entitySourceDescriptor == null || datasetName == null) {
+			return;
+		}
+		filter(datasetName).put(key(entitySourceId, entitySourceDescriptor));
+	}
+
+	/**
+	 * Discards the filter of the given dataset, e.g. after the dataset has been purged.
+	 *
+	 * @param datasetName the name of the dataset
+	 */
+	public void evictDataset(String datasetName) {
+		filters.remove(datasetName);
+		try (Connection con = dataSource.getConnection()) {
+			createTable(con);
+			try (PreparedStatement stmt = con.prepareStatement("DELETE FROM " + TABLE + " WHERE dataset = ?")) {
+				stmt.setString(1, datasetName);
+				stmt.executeUpdate();
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not delete the source filter of dataset " + datasetName, e);
+		}
+	}
+
+	/**
+	 * Discards the filters of all datasets.
+	 */
+	public void clear() {
+		filters.clear();
+		try (Connection con = dataSource.getConnection()) {
+			createTable(con);
+			try (Statement stmt = con.createStatement()) {
+				stmt.executeUpdate("DELETE FROM " + TABLE);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not delete the source filters.", e);
+		}
+	}
+
+	/**
+	 * Stores the filters that have been extended since they were loaded, if
+	 * they still cover all sources of their dataset.
+	 */
+	@PreDestroy
+	public void persist() {
+		filters.forEach((datasetName, filter) -> {
+			if (filter.isDirty()) {
+				byte[] bytes;
+				long sources;
+				//the bits and the count have to match, even if another thread puts a source meanwhile
+				synchronized (filter) {
+					bytes = filter.toBytes();
+					sources = filter.getSources();
+					filter.setDirty(false);
+				}
+				try (Connection con = dataSource.getConnection()) {
+					HighWaterMark mark = highWaterMark(con, datasetName);
+					if (mark.getSources() == sources) {
+						store(con, datasetName, bytes, mark);
+					} else {
+						log.info("Source filter of dataset " + datasetName + " covers " + sources + " sources, but the dataset has " + mark.getSources()
+								+ ". It is built again on the next start.");
+					}
+				} catch (SQLException e) {
+					log.warn("Could not store the source filter of dataset " + datasetName + ": " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	private DatasetFilter filter(String datasetName) {
+		return filters.computeIfAbsent(datasetName, this::load);
+	}
+
+	private DatasetFilter load(String datasetName) {
+		try (Connection con = dataSource.getConnection()) {
+			createTable(con);
+			HighWaterMark mark = highWaterMark(con, datasetName);
+			try (PreparedStatement stmt = con.prepareStatement("SELECT source_count, max_ids, bits FROM " + TABLE + " WHERE dataset = ?")) {
+				stmt.setString(1, datasetName);
+				try (ResultSet rs = stmt.executeQuery()) {
+					if (rs.next() && mark.equals(new HighWaterMark(rs.getLong(1), rs.getString(2)))) {
+						DatasetFilter filter = DatasetFilter.readFrom(rs.getBytes(3), mark.getSources(), falsePositiveRate);
+						log.info("Loaded source filter of dataset " + datasetName + " with " + mark.getSources() + " sources.");
+						return filter;
+					}
+				}
+			}
+			return build(con, datasetName, mark);
+		} catch (SQLException | IOException e) {
+			throw new RuntimeException("Could not load the source filter of dataset " + datasetName, e);
+		}
+	}
+
+	/**
+	 * Builds the filter from the sources of the dataset. Sources that are written while the filter is built may be added
+	 * to the filter, but are not part of the high-water mark, so the stored filter is only built again.
+	 */
+	private DatasetFilter build(Connection con, String datasetName, HighWaterMark mark) throws SQLException, IOException {
+		long start = System.currentTimeMillis();
+		DatasetFilter filter = new DatasetFilter(Math.max(MIN_CAPACITY, 2 * mark.getSources()), mark.getSources(), falsePositiveRate);
+		for (String[] table : SOURCE_TABLES) {
+			try (PreparedStatement stmt = streamingStatement(con, "SELECT " + table[3] + ", " + table[4] + " FROM " + table[0]
+					+ " WHERE " + table[2] + " = ?")) {
+				stmt.setString(1, datasetName);
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						String sourceId = rs.getString(1);
+						String descriptor = rs.getString(2);
+						if (sourceId != null && descriptor != null) {
+							filter.add(key(sourceId, descriptor));
+						}
+					}
+				}
+			}
+		}
+		store(con, datasetName, filter.toBytes(), mark);
+		log.info("Built source filter of dataset " + datasetName + " with " + mark.getSources() + " sources in " + (System.currentTimeMillis() - start) + " ms.");
+		return filter;
+	}
+
+	private void store(Connection con, String datasetName, byte[] bytes, HighWaterMark mark) throws SQLException {
+		createTable(con);
+		boolean autoCommit = con.getAutoCommit();
+		con.setAutoCommit(false);
+		try (PreparedStatement delete = con.prepareStatement("DELETE FROM " + TABLE + " WHERE dataset = ?");
+				PreparedStatement insert = con.prepareStatement("INSERT INTO " + TABLE + " (dataset, source_count, max_ids, bits) VALUES (?, ?, ?, ?)")) {
+			delete.setString(1, datasetName);
+			delete.executeUpdate();
+			insert.setString(1, datasetName);
+			insert.setLong(2, mark.getSources());
+			insert.setString(3, mark.getMaxIds());
+			insert.setBytes(4, bytes);
+			insert.executeUpdate();
+			con.commit();
+		} catch (SQLException e) {
+			con.rollback();
+			//the filter remains usable, it just has to be built again after a restart
+			log.warn("Could not store the source filter of dataset " + datasetName + ": " + e.getMessage());
+		} finally {
+			con.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * @return the number of sources of the given dataset in the data_source_instance table and the inline sources
+	 *         together with the highest id of each table
+	 */
+	private static HighWaterMark highWaterMark(Connection con, String datasetName) throws SQLException {
+		long sources = 0;
+		List<String> maxIds = new ArrayList<>();
+		for (String[] table : SOURCE_TABLES) {
+			try (PreparedStatement stmt = con.prepareStatement("SELECT COUNT(*), MAX(" + table[1] + ") FROM " + table[0] + " WHERE "
+					+ table[2] + " = ?")) {
+				stmt.setString(1, datasetName);
+				try (ResultSet rs = stmt.executeQuery()) {
+					rs.next();
+					sources += rs.getLong(1);
+					maxIds.add(Long.toString(rs.getLong(2)));
+				}
+			}
+		}
+		return new HighWaterMark(sources, String.join(",", maxIds));
+	}
+
+	/**
+	 * Creates the source_filter table. A table of an earlier version without the high-water mark is replaced,
+	 * since its filters are built again anyway.
+	 */
+	private void createTable(Connection con) throws SQLException {
+		if (tableCreated) {
+			return;
+		}
+		String columns = " (dataset VARCHAR(255) NOT NULL, source_count BIGINT NOT NULL, max_ids VARCHAR(255) NOT NULL, bits LONGBLOB NOT NULL, PRIMARY KEY (dataset))";
+		try (Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE + columns);
+			try {
+				stmt.executeQuery("SELECT max_ids FROM " + TABLE + " WHERE 1 = 0").close();
+			} catch (SQLException e) {
+				stmt.executeUpdate("DROP TABLE " + TABLE);
+				stmt.executeUpdate("CREATE TABLE " + TABLE + columns);
+			}
+		}
+		tableCreated = true;
+	}
+
+	/**
+	 * @return a statement that streams the rows of MySQL result sets instead of reading them into memory
+	 */
+	private static PreparedStatement streamingStatement(Connection con, String query) throws SQLException {
+		PreparedStatement stmt = con.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		if (con.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql")) {
+			stmt.setFetchSize(Integer.MIN_VALUE);
+		}
+		return stmt;
+	}
+
+	private static String key(String entitySourceId, String entitySourceDescriptor) {
+		return entitySourceDescriptor + '\u0000' + entitySourceId;
+	}
+
+	/**
+	 * The sources of a dataset when its filter was built or stored, identified
+	 * by their number and the highest id of each table with sources.
+	 */
+	@Data
+	private static class HighWaterMark {
+		private final long sources;
+		private final String maxIds;
+	}
+
+	/**
+	 * The filter of a single dataset. A new Bloom filter with twice the
+	 * capacity is added whenever the newest one is full, so that the false
+	 * positive rate stays bounded while a dataset grows. The filter counts the
+	 * sources it covers, starting with the sources of the dataset it has been
+	 * built or loaded with.
+	 */
+	private static class DatasetFilter {
+
+		private final List<BloomFilter> slices = new ArrayList<>();
+		private final double falsePositiveRate;
+		private long sources;
+		private boolean dirty = false;
+
+		DatasetFilter(long capacity, long sources, double falsePositiveRate) {
+			this.falsePositiveRate = falsePositiveRate;
+			this.sources = sources;
+			slices.add(new BloomFilter(capacity, falsePositiveRate));
+		}
+
+		private DatasetFilter(List<BloomFilter> slices, long sources, double falsePositiveRate) {
+			this.falsePositiveRate = falsePositiveRate;
+			this.sources = sources;
+			this.slices.addAll(slices);
+		}
+
+		synchronized boolean mightContain(String key) {
+			return slices.stream().anyMatch(slice -> slice.mightContain(key));
+		}
+
+		/**
+		 * Adds a source that is about to be written and counts it. The bits of
+		 * sources the filter already might contain, e.g. false positives, are
+		 * not set again, but every source is counted.
+		 */
+		synchronized void put(String key) {
+			if (!mightContain(key)) {
+				add(key);
+			}
+			sources++;
+			dirty = true;
+		}
+
+		/**
+		 * Adds a source that has already been counted.
+		 */
+		synchronized void add(String key) {
+			BloomFilter newest = slices.get(slices.size() - 1);
+			if (newest.isFull()) {
+				newest = new BloomFilter(2 * newest.getCapacity(), falsePositiveRate);
+				slices.add(newest);
+			}
+			newest.put(key);
+		}
+
+		synchronized long getSources() {
+			return sources;
+		}
+
+		synchronized boolean isDirty() {
+			return dirty;
+		}
+
+		synchronized void setDirty(boolean dirty) {
+			this.dirty = dirty;
+		}
+
+		synchronized byte[] toBytes() {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				out.writeInt(slices.size());
+				for (BloomFilter slice : slices) {
+					slice.writeTo(out);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return bytes.toByteArray();
+		}
+
+		static DatasetFilter readFrom(byte[] bytes, long sources, double falsePositiveRate) throws IOException {
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+				int size = in.readInt();
+				List<BloomFilter> slices = new ArrayList<>(size);
+				for (int i = 0; i < size; i++) {
+					slices.add(BloomFilter.readFrom(in));
+				}
+				return new DatasetFilter(slices, sources, falsePositiveRate);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.util.Assert;
+
+import com.mysema.query.BooleanBuilder;
+import com.mysema.query.jpa.JPQLQuery;
+import com.mysema.query.types.EntityPath;
+import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.DateTimePath;
+import com.mysema.query.types.path.NumberPath;
+
+/**
+ * Helper methods for keyset (seek) pagination.<br/>
+ *
+ * Instead of skipping a number of rows with OFFSET, a keyset query
+ * continues after the sort key of the last row of the previous slice. With an
+ * index on the sort key, the cost of a slice does not depend on how deep the
+ * client has paged into the result. Keyset slices do not know the total
+ * number of results, they only indicate whether there is a next slice.
+ */
+public final class Keyset {
+
+	private Keyset() {
+	}
+
+	/**
+	 * Retrieves the entities that match the given predicate and have an id
+	 * greater than the given id, ordered by id.
+	 *
+	 * @param query a query that selects from the given entity path
+	 * @param entity the entity path to select
+	 * @param id the id path of the entity
+	 * @param predicate an optional predicate that further restricts the result
+	 * @param after the id of the last entity of the previous slice or null to retrieve the first slice
+	 * @param size the maximum number of entities in the slice
+	 * @return a slice with at most size entities
+	 */
+	public static <T> Slice<T> afterId(JPQLQuery query, EntityPath<T> entity, NumberPath<Long> id, Predicate predicate, Long after, int size) {
+		BooleanBuilder where = new BooleanBuilder(predicate);
+		if (after != null) {
+			where.and(id.gt(after));
+		}
+		return slice(query.where(where).orderBy(id.asc()), entity, size);
+	}
+
+	/**
+	 * Retrieves the entities that match the given predicate and come after the
+	 * given (startTime, id) pair, ordered by start time and id. Entities
+	 * without a start time are not part of the result.
+	 *
+	 * @param query a query that selects from the given entity path
+	 * @param entity the entity path to select
+	 * @param startTime the start time path of the entity
+	 * @param id the id path of the entity
+	 * @param predicate an optional predicate that further restricts the result
+	 * @param afterStartTime the start time of the last entity of the previous slice or null to retrieve the first slice
+	 * @param afterId the id of the last entity of the previous slice or null to retrieve the first slice
+	 * @param size the maximum number of entities in the slice
+	 * @return a slice with at most size entities
+	 */
+	public static <T> Slice<T> afterStartTimeAndId(JPQLQuery query, EntityPath<T> entity, DateTimePath<Date> startTime,
+			NumberPath<Long> id, Predicate predicate, Date afterStartTime, Long afterId, int size) {
+		Assert.isTrue((afterStartTime == null) == (afterId == null), "Start time and id of the last entity have to be provided together.");
+		BooleanBuilder where = new BooleanBuilder(predicate).and(startTime.isNotNull());
+		if (afterStartTime != null) {
+			where.and(startTime.gt(afterStartTime).or(startTime.eq(afterStartTime).and(id.gt(afterId))));
+		}
+		return slice(query.where(where).orderBy(startTime.asc(), id.asc()), entity, size);
+	}
+
+	private static <T> Slice<T> slice(JPQLQuery query, EntityPath<T> entity, int size) {
+		Assert.isTrue(size > 0, "Slice size has to be positive.");
+		//fetch one additional row to find out whether there is a next slice
+		List<T> rows = query.limit(size + 1).list(entity);
+		boolean hasNext = rows.size() > size;
+		return new SliceImpl<>(hasNext ? rows.subList(0, size) : rows, new PageRequest(0, size), hasNext);
+	}
+
+}
@@ -0,0 +1,61 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The number of rows that have been deleted from each table by a purge of the
+ * PurgeService. Tables are listed in the order in which they have been
+ * purged.
+ */
+public class PurgeReport {
+
+	private final String target;
+	private final Map<String, Long> deletedRows = new LinkedHashMap<>();
+	private final long startTime = System.currentTimeMillis();
+	private long endTime;
+
+	PurgeReport(String target) {
+		this.target = target;
+	}
+
+	void add(String table, long rows) {
+		deletedRows.merge(table, rows, Long::sum);
+	}
+
+	void finish() {
+		endTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return a description of the purged dataset or discourse
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return the number of deleted rows per table
+	 */
+	public Map<String, Long> getDeletedRows() {
+		return Collections.unmodifiableMap(deletedRows);
+	}
+
+	public long getTotalDeletedRows() {
+		return deletedRows.values().stream().mapToLong(Long::longValue).sum();
+	}
+
+	/**
+	 * @return the duration of the purge in milliseconds
+	 */
+	public long getDuration() {
+		return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+	}
+
+	@Override
+	public String toString() {
+		return "PurgeReport(" + target + ", " + getTotalDeletedRows() + " rows in " + getDuration() + " ms: " + deletedRows + ")";
+	}
+
+}
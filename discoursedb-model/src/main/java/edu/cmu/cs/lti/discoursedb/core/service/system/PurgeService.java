@@ -0,0 +1,468 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscourseRegistry;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.RevisionTextCache;
+import edu.cmu.cs.lti.discoursedb.core.service.user.UserCache;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Deletes everything that has been imported from a dataset or that belongs to
+ * a discourse with set-based statements instead of loading and deleting
+ * single entities through the repositories.<br/>
+ *
+ * A purge runs in two phases. First, the ids of the entities to delete are
+ * collected in the purge_set table: the entities with a source in the dataset
+ * or the DiscourseParts, Contributions and Users of the discourse, followed by
+ * their contents, annotations, data source aggregates and payloads. Users that
+ * are still the author of a content that is not purged are kept, and so are
+ * the data source aggregates of all kept entities, including the sources of
+ * the purged dataset they contain. Then the rows
+ * that reference the collected entities are deleted in dependency order with
+ * <code>DELETE ... JOIN purge_set</code> statements. Every statement covers a
+ * bounded range of ids and is committed on its own, so no lock on the shared
+ * tables is held longer than a single chunk. The progress is logged after each
+ * table and the deleted rows are returned in a PurgeReport.<br/>
+ *
+ * The statements use the multi-table DELETE syntax of MySQL. Discourses that
+ * have been imported from a purged dataset are not deleted, since they can be
+ * shared by several datasets. Only one purge may run at a time, and an
+ * interrupted purge can simply be started again. All DiscourseDB caches and
+ * the affected ImportedSourceFilters are cleared after a purge.
+ */
+@Log4j
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired) )
+public class PurgeService {
+
+	private static final String PURGE_TABLE = "purge_set";
+	private static final int CHUNK_SIZE = 10000;
+
+	/**
+	 * Tables of sourced entities (table, primary key)
+	 */
+	private static final String[][] SOURCED = {
+		{"contribution", "id_contribution"},
+		{"content", "id_content"},
+		{"user", "id_user"},
+		{"discourse_part", "id_discourse_part"},
+		{"group", "id_group"},
+		{"audience", "id_audience"},
+		{"annotation_instance", "id_annotation_instance"}
+	};
+
+	/**
+	 * Tables of entities that store their primary source inline (table, primary key)
+	 */
+	private static final String[][] PRIMARY_SOURCED = {
+		{"contribution", "id_contribution"},
+		{"content", "id_content"},
+		{"user", "id_user"},
+		{"discourse_part", "id_discourse_part"}
+	};
+
+	/**
+	 * Tables of annotatable entities (table, primary key)
+	 */
+	private static final String[][] ANNOTATABLE = {
+		{"contribution", "id_contribution"},
+		{"content", "id_content"},
+		{"user", "id_user"},
+		{"discourse_part", "id_discourse_part"},
+		{"group", "id_group"},
+		{"audience", "id_audience"}
+	};
+
+	/**
+	 * Annotatable relations that are deleted with the entities they reference (table, foreign key, referenced entity)
+	 */
+	private static final String[][] ANNOTATABLE_RELATIONS = {
+		{"discourse_relation", "fk_source", "contribution"},
+		{"discourse_relation", "fk_target", "contribution"},
+		{"contribution_interaction", "fk_user", "user"},
+		{"contribution_interaction", "fk_contribution", "contribution"},
+		{"contribution_interaction", "fk_content", "content"},
+		{"discourse_part_interaction", "fk_user", "user"},
+		{"discourse_part_interaction", "fk_discourse_part", "discourse_part"},
+		{"user_relation", "fk_source", "user"},
+		{"user_relation", "fk_target", "user"}
+	};
+
+	/**
+	 * Relations that are deleted with the entities they reference (table, foreign key, referenced entity)
+	 */
+	private static final String[][] RELATIONS = {
+		{"contribution_closure", "fk_ancestor", "contribution"},
+		{"contribution_closure", "fk_descendant", "contribution"},
+		{"contribution_has_audience", "fk_contribution", "contribution"},
+		{"contribution_has_audience", "fk_audience", "audience"},
+		{"contribution_has_context", "fk_contribution", "contribution"},
+		{"contribution_has_context", "fk_context_contribution", "contribution"},
+		{"contribution_has_context", "fk_context_content", "content"},
+		{"contribution_partof_discourse_part", "fk_contribution", "contribution"},
+		{"contribution_partof_discourse_part", "fk_discourse_part", "discourse_part"},
+		{"discourse_relation", "fk_source", "contribution"},
+		{"discourse_relation", "fk_target", "contribution"},
+		{"contribution_interaction", "fk_user", "user"},
+		{"contribution_interaction", "fk_contribution", "contribution"},
+		{"contribution_interaction", "fk_content", "content"},
+		{"discourse_part_interaction", "fk_user", "user"},
+		{"discourse_part_interaction", "fk_discourse_part", "discourse_part"},
+		{"discourse_part_relation", "fk_source", "discourse_part"},
+		{"discourse_part_relation", "fk_target", "discourse_part"},
+		{"discourse_has_discourse_part", "fk_discourse_part", "discourse_part"},
+		{"user_memberof_discourse", "id_user", "user"},
+		{"user_memberof_group", "fk_user", "user"},
+		{"user_memberof_group", "fk_group", "group"},
+		{"audience_has_user", "fk_user", "user"},
+		{"audience_has_user", "fk_audience", "audience"},
+		{"audience_has_group", "fk_group", "group"},
+		{"audience_has_group", "fk_audience", "audience"},
+		{"user_relation", "fk_source", "user"},
+		{"user_relation", "fk_target", "user"}
+	};
+
+	private final @NonNull DataSource dataSource;
+	private final @NonNull EntityManagerFactory entityManagerFactory;
+	private final @NonNull DataSourceCache dataSourceCache;
+	private final @NonNull ImportedSourceFilter importedSourceFilter;
+	private final @NonNull UserCache userCache;
+	private final @NonNull DiscourseRegistry discourseRegistry;
+	private final @NonNull RevisionTextCache revisionTextCache;
+
+	/**
+	 * Deletes all entities that have a source in the given dataset together
+	 * with their relations, contents, annotations and sources.
+	 *
+	 * @param datasetName
+	 *            the name of the dataset to purge
+	 * @return the number of deleted rows per table
+	 */
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public synchronized PurgeReport purgeDataset(String datasetName) {
+		Assert.hasText(datasetName, "Dataset name cannot be empty.");
+
+		PurgeReport report = new PurgeReport("dataset " + datasetName);
+		try (Connection con = connection()) {
+			prepare(con);
+			for (String[] table : PRIMARY_SOURCED) {
+				collectByRange(con, table[0], table[1], "SELECT '" + table[0] + "', " + table[1] + " FROM `" + table[0] + "` WHERE dataset = ?", datasetName);
+			}
+			collectByRange(con, "data_source_instance", "id_data_source_instance",
+					"SELECT 'data_source_aggregate', fk_sources FROM data_source_instance WHERE dataset_name = ? AND fk_sources IS NOT NULL", datasetName);
+			for (String[] table : SOURCED) {
+				collectBySet(con, "data_source_aggregate", "SELECT '" + table[0] + "', x." + table[1] + " FROM " + PURGE_TABLE
+						+ " p JOIN `" + table[0] + "` x ON x.fk_data_sources = p.id");
+			}
+			collectDependents(con);
+			delete(con, report);
+			clear(con);
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not purge dataset " + datasetName, e);
+		}
+		dataSourceCache.evictDataset(datasetName);
+		importedSourceFilter.evictDataset(datasetName);
+		clearCaches();
+		report.finish();
+		log.info("Purged " + report);
+		return report;
+	}
+
+	/**
+	 * Deletes the given discourse together with its DiscourseParts,
+	 * Contributions and the Users that are not a member of another discourse
+	 * and all of their relations, contents, annotations and sources.
+	 * DiscourseParts that are also part of another discourse are kept.
+	 *
+	 * @param discourse
+	 *            the discourse to purge
+	 * @return the number of deleted rows per table
+	 */
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public synchronized PurgeReport purgeDiscourse(Discourse discourse) {
+		Assert.notNull(discourse, "Discourse cannot be null.");
+		Long discourseId = discourse.getId();
+		Assert.notNull(discourseId, "Discourse has to be saved before it can be purged.");
+
+		PurgeReport report = new PurgeReport("discourse " + discourse.getName());
+		try (Connection con = connection()) {
+			prepare(con);
+			collectByRange(con, "discourse_has_discourse_part", "d.id_discourse_has_discourse_part",
+					"SELECT 'discourse_part', d.fk_discourse_part FROM discourse_has_discourse_part d WHERE d.fk_discourse = ? AND NOT EXISTS ("
+							+ "SELECT 1 FROM discourse_has_discourse_part o WHERE o.fk_discourse_part = d.fk_discourse_part AND o.fk_discourse <> ?)",
+					discourseId, discourseId);
+			collectByRange(con, "contribution", "id_contribution",
+					"SELECT 'contribution', id_contribution FROM contribution WHERE fk_discourse = ?", discourseId);
+			//contributions without a stored discourse
+			collectBySet(con, "discourse_part", "SELECT 'contribution', dpc.fk_contribution FROM " + PURGE_TABLE
+					+ " p JOIN contribution_partof_discourse_part dpc ON dpc.fk_discourse_part = p.id");
+			collectByRange(con, "user", "m.id_user", "SELECT 'user', m.id_user FROM user_memberof_discourse m WHERE m.id_discourse = ? AND NOT EXISTS ("
+					+ "SELECT 1 FROM user_memberof_discourse o WHERE o.id_user = m.id_user AND o.id_discourse <> ?)", discourseId, discourseId);
+			collectDependents(con);
+			delete(con, report);
+
+			report.add("user_memberof_discourse", deleteLimited(con, "DELETE FROM user_memberof_discourse WHERE id_discourse = ?", discourseId));
+			report.add("discourse_has_discourse_part", deleteLimited(con, "DELETE FROM discourse_has_discourse_part WHERE fk_discourse = ?", discourseId));
+			//contributions of other discourses that have been assigned this discourse
+			deleteLimited(con, "UPDATE contribution SET fk_discourse = NULL WHERE fk_discourse = ?", discourseId);
+			try (PreparedStatement stmt = con.prepareStatement("DELETE FROM discourse WHERE id_discourse = ?")) {
+				stmt.setLong(1, discourseId);
+				report.add("discourse", stmt.executeUpdate());
+			}
+			clear(con);
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not purge discourse " + discourse.getName(), e);
+		}
+		dataSourceCache.clear();
+		importedSourceFilter.clear();
+		clearCaches();
+		report.finish();
+		log.info("Purged " + report);
+		return report;
+	}
+
+	/**
+	 * Adds the contents, annotations, data source aggregates and payloads of
+	 * the collected entities to the purge set.
+	 */
+	private void collectDependents(Connection con) throws SQLException {
+		collectBySet(con, "contribution", "SELECT 'content', x.fk_first_revision FROM " + PURGE_TABLE
+				+ " p JOIN contribution x ON x.id_contribution = p.id WHERE x.fk_first_revision IS NOT NULL");
+		collectBySet(con, "contribution", "SELECT 'content', x.fk_current_revision FROM " + PURGE_TABLE
+				+ " p JOIN contribution x ON x.id_contribution = p.id WHERE x.fk_current_revision IS NOT NULL");
+		collectBySet(con, "contribution", "SELECT 'content', c.id_content FROM " + PURGE_TABLE
+				+ " p JOIN contribution x ON x.id_contribution = p.id JOIN content c ON c.revision_root_id = x.fk_first_revision");
+		//revisions that have not been indexed yet are found by following the next revision links one revision at a time
+		long revisions;
+		do {
+			revisions = collectBySet(con, "content", "SELECT 'content', c.fk_next_revision FROM " + PURGE_TABLE
+					+ " p JOIN content c ON c.id_content = p.id WHERE c.fk_next_revision IS NOT NULL");
+		} while (revisions > 0);
+
+		//users that are still referenced as authors must be kept, together with everything they reference
+		try (Statement stmt = con.createStatement()) {
+			int kept = stmt.executeUpdate("DELETE p FROM " + PURGE_TABLE + " p JOIN content c ON c.fk_user_id = p.id LEFT JOIN " + PURGE_TABLE
+					+ " pc ON pc.entity = 'content' AND pc.id = c.id_content WHERE p.entity = 'user' AND pc.id IS NULL");
+			if (kept > 0) {
+				log.info("Keeping " + kept + " users that are authors of contents that are not purged.");
+			}
+		}
+
+		for (String[] table : ANNOTATABLE) {
+			collectBySet(con, table[0], "SELECT 'annotation_aggregate', x.fk_annotation FROM " + PURGE_TABLE + " p JOIN `" + table[0]
+					+ "` x ON x." + table[1] + " = p.id WHERE x.fk_annotation IS NOT NULL");
+		}
+		for (String[] relation : ANNOTATABLE_RELATIONS) {
+			collectBySet(con, relation[2], "SELECT 'annotation_aggregate', r.fk_annotation FROM " + PURGE_TABLE + " p JOIN " + relation[0]
+					+ " r ON r." + relation[1] + " = p.id WHERE r.fk_annotation IS NOT NULL");
+		}
+		collectBySet(con, "annotation_aggregate", "SELECT 'annotation_instance', a.id_annotation_instance FROM " + PURGE_TABLE
+				+ " p JOIN annotation_instance a ON a.fk_annotation = p.id");
+		for (String[] table : SOURCED) {
+			collectBySet(con, table[0], "SELECT 'data_source_aggregate', x.fk_data_sources FROM " + PURGE_TABLE + " p JOIN `" + table[0]
+					+ "` x ON x." + table[1] + " = p.id WHERE x.fk_data_sources IS NOT NULL");
+		}
+		keepReferencedAggregates(con);
+		collectBySet(con, "content", "SELECT 'content_payload', c.fk_payload FROM " + PURGE_TABLE
+				+ " p JOIN content c ON c.id_content = p.id WHERE c.fk_payload IS NOT NULL");
+	}
+
+	/**
+	 * Removes the data source aggregates that are still referenced by an entity
+	 * that is not purged from the purge set. Aggregates are collected for the
+	 * sources of a purged dataset before the users that are still authors of
+	 * other contents are removed from the purge set, so a kept entity may
+	 * reference a collected aggregate. The aggregate is kept together with all
+	 * of its sources, which otherwise would be deleted from under the entity.
+	 */
+	private void keepReferencedAggregates(Connection con) throws SQLException {
+		for (String[] table : SOURCED) {
+			long kept = executeBySet(con, "data_source_aggregate", "DELETE p FROM " + PURGE_TABLE + " p JOIN `" + table[0]
+					+ "` x ON x.fk_data_sources = p.id LEFT JOIN " + PURGE_TABLE + " px ON px.entity = '" + table[0] + "' AND px.id = x."
+					+ table[1] + " WHERE px.id IS NULL");
+			if (kept > 0) {
+				log.info("Keeping " + kept + " data source aggregates of " + table[0] + " entities that are not purged.");
+			}
+		}
+	}
+
+	/**
+	 * Deletes the collected entities and all rows that reference them in dependency order.
+	 */
+	private void delete(Connection con, PurgeReport report) throws SQLException {
+		report.add("feature", deleteBySet(con, "feature", "fk_annotation_instance", "annotation_instance"));
+		report.add("annotation_instance", deleteBySet(con, "annotation_instance", "id_annotation_instance", "annotation_instance"));
+		for (String[] relation : RELATIONS) {
+			report.add(relation[0], deleteBySet(con, relation[0], relation[1], relation[2]));
+		}
+		report.add("contribution", deleteBySet(con, "contribution", "id_contribution", "contribution"));
+
+		//revisions reference each other and have to be unlinked before they can be deleted in chunks
+		executeBySet(con, "content", "UPDATE content c JOIN " + PURGE_TABLE + " p ON p.id = c.id_content SET c.fk_previous_revision = NULL, c.fk_next_revision = NULL");
+		executeBySet(con, "content", "UPDATE content c JOIN " + PURGE_TABLE + " p ON p.id = c.fk_previous_revision SET c.fk_previous_revision = NULL");
+		executeBySet(con, "content", "UPDATE content c JOIN " + PURGE_TABLE + " p ON p.id = c.fk_next_revision SET c.fk_next_revision = NULL");
+		report.add("content", deleteBySet(con, "content", "id_content", "content"));
+
+		report.add("user", deleteBySet(con, "user", "id_user", "user"));
+		report.add("discourse_part", deleteBySet(con, "discourse_part", "id_discourse_part", "discourse_part"));
+		report.add("group", deleteBySet(con, "group", "id_group", "group"));
+		report.add("audience", deleteBySet(con, "audience", "id_audience", "audience"));
+		report.add("annotation_aggregate", deleteBySet(con, "annotation_aggregate", "id_annotation", "annotation_aggregate"));
+		report.add("data_source_instance", deleteBySet(con, "data_source_instance", "fk_sources", "data_source_aggregate"));
+		report.add("data_source_aggregate", deleteBySet(con, "data_source_aggregate", "id_data_sources", "data_source_aggregate"));
+
+		//payloads can be shared with contents that are not purged
+		report.add("content_payload", executeBySet(con, "content_payload", "DELETE cp FROM content_payload cp JOIN " + PURGE_TABLE
+				+ " p ON p.id = cp.id_content_payload LEFT JOIN content c ON c.fk_payload = cp.id_content_payload WHERE c.id_content IS NULL"));
+	}
+
+	private void prepare(Connection con) throws SQLException {
+		try (Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + PURGE_TABLE + " (entity VARCHAR(32) NOT NULL, id BIGINT NOT NULL, PRIMARY KEY (entity, id))");
+		}
+		clear(con);
+	}
+
+	private void clear(Connection con) throws SQLException {
+		try (Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("TRUNCATE TABLE " + PURGE_TABLE);
+		}
+	}
+
+	private void clearCaches() {
+		userCache.clear();
+		discourseRegistry.clear();
+		revisionTextCache.clear();
+		entityManagerFactory.getCache().evictAll();
+	}
+
+	/**
+	 * Adds the (entity, id) pairs selected by the given query to the purge set.
+	 * The query has to end with a WHERE clause and is executed for chunks of
+	 * the ids of the given table, which are selected by the given (qualified) id column.
+	 */
+	private void collectByRange(Connection con, String table, String idColumn, String select, Object... params) throws SQLException {
+		long maxId;
+		try (Statement stmt = con.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT MAX(" + idColumn.substring(idColumn.indexOf('.') + 1) + ") FROM `" + table + "`")) {
+			rs.next();
+			maxId = rs.getLong(1);
+		}
+		long collected = 0;
+		try (PreparedStatement stmt = con.prepareStatement("INSERT IGNORE INTO " + PURGE_TABLE + " (entity, id) " + select
+				+ " AND " + idColumn + " > ? AND " + idColumn + " <= ?")) {
+			for (long from = 0; from < maxId; from += CHUNK_SIZE) {
+				int index = bind(stmt, params);
+				stmt.setLong(index++, from);
+				stmt.setLong(index, from + CHUNK_SIZE);
+				collected += stmt.executeUpdate();
+			}
+		}
+		log.info("Collected " + collected + " rows to purge from " + table + ".");
+	}
+
+	/**
+	 * Adds the (entity, id) pairs selected by the given query to the purge set.
+	 * The query joins the purge set as p and is executed for chunks of the collected ids of the given entity.
+	 * 
+	 * @return the number of pairs that have been added
+	 */
+	private long collectBySet(Connection con, String entity, String select) throws SQLException {
+		long collected = executeBySet(con, entity, "INSERT IGNORE INTO " + PURGE_TABLE + " (entity, id) " + select);
+		if (collected > 0) {
+			log.info("Collected " + collected + " rows to purge that depend on " + entity + ".");
+		}
+		return collected;
+	}
+
+	/**
+	 * Deletes the rows of the given table that reference the collected ids of the given entity.
+	 */
+	private long deleteBySet(Connection con, String table, String column, String entity) throws SQLException {
+		long deleted = executeBySet(con, entity, "DELETE t FROM `" + table + "` t JOIN " + PURGE_TABLE + " p ON p.id = t." + column);
+		if (deleted > 0) {
+			log.info("Deleted " + deleted + " rows from " + table + ".");
+		}
+		return deleted;
+	}
+
+	/**
+	 * Executes the given statement, which refers to the purge set as p, for chunks of the collected ids of the given entity.
+	 * Each chunk is committed on its own.
+	 */
+	private long executeBySet(Connection con, String entity, String sql) throws SQLException {
+		String condition = "p.entity = ? AND p.id > ? AND p.id <= ?";
+		String chunkSql = sql.contains(" WHERE ") ? sql.replaceFirst(" WHERE ", " WHERE " + condition + " AND ") : sql + " WHERE " + condition;
+		long rows = 0;
+		try (PreparedStatement bound = con.prepareStatement("SELECT MAX(id) FROM (SELECT id FROM " + PURGE_TABLE
+				+ " WHERE entity = ? AND id > ? ORDER BY id LIMIT " + CHUNK_SIZE + ") chunk");
+				PreparedStatement stmt = con.prepareStatement(chunkSql)) {
+			long from = 0;
+			while (true) {
+				bound.setString(1, entity);
+				bound.setLong(2, from);
+				long to;
+				try (ResultSet rs = bound.executeQuery()) {
+					rs.next();
+					to = rs.getLong(1);
+					if (rs.wasNull()) {
+						break;
+					}
+				}
+				stmt.setString(1, entity);
+				stmt.setLong(2, from);
+				stmt.setLong(3, to);
+				rows += stmt.executeUpdate();
+				from = to;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Repeats the given single-table statement with a row limit until it does not affect any rows.
+	 */
+	private long deleteLimited(Connection con, String sql, Object... params) throws SQLException {
+		long rows = 0;
+		try (PreparedStatement stmt = con.prepareStatement(sql + " LIMIT " + CHUNK_SIZE)) {
+			bind(stmt, params);
+			int affected;
+			while ((affected = stmt.executeUpdate()) > 0) {
+				rows += affected;
+			}
+		}
+		return rows;
+	}
+
+	private Connection connection() throws SQLException {
+		Connection con = dataSource.getConnection();
+		con.setAutoCommit(true);
+		return con;
+	}
+
+	private static int bind(PreparedStatement stmt, Object... params) throws SQLException {
+		int index = 1;
+		for (Object param : params) {
+			stmt.setObject(index++, param);
+		}
+		return index;
+	}
+
+}
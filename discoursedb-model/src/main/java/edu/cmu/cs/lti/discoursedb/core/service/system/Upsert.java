@@ -0,0 +1,74 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.model.BaseEntity;
+
+/**
+ * Describes a single get-or-create operation that is executed by the
+ * {@link UpsertService}. Key columns identify the row (they have to be covered
+ * by a unique constraint of the table), value columns are only written if a
+ * new row is inserted.<br/>
+ *
+ * Column values may be entities, in which case their primary key is used.
+ *
+ * @param <T> the entity type of the target table
+ */
+public class Upsert<T extends BaseEntity> {
+
+	private final Class<T> entityClass;
+	private final Map<String, Object> keys = new LinkedHashMap<>();
+	private final Map<String, Object> values = new LinkedHashMap<>();
+
+	public Upsert(Class<T> entityClass) {
+		Assert.notNull(entityClass, "Entity class cannot be null.");
+		this.entityClass = entityClass;
+	}
+
+	/**
+	 * @param column the name of a column that is part of the natural key of the row
+	 * @param value the value of the column or an entity. Cannot be null, since unique constraints never consider null values equal.
+	 * @return this upsert
+	 */
+	public Upsert<T> key(String column, Object value) {
+		Assert.hasText(column, "Column name cannot be empty.");
+		keys.put(column, value);
+		return this;
+	}
+
+	/**
+	 * @param column the name of a column that is only written when a new row is inserted
+	 * @param value the value of the column, an entity or null
+	 * @return this upsert
+	 */
+	public Upsert<T> value(String column, Object value) {
+		Assert.hasText(column, "Column name cannot be empty.");
+		values.put(column, value);
+		return this;
+	}
+
+	public Class<T> getEntityClass() {
+		return entityClass;
+	}
+
+	public Map<String, Object> getKeys() {
+		return Collections.unmodifiableMap(keys);
+	}
+
+	public Map<String, Object> getValues() {
+		return Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * @return true, if one of the key columns is null. Null values are never
+	 *         considered equal by unique constraints, so such an upsert cannot be executed.
+	 */
+	public boolean hasNullKey() {
+		return keys.values().contains(null);
+	}
+
+}
@@ -0,0 +1,221 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.Session;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.hateoas.Identifiable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.model.BaseEntity;
+import edu.cmu.cs.lti.discoursedb.core.model.TypeCodes;
+import edu.cmu.cs.lti.discoursedb.core.model.TypedBE;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Executes get-or-create operations for relation entities with a single
+ * native statement instead of a query followed by an insert.<br/>
+ *
+ * The key columns have to be covered by a unique constraint of the table
+ * and cannot be null, since unique constraints never consider null values
+ * equal. On MySQL, an <code>INSERT ... ON DUPLICATE KEY UPDATE</code>
+ * statement is used. On other databases (e.g. H2), a conditional
+ * <code>INSERT ... SELECT ... WHERE NOT EXISTS</code> statement is used
+ * instead. If a parallel writer inserts the same key between the check and
+ * the insert, the unique constraint rejects the insert and the row of the
+ * other writer is selected. Both are safe with parallel writers.<br/>
+ *
+ * Since the row is written without the persistence context, the persistence
+ * context is only flushed if the upsert references an entity that has not
+ * been inserted yet, e.g. an entity with a pooled id that is still waiting
+ * for the next flush. The resulting entity is returned as a lazily loaded
+ * reference.
+ */
+@Service
+@Transactional(propagation = Propagation.REQUIRED, readOnly = false)
+@RequiredArgsConstructor(onConstructor = @__(@Autowired) )
+public class UpsertService {
+
+	private static final String TYPE_COLUMN = "type";
+
+	/**
+	 * SQLSTATE class of unique constraint violations
+	 */
+	private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+	private final @NonNull @PersistenceContext EntityManager entityManager;
+
+	/**
+	 * Retrieves the row with the key columns of the given upsert or inserts a
+	 * new row with the key and value columns if it does not exist yet.
+	 *
+	 * @param upsert
+	 *            the upsert to execute
+	 * @return a reference to the existing or newly created entity
+	 */
+	public <T extends BaseEntity> T upsert(Upsert<T> upsert) {
+		Assert.notNull(upsert, "Upsert cannot be null.");
+		Assert.notEmpty(upsert.getKeys(), "Upsert needs at least one key column.");
+		Assert.isTrue(!upsert.hasNullKey(), "Key columns of an upsert cannot be null.");
+
+		SessionImplementor session = (SessionImplementor) entityManager.unwrap(Session.class);
+		if (referencesPendingEntity(session, upsert)) {
+			entityManager.flush();
+		}
+		AbstractEntityPersister persister = (AbstractEntityPersister) session.getFactory()
+				.getEntityPersister(upsert.getEntityClass().getName());
+		boolean mysql = session.getFactory().getDialect() instanceof MySQLDialect;
+
+		String table = persister.getTableName();
+		String idColumn = persister.getIdentifierColumnNames()[0];
+
+		//only table based generators hand out ids in advance, identity columns are filled by the database
+		Serializable generatedId = persister.getIdentifierGenerator().generate(session, null);
+
+		Map<String, Object> columns = new LinkedHashMap<>();
+		if (generatedId instanceof Number) {
+			columns.put(idColumn, generatedId);
+		}
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		columns.put("entity_version", 0L);
+		columns.put("entity_created", now);
+		columns.put("entity_modified", now);
+		Map<String, Object> keys = encodeType(upsert.getEntityClass(), upsert.getKeys());
+		columns.putAll(encodeType(upsert.getEntityClass(), upsert.getValues()));
+		columns.putAll(keys);
+
+		Long id = ((Session) session).doReturningWork(connection -> {
+			if (mysql) {
+				return insertOnDuplicateKey(connection, table, idColumn, columns, generatedId);
+			} else {
+				return insertIfNotExists(connection, table, idColumn, columns, keys);
+			}
+		});
+		return entityManager.getReference(upsert.getEntityClass(), id);
+	}
+
+	private Long insertOnDuplicateKey(Connection connection, String table, String idColumn, Map<String, Object> columns,
+			Serializable generatedId) throws SQLException {
+		//the affected rows cannot tell inserts from existing rows, since Connector/J reports found rows by default.
+		//LAST_INSERT_ID() is set by the database for generated ids, by LAST_INSERT_ID(?) for pre-generated ids
+		//and by the update clause for existing rows, so it always holds the id of the resulting row.
+		List<String> values = new ArrayList<>();
+		for (String column : columns.keySet()) {
+			values.add(column.equals(idColumn) && generatedId instanceof Number ? "LAST_INSERT_ID(?)" : "?");
+		}
+		String sql = "INSERT INTO " + table + " (" + String.join(", ", columns.keySet()) + ") VALUES ("
+				+ String.join(", ", values) + ") ON DUPLICATE KEY UPDATE " + idColumn + " = LAST_INSERT_ID(" + idColumn + ")";
+		try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+			bind(stmt, 1, columns.values());
+			stmt.executeUpdate();
+		}
+		try (PreparedStatement stmt = connection.prepareStatement("SELECT LAST_INSERT_ID()");
+				ResultSet rs = stmt.executeQuery()) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+
+	private Long insertIfNotExists(Connection connection, String table, String idColumn, Map<String, Object> columns,
+			Map<String, Object> keys) throws SQLException {
+		String keyCondition = keys.keySet().stream().map(column -> column + " = ?").collect(Collectors.joining(" AND "));
+
+		String sql = "INSERT INTO " + table + " (" + String.join(", ", columns.keySet()) + ") SELECT "
+				+ placeholders(columns.size()) + " FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM " + table + " WHERE "
+				+ keyCondition + ")";
+		SQLException duplicateKey = null;
+		try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+			int index = bind(stmt, 1, columns.values());
+			bind(stmt, index, keys.values());
+			stmt.executeUpdate();
+		} catch (SQLException e) {
+			//a parallel writer has inserted the key after the NOT EXISTS check, so its row is selected instead
+			if (e.getSQLState() == null || !e.getSQLState().startsWith(INTEGRITY_CONSTRAINT_VIOLATION)) {
+				throw e;
+			}
+			duplicateKey = e;
+		}
+		//the unique constraint allows a single row, the order only matters for tables that still contain duplicates
+		try (PreparedStatement stmt = connection.prepareStatement("SELECT " + idColumn + " FROM " + table + " WHERE " + keyCondition
+				+ " ORDER BY " + idColumn + " LIMIT 1")) {
+			bind(stmt, 1, keys.values());
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (!rs.next()) {
+					throw duplicateKey != null ? duplicateKey : new SQLException("Upserted row of " + table + " could not be selected.");
+				}
+				return rs.getLong(1);
+			}
+		}
+	}
+
+	/**
+	 * @return true, if a key or value of the upsert is an entity of the persistence context that has not been inserted yet
+	 */
+	private static boolean referencesPendingEntity(SessionImplementor session, Upsert<?> upsert) {
+		return Stream.concat(upsert.getKeys().values().stream(), upsert.getValues().values().stream())
+				.filter(value -> value instanceof BaseEntity)
+				.map(value -> session.getPersistenceContext().getEntry(value))
+				.anyMatch(entry -> entry != null && !entry.isExistsInDatabase());
+	}
+
+	/**
+	 * The type of typed entities is written as a code of the type dictionary, just like the TypeCodeConverter does.
+	 */
+	private static Map<String, Object> encodeType(Class<?> entityClass, Map<String, Object> columns) {
+		if (!TypedBE.class.isAssignableFrom(entityClass) || !(columns.get(TYPE_COLUMN) instanceof String)) {
+			return columns;
+		}
+		Map<String, Object> encoded = new LinkedHashMap<>(columns);
+		encoded.put(TYPE_COLUMN, TypeCodes.codeOf((String) columns.get(TYPE_COLUMN)));
+		return encoded;
+	}
+
+	private static String placeholders(int count) {
+		List<String> placeholders = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			placeholders.add("?");
+		}
+		return String.join(", ", placeholders);
+	}
+
+	private static int bind(PreparedStatement stmt, int startIndex, Iterable<Object> values) throws SQLException {
+		int index = startIndex;
+		for (Object value : values) {
+			stmt.setObject(index++, toJdbcValue(value));
+		}
+		return index;
+	}
+
+	private static Object toJdbcValue(Object value) {
+		if (value instanceof Identifiable) {
+			Object id = ((Identifiable<?>) value).getId();
+			Assert.notNull(id, "Referenced entities have to be saved before they can be used in an upsert.");
+			return id;
+		} else if (value instanceof java.util.Date && !(value instanceof Timestamp)) {
+			return new Timestamp(((java.util.Date) value).getTime());
+		}
+		return value;
+	}
+
+}
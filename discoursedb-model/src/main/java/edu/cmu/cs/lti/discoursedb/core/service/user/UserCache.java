@@ -0,0 +1,106 @@
+package edu.cmu.cs.lti.discoursedb.core.service.user;
+
+import java.util.Collections;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.cmu.cs.lti.discoursedb.core.service.cache.LruCache;
+import lombok.Data;
+
+/**
+ * Maps usernames and (sourceId, datasetName) pairs to the primary key of the
+ * corresponding User within the scope of a Discourse so that importers do not
+ * have to query the user_memberof_discourse table for every contribution of a
+ * repeated author.<br/>
+ *
+ * The cache is populated by the UserService whenever a user is created or
+ * found in the database and invalidated whenever a user is saved or deleted.
+ * Users created by a transaction are only cached for other transactions once
+ * it has been committed. Cached ids are only hints. If a loaded user no longer
+ * exists, the UserService evicts the entry and falls back to the database. The maximum
+ * number of entries can be configured with the discoursedb.cache.user.size
+ * property (0 disables the cache).
+ */
+@Component
+public class UserCache {
+
+	private final LruCache<UserKey, Long> cache;
+
+	@Autowired
+	public UserCache(@Value("${discoursedb.cache.user.size:100000}") int maxSize) {
+		this.cache = new LruCache<>(maxSize, true, key -> Collections.singletonList(key.getDiscourseId()));
+	}
+
+	public Long getByUsername(Long discourseId, String username) {
+		return cache.get(new UserKey(discourseId, username, null, null));
+	}
+
+	public void putByUsername(Long discourseId, String username, Long userId) {
+		cache.putAfterCommit(new UserKey(discourseId, username, null, null), userId);
+	}
+
+	public Long getBySource(Long discourseId, String sourceId, String datasetName) {
+		return cache.get(new UserKey(discourseId, null, sourceId, datasetName));
+	}
+
+	public void putBySource(Long discourseId, String sourceId, String datasetName, Long userId) {
+		cache.putAfterCommit(new UserKey(discourseId, null, sourceId, datasetName), userId);
+	}
+
+	/**
+	 * Removes all cached lookups that resolve to the given user.
+	 *
+	 * @param userId the primary key of the user to evict
+	 */
+	public void evictUser(Long userId) {
+		cache.removeValue(userId);
+	}
+
+	/**
+	 * Removes all cached users of the given discourse.
+	 *
+	 * @param discourseId the primary key of the discourse to evict
+	 */
+	public void evictDiscourse(Long discourseId) {
+		cache.removeGroup(discourseId);
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public long getHits() {
+		return cache.getHits();
+	}
+
+	public long getMisses() {
+		return cache.getMisses();
+	}
+
+	public long getEvictions() {
+		return cache.getEvictions();
+	}
+
+	@Override
+	public String toString() {
+		return "UserCache(" + cache + ")";
+	}
+
+	/**
+	 * Either username or sourceId and datasetName are set.
+	 */
+	@Data
+	private static class UserKey {
+		private final Long discourseId;
+		private final String username;
+		private final String sourceId;
+		private final String datasetName;
+	}
+
+}
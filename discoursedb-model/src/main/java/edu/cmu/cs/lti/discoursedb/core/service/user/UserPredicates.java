@@ -1,9 +1,13 @@
 package edu.cmu.cs.lti.discoursedb.core.service.user;
 
+import com.mysema.query.jpa.JPASubQuery;
+import com.mysema.query.types.Predicate;
 import com.mysema.query.types.expr.BooleanExpression;
 
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.QDiscourse;
 import edu.cmu.cs.lti.discoursedb.core.model.user.QUser;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourcePredicates;
 import edu.cmu.cs.lti.discoursedb.core.type.DataSourceTypes;
 
 public final class UserPredicates {
@@ -12,19 +16,32 @@ public final class UserPredicates {
 	}
 
 	/**
-	 * Checks whether a user is associated with the given source id in any of their data source
+	 * Checks whether a user stores the given source id inline in their primary source.
+	 * Users that store the source id in their DataSourceAggregate have to be looked up with
+	 * {@link #hasAggregatedSource(Predicate)} in a separate query, since a condition that
+	 * matches either of them cannot use an index.
 	 * 
-	 * @param sourceId the source id to check in the list of DataSourceInstances associated with the user
+	 * @param sourceId the source id of the primary source of the user
 	 * @return
 	 */
-	public static BooleanExpression hasSourceId(String sourceId) {
+	public static BooleanExpression hasPrimarySourceId(String sourceId) {
 		if (sourceId == null || sourceId.isEmpty()) {
 			return QUser.user.isNull();
 		} else {
-			return QUser.user.dataSourceAggregate.sources.any().entitySourceId.eq(sourceId);
+			return QUser.user.primarySource.entitySourceId.eq(sourceId);
 		}
 	}
 
+	/**
+	 * Checks whether the DataSourceAggregate of a user contains a source that satisfies the given predicate
+	 * 
+	 * @param sourcePredicate a predicate on the DataSourceInstances, see DataSourcePredicates
+	 * @return
+	 */
+	public static BooleanExpression hasAggregatedSource(Predicate sourcePredicate) {
+		return DataSourcePredicates.aggregateHasSource(QUser.user.dataSourceAggregate, sourcePredicate);
+	}
+
 	/**
 	 * Checks whether a user has the given username
 	 * 
@@ -40,7 +57,9 @@ public final class UserPredicates {
 	}
 
 	/**
-	 * Checks whether a user is associated with the given discourse
+	 * Checks whether a user is associated with the given discourse.
+	 * The members of the discourse are looked up in an uncorrelated subquery, so that the
+	 * users are retrieved by their primary key instead of checking the memberships of every user.
 	 * 
 	 * @param discourse the discourse to check 
 	 * @return
@@ -49,35 +68,39 @@ public final class UserPredicates {
 		if (discourse == null) {
 			return QUser.user.isNull();
 		} else {
-			return QUser.user.discourses.contains(discourse);
+			//"member" is a keyword of JPQL and cannot be used as an alias
+			QUser discourseMember = new QUser("discourseMember");
+			QDiscourse memberDiscourse = new QDiscourse("memberDiscourse");
+			return QUser.user.in(new JPASubQuery().from(discourseMember).join(discourseMember.discourses, memberDiscourse)
+					.where(memberDiscourse.eq(discourse)).list(discourseMember));
 		}
 	}
 	
 	/**
-	 * Checks whether a user is associated with a data source of the given type (e.g. EDX)
+	 * Checks whether the primary source of a user has the given type (e.g. EDX)
 	 * 
 	 * @param type the data source type
 	 * @return
 	 */
-	public static BooleanExpression hasDataSourceType(DataSourceTypes type) {
+	public static BooleanExpression hasPrimaryDataSourceType(DataSourceTypes type) {
 		if (type == null) {
 			return QUser.user.isNull();
 		} else {
-			return QUser.user.dataSourceAggregate.sources.any().sourceType.eq(type);
+			return QUser.user.primarySource.sourceType.eq(type);
 		}
 	}
 
 	/**
-	 * Checks whether a User is associated with a given dataset.
+	 * Checks whether the primary source of a user belongs to the given dataset.
 	 * 
 	 * @param dataSetName name of the dataset
 	 * @return 
 	 */
-	public static BooleanExpression hasDataSet(String dataSetName) {
+	public static BooleanExpression hasPrimaryDataSet(String dataSetName) {
 		if (dataSetName == null || dataSetName.isEmpty()) {
 			return QUser.user.isNull();
 		} else {
-			return QUser.user.dataSourceAggregate.sources.any().datasetName.eq(dataSetName);
+			return QUser.user.primarySource.datasetName.eq(dataSetName);
 		}
-	}	
+	}
 }
@@ -1,16 +1,27 @@
 package edu.cmu.cs.lti.discoursedb.core.service.user;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.Predicate;
+
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationAggregate;
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
@@ -19,13 +30,18 @@ import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.user.ContributionInteraction;
 import edu.cmu.cs.lti.discoursedb.core.model.user.DiscoursePartInteraction;
+import edu.cmu.cs.lti.discoursedb.core.model.user.QUser;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import edu.cmu.cs.lti.discoursedb.core.model.user.UserRelation;
-import edu.cmu.cs.lti.discoursedb.core.repository.user.ContributionInteractionRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.user.DiscoursePartInteractionRepository;
-import edu.cmu.cs.lti.discoursedb.core.repository.user.UserRelationRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.user.UserRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.NaturalKeyLocks;
+import edu.cmu.cs.lti.discoursedb.core.service.cache.CachedReferences;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourcePredicates;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
+import edu.cmu.cs.lti.discoursedb.core.service.system.Keyset;
+import edu.cmu.cs.lti.discoursedb.core.service.system.Upsert;
+import edu.cmu.cs.lti.discoursedb.core.service.system.UpsertService;
 import edu.cmu.cs.lti.discoursedb.core.type.ContributionInteractionTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.DataSourceTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartInteractionTypes;
@@ -40,9 +56,11 @@ public class UserService {
 
 	private final @NonNull UserRepository userRepo;
 	private final @NonNull DataSourceService dataSourceService;
-	private final @NonNull UserRelationRepository userRelationRepo;
-	private final @NonNull ContributionInteractionRepository contribInteractionRepo;
 	private final @NonNull DiscoursePartInteractionRepository discoursePartInteractionRepo;
+	private final @NonNull UserCache userCache;
+	private final @NonNull UpsertService upsertService;
+	private final @NonNull NaturalKeyLocks naturalKeyLocks;
+	private final @NonNull @PersistenceContext EntityManager entityManager;
 
 	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
 	public Optional<User> findUserByDiscourseAndSourceIdAndSourceType(Discourse discourse, String sourceId,
@@ -51,8 +69,11 @@ public class UserService {
 		Assert.hasText(sourceId, "The sourceId cannot be empty.");
 		Assert.notNull(type, "You have to provide a datasource type.");
 
-		return Optional.ofNullable(userRepo.findOne(UserPredicates.hasDiscourse(discourse)
-				.and(UserPredicates.hasSourceId(sourceId)).and(UserPredicates.hasDataSourceType(type))));
+		return findOneBySource(
+				UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasPrimarySourceId(sourceId))
+						.and(UserPredicates.hasPrimaryDataSourceType(type)),
+				UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasAggregatedSource(
+						DataSourcePredicates.hasSourceId(sourceId).and(DataSourcePredicates.hasSourceType(type)))));
 	}
 
 	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
@@ -62,8 +83,11 @@ public class UserService {
 		Assert.hasText(sourceId, "The sourceId cannot be empty.");
 		Assert.hasText(dataSetName, "The dataset name cannot be empty.");
 
-		return Optional.ofNullable(userRepo.findOne(UserPredicates.hasDiscourse(discourse)
-				.and(UserPredicates.hasSourceId(sourceId)).and(UserPredicates.hasDataSet(dataSetName))));
+		return findOneBySource(
+				UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasPrimarySourceId(sourceId))
+						.and(UserPredicates.hasPrimaryDataSet(dataSetName)),
+				UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasAggregatedSource(
+						DataSourcePredicates.hasSourceId(sourceId).and(DataSourcePredicates.hasDataSetName(dataSetName)))));
 	}
 
 	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
@@ -71,8 +95,8 @@ public class UserService {
 		Assert.notNull(discourse, "The discourse cannot be null.");
 		Assert.hasText(sourceId, "The sourceId cannot be empty.");
 
-		return Optional.ofNullable(
-				userRepo.findOne(UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasSourceId(sourceId))));
+		return findOneBySource(UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasPrimarySourceId(sourceId)),
+				UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasAggregatedSource(DataSourcePredicates.hasSourceId(sourceId))));
 	}
 
 	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
@@ -80,15 +104,29 @@ public class UserService {
 		Assert.hasText(sourceId, "The sourceId cannot be empty.");
 		Assert.hasText(username, "The username cannot be empty.");
 
-		return Optional.ofNullable(
-				userRepo.findOne(UserPredicates.hasSourceId(sourceId).and(UserPredicates.hasUserName(username))));
+		return findOneBySource(UserPredicates.hasPrimarySourceId(sourceId).and(UserPredicates.hasUserName(username)),
+				UserPredicates.hasAggregatedSource(DataSourcePredicates.hasSourceId(sourceId)).and(UserPredicates.hasUserName(username)));
 	}
 
 	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
 	public Iterable<User> findUsersBySourceId(String sourceId) {
 		Assert.hasText(sourceId, "The sourceId cannot be empty.");
 
-		return userRepo.findAll(UserPredicates.hasSourceId(sourceId));
+		Set<User> users = new LinkedHashSet<>();
+		userRepo.findAll(UserPredicates.hasPrimarySourceId(sourceId)).forEach(users::add);
+		userRepo.findAll(UserPredicates.hasAggregatedSource(DataSourcePredicates.hasSourceId(sourceId))).forEach(users::add);
+		return users;
+	}
+
+	/**
+	 * Looks up a user by a source that is stored inline and, if no user has
+	 * been found, by a source in the DataSourceAggregates. The two lookups are
+	 * separate queries, since a single condition that matches either of them
+	 * cannot use the indexes on the source columns.
+	 */
+	private Optional<User> findOneBySource(Predicate byPrimarySource, Predicate byAggregatedSource) {
+		User user = userRepo.findOne(byPrimarySource);
+		return Optional.ofNullable(user != null ? user : userRepo.findOne(byAggregatedSource));
 	}
 	
 	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
@@ -97,6 +135,45 @@ public class UserService {
 		return userRepo.findAll(UserPredicates.hasDiscourse(discourse));
 	}
 
+	/**
+	 * Checks whether the given user is a member of the given discourse. The
+	 * membership is looked up in the user_memberof_discourse table unless the
+	 * discourses of the user have already been loaded.
+	 * 
+	 * @param user
+	 *            the user
+	 * @param discourse
+	 *            the discourse
+	 * @return true, if the user is a member of the discourse
+	 */
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	public boolean isMember(User user, Discourse discourse) {
+		Assert.notNull(user, "User cannot be null.");
+		Assert.notNull(discourse, "Discourse cannot be null.");
+
+		if (user.getId() == null || discourse.getId() == null || Hibernate.isInitialized(user.getDiscourses())) {
+			return user.getDiscourses().contains(discourse);
+		}
+		return !userRepo.findMembership(user.getId(), discourse.getId()).isEmpty();
+	}
+
+	/**
+	 * Retrieves the ids of all members of the given discourse without loading
+	 * the users.
+	 * 
+	 * @param discourse
+	 *            the discourse
+	 * @return the ids of the members of the discourse in ascending order
+	 */
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	public List<Long> findUserIdsInDiscourse(Discourse discourse) {
+		Assert.notNull(discourse, "Discourse cannot be null.");
+		if (discourse.getId() == null) {
+			return new ArrayList<>();
+		}
+		return userRepo.findUserIdsByDiscourseId(discourse.getId()).stream().map(Number::longValue).collect(Collectors.toList());
+	}
+
 	/**
 	 * Returns a User object with the given username and a given discourse if it
 	 * exists or creates a new User entity with that username and that
@@ -113,15 +190,30 @@ public class UserService {
 		Assert.notNull(discourse, "Discourse cannot be null.");
 		Assert.hasText(username, "Username cannot be empty.");
 
-		return Optional.ofNullable(userRepo.findOne(UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasUserName(username)))).
-				orElseGet(() -> {
-					User curUser = new User(discourse);
-					curUser.setUsername(username);
-					return save(curUser);
-					}
-				);
+		Long discourseId = discourse.getId();
+		if (discourseId != null) {
+			Optional<User> cachedUser = findCachedUser(userCache.getByUsername(discourseId, username), u -> username.equals(u.getUsername()));
+			if (cachedUser.isPresent()) {
+				return cachedUser.get();
+			}
 		}
 
+		return naturalKeyLocks.getOrCreate(User.class, () -> {
+			Discourse curDiscourse = attach(discourse);
+			User user = Optional.ofNullable(userRepo.findOne(UserPredicates.hasDiscourse(curDiscourse).and(UserPredicates.hasUserName(username)))).
+					orElseGet(() -> {
+						User curUser = new User(curDiscourse);
+						curUser.setUsername(username);
+						return save(curUser);
+						}
+					);
+			if (discourseId != null) {
+				userCache.putByUsername(discourseId, username, user.getId());
+			}
+			return user;
+		}, "user", discourseId != null ? discourseId : discourse.getName(), username);
+	}
+
 	/**
 	 * Returns a User object with the given source id and username if it exists
 	 * or creates a new User entity with that username, stores it in the
@@ -146,15 +238,62 @@ public class UserService {
 		Assert.notNull(dataSourceType, "You have to provide a datasource type.");
 		Assert.hasText(dataSetName, "Dataset name cannot be empty.");
 
-		return findUserByDiscourseAndSourceIdAndDataSet(discourse, sourceId, dataSetName).orElseGet(()->{
-			User curUser = new User(discourse);
-			curUser.setUsername(username);
-			curUser = userRepo.save(curUser);
-			dataSourceService.addSource(curUser,
-					new DataSourceInstance(sourceId, sourceIdDescriptor, dataSourceType, dataSetName));
-			return curUser;
+		Long discourseId = discourse.getId();
+		if (discourseId != null) {
+			Optional<User> cachedUser = findCachedUser(userCache.getBySource(discourseId, sourceId, dataSetName), u -> true);
+			if (cachedUser.isPresent()) {
+				return cachedUser.get();
+			}
+		}
+
+		return naturalKeyLocks.getOrCreate(User.class, () -> {
+			Discourse curDiscourse = attach(discourse);
+			User user = findUserByDiscourseAndSourceIdAndDataSet(curDiscourse, sourceId, dataSetName).orElseGet(()->{
+				User curUser = new User(curDiscourse);
+				curUser.setUsername(username);
+				curUser = userRepo.save(curUser);
+				dataSourceService.addSource(curUser,
+						new DataSourceInstance(sourceId, sourceIdDescriptor, dataSourceType, dataSetName));
+				return curUser;
+				}
+			);
+			if (discourseId != null) {
+				userCache.putBySource(discourseId, sourceId, dataSetName, user.getId());
 			}
-		);
+			return user;
+		}, "userSource", discourseId != null ? discourseId : discourse.getName(), sourceId, dataSetName);
+	}
+
+	/**
+	 * Obtains a saved discourse from the EntityManager of the current
+	 * transaction, since the get-or-create lookups of import workers run in a
+	 * transaction of their own.
+	 */
+	private Discourse attach(Discourse discourse) {
+		return discourse.getId() != null ? entityManager.getReference(Discourse.class, discourse.getId()) : discourse;
+	}
+
+	/**
+	 * Resolves a user id that has been obtained from the user cache, usually
+	 * as a reference that does not query the database. If the user has to be
+	 * loaded and does not exist anymore or does not pass the given check, all
+	 * cached lookups for that id are evicted.
+	 * 
+	 * @param userId
+	 *            the cached user id or null if the lookup was not cached
+	 * @param check
+	 *            verifies a loaded user against the key of the lookup
+	 * @return an Optional containing the cached user or an empty Optional if
+	 *         the lookup was not cached or the user does not exist anymore
+	 */
+	private Optional<User> findCachedUser(Long userId, java.util.function.Predicate<User> check) {
+		return CachedReferences.resolve(entityManager, User.class, userId, id -> {
+			Optional<User> user = userRepo.findOne(id).filter(check);
+			if (!user.isPresent()) {
+				userCache.evictUser(id);
+			}
+			return user;
+		});
 	}
 
 	/**
@@ -180,15 +319,10 @@ public class UserService {
 		Assert.notNull(type, "You have to provive a ContributionInteraction type.");
 
 		// Retrieve ContributionInteraction or create if it doesn't exist in db
-		return contribInteractionRepo
-				.findOneByUserAndContributionAndType(user, contrib, type.name()).orElseGet(()->{
-					ContributionInteraction contribInteraction = new ContributionInteraction();
-					contribInteraction.setContribution(contrib);
-					contribInteraction.setUser(user);
-					contribInteraction.setType(type.name());
-					return contribInteractionRepo.save(contribInteraction);
-					}
-				);
+		return upsertService.upsert(new Upsert<>(ContributionInteraction.class)
+				.key("fk_user", user)
+				.key("type", type.name())
+				.key("fk_contribution", contrib));
 	}
 
 	/**
@@ -243,15 +377,10 @@ public class UserService {
 		Assert.notNull(type, "Type cannot be null.");
 
 		// Retrieve UserRelation or create if it doesn't exist in db
-		return userRelationRepo.findOneBySourceAndTargetAndType(sourceUser,
-				targetUser, type.name()).orElseGet(()->{
-					UserRelation userRelation = new UserRelation();
-					userRelation.setSource(sourceUser);
-					userRelation.setTarget(targetUser);
-					userRelation.setType(type.name());
-					return userRelationRepo.save(userRelation);
-					}
-				);
+		return upsertService.upsert(new Upsert<>(UserRelation.class)
+				.key("fk_source", sourceUser)
+				.key("fk_target", targetUser)
+				.key("type", type.name()));
 	}
 
 	/**
@@ -299,7 +428,8 @@ public class UserService {
 
 	/**
 	 * Calls the save method of the user repository, saves the provided User
-	 * entity and returns it after the save process
+	 * entity and returns it after the save process. Cached lookups of the user
+	 * are invalidated, since the username might have changed.
 	 * 
 	 * @param user
 	 *            the user entity to save
@@ -308,6 +438,9 @@ public class UserService {
 	public User save(User user) {
 		Assert.notNull(user, "User cannot be null.");
 
+		if (user.getId() != null) {
+			userCache.evictUser(user.getId());
+		}
 		return userRepo.save(user);
 	}
 
@@ -324,6 +457,9 @@ public class UserService {
 		for (Discourse d : user.getDiscourses()) {
 			user.removeDiscourse(d);
 		}
+		if (user.getId() != null) {
+			userCache.evictUser(user.getId());
+		}
 		userRepo.delete(user);
 	}
 
@@ -341,6 +477,22 @@ public class UserService {
 		Assert.hasText(username, "Username cannot be empty.");
 		return userRepo.findAllByUsername(username);
 	}
+
+	/**
+	 * Keyset pagination over all users that match the given predicate ordered by id.
+	 * The predicate can be any of the predicates in {@link UserPredicates}.
+	 * In contrast to offset pagination, the cost of retrieving a slice does not grow with the number of slices that have already been retrieved.
+	 * 
+	 * @param predicate an optional predicate that restricts the users or null to page through all users
+	 * @param after the id of the last user of the previous slice or null to retrieve the first slice
+	 * @param size the maximum number of users in the slice
+	 * @return a slice of users with an id greater than the given id
+	 */
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	public Slice<User> findAllAfter(Predicate predicate, Long after, int size) {
+		QUser user = QUser.user;
+		return Keyset.afterId(new JPAQuery(entityManager).from(user), user, user.id, predicate, after, size);
+	}
 	
 	
 
@@ -0,0 +1,118 @@
+package edu.cmu.cs.lti.discoursedb.core;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import com.mysql.jdbc.jdbc2.optional.MysqlDataSource;
+
+import edu.cmu.cs.lti.discoursedb.configuration.ThreadClosureMigration;
+import edu.cmu.cs.lti.discoursedb.core.model.TypeCodes;
+
+/**
+ * Creates the DiscourseDB schema from the entities in an in-memory H2
+ * database in MySQL mode or in a scratch MySQL database, the same way
+ * BaseConfiguration does for MySQL.
+ */
+public final class TestDatabase {
+
+	private TestDatabase() {
+	}
+
+	/**
+	 * @param name the name of the in-memory database, which has to be unique per test class
+	 * @return a data source for a new in-memory database
+	 */
+	public static JdbcDataSource create(String name) {
+		JdbcDataSource database = new JdbcDataSource();
+		database.setURL("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+		return database;
+	}
+
+	/**
+	 * @return a data source for the scratch MySQL database that is configured with the system property
+	 *         discoursedb.test.mysql.url (and optionally discoursedb.test.mysql.user and discoursedb.test.mysql.password)
+	 *         or null if no scratch database is configured
+	 */
+	public static MysqlDataSource mysql() {
+		String url = System.getProperty("discoursedb.test.mysql.url");
+		if (url == null) {
+			return null;
+		}
+		MysqlDataSource database = new MysqlDataSource();
+		database.setURL(url);
+		database.setUser(System.getProperty("discoursedb.test.mysql.user", "root"));
+		database.setPassword(System.getProperty("discoursedb.test.mysql.password", ""));
+		return database;
+	}
+
+	/**
+	 * Initializes the type codes and generates the schema.
+	 *
+	 * @param database the database to create the schema in
+	 * @param connections the data source the EntityManagerFactory connects with, e.g. a wrapper of the database
+	 * @return the initialized factory bean, which has to be destroyed after the test
+	 */
+	public static LocalContainerEntityManagerFactoryBean createSchema(DataSource database, DataSource connections) throws SQLException {
+		return createSchema(database, connections, "org.hibernate.dialect.H2Dialect");
+	}
+
+	/**
+	 * Initializes the type codes and generates the schema.
+	 *
+	 * @param database the database to create the schema in
+	 * @return the initialized factory bean, which has to be destroyed after the test
+	 */
+	public static LocalContainerEntityManagerFactoryBean createSchema(DataSource database) throws SQLException {
+		return createSchema(database, database);
+	}
+
+	/**
+	 * Initializes the type codes and generates the schema in the scratch MySQL database. All DiscourseDB tables in that
+	 * database are dropped and recreated.
+	 *
+	 * @param database the scratch database returned by {@link #mysql()}
+	 * @return the initialized factory bean, which has to be destroyed after the test
+	 */
+	public static LocalContainerEntityManagerFactoryBean createMysqlSchema(MysqlDataSource database) throws SQLException {
+		//the closure references the contributions and would prevent the schema generation from dropping them
+		try (Connection con = database.getConnection(); Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("DROP TABLE IF EXISTS " + ThreadClosureMigration.TABLE);
+		}
+		return createSchema(database, database, "edu.cmu.cs.lti.discoursedb.configuration.DiscourseDBMysqlDialect");
+	}
+
+	private static LocalContainerEntityManagerFactoryBean createSchema(DataSource database, DataSource connections, String dialect) throws SQLException {
+		TypeCodes.initialize(database);
+
+		LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+		factoryBean.setDataSource(connections);
+		factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+		factoryBean.setPackagesToScan("edu.cmu.cs.lti.discoursedb.core.model");
+		Properties jpaProperties = new Properties();
+		jpaProperties.put("hibernate.dialect", dialect);
+		jpaProperties.put("hibernate.hbm2ddl.auto", "create");
+		jpaProperties.put("hibernate.ejb.naming_strategy", "org.hibernate.cfg.ImprovedNamingStrategy");
+		jpaProperties.put("hibernate.cache.use_second_level_cache", false);
+		jpaProperties.put("hibernate.cache.use_query_cache", false);
+		factoryBean.setJpaProperties(jpaProperties);
+		factoryBean.afterPropertiesSet();
+
+		//the closure is created by ThreadClosureMigration instead of the schema generation
+		try (Connection con = database.getConnection(); Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE " + ThreadClosureMigration.TABLE + " (fk_ancestor BIGINT NOT NULL, fk_descendant BIGINT NOT NULL, depth INT NOT NULL, "
+					+ "PRIMARY KEY (fk_ancestor, fk_descendant), FOREIGN KEY (fk_ancestor) REFERENCES contribution (id_contribution), "
+					+ "FOREIGN KEY (fk_descendant) REFERENCES contribution (id_contribution))");
+			stmt.executeUpdate("CREATE INDEX idx_contribution_closure_descendant ON " + ThreadClosureMigration.TABLE + " (fk_descendant, depth)");
+		}
+		return factoryBean;
+	}
+
+}
@@ -0,0 +1,91 @@
+package edu.cmu.cs.lti.discoursedb.core.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import edu.cmu.cs.lti.discoursedb.core.TestDatabase;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
+import edu.cmu.cs.lti.discoursedb.core.type.ContributionTypes;
+
+/**
+ * Persists typed entities and checks that their types are stored as codes of
+ * the type dictionary and can be queried by their names.
+ */
+public class TypeCodeConverterTest {
+
+	private static JdbcDataSource database;
+	private static LocalContainerEntityManagerFactoryBean factoryBean;
+
+	@BeforeClass
+	public static void createSchema() throws SQLException {
+		database = TestDatabase.create("discoursedb_type_codes");
+		factoryBean = TestDatabase.createSchema(database);
+	}
+
+	@AfterClass
+	public static void closeDatabase() {
+		if (factoryBean != null) {
+			factoryBean.destroy();
+		}
+	}
+
+	@Test
+	public void testPersistAndQueryByType() {
+		EntityManager entityManager = factoryBean.getObject().createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			entityManager.persist(contribution(ContributionTypes.POST));
+			entityManager.persist(contribution(ContributionTypes.POST));
+			entityManager.persist(contribution(ContributionTypes.THREAD_STARTER));
+			entityManager.persist(contribution(null));
+			entityManager.getTransaction().commit();
+			entityManager.clear();
+
+			entityManager.getTransaction().begin();
+			List<?> codes = entityManager.createNativeQuery("SELECT DISTINCT type FROM contribution WHERE type IS NOT NULL ORDER BY type").getResultList();
+			assertEquals(2, codes.size());
+			assertEquals(TypeCodes.codeOf(ContributionTypes.POST.name()).intValue(), ((Number) codes.get(0)).intValue());
+			assertEquals(TypeCodes.codeOf(ContributionTypes.THREAD_STARTER.name()).intValue(), ((Number) codes.get(1)).intValue());
+
+			List<Contribution> posts = entityManager.createQuery("select c from Contribution c where c.type = :type", Contribution.class)
+					.setParameter("type", ContributionTypes.POST.name()).getResultList();
+			assertEquals(2, posts.size());
+			posts.forEach(post -> assertEquals(ContributionTypes.POST.name(), post.getType()));
+
+			ContributionRepository repository = new JpaRepositoryFactory(entityManager).getRepository(ContributionRepository.class);
+			assertEquals(1, repository.findAllByType(ContributionTypes.THREAD_STARTER.name()).size());
+			assertEquals(0, repository.findAllByType(ContributionTypes.TWEET.name()).size());
+
+			Contribution post = posts.get(0);
+			post.setType(ContributionTypes.TWEET.name());
+			entityManager.flush();
+			entityManager.clear();
+			assertEquals(ContributionTypes.TWEET.name(), entityManager.find(Contribution.class, post.getId()).getType());
+			entityManager.getTransaction().commit();
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+	}
+
+	private static Contribution contribution(ContributionTypes type) {
+		Contribution contribution = new Contribution();
+		contribution.setType(type == null ? null : type.name());
+		return contribution;
+	}
+
+}
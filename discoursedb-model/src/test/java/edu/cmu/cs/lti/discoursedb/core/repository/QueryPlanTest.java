@@ -0,0 +1,571 @@
+package edu.cmu.cs.lti.discoursedb.core.repository;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.core.type.filter.AssignableTypeFilter;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.EntityPath;
+import com.mysema.query.types.Predicate;
+
+import edu.cmu.cs.lti.discoursedb.configuration.ThreadClosureMigration;
+import edu.cmu.cs.lti.discoursedb.core.model.TypeCodes;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.QContribution;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.QDiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.system.QDataSourceInstance;
+import edu.cmu.cs.lti.discoursedb.core.model.user.QUser;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRelationRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseToDiscoursePartRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.system.DataSourceAggregateRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.system.DataSourceInstanceRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.bulk.NaturalKeyLocks;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionPredicates;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscoursePartPredicates;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscoursePartService;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscourseRegistry;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceCache;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourcePredicates;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
+import edu.cmu.cs.lti.discoursedb.core.service.system.ImportedSourceFilter;
+import edu.cmu.cs.lti.discoursedb.core.service.system.UpsertService;
+import edu.cmu.cs.lti.discoursedb.core.service.user.UserPredicates;
+import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartRelationTypes;
+
+/**
+ * Runs EXPLAIN on the SQL of every query method that is declared by a
+ * DiscourseDB repository and of every predicate that the services use to
+ * find entities, and fails if one of the plans scans a whole table.<br/>
+ *
+ * The schema is generated from the entities in an in-memory H2 database, so
+ * the plans show whether the indexes that are declared by the entities support
+ * the queries. Each query method is called with generated arguments while the
+ * prepared statements and their parameters are recorded. The predicates are
+ * created with generated arguments and queried on their root entity in the
+ * same way. The recorded selects are then explained with the same parameters.
+ * Query methods without parameters other than a Pageable or Sort read whole
+ * tables by design and are not checked. Native queries that H2 cannot execute
+ * have to be listed in {@link #MYSQL_ONLY}, all other failing queries fail the
+ * test. Queries that are expected to scan a table are listed in
+ * {@link #EXPECTED_SCANS} together with the reason.
+ */
+public class QueryPlanTest {
+
+	private static final Map<String, String> EXPECTED_SCANS = new HashMap<>();
+	static {
+		EXPECTED_SCANS.put("ContributionRepository.findAllByType", "There are only a few contribution types, so an index would not be selective.");
+		EXPECTED_SCANS.put("DiscoursePartRepository.findAllByType", "There are only a few DiscoursePart types, so an index would not be selective.");
+		EXPECTED_SCANS.put("UserRepository.countByRealname", "Real names are not used for lookups by DiscourseDB itself.");
+		EXPECTED_SCANS.put("ContentRepository.findUnindexedRevisionRootIds", "Only used by the one-off revision index backfill.");
+		EXPECTED_SCANS.put("ContributionRepository.findContributionIdsWithoutDiscourse", "Only used by the one-off discourse backfill.");
+		EXPECTED_SCANS.put("ContributionPredicates.contributionHasType", "There are only a few contribution types, so an index would not be selective.");
+		EXPECTED_SCANS.put("DiscoursePartPredicates.discoursePartHasType", "Only combined with discoursePartHasName, which is indexed.");
+		EXPECTED_SCANS.put("DataSourcePredicates.hasSourceType", "Only combined with hasSourceId, which is indexed.");
+		EXPECTED_SCANS.put("UserPredicates.hasPrimaryDataSourceType", "Only combined with hasPrimarySourceId.");
+		EXPECTED_SCANS.put("UserPredicates.hasPrimaryDataSet", "Only combined with hasPrimarySourceId.");
+	}
+
+	/**
+	 * Native queries that use MySQL syntax which H2 does not understand, together with the reason.
+	 * They are not explained, but every other query that fails makes the test fail.
+	 */
+	private static final Map<String, String> MYSQL_ONLY = new HashMap<>();
+
+	/**
+	 * The classes with the predicates that are used by the services, together with the root entity of their predicates.
+	 */
+	private static final Map<Class<?>, EntityPath<?>> PREDICATES = new LinkedHashMap<>();
+	static {
+		PREDICATES.put(ContributionPredicates.class, QContribution.contribution);
+		PREDICATES.put(DiscoursePartPredicates.class, QDiscoursePart.discoursePart);
+		PREDICATES.put(DataSourcePredicates.class, QDataSourceInstance.dataSourceInstance);
+		PREDICATES.put(UserPredicates.class, QUser.user);
+	}
+
+	private static final String TABLE_SCAN = "tableScan";
+
+	private static JdbcDataSource database;
+	private static LocalContainerEntityManagerFactoryBean factoryBean;
+	private static final List<RecordedStatement> statements = Collections.synchronizedList(new ArrayList<>());
+
+	@BeforeClass
+	public static void createSchema() throws SQLException {
+		database = new JdbcDataSource();
+		database.setURL("jdbc:h2:mem:discoursedb_query_plans;MODE=MySQL;DB_CLOSE_DELAY=-1");
+		TypeCodes.initialize(database);
+
+		factoryBean = new LocalContainerEntityManagerFactoryBean();
+		factoryBean.setDataSource(recordingDataSource(database));
+		factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+		factoryBean.setPackagesToScan("edu.cmu.cs.lti.discoursedb.core.model");
+		Properties jpaProperties = new Properties();
+		jpaProperties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+		jpaProperties.put("hibernate.hbm2ddl.auto", "create");
+		jpaProperties.put("hibernate.ejb.naming_strategy", "org.hibernate.cfg.ImprovedNamingStrategy");
+		jpaProperties.put("hibernate.cache.use_second_level_cache", false);
+		jpaProperties.put("hibernate.cache.use_query_cache", false);
+		factoryBean.setJpaProperties(jpaProperties);
+		factoryBean.afterPropertiesSet();
+
+		//the closure is created by ThreadClosureMigration instead of the schema generation
+		try (Connection con = database.getConnection(); Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE " + ThreadClosureMigration.TABLE + " (fk_ancestor BIGINT NOT NULL, fk_descendant BIGINT NOT NULL, depth INT NOT NULL, "
+					+ "PRIMARY KEY (fk_ancestor, fk_descendant), FOREIGN KEY (fk_ancestor) REFERENCES contribution (id_contribution), "
+					+ "FOREIGN KEY (fk_descendant) REFERENCES contribution (id_contribution))");
+			stmt.executeUpdate("CREATE INDEX idx_contribution_closure_descendant ON " + ThreadClosureMigration.TABLE + " (fk_descendant, depth)");
+		}
+	}
+
+	@AfterClass
+	public static void closeDatabase() {
+		if (factoryBean != null) {
+			factoryBean.destroy();
+		}
+	}
+
+	@Test
+	public void queryMethodsDoNotScanTables() throws Exception {
+		EntityManagerFactory emf = factoryBean.getObject();
+		List<String> scans = new ArrayList<>();
+		int checked = 0;
+		for (Class<?> repositoryInterface : findRepositoryInterfaces()) {
+			EntityManager entityManager = emf.createEntityManager();
+			try {
+				entityManager.getTransaction().begin();
+				Object repository = new JpaRepositoryFactory(entityManager).getRepository(repositoryInterface);
+				for (Method method : repositoryInterface.getDeclaredMethods()) {
+					if (!isCheckedQueryMethod(method)) {
+						continue;
+					}
+					String name = repositoryInterface.getSimpleName() + "." + method.getName();
+					List<String> plans = explain(name, repository, method);
+					checked++;
+					boolean scanning = plans.stream().anyMatch(plan -> plan.contains(TABLE_SCAN));
+					if (scanning && !EXPECTED_SCANS.containsKey(name)) {
+						scans.add(name + ":\n\t" + String.join("\n\t", plans));
+					}
+				}
+			} finally {
+				if (entityManager.getTransaction().isActive()) {
+					entityManager.getTransaction().rollback();
+				}
+				entityManager.close();
+			}
+		}
+		assertTrue("No query methods have been checked.", checked > 0);
+		if (!scans.isEmpty()) {
+			fail("The following queries scan whole tables. Add an index or list them in EXPECTED_SCANS.\n" + String.join("\n", scans));
+		}
+	}
+
+	@Test
+	public void predicatesDoNotScanTables() throws Exception {
+		EntityManager entityManager = factoryBean.getObject().createEntityManager();
+		List<String> scans = new ArrayList<>();
+		int checked = 0;
+		try {
+			entityManager.getTransaction().begin();
+			for (Map.Entry<Class<?>, EntityPath<?>> predicates : PREDICATES.entrySet()) {
+				for (Method method : predicates.getKey().getDeclaredMethods()) {
+					if (!isCheckedPredicate(method)) {
+						continue;
+					}
+					String name = predicates.getKey().getSimpleName() + "." + method.getName();
+					Object[] args = new Object[method.getParameterCount()];
+					for (int i = 0; i < args.length; i++) {
+						args[i] = argument(name, method.getParameterTypes()[i], method.getGenericParameterTypes()[i]);
+					}
+					Predicate predicate = (Predicate) method.invoke(null, args);
+					statements.clear();
+					try {
+						new JPAQuery(entityManager).from(predicates.getValue()).where(predicate).list(predicates.getValue());
+					} catch (RuntimeException e) {
+						throw new AssertionError("Could not query " + name + ".", e);
+					}
+					List<String> plans = explainRecordedSelects();
+					checked++;
+					boolean scanning = plans.stream().anyMatch(plan -> plan.contains(TABLE_SCAN));
+					if (scanning && !EXPECTED_SCANS.containsKey(name)) {
+						scans.add(name + ":\n\t" + String.join("\n\t", plans));
+					}
+				}
+			}
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+		assertTrue("No predicates have been checked.", checked > 0);
+		if (!scans.isEmpty()) {
+			fail("The following predicates scan whole tables. Add an index or list them in EXPECTED_SCANS.\n" + String.join("\n", scans));
+		}
+	}
+
+	/**
+	 * Checks the native SQL that the services issue on the JDBC connection: the
+	 * DiscoursePart hierarchy queries, the queries of the ImportedSourceFilter
+	 * and the select of the statement that adds a reply to the contribution
+	 * closure. The other closure queries are repository methods and checked
+	 * with them.<br/>
+	 *
+	 * The hierarchy is retrieved level by level, since H2 does not accept the
+	 * UNION of the recursive query. Each step of the recursive query looks up
+	 * the relations of a part in the same way as a level query. The purge
+	 * statements use the multi-table DELETE syntax of MySQL and are covered by
+	 * PurgeServiceTest instead.
+	 */
+	@Test
+	public void serviceQueriesDoNotScanTables() throws Exception {
+		EntityManager entityManager = factoryBean.getObject().createEntityManager();
+		Map<String, List<String>> plans = new LinkedHashMap<>();
+		try {
+			entityManager.getTransaction().begin();
+			DiscoursePartService discoursePartService = discoursePartService(entityManager);
+			DiscoursePart part = new DiscoursePart();
+			entityManager.persist(part);
+			plans.put("DiscoursePartService.findSubtree",
+					explainServiceCall(() -> discoursePartService.findSubtree(part, DiscoursePartRelationTypes.values()[0], null)));
+			plans.put("DiscoursePartService.findAncestors", explainServiceCall(() -> discoursePartService.findAncestors(part, null, null)));
+			entityManager.getTransaction().commit();
+
+			ImportedSourceFilter filter = new ImportedSourceFilter(recordingDataSource(database), true, 0.01);
+			plans.put("ImportedSourceFilter.build", explainServiceCall(() -> filter.mightContain("x", "x", "x")));
+			plans.put("ImportedSourceFilter.load", explainServiceCall(() -> new ImportedSourceFilter(recordingDataSource(database), true, 0.01).mightContain("x", "x", "x")));
+
+			String closure = ContributionRepository.class.getMethod("addReplyToClosure", Long.class, Long.class).getAnnotation(Query.class).value();
+			plans.put("ContributionRepository.addReplyToClosure", explain(closure.substring(closure.indexOf("select")).replaceAll(":\\w+", "1")));
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+		List<String> scans = new ArrayList<>();
+		plans.forEach((name, plan) -> {
+			assertTrue("No queries of " + name + " have been checked.", !plan.isEmpty());
+			if (plan.stream().anyMatch(p -> p.contains(TABLE_SCAN)) && !EXPECTED_SCANS.containsKey(name)) {
+				scans.add(name + ":\n\t" + String.join("\n\t", plan));
+			}
+		});
+		if (!scans.isEmpty()) {
+			fail("The following service queries scan whole tables. Add an index or list them in EXPECTED_SCANS.\n" + String.join("\n", scans));
+		}
+	}
+
+	/**
+	 * Runs the given service call and explains the selects it issues.
+	 *
+	 * @return the plans of the selects
+	 */
+	private List<String> explainServiceCall(Runnable call) throws Exception {
+		statements.clear();
+		call.run();
+		return explainRecordedSelects();
+	}
+
+	/**
+	 * @return the plan of the given select without parameters
+	 */
+	private List<String> explain(String select) throws SQLException {
+		List<String> plans = new ArrayList<>();
+		try (Connection con = database.getConnection(); Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery("EXPLAIN " + select)) {
+			while (rs.next()) {
+				plans.add(rs.getString(1).replaceAll("\\s+", " "));
+			}
+		}
+		return plans;
+	}
+
+	/**
+	 * Calls the given query method and explains the selects it issues.
+	 *
+	 * @return the plans of the selects
+	 */
+	private List<String> explain(String name, Object repository, Method method) throws Exception {
+		Object[] args = new Object[method.getParameterCount()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = argument(name, method.getParameterTypes()[i], method.getGenericParameterTypes()[i]);
+		}
+		statements.clear();
+		Query query = method.getAnnotation(Query.class);
+		boolean mysqlOnly = query != null && query.nativeQuery() && MYSQL_ONLY.containsKey(name);
+		try {
+			method.invoke(repository, args);
+		} catch (InvocationTargetException e) {
+			if (mysqlOnly) {
+				return Collections.emptyList();
+			}
+			throw new AssertionError("Could not execute " + name + ". Native queries that only run on MySQL have to be listed in MYSQL_ONLY.", e.getCause());
+		}
+		if (mysqlOnly) {
+			throw new AssertionError(name + " can be executed by H2 and should be removed from MYSQL_ONLY.");
+		}
+		return explainRecordedSelects();
+	}
+
+	/**
+	 * Explains the selects that have been recorded since the recorded statements have been cleared.
+	 *
+	 * @return the plans of the selects
+	 */
+	private List<String> explainRecordedSelects() throws Exception {
+		List<String> plans = new ArrayList<>();
+		try (Connection con = database.getConnection()) {
+			for (RecordedStatement statement : new ArrayList<>(statements)) {
+				if (!statement.sql.trim().toLowerCase().startsWith("select")) {
+					continue;
+				}
+				try (PreparedStatement explain = con.prepareStatement("EXPLAIN " + statement.sql)) {
+					for (Object[] parameter : statement.parameters) {
+						((Method) parameter[0]).invoke(explain, (Object[]) parameter[1]);
+					}
+					try (ResultSet rs = explain.executeQuery()) {
+						while (rs.next()) {
+							plans.add(rs.getString(1).replaceAll("\\s+", " "));
+						}
+					}
+				}
+			}
+		}
+		return plans;
+	}
+
+	/**
+	 * Predicates on paths of other entities are checked through the predicates that use them.
+	 */
+	private static boolean isCheckedPredicate(Method method) {
+		if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isStatic(method.getModifiers())
+				|| !Predicate.class.isAssignableFrom(method.getReturnType())) {
+			return false;
+		}
+		for (Class<?> parameterType : method.getParameterTypes()) {
+			if (EntityPath.class.isAssignableFrom(parameterType)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isCheckedQueryMethod(Method method) {
+		if (method.isDefault() || method.isSynthetic() || method.isAnnotationPresent(Modifying.class)) {
+			return false;
+		}
+		for (Class<?> parameterType : method.getParameterTypes()) {
+			if (!Pageable.class.isAssignableFrom(parameterType) && !Sort.class.isAssignableFrom(parameterType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Generates an argument of the given type. Entities are detached instances
+	 * with an id, which is all the queries need to bind them, and placeholder
+	 * strings and references for predicates that compare their properties.
+	 * Predicate arguments are predicates on sources, which is what the
+	 * predicates that accept other predicates expect.
+	 */
+	private static Object argument(String name, Class<?> type, Type genericType) throws Exception {
+		if (type == Long.class || type == long.class) {
+			return 1L;
+		} else if (type == Integer.class || type == int.class) {
+			return 1;
+		} else if (type == Boolean.class || type == boolean.class) {
+			return true;
+		} else if (type == String.class) {
+			return "x";
+		} else if (type == Date.class) {
+			return new Date();
+		} else if (type == byte[].class) {
+			return new byte[16];
+		} else if (Pageable.class.isAssignableFrom(type)) {
+			return new PageRequest(0, 10);
+		} else if (type.isEnum()) {
+			return type.getEnumConstants()[0];
+		} else if (Collection.class.isAssignableFrom(type) && genericType instanceof ParameterizedType) {
+			Type elementType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+			Object element = argument(name, (Class<?>) elementType, elementType);
+			return Set.class.isAssignableFrom(type) ? Collections.singleton(element) : Collections.singletonList(element);
+		} else if (Predicate.class.isAssignableFrom(type)) {
+			return DataSourcePredicates.hasSourceId("x");
+		} else if (type.isAnnotationPresent(Entity.class)) {
+			Object entity = entity(type);
+			setStrings(entity, "x");
+			setReferences(entity);
+			return entity;
+		}
+		throw new IllegalArgumentException("Cannot generate an argument of type " + type.getName() + " for " + name + ".");
+	}
+
+	private static void setField(Object target, String fieldName, Object value) throws IllegalAccessException {
+		for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField(fieldName);
+				field.setAccessible(true);
+				field.set(target, value);
+				return;
+			} catch (NoSuchFieldException e) {
+				//continue with the superclass
+			}
+		}
+	}
+
+	private static Object entity(Class<?> type) throws Exception {
+		Object entity = type.newInstance();
+		setField(entity, "id", 1L);
+		//entities without a version are considered transient and cannot be bound to a query
+		setField(entity, "entityVersion", 0L);
+		return entity;
+	}
+
+	private static void setReferences(Object target) throws Exception {
+		for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (field.getType().isAnnotationPresent(Entity.class) && !Modifier.isStatic(field.getModifiers())) {
+					field.setAccessible(true);
+					if (field.get(target) == null) {
+						field.set(target, entity(field.getType()));
+					}
+				}
+			}
+		}
+	}
+
+	private static void setStrings(Object target, String value) throws IllegalAccessException {
+		for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (field.getType() == String.class && !Modifier.isStatic(field.getModifiers())) {
+					field.setAccessible(true);
+					if (field.get(target) == null) {
+						field.set(target, value);
+					}
+				}
+			}
+		}
+	}
+
+	private static DiscoursePartService discoursePartService(EntityManager entityManager) {
+		JpaRepositoryFactory repositories = new JpaRepositoryFactory(entityManager);
+		ImportedSourceFilter importedSourceFilter = new ImportedSourceFilter(database, false, 0.01);
+		DataSourceService dataSourceService = new DataSourceService(repositories.getRepository(DataSourceAggregateRepository.class),
+				repositories.getRepository(DataSourceInstanceRepository.class), new DataSourceCache(100), importedSourceFilter, entityManager);
+		return new DiscoursePartService(repositories.getRepository(DiscoursePartRepository.class), repositories.getRepository(ContributionRepository.class),
+				dataSourceService, importedSourceFilter, repositories.getRepository(DiscoursePartRelationRepository.class),
+				repositories.getRepository(DiscourseToDiscoursePartRepository.class), new DiscourseRegistry(100), new UpsertService(entityManager),
+				new NaturalKeyLocks(), entityManager);
+	}
+
+	private static List<Class<?>> findRepositoryInterfaces() throws ClassNotFoundException {
+		ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false) {
+			@Override
+			protected boolean isCandidateComponent(AnnotatedBeanDefinition beanDefinition) {
+				return beanDefinition.getMetadata().isInterface();
+			}
+		};
+		scanner.addIncludeFilter(new AssignableTypeFilter(BaseRepository.class));
+		scanner.addExcludeFilter(new AnnotationTypeFilter(NoRepositoryBean.class));
+		List<Class<?>> interfaces = new ArrayList<>();
+		for (BeanDefinition candidate : scanner.findCandidateComponents(BaseRepository.class.getPackage().getName())) {
+			interfaces.add(Class.forName(candidate.getBeanClassName()));
+		}
+		return interfaces;
+	}
+
+	/**
+	 * Wraps the given data source, so that the SQL and parameters of all prepared statements are recorded.
+	 */
+	private static DataSource recordingDataSource(DataSource target) {
+		return proxy(DataSource.class, target, (method, args, result) -> {
+			if (result instanceof Connection) {
+				return proxy(Connection.class, (Connection) result, (conMethod, conArgs, statement) -> {
+					if (statement instanceof PreparedStatement && conMethod.getName().equals("prepareStatement")) {
+						RecordedStatement recorded = new RecordedStatement((String) conArgs[0]);
+						statements.add(recorded);
+						return proxy(PreparedStatement.class, (PreparedStatement) statement, (psMethod, psArgs, r) -> {
+							if (psMethod.getName().startsWith("set") && psArgs != null && psArgs.length > 1 && psArgs[0] instanceof Integer) {
+								recorded.parameters.add(new Object[] { psMethod, psArgs });
+							}
+							return r;
+						});
+					}
+					return statement;
+				});
+			}
+			return result;
+		});
+	}
+
+	private static <T> T proxy(Class<T> type, T target, ResultWrapper wrapper) {
+		return type.cast(Proxy.newProxyInstance(QueryPlanTest.class.getClassLoader(), new Class<?>[] { type }, (p, method, args) -> {
+			try {
+				return wrapper.wrap(method, args, method.invoke(target, args));
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}));
+	}
+
+	@FunctionalInterface
+	private interface ResultWrapper {
+		Object wrap(Method method, Object[] args, Object result) throws SQLException;
+	}
+
+	private static class RecordedStatement {
+		private final String sql;
+		private final List<Object[]> parameters = new ArrayList<>();
+
+		private RecordedStatement(String sql) {
+			this.sql = sql;
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package edu.cmu.cs.lti.discoursedb.core.service.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Checks that a Bloom filter never answers false for a key that has been
+ * added, that its false positive rate stays close to the configured rate and
+ * that it can be stored and read again without losing keys.
+ */
+public class BloomFilterTest {
+
+	private static final int CAPACITY = 10000;
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+
+	@Test
+	public void testNoFalseNegatives() {
+		BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+		for (int i = 0; i < CAPACITY; i++) {
+			filter.put(key(i));
+		}
+		for (int i = 0; i < CAPACITY; i++) {
+			assertTrue("Key " + i + " has been added.", filter.mightContain(key(i)));
+		}
+		assertFalse("A key that has been added before does not change the filter.", filter.put(key(0)));
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+		for (int i = 0; i < CAPACITY; i++) {
+			filter.put(key(i));
+		}
+		int falsePositives = 0;
+		int lookups = 10 * CAPACITY;
+		for (int i = CAPACITY; i < CAPACITY + lookups; i++) {
+			if (filter.mightContain(key(i))) {
+				falsePositives++;
+			}
+		}
+		double rate = (double) falsePositives / lookups;
+		assertTrue("False positive rate " + rate + " is too high.", rate < 2 * FALSE_POSITIVE_RATE);
+	}
+
+	@Test
+	public void testEmptyFilter() {
+		BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+		assertFalse(filter.mightContain(key(0)));
+		assertFalse(filter.mightContain(""));
+		assertFalse(filter.isFull());
+		assertEquals(0, filter.getCount());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+		for (int i = 0; i < CAPACITY / 2; i++) {
+			filter.put(key(i));
+		}
+		filter.put("Überarbeitung – 修订版");
+
+		BloomFilter read = roundTrip(filter);
+		assertEquals(filter.getCapacity(), read.getCapacity());
+		assertEquals(filter.getCount(), read.getCount());
+		assertEquals(filter.getSizeInBytes(), read.getSizeInBytes());
+		for (int i = 0; i < 2 * CAPACITY; i++) {
+			assertEquals("Lookup of key " + i, filter.mightContain(key(i)), read.mightContain(key(i)));
+		}
+		assertTrue(read.mightContain("Überarbeitung – 修订版"));
+
+		//keys that are added after reading the filter behave like keys of a new filter
+		read.put(key(2 * CAPACITY));
+		assertTrue(read.mightContain(key(2 * CAPACITY)));
+		assertTrue(roundTrip(read).mightContain(key(2 * CAPACITY)));
+	}
+
+	private static BloomFilter roundTrip(BloomFilter filter) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			filter.writeTo(out);
+		}
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return BloomFilter.readFrom(in);
+		}
+	}
+
+	private static String key(int i) {
+		return "source descriptor\u0000" + i;
+	}
+
+}
@@ -0,0 +1,227 @@
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import edu.cmu.cs.lti.discoursedb.configuration.ThreadClosureMigration;
+import edu.cmu.cs.lti.discoursedb.core.TestDatabase;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.ContributionContext;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.system.DataSourceAggregateRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.system.DataSourceInstanceRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceCache;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
+import edu.cmu.cs.lti.discoursedb.core.service.system.ImportedSourceFilter;
+import edu.cmu.cs.lti.discoursedb.core.service.system.UpsertService;
+import edu.cmu.cs.lti.discoursedb.core.type.ContributionTypes;
+import edu.cmu.cs.lti.discoursedb.core.type.DiscourseRelationTypes;
+
+/**
+ * Runs the ContributionService against an in-memory H2 database. The service
+ * is wired by hand with an application-managed EntityManager, so each test
+ * demarcates its transactions itself.<br/>
+ *
+ * H2 does not support <code>INSERT IGNORE</code>, so the statements that
+ * maintain the contribution closure are run as <code>MERGE</code> statements
+ * on the primary key of the closure. Unlike <code>INSERT IGNORE</code>, a
+ * merge replaces the depth of an existing pair, which makes no difference for
+ * the threads of these tests.
+ */
+public class ContributionServiceTest {
+
+	private static JdbcDataSource database;
+	private static LocalContainerEntityManagerFactoryBean factoryBean;
+
+	@BeforeClass
+	public static void createSchema() throws SQLException {
+		database = TestDatabase.create("discoursedb_contribution_service");
+		factoryBean = TestDatabase.createSchema(database, insertIgnoreDataSource(database));
+	}
+
+	@AfterClass
+	public static void closeDatabase() {
+		if (factoryBean != null) {
+			factoryBean.destroy();
+		}
+	}
+
+	@Test
+	public void testStreamAll() {
+		EntityManager entityManager = factoryBean.getObject().createEntityManager();
+		try {
+			ContributionService contributionService = contributionService(entityManager);
+			//more contributions than fit into a single batch of the stream
+			List<Long> ids = new ArrayList<>();
+			entityManager.getTransaction().begin();
+			for (int i = 0; i < 2500; i++) {
+				ids.add(contributionService.createTypedContribution(ContributionTypes.POST).getId());
+			}
+			entityManager.getTransaction().commit();
+			entityManager.clear();
+
+			entityManager.getTransaction().begin();
+			List<Long> streamed;
+			try (Stream<Contribution> contributions = contributionService.streamAll()) {
+				//skips the contributions of the other tests
+				streamed = contributions.map(Contribution::getId).filter(id -> id >= ids.get(0)).collect(Collectors.toList());
+			}
+			entityManager.getTransaction().commit();
+			assertEquals(ids, streamed);
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+	}
+
+	@Test
+	public void testAddContextToContribution() {
+		EntityManager entityManager = factoryBean.getObject().createEntityManager();
+		try {
+			ContributionService contributionService = contributionService(entityManager);
+			entityManager.getTransaction().begin();
+			Contribution contribution = contributionService.createTypedContribution(ContributionTypes.POST);
+			Contribution contextContribution = contributionService.createTypedContribution(ContributionTypes.POST);
+			Content contextContent = new Content();
+			entityManager.persist(contextContent);
+			entityManager.flush();
+
+			//only one of the two context references is set, so the contexts are told apart by their context key
+			Long byContribution = contributionService.addContextToContribution(contribution, contextContribution).getId();
+			Long byContent = contributionService.addContextToContribution(contribution, contextContent).getId();
+			assertNotEquals(byContribution, byContent);
+			assertEquals(byContribution, contributionService.addContextToContribution(contribution, contextContribution).getId());
+			assertEquals(byContent, contributionService.addContextToContribution(contribution, contextContent).getId());
+			entityManager.getTransaction().commit();
+			entityManager.clear();
+
+			ContributionContext context = entityManager.find(ContributionContext.class, byContent);
+			assertEquals(contribution.getId(), context.getContribution().getId());
+			assertEquals(contextContent.getId(), context.getContextContent().getId());
+			assertNull(context.getContextContribution());
+			assertEquals(2, entityManager.createQuery("select count(c) from ContributionContext c where c.contribution.id = :id", Long.class)
+					.setParameter("id", contribution.getId()).getSingleResult().intValue());
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+	}
+
+	@Test
+	public void testThreadTree() {
+		EntityManager entityManager = factoryBean.getObject().createEntityManager();
+		try {
+			ContributionService contributionService = contributionService(entityManager);
+			entityManager.getTransaction().begin();
+			//the other thread is created first, so that it has the lower id
+			Contribution other = contributionService.createTypedContribution(ContributionTypes.POST);
+			Contribution root = contributionService.createTypedContribution(ContributionTypes.POST);
+			Contribution a = contributionService.createTypedContribution(ContributionTypes.POST);
+			Contribution b = contributionService.createTypedContribution(ContributionTypes.POST);
+			Contribution c = contributionService.createTypedContribution(ContributionTypes.POST);
+			Contribution d = contributionService.createTypedContribution(ContributionTypes.POST);
+			Contribution x = contributionService.createTypedContribution(ContributionTypes.POST);
+
+			//the replies are added from the bottom of the thread up, so the closure has to relate the existing subtrees
+			contributionService.createDiscourseRelation(c, d, DiscourseRelationTypes.REPLY);
+			contributionService.createDiscourseRelation(a, c, DiscourseRelationTypes.REPLY);
+			contributionService.createDiscourseRelation(root, a, DiscourseRelationTypes.REPLY);
+			contributionService.createDiscourseRelation(root, b, DiscourseRelationTypes.COMMENT);
+			//x replies to contributions of both threads
+			contributionService.createDiscourseRelation(b, x, DiscourseRelationTypes.REPLY);
+			contributionService.createDiscourseRelation(other, x, DiscourseRelationTypes.REPLY);
+			entityManager.getTransaction().commit();
+			entityManager.clear();
+
+			entityManager.getTransaction().begin();
+			List<ThreadNode> tree = contributionService.findThreadTree(root);
+			List<ThreadNode> otherTree = contributionService.findThreadTree(other);
+			entityManager.getTransaction().commit();
+
+			assertEquals(Arrays.asList(root.getId(), a.getId(), c.getId(), d.getId(), b.getId(), x.getId()),
+					tree.stream().map(node -> node.getContribution().getId()).collect(Collectors.toList()));
+			assertEquals(Arrays.asList(0, 1, 2, 3, 1, 2), tree.stream().map(ThreadNode::getDepth).collect(Collectors.toList()));
+			assertEquals(Arrays.asList(null, root.getId(), a.getId(), c.getId(), root.getId(), b.getId()),
+					tree.stream().map(ThreadNode::getParentId).collect(Collectors.toList()));
+
+			assertEquals(Arrays.asList(other.getId(), x.getId()),
+					otherTree.stream().map(node -> node.getContribution().getId()).collect(Collectors.toList()));
+			assertEquals(other.getId(), otherTree.get(1).getParentId());
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+	}
+
+	private static ContributionService contributionService(EntityManager entityManager) {
+		JpaRepositoryFactory repositories = new JpaRepositoryFactory(entityManager);
+		ImportedSourceFilter importedSourceFilter = new ImportedSourceFilter(database, false, 0.01);
+		DataSourceService dataSourceService = new DataSourceService(repositories.getRepository(DataSourceAggregateRepository.class),
+				repositories.getRepository(DataSourceInstanceRepository.class), new DataSourceCache(100), importedSourceFilter, entityManager);
+		return new ContributionService(repositories.getRepository(ContributionRepository.class), dataSourceService, importedSourceFilter,
+				entityManager, new UpsertService(entityManager), new JpaTransactionManager(factoryBean.getObject()));
+	}
+
+	private static DataSource insertIgnoreDataSource(DataSource target) {
+		return proxy(DataSource.class, target, (method, args) -> {
+			Object result = method.invoke(target, args);
+			if (!(result instanceof Connection)) {
+				return result;
+			}
+			Connection con = (Connection) result;
+			return proxy(Connection.class, con, (conMethod, conArgs) -> {
+				if (conMethod.getName().equals("prepareStatement") && conArgs[0] instanceof String) {
+					conArgs[0] = ((String) conArgs[0]).replaceFirst("^insert ignore into " + ThreadClosureMigration.TABLE + " (\\([^)]*\\))",
+							"merge into " + ThreadClosureMigration.TABLE + " $1 key (fk_ancestor, fk_descendant)");
+				}
+				return conMethod.invoke(con, conArgs);
+			});
+		});
+	}
+
+	private static <T> T proxy(Class<T> type, T target, Handler handler) {
+		return type.cast(Proxy.newProxyInstance(ContributionServiceTest.class.getClassLoader(), new Class<?>[] { type }, (p, method, args) -> {
+			try {
+				return handler.handle(method, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}));
+	}
+
+	@FunctionalInterface
+	private interface Handler {
+		Object handle(Method method, Object[] args) throws Exception;
+	}
+
+}
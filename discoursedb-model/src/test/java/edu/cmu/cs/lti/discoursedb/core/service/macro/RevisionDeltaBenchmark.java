@@ -0,0 +1,143 @@
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the storage needed for delta-encoded revision histories with the
+ * time needed to reconstruct a revision for different keyframe intervals.<br/>
+ *
+ * The benchmark generates synthetic revision histories in which every revision
+ * changes a few words of its predecessor, encodes them the way
+ * ContentService.linkRevisions does (every revision except keyframes and the
+ * most recent revision stores a delta against its next revision) and reads
+ * random revisions the way ContentService.getText does without the
+ * RevisionTextCache. It does not need a database, so the read latency only
+ * covers the reconstruction and not the retrieval of the delta chain.
+ *
+ * Usage: RevisionDeltaBenchmark [histories] [revisionsPerHistory] [textLength]
+ */
+public class RevisionDeltaBenchmark {
+
+	private static final int[] KEYFRAME_INTERVALS = { 1, 2, 5, 10, 20, 50 };
+	private static final int READS = 20000;
+
+	public static void main(String[] args) {
+		int histories = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int revisions = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int textLength = args.length > 2 ? Integer.parseInt(args[2]) : 8000;
+
+		Random random = new Random(42);
+		List<List<String>> texts = new ArrayList<>();
+		for (int i = 0; i < histories; i++) {
+			texts.add(generateHistory(random, revisions, textLength));
+		}
+
+		System.out.println(String.format("%d histories with %d revisions of about %d characters", histories, revisions, textLength));
+		System.out.println(String.format("%10s %14s %14s %10s %16s", "keyframes", "full bytes", "stored bytes", "saved", "read (us/rev)"));
+		for (int interval : KEYFRAME_INTERVALS) {
+			long fullBytes = 0;
+			long storedBytes = 0;
+			List<Object[][]> encoded = new ArrayList<>();
+			for (List<String> history : texts) {
+				Object[][] payloads = encode(history, interval);
+				for (int ordinal = 0; ordinal < history.size(); ordinal++) {
+					fullBytes += history.get(ordinal).getBytes(StandardCharsets.UTF_8).length;
+					storedBytes += payloads[ordinal][0] != null ? ((String) payloads[ordinal][0]).getBytes(StandardCharsets.UTF_8).length
+							: ((byte[]) payloads[ordinal][1]).length;
+				}
+				encoded.add(payloads);
+			}
+
+			//warm up before measuring
+			read(encoded, random, READS / 10);
+			long start = System.nanoTime();
+			read(encoded, random, READS);
+			double micros = (System.nanoTime() - start) / 1000.0 / READS;
+
+			System.out.println(String.format("%10d %14d %14d %9.1f%% %16.1f", interval, fullBytes, storedBytes,
+					100.0 * (fullBytes - storedBytes) / fullBytes, micros));
+		}
+	}
+
+	/**
+	 * @return an array of (text, delta) pairs, one per revision
+	 */
+	private static Object[][] encode(List<String> history, int keyframeInterval) {
+		Object[][] payloads = new Object[history.size()][];
+		for (int ordinal = 0; ordinal < history.size(); ordinal++) {
+			String text = history.get(ordinal);
+			payloads[ordinal] = new Object[] { text, null };
+			if (ordinal + 1 < history.size() && ordinal % keyframeInterval != 0) {
+				byte[] delta = RevisionDelta.encode(history.get(ordinal + 1), text);
+				if (delta.length < text.getBytes(StandardCharsets.UTF_8).length) {
+					payloads[ordinal] = new Object[] { null, delta };
+				}
+			}
+		}
+		return payloads;
+	}
+
+	private static void read(List<Object[][]> encoded, Random random, int reads) {
+		long checksum = 0;
+		for (int i = 0; i < reads; i++) {
+			Object[][] payloads = encoded.get(random.nextInt(encoded.size()));
+			int ordinal = random.nextInt(payloads.length);
+			int full = ordinal;
+			while (payloads[full][0] == null) {
+				full++;
+			}
+			String text = (String) payloads[full][0];
+			for (int j = full - 1; j >= ordinal; j--) {
+				text = RevisionDelta.apply(text, (byte[]) payloads[j][1]);
+			}
+			checksum += text.length();
+		}
+		if (checksum < 0) {
+			System.out.println(checksum);
+		}
+	}
+
+	private static List<String> generateHistory(Random random, int revisions, int textLength) {
+		List<String> words = new ArrayList<>();
+		int length = 0;
+		while (length < textLength) {
+			String word = randomWord(random);
+			words.add(word);
+			length += word.length() + 1;
+		}
+		List<String> history = new ArrayList<>();
+		for (int i = 0; i < revisions; i++) {
+			int edits = 1 + random.nextInt(5);
+			for (int e = 0; e < edits; e++) {
+				int pos = random.nextInt(words.size());
+				switch (random.nextInt(3)) {
+				case 0:
+					words.set(pos, randomWord(random));
+					break;
+				case 1:
+					words.add(pos, randomWord(random));
+					break;
+				default:
+					if (words.size() > 1) {
+						words.remove(pos);
+					}
+				}
+			}
+			history.add(String.join(" ", words));
+		}
+		return history;
+	}
+
+	private static String randomWord(Random random) {
+		StringBuilder word = new StringBuilder();
+		int length = 2 + random.nextInt(8);
+		for (int i = 0; i < length; i++) {
+			word.append((char) ('a' + random.nextInt(26)));
+		}
+		return word.toString();
+	}
+
+}
@@ -0,0 +1,161 @@
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that every text can be reconstructed from its delta against another
+ * text, including the delta chains of revision histories that are
+ * delta-encoded the way ContentService.linkRevisions does.
+ */
+public class RevisionDeltaTest {
+
+	private static final String TEXT = "DiscourseDB stores the revision histories of contributions, "
+			+ "so that older revisions can be stored as a delta against their next revision.";
+
+	@Test
+	public void testEmptyTexts() {
+		assertRoundTrip("", "");
+		assertRoundTrip("", TEXT);
+		assertRoundTrip(TEXT, "");
+	}
+
+	@Test
+	public void testIdenticalTexts() {
+		assertRoundTrip(TEXT, TEXT);
+		byte[] delta = RevisionDelta.encode(TEXT, TEXT);
+		assertTrue("An identical text should be encoded as a single copy.", delta.length < 16);
+	}
+
+	@Test
+	public void testChangedPrefix() {
+		assertRoundTrip(TEXT, "Discourse Database" + TEXT.substring(11));
+		assertRoundTrip(TEXT, "Note: " + TEXT);
+		assertRoundTrip(TEXT, TEXT.substring(20));
+	}
+
+	@Test
+	public void testChangedSuffix() {
+		assertRoundTrip(TEXT, TEXT.substring(0, TEXT.length() - 9) + "previous revision.");
+		assertRoundTrip(TEXT, TEXT + " Keyframes keep their full text.");
+		assertRoundTrip(TEXT, TEXT.substring(0, 40));
+	}
+
+	@Test
+	public void testChangedMiddle() {
+		assertRoundTrip(TEXT, TEXT.replace("revision histories", "edit histories"));
+		assertRoundTrip(TEXT, TEXT.replace("older", "much older"));
+	}
+
+	@Test
+	public void testShortTexts() {
+		//texts around the block size of the matcher
+		String block = "0123456789abcdef";
+		assertRoundTrip(block, block.substring(1));
+		assertRoundTrip(block, block);
+		assertRoundTrip(block, block + "g");
+		assertRoundTrip("x", "y");
+	}
+
+	@Test
+	public void testMultiByteCharacters() {
+		String text = "Überarbeitete Fassung – 修订版 – ревизия " + TEXT;
+		assertRoundTrip(TEXT, text);
+		assertRoundTrip(text, text.replace("修订版", "版本"));
+	}
+
+	@Test
+	public void testRandomEdits() {
+		Random random = new Random(7);
+		String text = TEXT + TEXT + TEXT;
+		for (int i = 0; i < 200; i++) {
+			String next = edit(random, text);
+			assertRoundTrip(text, next);
+			assertRoundTrip(next, text);
+			text = next;
+		}
+	}
+
+	@Test
+	public void testRevisionHistories() {
+		Random random = new Random(42);
+		List<String> history = new ArrayList<>();
+		history.add(TEXT);
+		for (int i = 1; i < 23; i++) {
+			history.add(edit(random, history.get(i - 1)));
+		}
+		for (int keyframeInterval : new int[] { 1, 2, 5, 10, 22, 23, 50 }) {
+			Object[] stored = encodeHistory(history, keyframeInterval);
+			for (int ordinal = 0; ordinal < history.size(); ordinal++) {
+				assertEquals("Revision " + ordinal + " with keyframe interval " + keyframeInterval, history.get(ordinal),
+						reconstruct(stored, ordinal));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncatedDelta() {
+		byte[] delta = RevisionDelta.encode(TEXT, TEXT + " appended");
+		RevisionDelta.apply(TEXT, Arrays.copyOf(delta, delta.length - 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDeltaAgainstOtherBase() {
+		byte[] delta = RevisionDelta.encode(TEXT, TEXT.replace("older", "newer"));
+		RevisionDelta.apply("short", delta);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyDelta() {
+		RevisionDelta.apply(TEXT, new byte[0]);
+	}
+
+	private static void assertRoundTrip(String base, String text) {
+		assertEquals(text, RevisionDelta.apply(base, RevisionDelta.encode(base, text)));
+	}
+
+	/**
+	 * Stores every revision except keyframes and the most recent revision as a delta against its next revision.
+	 */
+	private static Object[] encodeHistory(List<String> history, int keyframeInterval) {
+		Object[] stored = new Object[history.size()];
+		for (int ordinal = 0; ordinal < history.size(); ordinal++) {
+			boolean full = ordinal % keyframeInterval == 0 || ordinal == history.size() - 1;
+			stored[ordinal] = full ? history.get(ordinal) : RevisionDelta.encode(history.get(ordinal + 1), history.get(ordinal));
+		}
+		return stored;
+	}
+
+	/**
+	 * Applies the deltas backwards from the closest following revision with a full text, like ContentService.getText.
+	 */
+	private static String reconstruct(Object[] stored, int ordinal) {
+		int full = ordinal;
+		while (!(stored[full] instanceof String)) {
+			full++;
+		}
+		String text = (String) stored[full];
+		for (int i = full - 1; i >= ordinal; i--) {
+			text = RevisionDelta.apply(text, (byte[]) stored[i]);
+		}
+		return text;
+	}
+
+	private static String edit(Random random, String text) {
+		int from = random.nextInt(text.length() + 1);
+		int to = Math.min(text.length(), from + random.nextInt(12));
+		StringBuilder insert = new StringBuilder();
+		for (int i = random.nextInt(10); i > 0; i--) {
+			insert.append((char) ('a' + random.nextInt(26)));
+		}
+		return text.substring(0, from) + insert + text.substring(to);
+	}
+
+}
@@ -0,0 +1,189 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.persistence.EntityManager;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import edu.cmu.cs.lti.discoursedb.core.TestDatabase;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceAggregate;
+import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySource;
+import edu.cmu.cs.lti.discoursedb.core.service.cache.BloomFilter;
+import edu.cmu.cs.lti.discoursedb.core.type.DataSourceTypes;
+
+/**
+ * Loads, extends and stores the source filter of a dataset in an in-memory H2
+ * database and checks when a stored filter is reused and when it is built
+ * again.<br/>
+ *
+ * A reused filter is told apart from a rebuilt one by replacing the stored
+ * bits with an empty filter, which only a reused filter returns.
+ */
+public class ImportedSourceFilterTest {
+
+	private static final String DATASET = "dataset";
+	private static final String DESCRIPTOR = "contribution";
+
+	private static JdbcDataSource database;
+	private static LocalContainerEntityManagerFactoryBean factoryBean;
+
+	@BeforeClass
+	public static void createSchema() throws SQLException {
+		database = TestDatabase.create("discoursedb_source_filter");
+		factoryBean = TestDatabase.createSchema(database);
+	}
+
+	@AfterClass
+	public static void closeDatabase() {
+		if (factoryBean != null) {
+			factoryBean.destroy();
+		}
+	}
+
+	@Before
+	public void clearDataset() throws SQLException {
+		try (Connection con = database.getConnection(); Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("DELETE FROM contribution");
+			stmt.executeUpdate("DELETE FROM data_source_instance");
+		}
+		new ImportedSourceFilter(database, true, 0.01).clear();
+	}
+
+	@Test
+	public void testReloadStoredFilter() throws Exception {
+		persistContribution("first");
+		persistAggregatedSource("second");
+
+		ImportedSourceFilter filter = new ImportedSourceFilter(database, true, 0.01);
+		assertTrue(filter.mightContain("first", DESCRIPTOR, DATASET));
+		assertTrue(filter.mightContain("second", DESCRIPTOR, DATASET));
+		assertFalse(filter.mightContain("third", DESCRIPTOR, DATASET));
+
+		//a source that is added by this instance is stored with the filter on shutdown
+		filter.put("third", DESCRIPTOR, DATASET);
+		persistContribution("third");
+		filter.persist();
+		assertEquals(3, storedSourceCount());
+
+		ImportedSourceFilter reloaded = new ImportedSourceFilter(database, true, 0.01);
+		assertTrue(reloaded.mightContain("third", DESCRIPTOR, DATASET));
+
+		replaceStoredBits();
+		assertFalse("The stored filter should be reused.", new ImportedSourceFilter(database, true, 0.01).mightContain("first", DESCRIPTOR, DATASET));
+	}
+
+	@Test
+	public void testRebuildAfterDeleteAndInsert() throws Exception {
+		persistContribution("first");
+		Contribution deleted = persistContribution("second");
+		new ImportedSourceFilter(database, true, 0.01).mightContain("first", DESCRIPTOR, DATASET);
+		replaceStoredBits();
+
+		//the dataset keeps its number of sources
+		try (Connection con = database.getConnection(); Statement stmt = con.createStatement()) {
+			stmt.executeUpdate("DELETE FROM contribution WHERE id_contribution = " + deleted.getId());
+		}
+		persistContribution("third");
+
+		ImportedSourceFilter filter = new ImportedSourceFilter(database, true, 0.01);
+		assertTrue("The stored filter should be built again.", filter.mightContain("first", DESCRIPTOR, DATASET));
+		assertTrue(filter.mightContain("third", DESCRIPTOR, DATASET));
+	}
+
+	@Test
+	public void testUnwrittenSourceIsNotStored() throws Exception {
+		persistContribution("first");
+		ImportedSourceFilter filter = new ImportedSourceFilter(database, true, 0.01);
+		filter.mightContain("first", DESCRIPTOR, DATASET);
+		replaceStoredBits();
+
+		//the source of a rolled back transaction
+		filter.put("second", DESCRIPTOR, DATASET);
+		filter.persist();
+		assertEquals(1, storedSourceCount());
+		assertFalse("The previously stored filter is still valid.", new ImportedSourceFilter(database, true, 0.01).mightContain("first", DESCRIPTOR, DATASET));
+	}
+
+	private static Contribution persistContribution(String sourceId) {
+		EntityManager entityManager = factoryBean.getObject().createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			Contribution contribution = new Contribution();
+			contribution.setPrimarySource(new PrimarySource(new DataSourceInstance(sourceId, DESCRIPTOR, DataSourceTypes.EDX, DATASET)));
+			entityManager.persist(contribution);
+			entityManager.getTransaction().commit();
+			return contribution;
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+	}
+
+	private static void persistAggregatedSource(String sourceId) {
+		EntityManager entityManager = factoryBean.getObject().createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			DataSourceAggregate aggregate = new DataSourceAggregate();
+			entityManager.persist(aggregate);
+			DataSourceInstance source = new DataSourceInstance(sourceId, DESCRIPTOR, DataSourceTypes.EDX, DATASET);
+			source.setSourceAggregate(aggregate);
+			entityManager.persist(source);
+			entityManager.getTransaction().commit();
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+	}
+
+	private static long storedSourceCount() throws SQLException {
+		try (Connection con = database.getConnection();
+				PreparedStatement stmt = con.prepareStatement("SELECT source_count FROM " + ImportedSourceFilter.TABLE + " WHERE dataset = ?")) {
+			stmt.setString(1, DATASET);
+			try (ResultSet rs = stmt.executeQuery()) {
+				assertTrue("The filter should be stored.", rs.next());
+				return rs.getLong(1);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the stored bits of the dataset with an empty filter, keeping its high-water mark.
+	 */
+	private static void replaceStoredBits() throws SQLException, IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(1);
+			new BloomFilter(1000, 0.01).writeTo(out);
+		}
+		try (Connection con = database.getConnection();
+				PreparedStatement stmt = con.prepareStatement("UPDATE " + ImportedSourceFilter.TABLE + " SET bits = ? WHERE dataset = ?")) {
+			stmt.setBytes(1, bytes.toByteArray());
+			stmt.setString(2, DATASET);
+			assertEquals(1, stmt.executeUpdate());
+		}
+	}
+
+}
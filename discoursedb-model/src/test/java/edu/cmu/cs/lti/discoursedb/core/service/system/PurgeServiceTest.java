@@ -0,0 +1,148 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.sql.SQLException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import com.mysql.jdbc.jdbc2.optional.MysqlDataSource;
+
+import edu.cmu.cs.lti.discoursedb.core.TestDatabase;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceAggregate;
+import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
+import edu.cmu.cs.lti.discoursedb.core.model.system.PrimarySource;
+import edu.cmu.cs.lti.discoursedb.core.model.user.User;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscourseRegistry;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.RevisionTextCache;
+import edu.cmu.cs.lti.discoursedb.core.service.user.UserCache;
+import edu.cmu.cs.lti.discoursedb.core.type.DataSourceTypes;
+
+/**
+ * Purges a dataset from a MySQL database and checks which rows are deleted,
+ * since the purge statements use the multi-table DELETE syntax of MySQL.<br/>
+ *
+ * The test is skipped unless the system property discoursedb.test.mysql.url
+ * (and optionally discoursedb.test.mysql.user and
+ * discoursedb.test.mysql.password) points to a scratch database. All
+ * DiscourseDB tables in that database are dropped and recreated.
+ */
+public class PurgeServiceTest {
+
+	private static final String PURGED = "purged";
+	private static final String KEPT = "kept";
+
+	private static MysqlDataSource database;
+	private static LocalContainerEntityManagerFactoryBean factoryBean;
+
+	@BeforeClass
+	public static void createSchema() throws SQLException {
+		database = TestDatabase.mysql();
+		Assume.assumeTrue("No scratch MySQL database is configured.", database != null);
+		factoryBean = TestDatabase.createMysqlSchema(database);
+	}
+
+	@AfterClass
+	public static void closeDatabase() {
+		if (factoryBean != null) {
+			factoryBean.destroy();
+		}
+	}
+
+	@Test
+	public void testKeptAuthorKeepsItsSources() {
+		EntityManagerFactory emf = factoryBean.getObject();
+		EntityManager entityManager = emf.createEntityManager();
+		long keptAuthorId, purgedAuthorId, purgedContributionId, purgedContentId, keptContributionId, keptContentId, aggregateId;
+		try {
+			entityManager.getTransaction().begin();
+			//the author of a purged and a kept content, with a source in each dataset
+			DataSourceAggregate aggregate = new DataSourceAggregate();
+			entityManager.persist(aggregate);
+			DataSourceInstance purgedSource = new DataSourceInstance("author", "user", DataSourceTypes.EDX, PURGED);
+			purgedSource.setSourceAggregate(aggregate);
+			entityManager.persist(purgedSource);
+			User keptAuthor = user("author", KEPT);
+			keptAuthor.setDataSourceAggregate(aggregate);
+			entityManager.persist(keptAuthor);
+			//the author of purged contents only
+			User purgedAuthor = user("other author", PURGED);
+			entityManager.persist(purgedAuthor);
+
+			Contribution purgedContribution = contribution("purged contribution", PURGED, keptAuthor);
+			entityManager.persist(purgedContribution);
+			Contribution keptContribution = contribution("kept contribution", KEPT, keptAuthor);
+			entityManager.persist(keptContribution);
+			entityManager.persist(contribution("other contribution", PURGED, purgedAuthor));
+			entityManager.getTransaction().commit();
+
+			keptAuthorId = keptAuthor.getId();
+			purgedAuthorId = purgedAuthor.getId();
+			purgedContributionId = purgedContribution.getId();
+			purgedContentId = purgedContribution.getCurrentRevision().getId();
+			keptContributionId = keptContribution.getId();
+			keptContentId = keptContribution.getCurrentRevision().getId();
+			aggregateId = aggregate.getId();
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+
+		PurgeReport report = purgeService(database, emf).purgeDataset(PURGED);
+		assertEquals(Long.valueOf(2), report.getDeletedRows().get("contribution"));
+
+		entityManager = emf.createEntityManager();
+		try {
+			assertNull(entityManager.find(Contribution.class, purgedContributionId));
+			assertNull(entityManager.find(Content.class, purgedContentId));
+			assertNull(entityManager.find(User.class, purgedAuthorId));
+			assertNotNull(entityManager.find(Contribution.class, keptContributionId));
+			assertNotNull(entityManager.find(Content.class, keptContentId));
+			User keptAuthor = entityManager.find(User.class, keptAuthorId);
+			assertNotNull(keptAuthor);
+			assertEquals(Long.valueOf(aggregateId), keptAuthor.getDataSourceAggregate().getId());
+			assertEquals(1, keptAuthor.getDataSourceAggregate().getSources().size());
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	private static PurgeService purgeService(DataSource dataSource, EntityManagerFactory emf) {
+		return new PurgeService(dataSource, emf, new DataSourceCache(100), new ImportedSourceFilter(dataSource, false, 0.01),
+				new UserCache(100), new DiscourseRegistry(100), new RevisionTextCache(100));
+	}
+
+	private static User user(String sourceId, String dataset) {
+		User user = new User();
+		user.setUsername(sourceId);
+		user.setPrimarySource(new PrimarySource(new DataSourceInstance(sourceId, "user", DataSourceTypes.EDX, dataset)));
+		return user;
+	}
+
+	private static Contribution contribution(String sourceId, String dataset, User author) {
+		Content content = new Content();
+		content.setText(sourceId);
+		content.setAuthor(author);
+		content.setPrimarySource(new PrimarySource(new DataSourceInstance(sourceId, "content", DataSourceTypes.EDX, dataset)));
+		Contribution contribution = new Contribution();
+		contribution.setFirstRevision(content);
+		contribution.setCurrentRevision(content);
+		contribution.setPrimarySource(new PrimarySource(new DataSourceInstance(sourceId, "contribution", DataSourceTypes.EDX, dataset)));
+		return contribution;
+	}
+
+}
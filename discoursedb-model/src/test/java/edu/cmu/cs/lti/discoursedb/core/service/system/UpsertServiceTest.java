@@ -0,0 +1,257 @@
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import com.mysql.jdbc.jdbc2.optional.MysqlDataSource;
+
+import edu.cmu.cs.lti.discoursedb.core.TestDatabase;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseRelation;
+import edu.cmu.cs.lti.discoursedb.core.type.DiscourseRelationTypes;
+
+/**
+ * Runs upserts of the same keys from parallel writers and checks that all
+ * writers receive the same row and that no duplicates are inserted.<br/>
+ *
+ * The conditional insert is checked with an in-memory H2 database. The
+ * <code>INSERT ... ON DUPLICATE KEY UPDATE</code> statement is only checked if
+ * the system property discoursedb.test.mysql.url (and optionally
+ * discoursedb.test.mysql.user and discoursedb.test.mysql.password) points to a
+ * scratch MySQL database. All DiscourseDB tables in that database are dropped
+ * and recreated.
+ */
+public class UpsertServiceTest {
+
+	private static final int WRITERS = 4;
+	private static final int ROUNDS = 50;
+
+	/**
+	 * Makes the conditional inserts skip their existence check, as if a parallel writer had inserted the key after the check
+	 */
+	private static volatile boolean skipExistenceCheck = false;
+
+	private static JdbcDataSource database;
+	private static LocalContainerEntityManagerFactoryBean factoryBean;
+
+	@BeforeClass
+	public static void createSchema() throws SQLException {
+		database = TestDatabase.create("discoursedb_upsert");
+		factoryBean = TestDatabase.createSchema(database, racingDataSource(database));
+	}
+
+	@AfterClass
+	public static void closeDatabase() {
+		if (factoryBean != null) {
+			factoryBean.destroy();
+		}
+	}
+
+	@Test
+	public void testInsertIfNotExists() throws Exception {
+		assertExistingRow(database, factoryBean.getObject());
+		assertParallelWriters(database, factoryBean.getObject());
+	}
+
+	@Test
+	public void testKeyInsertedAfterCheck() throws Exception {
+		List<Contribution> contributions = persistContributions(factoryBean.getObject(), 2);
+		Upsert<DiscourseRelation> upsert = new Upsert<>(DiscourseRelation.class)
+				.key("fk_source", contributions.get(0))
+				.key("fk_target", contributions.get(1))
+				.key("type", DiscourseRelationTypes.COMMENT.name());
+		Long first = upsertInTransaction(factoryBean.getObject(), upsert, 0);
+		skipExistenceCheck = true;
+		try {
+			//the unique constraint rejects the insert and the existing row is selected
+			assertEquals(first, upsertInTransaction(factoryBean.getObject(), upsert, 0));
+		} finally {
+			skipExistenceCheck = false;
+		}
+		assertEquals(1, countRelations(database, contributions.get(0)));
+	}
+
+	@Test
+	public void testInsertOnDuplicateKey() throws Exception {
+		MysqlDataSource mysql = TestDatabase.mysql();
+		Assume.assumeTrue("No scratch MySQL database is configured.", mysql != null);
+		LocalContainerEntityManagerFactoryBean mysqlFactoryBean = TestDatabase.createMysqlSchema(mysql);
+		try {
+			assertExistingRow(mysql, mysqlFactoryBean.getObject());
+			assertParallelWriters(mysql, mysqlFactoryBean.getObject());
+		} finally {
+			mysqlFactoryBean.destroy();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullKey() {
+		EntityManager entityManager = factoryBean.getObject().createEntityManager();
+		try {
+			new UpsertService(entityManager).upsert(new Upsert<>(DiscourseRelation.class)
+					.key("fk_source", null)
+					.key("fk_target", null)
+					.key("type", DiscourseRelationTypes.REPLY.name()));
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	private static void assertExistingRow(DataSource dataSource, EntityManagerFactory emf) throws InterruptedException {
+		List<Contribution> contributions = persistContributions(emf, 2);
+		Upsert<DiscourseRelation> upsert = new Upsert<>(DiscourseRelation.class)
+				.key("fk_source", contributions.get(0))
+				.key("fk_target", contributions.get(1))
+				.key("type", DiscourseRelationTypes.REPLY.name());
+		Long first = upsertInTransaction(emf, upsert, 0);
+		Long second = upsertInTransaction(emf, upsert, 0);
+		assertEquals(first, second);
+		assertEquals(1, countRelations(dataSource, contributions.get(0)));
+	}
+
+	private static void assertParallelWriters(DataSource dataSource, EntityManagerFactory emf) throws Exception {
+		List<Contribution> contributions = persistContributions(emf, ROUNDS + 1);
+		Contribution source = contributions.get(0);
+		CyclicBarrier barrier = new CyclicBarrier(WRITERS);
+		Callable<List<Long>> writer = () -> {
+			List<Long> ids = new ArrayList<>();
+			for (int round = 0; round < ROUNDS; round++) {
+				//all writers upsert the relation of a round at the same time
+				barrier.await(30, TimeUnit.SECONDS);
+				ids.add(upsertInTransaction(emf, new Upsert<>(DiscourseRelation.class)
+						.key("fk_source", source)
+						.key("fk_target", contributions.get(round + 1))
+						.key("type", DiscourseRelationTypes.REPLY.name()), 20));
+			}
+			return ids;
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+		try {
+			List<Future<List<Long>>> results = new ArrayList<>();
+			for (int i = 0; i < WRITERS; i++) {
+				results.add(executor.submit(writer));
+			}
+			List<Long> ids = results.get(0).get();
+			for (Future<List<Long>> result : results) {
+				assertEquals(ids, result.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(ROUNDS, countRelations(dataSource, source));
+	}
+
+	private static Long upsertInTransaction(EntityManagerFactory emf, Upsert<DiscourseRelation> upsert, long commitDelay) throws InterruptedException {
+		EntityManager entityManager = emf.createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			Long id = new UpsertService(entityManager).upsert(upsert).getId();
+			//keeps the row uncommitted while the other writers upsert the same key
+			Thread.sleep(commitDelay);
+			entityManager.getTransaction().commit();
+			return id;
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+	}
+
+	private static List<Contribution> persistContributions(EntityManagerFactory emf, int count) {
+		EntityManager entityManager = emf.createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			List<Contribution> contributions = new ArrayList<>();
+			for (int i = 0; i < count; i++) {
+				Contribution contribution = new Contribution();
+				entityManager.persist(contribution);
+				contributions.add(contribution);
+			}
+			entityManager.getTransaction().commit();
+			return contributions;
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+	}
+
+	private static int countRelations(DataSource dataSource, Contribution source) {
+		try (Connection con = dataSource.getConnection();
+				PreparedStatement stmt = con.prepareStatement("SELECT COUNT(*) FROM discourse_relation WHERE fk_source = ?")) {
+			stmt.setLong(1, source.getId());
+			try (ResultSet rs = stmt.executeQuery()) {
+				rs.next();
+				return rs.getInt(1);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static DataSource racingDataSource(DataSource target) {
+		return proxy(DataSource.class, target, (method, args) -> {
+			if (method.getName().equals("getConnection")) {
+				return proxy(Connection.class, (Connection) method.invoke(target, args), (conMethod, conArgs) -> {
+					if (skipExistenceCheck && conMethod.getName().equals("prepareStatement") && conArgs[0] instanceof String) {
+						//the subquery keeps its parameters, but never finds a row
+						conArgs[0] = ((String) conArgs[0]).replace("WHERE NOT EXISTS (SELECT 1 FROM discourse_relation WHERE ",
+								"WHERE NOT EXISTS (SELECT 1 FROM discourse_relation WHERE 1 = 0 AND ");
+					}
+					return null;
+				});
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Lets the handler adjust the arguments of a call before it is passed on to the target.
+	 * A handler returns a replacement for the result of the call or null to keep the result.
+	 */
+	private static <T> T proxy(Class<T> type, T target, Handler handler) {
+		return type.cast(Proxy.newProxyInstance(UpsertServiceTest.class.getClassLoader(), new Class<?>[] { type }, (p, method, args) -> {
+			try {
+				Object replacement = handler.handle(method, args);
+				return replacement != null ? replacement : method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}));
+	}
+
+	@FunctionalInterface
+	private interface Handler {
+		Object handle(Method method, Object[] args) throws Exception;
+	}
+
+}